@@ -953,6 +953,7 @@ public class GenomeAnalysisEngine {
                 samReaderIDs,
                 threadAllocation,
                 argCollection.numberOfBAMFileHandles,
+                argCollection.memoryMapBAMFiles,
                 genomeLocParser,
                 argCollection.useOriginalBaseQualities,
                 argCollection.strictnessLevel,
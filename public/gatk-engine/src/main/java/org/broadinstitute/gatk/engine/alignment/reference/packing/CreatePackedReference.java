@@ -0,0 +1,189 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.alignment.reference.packing;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import org.broadinstitute.gatk.engine.datasources.reference.PackedReferenceSequenceFile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generate a packed reference, as read by PackedReferenceSequenceFile, from a given reference.
+ *
+ * @version 0.1
+ */
+public class CreatePackedReference {
+    public static void main( String argv[] ) throws IOException {
+        if( argv.length < 1 || argv.length > 2 ) {
+            System.out.println("USAGE: CreatePackedReference <input>.fasta [<output>" + PackedReferenceSequenceFile.PACKED_REFERENCE_EXTENSION + "]");
+            return;
+        }
+
+        final File fasta = new File(argv[0]);
+        final File output = argv.length == 2 ? new File(argv[1]) : PackedReferenceSequenceFile.getPackedReferenceFile(fasta);
+        writePackedReference(ReferenceSequenceFileFactory.getReferenceSequenceFile(fasta), output);
+    }
+
+    /**
+     * Pack all of the contigs of reference into output
+     *
+     * @param reference the reference to pack, whose bases must be in their original case
+     * @param output the packed reference to write
+     * @throws IOException If there's a problem writing to the output file.
+     */
+    public static void writePackedReference( final ReferenceSequenceFile reference, final File output ) throws IOException {
+        // read the contigs first if the reference has no dictionary, as we need one for the header
+        final List<ReferenceSequence> unindexedContigs = new ArrayList<>();
+        SAMSequenceDictionary dictionary = reference.getSequenceDictionary();
+        if ( dictionary == null ) {
+            dictionary = new SAMSequenceDictionary();
+            reference.reset();
+            for ( ReferenceSequence contig = reference.nextSequence(); contig != null; contig = reference.nextSequence() ) {
+                unindexedContigs.add(contig);
+                dictionary.addSequence(new SAMSequenceRecord(contig.getName(), contig.length()));
+            }
+        }
+
+        final SAMFileHeader header = new SAMFileHeader();
+        header.setSequenceDictionary(dictionary);
+        final StringWriter headerText = new StringWriter();
+        new SAMTextHeaderCodec().encode(headerText, header);
+        final byte[] headerBytes = headerText.toString().getBytes(StandardCharsets.UTF_8);
+
+        final int nContigs = dictionary.size();
+        final long tableOffset = PackedReferenceSequenceFile.MAGIC.length + 8 + headerBytes.length;
+        final ByteBuffer table = ByteBuffer.allocate(PackedReferenceSequenceFile.CONTIG_ENTRY_SIZE * nContigs);
+
+        try ( final FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) ) {
+            final ByteBuffer preamble = ByteBuffer.allocate(PackedReferenceSequenceFile.MAGIC.length + 8);
+            preamble.put(PackedReferenceSequenceFile.MAGIC).putInt(PackedReferenceSequenceFile.VERSION).putInt(headerBytes.length);
+            preamble.flip();
+            channel.write(preamble);
+            channel.write(ByteBuffer.wrap(headerBytes));
+
+            // the table is filled in once we know where everything is
+            channel.position(tableOffset + table.capacity());
+
+            for ( int contigIndex = 0; contigIndex < nContigs; contigIndex++ ) {
+                final SAMSequenceRecord contigInfo = dictionary.getSequence(contigIndex);
+                final byte[] bases = unindexedContigs.isEmpty() ?
+                        reference.getSubsequenceAt(contigInfo.getSequenceName(), 1, contigInfo.getSequenceLength()).getBases() :
+                        unindexedContigs.get(contigIndex).getBases();
+
+                final PackedContig packed = new PackedContig(bases);
+                table.putLong(channel.position());
+                writeFully(channel, ByteBuffer.wrap(packed.packedBases));
+                table.putLong(channel.position());
+                writeFully(channel, packed.exceptions);
+                table.putLong(channel.position());
+                writeFully(channel, packed.caseMask);
+                table.putInt(packed.nExceptionRuns);
+                table.putInt(packed.nCaseRuns);
+            }
+
+            table.flip();
+            channel.position(tableOffset);
+            writeFully(channel, table);
+        }
+    }
+
+    private static void writeFully( final FileChannel channel, final ByteBuffer buffer ) throws IOException {
+        while ( buffer.hasRemaining() )
+            channel.write(buffer);
+    }
+
+    /**
+     * The packed bases of a single contig, with their exceptions and case mask
+     */
+    private static class PackedContig {
+        final byte[] packedBases;
+        final ByteBuffer exceptions;
+        final ByteBuffer caseMask;
+        int nExceptionRuns = 0;
+        int nCaseRuns = 0;
+
+        PackedContig( final byte[] bases ) {
+            packedBases = new byte[(bases.length + PackedReferenceSequenceFile.BASES_PER_BYTE - 1) / PackedReferenceSequenceFile.BASES_PER_BYTE];
+            final ByteArrayOutputStream exceptionRuns = new ByteArrayOutputStream();
+            final ByteArrayOutputStream caseRuns = new ByteArrayOutputStream();
+            final DataOutputStream exceptionsOut = new DataOutputStream(exceptionRuns);
+            final DataOutputStream caseOut = new DataOutputStream(caseRuns);
+
+            try {
+                int exceptionStart = -1, caseStart = -1;
+                for ( int pos = 0; pos <= bases.length; pos++ ) {
+                    final byte base = pos < bases.length ? bases[pos] : 0;
+                    final boolean isLowerCase = base >= 'a' && base <= 'z';
+                    final byte upperCase = isLowerCase ? (byte)(base - 'a' + 'A') : base;
+                    final boolean isException = pos < bases.length && upperCase != 'A' && upperCase != 'C' && upperCase != 'G' && upperCase != 'T';
+
+                    // close off the current runs, if this base isn't part of them
+                    if ( exceptionStart >= 0 && ( ! isException || base != bases[exceptionStart] ) ) {
+                        exceptionsOut.writeInt(exceptionStart);
+                        exceptionsOut.writeInt(pos - exceptionStart);
+                        exceptionsOut.writeByte(bases[exceptionStart]);
+                        nExceptionRuns++;
+                        exceptionStart = -1;
+                    }
+                    if ( caseStart >= 0 && ( ! isLowerCase || isException ) ) {
+                        caseOut.writeInt(caseStart);
+                        caseOut.writeInt(pos - caseStart);
+                        nCaseRuns++;
+                        caseStart = -1;
+                    }
+                    if ( pos == bases.length )
+                        break;
+
+                    if ( isException ) {
+                        if ( exceptionStart < 0 ) exceptionStart = pos;
+                    } else {
+                        if ( isLowerCase && caseStart < 0 ) caseStart = pos;
+                        final int packedByte = pos / PackedReferenceSequenceFile.BASES_PER_BYTE;
+                        final int shift = PackUtils.BITS_PER_BYTE - PackUtils.BITS_PER_BASE * (pos % PackedReferenceSequenceFile.BASES_PER_BYTE + 1);
+                        packedBases[packedByte] |= PackUtils.packBase(upperCase) << shift;
+                    }
+                }
+            } catch ( IOException e ) {
+                throw new IllegalStateException("Writing to a ByteArrayOutputStream cannot fail", e);
+            }
+
+            exceptions = ByteBuffer.wrap(exceptionRuns.toByteArray());
+            caseMask = ByteBuffer.wrap(caseRuns.toByteArray());
+        }
+    }
+}
@@ -506,6 +506,24 @@ public class GATKArgumentCollection {
     @Argument(fullName="num_cpu_threads_per_data_thread", shortName = "nct", doc="Number of CPU threads to allocate per data thread", required = false, minValue = 1)
     public int numberOfCPUThreadsPerDataThread = 1;
 
+    /**
+     * With -nct, have the CPU threads take reads or loci in batches, sized on the fly by how long the walker's map
+     * takes, instead of one at a time.  This helps walkers whose map function is so cheap that handing inputs
+     * to threads one by one costs more than the map itself.
+     */
+    @Argument(fullName="nano_adaptive_batching", shortName = "nab", doc="With -nct, hand inputs to CPU threads in batches sized by the measured cost of map", required = false)
+    @Hidden
+    public boolean nanoSchedulerAdaptiveBatching = false;
+
+    /**
+     * With -nct, run the CPU threads of all data threads on a single fork/join pool, instead of giving each data
+     * thread its own pool of -nct threads.  The pool has nt * (nct - 1) threads, since each data thread does
+     * its share of the CPU work itself, so the GATK never runs more than nt * nct threads doing CPU work at once.
+     */
+    @Argument(fullName="shared_cpu_executor", shortName = "sharedExec", doc="With -nct, run the CPU threads of all data threads on one shared pool", required = false)
+    @Hidden
+    public boolean sharedCPUExecutor = false;
+
     @Argument(fullName="num_io_threads", shortName = "nit", doc="Number of given threads to allocate to BAM IO", required = false, minValue = 0)
     @Hidden
     public int numberOfIOThreads = 0;
@@ -521,6 +539,31 @@ public class GATKArgumentCollection {
     @Argument(fullName = "num_bam_file_handles", shortName = "bfh", doc="When using IO threads, total number of BAM file handles to keep open simultaneously", required=false, minValue = 1)
     @Hidden
     public Integer numberOfBAMFileHandles = null;
+
+    /**
+     * When using IO threads, read compressed BAM blocks from memory mappings of the BAM files instead of through
+     * file handles.  This avoids a system call and a copy per block, and is mostly worthwhile on fast local disks.
+     */
+    @Argument(fullName = "memory_map_bam_files", shortName = "mmapbam", doc="When using IO threads, memory-map the BAM files instead of reading them through file handles", required=false)
+    @Hidden
+    public boolean memoryMapBAMFiles = false;
+
+    /**
+     * With -nt, schedule shard traversals and the tree reduces that depend on them as dependent tasks on a
+     * fork/join pool instead of polling a fixed queue of traversals, reduces and output merges.
+     */
+    @Argument(fullName = "fork_join_scheduler", shortName = "fjs", doc="With -nt, schedule shard traversals and tree reduces as dependent tasks on a fork/join pool", required=false)
+    @Hidden
+    public boolean forkJoinScheduler = false;
+
+    /**
+     * With the fork/join scheduler, stop starting new shards while the temporary output of completed shards waiting
+     * to be merged (in order) into the final outputs exceeds this many megabytes.
+     */
+    @Argument(fullName = "max_outstanding_output_mb", shortName = "maxOutputMB", doc="With the fork/join scheduler, maximum megabytes of temporary shard output waiting to be merged", required=false, minValue = 0)
+    @Hidden
+    public int maxOutstandingOutputMB = 1024;
+
     /**
      * This will filter out read groups matching <TAG>:<STRING> (e.g. SM:sample1) or a .txt file containing the filter strings one per line.
      */
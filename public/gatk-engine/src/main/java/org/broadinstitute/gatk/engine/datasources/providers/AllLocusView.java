@@ -26,7 +26,7 @@
 package org.broadinstitute.gatk.engine.datasources.providers;
 
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
-import org.broadinstitute.gatk.engine.iterators.GenomeLocusIterator;
+import org.broadinstitute.gatk.utils.GenomeCoordinate;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.pileup.ReadBackedPileupImpl;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -52,13 +52,20 @@ import java.util.NoSuchElementException;
  */
 
 public class AllLocusView extends LocusView {
-    private GenomeLocusIterator locusIterator;
+    /**
+     * The contig of the locus being traversed, and the first position in it not yet handed out as nextPosition.
+     * Positions are tracked as packed coordinates so that no GenomeLoc is created for covered positions.
+     */
+    private final int contigIndex;
+    private int positionToVisit;
+    private final int lastPosition;
 
     /**
      * Gets the next position in the view: next call to next() will jump there.
      * Note that both nextPosition and nextLocus are PRE-read and cached.
+     * A GenomeCoordinate, or GenomeCoordinate.NO_COORDINATE if there's no next position.
      */
-    private GenomeLoc nextPosition = null;
+    private long nextPosition = GenomeCoordinate.NO_COORDINATE;
 
     /**
      * What's the next available context?
@@ -78,18 +85,21 @@ public class AllLocusView extends LocusView {
     public AllLocusView(LocusShardDataProvider provider) {
         super(provider);
         // Seed the state tracking members with the first possible seek position and the first possible locus context.
-        locusIterator = new GenomeLocusIterator(genomeLocParser, provider.getLocus());
+        final GenomeLoc locus = provider.getLocus();
+        contigIndex = locus.getContigIndex();
+        positionToVisit = locus.getStart();
+        lastPosition = locus.getStop();
     }
 
     public boolean hasNext() {
         advance();
-        return nextPosition != null;
+        return nextPosition != GenomeCoordinate.NO_COORDINATE;
     }
 
     public AlignmentContext next() {
         advance();
 
-        if (nextPosition == null)
+        if (nextPosition == GenomeCoordinate.NO_COORDINATE)
             throw new NoSuchElementException("No next is available in the all locus view");
 
         // Flag to the iterator that no data is waiting in the queue to be processed.
@@ -98,10 +108,10 @@ public class AllLocusView extends LocusView {
         AlignmentContext currentLocus;
 
         // If actual data is present, return it.  Otherwise, return empty data.
-        if (nextLocus != null && nextLocus.getLocation().equals(nextPosition))
+        if (nextLocus != null && nextLocus.getGenomeCoordinate() == nextPosition)
             currentLocus = nextLocus;
         else
-            currentLocus = createEmptyLocus(nextPosition);
+            currentLocus = createEmptyLocus(genomeLocParser.createGenomeLoc(nextPosition));
 
         return currentLocus;
     }
@@ -112,11 +122,11 @@ public class AllLocusView extends LocusView {
             return;
 
         // Out of elements?
-        if (nextPosition == null && !locusIterator.hasNext())
+        if (nextPosition == GenomeCoordinate.NO_COORDINATE && positionToVisit > lastPosition)
             return;
 
         // If nextLocus has been consumed, clear it out to make room for the next incoming locus.
-        if (nextPosition != null && nextLocus != null && !nextLocus.getLocation().isPast(nextPosition)) {
+        if (nextPosition != GenomeCoordinate.NO_COORDINATE && nextLocus != null && nextLocus.getGenomeCoordinate() <= nextPosition) {
             nextLocus = null;
 
             // Determine the next locus. The trick is that we may have more than one alignment context at the same
@@ -126,7 +136,7 @@ public class AllLocusView extends LocusView {
             // position
             if (hasNextLocus()) {
                 nextLocus = nextLocus();
-                if (nextPosition.equals(nextLocus.getLocation())) {
+                if (nextPosition == nextLocus.getGenomeCoordinate()) {
                     atNextElement = true;
                     return;
                 }
@@ -134,18 +144,18 @@ public class AllLocusView extends LocusView {
         }
 
         // No elements left in queue?  Clear out the position state tracker and return.
-        if (!locusIterator.hasNext()) {
-            nextPosition = null;
+        if (positionToVisit > lastPosition) {
+            nextPosition = GenomeCoordinate.NO_COORDINATE;
             return;
         }
 
         // Actually fill the next position.
-        nextPosition = locusIterator.next();
+        nextPosition = GenomeCoordinate.encode(contigIndex, positionToVisit++);
         atNextElement = true;
 
         // Crank the iterator to (if possible) or past the next context.  Be careful not to hold a reference to nextLocus
         // while using the hasNextLocus() / nextLocus() machinery; this will cause us to use more memory than is optimal. 
-        while (nextLocus == null || nextLocus.getLocation().isBefore(nextPosition)) {
+        while (nextLocus == null || nextLocus.getGenomeCoordinate() < nextPosition) {
             nextLocus = null;
             if (!hasNextLocus())
                 break;
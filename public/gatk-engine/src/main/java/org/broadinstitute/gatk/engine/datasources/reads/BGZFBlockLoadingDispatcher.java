@@ -25,17 +25,30 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
-import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
 
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Preloads BGZF blocks in preparation for unzipping and data processing.
- * TODO: Right now, the block loader has all threads blocked waiting for a work request.  Ultimately this should
- * TODO: be replaced with a central thread management strategy.
+ *
+ * Work requests are kept in one lock-free queue per file.  Each block loader prefers the file it served last, so
+ * that it keeps reusing a warm file handle, and steals from the other files' queues when its own file has no work.
+ * Neither queueing nor claiming a request takes a lock.  Idle loaders park on a semaphore counting the outstanding
+ * requests, and a loader holding a permit polls the queues until it finds one.
+ *
+ * Each BlockInputStream has at most one outstanding request, so the queues are bounded by the number of open streams.
  */
 public class BGZFBlockLoadingDispatcher {
     /**
@@ -45,14 +58,57 @@ public class BGZFBlockLoadingDispatcher {
 
     private final ExecutorService threadPool;
 
-    private final Queue<BAMAccessPlan> inputQueue;
+    /**
+     * Buffers for decompressed blocks.  Each loader holds at most one at a time.
+     */
+    private final BGZFBufferPool bufferPool;
+
+    /**
+     * Memory mappings of the files being read, or null if blocks are read through the file handle cache.
+     */
+    private final ConcurrentMap<SAMReaderID,MappedBGZFFile> mappedFiles;
+
+    /**
+     * Pending work requests, by file.
+     */
+    private final ConcurrentMap<SAMReaderID,Queue<BAMAccessPlan>> inputQueuesByReader = new ConcurrentHashMap<SAMReaderID,Queue<BAMAccessPlan>>();
+
+    /**
+     * The same queues as above, in creation order, so that loaders can scan them when stealing work.  A queue is
+     * added here before it's added to inputQueuesByReader, so any request that has been queued can be found.
+     */
+    private final List<Queue<BAMAccessPlan>> inputQueues = new CopyOnWriteArrayList<Queue<BAMAccessPlan>>();
+
+    /**
+     * One permit per queued work request that has not yet been claimed.
+     */
+    private final Semaphore pendingRequests = new Semaphore(0);
+
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+    private final LongAdder blocksLoaded = new LongAdder();
+    private final LongAdder compressedBytesLoaded = new LongAdder();
+    private final LongAdder uncompressedBytesLoaded = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
 
     public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles) {
-        threadPool = Executors.newFixedThreadPool(numThreads);
+        this(numThreads,numFileHandles,false);
+    }
+
+    /**
+     * Create a new dispatcher.
+     * @param numThreads number of block loader threads.
+     * @param numFileHandles number of file handles to keep open at once.
+     * @param memoryMapFiles if true, blocks are read from memory mappings of the files instead of through file handles.
+     */
+    public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles, final boolean memoryMapFiles) {
         fileHandleCache = new FileHandleCache(numFileHandles);
-        inputQueue = new LinkedList<BAMAccessPlan>();
+        bufferPool = new BGZFBufferPool(numThreads);
+        mappedFiles = memoryMapFiles ? new ConcurrentHashMap<SAMReaderID,MappedBGZFFile>() : null;
+        threadPool = Executors.newFixedThreadPool(numThreads, new BlockLoaderThreadFactory());
 
-        threadPool.execute(new BlockLoader(this,fileHandleCache,true));
+        for(int i = 0; i < numThreads; i++)
+            threadPool.execute(new BlockLoader(this,fileHandleCache,true,i));
     }
 
     /**
@@ -60,27 +116,151 @@ public class BGZFBlockLoadingDispatcher {
       * @param readerPosition Position at which to load.
      */
     void queueBlockLoad(final BAMAccessPlan readerPosition) {
-        synchronized(inputQueue) {
-            inputQueue.add(readerPosition);
-            inputQueue.notify();
-        }
+        getInputQueue(readerPosition.getReader()).add(readerPosition);
+
+        // Only count the request once it's in its queue, so that every counted request can be found.
+        pendingRequests.release();
+
+        final int queueDepth = pendingRequests.availablePermits();
+        if(queueDepth > peakQueueDepth.get())
+            peakQueueDepth.accumulateAndGet(queueDepth,Math::max);
     }
 
     /**
-     * Claims the next work request from the queue.
-     * @return The next work request, or null if none is available.
+     * Claims the next work request, waiting until one is available.
+     * @param loaderIndex index of the calling loader, used to spread the work stealing scans across the files.
+     * @param preferredReader the file to take work from if it has any, or null for no preference.
+     * @return The next work request, or null if the dispatcher has been shut down.
      */
-    BAMAccessPlan claimNextWorkRequest() {
-        synchronized(inputQueue) {
-            while(inputQueue.isEmpty()) {
-                try {
-                    inputQueue.wait();
-                }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupt occurred waiting for next block reader work item");
-                }
+    BAMAccessPlan claimNextWorkRequest(final int loaderIndex, final SAMReaderID preferredReader) {
+        try {
+            pendingRequests.acquire();
+        }
+        catch(InterruptedException ex) {
+            // Loaders are only interrupted when the dispatcher shuts down.
+            return null;
+        }
+
+        if(preferredReader != null) {
+            final Queue<BAMAccessPlan> preferredQueue = inputQueuesByReader.get(preferredReader);
+            final BAMAccessPlan accessPlan = preferredQueue != null ? preferredQueue.poll() : null;
+            if(accessPlan != null)
+                return accessPlan;
+        }
+
+        // The permit guarantees a queued request for this loader, but while a scan passes over the queues another
+        // loader may take the request this one would have found, leaving one behind it in a queue already scanned.
+        // That loader has then been served, so scanning again always finds a request.
+        for(;;) {
+            final int queueCount = inputQueues.size();
+            for(int i = 0; i < queueCount; i++) {
+                final BAMAccessPlan accessPlan = inputQueues.get((loaderIndex + i) % queueCount).poll();
+                if(accessPlan != null)
+                    return accessPlan;
             }
-            return inputQueue.poll();
+        }
+    }
+
+    /**
+     * Gets the memory mapping of the given file, mapping it on first use.
+     * @param reader the file to read.
+     * @return the mapping, or null if this dispatcher reads through file handles.
+     */
+    MappedBGZFFile getMappedFile(final SAMReaderID reader) {
+        return mappedFiles != null ? mappedFiles.computeIfAbsent(reader,MappedBGZFFile::new) : null;
+    }
+
+    BGZFBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Records the completion of a block load.
+     * @param compressedBytes size of the block as read from disk.
+     * @param uncompressedBytes size of the block after decompression.
+     * @param nanos time spent decompressing the block.
+     */
+    void recordBlockLoad(final int compressedBytes, final int uncompressedBytes, final long nanos) {
+        blocksLoaded.increment();
+        compressedBytesLoaded.add(compressedBytes);
+        uncompressedBytesLoaded.add(uncompressedBytes);
+        decompressionNanos.add(nanos);
+    }
+
+    /**
+     * Gets the number of work requests waiting for a block loader.
+     * @return a non-negative count.
+     */
+    public int getQueueDepth() {
+        return pendingRequests.availablePermits();
+    }
+
+    /**
+     * Gets the largest number of work requests that have been waiting for a block loader at once.
+     * @return a non-negative count.
+     */
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    public long getBlocksLoaded() {
+        return blocksLoaded.sum();
+    }
+
+    public long getCompressedBytesLoaded() {
+        return compressedBytesLoaded.sum();
+    }
+
+    public long getUncompressedBytesLoaded() {
+        return uncompressedBytesLoaded.sum();
+    }
+
+    /**
+     * Gets the decompression throughput, in uncompressed bytes per second of time spent inflating, summed over all loaders.
+     * @return the throughput, or 0 if nothing has been decompressed yet.
+     */
+    public double getDecompressionThroughput() {
+        final long nanos = decompressionNanos.sum();
+        return nanos == 0 ? 0.0 : uncompressedBytesLoaded.sum() * 1e9 / nanos;
+    }
+
+    /**
+     * Gets the fraction of decompression buffers that were reused rather than allocated.
+     * @return the hit rate in [0,1].
+     */
+    public double getBufferPoolHitRate() {
+        return bufferPool.getHitRate();
+    }
+
+    /**
+     * Stops all block loaders.  Any request still queued will never be served.
+     */
+    public void shutdown() {
+        threadPool.shutdownNow();
+    }
+
+    private Queue<BAMAccessPlan> getInputQueue(final SAMReaderID reader) {
+        final Queue<BAMAccessPlan> inputQueue = inputQueuesByReader.get(reader);
+        if(inputQueue != null)
+            return inputQueue;
+        // Only the first request for a file gets here.  The new queue is scannable before it can be looked up.
+        return inputQueuesByReader.computeIfAbsent(reader,newReader -> {
+            final Queue<BAMAccessPlan> newQueue = new ConcurrentLinkedQueue<BAMAccessPlan>();
+            inputQueues.add(newQueue);
+            return newQueue;
+        });
+    }
+
+    /**
+     * Creates named daemon threads so that idle block loaders never hold up JVM exit.
+     */
+    private static class BlockLoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable,"BGZFBlockLoader-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
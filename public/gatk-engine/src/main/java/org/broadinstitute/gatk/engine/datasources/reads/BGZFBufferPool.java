@@ -0,0 +1,132 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of buffers for the uncompressed contents of BGZF blocks, plus a per-thread cache of Inflaters.
+ *
+ * Every buffer can hold the largest possible uncompressed BGZF block.  Buffers are handed out by the block loaders
+ * and given back once their contents have been copied into a BlockInputStream.  When the pool is empty a new buffer
+ * is allocated, and when it is full returned buffers are left to the garbage collector, so the pool never blocks.
+ */
+class BGZFBufferPool {
+    /**
+     * The BGZF spec limits the uncompressed contents of a block to 64 KiB, the same as the largest whole block
+     * its 16-bit BSIZE field (total block size minus 1) can describe, which htsjdk calls MAX_COMPRESSED_BLOCK_SIZE.
+     */
+    static final int BUFFER_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+
+    /**
+     * A raw deflate Inflater per thread, reset between blocks.  Inflaters hold native memory until ended, so
+     * creating one per block leaves the cleanup to finalization.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+
+    /**
+     * Maximum number of idle buffers kept in the pool.
+     */
+    private final int capacity;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Create a new pool.
+     * @param capacity maximum number of idle buffers to keep.
+     */
+    public BGZFBufferPool(final int capacity) {
+        if(capacity < 0)
+            throw new IllegalArgumentException("Pool capacity cannot be negative: " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets a buffer from the pool, allocating a new one if the pool is empty.
+     * @return a buffer of {@link #BUFFER_SIZE} bytes with unspecified contents.
+     */
+    public byte[] claimBuffer() {
+        requests.increment();
+        final byte[] buffer = buffers.poll();
+        if(buffer == null)
+            return new byte[BUFFER_SIZE];
+        size.decrementAndGet();
+        hits.increment();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.  The caller must not use it afterwards.
+     * @param buffer a buffer obtained from {@link #claimBuffer()}.
+     */
+    public void releaseBuffer(final byte[] buffer) {
+        if(buffer.length != BUFFER_SIZE)
+            throw new IllegalArgumentException("Buffer was not allocated by this pool");
+        if(size.incrementAndGet() > capacity)
+            size.decrementAndGet();
+        else
+            buffers.add(buffer);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Gets the fraction of buffer requests served from the pool rather than by allocation.
+     * @return the hit rate in [0,1], or 0 if no buffer has been requested.
+     */
+    public double getHitRate() {
+        final long requestCount = requests.sum();
+        return requestCount == 0 ? 0.0 : (double)hits.sum() / requestCount;
+    }
+
+    /**
+     * Gets the calling thread's Inflater, ready to inflate a new raw deflate stream.
+     * @return a reset Inflater, never null.
+     */
+    public static Inflater getInflater() {
+        final Inflater inflater = INFLATER.get();
+        inflater.reset();
+        return inflater;
+    }
+}
@@ -248,6 +248,7 @@ public class BlockInputStream extends InputStream {
     /**
      * Push contents of incomingBuffer into the end of this buffer.
      * MUST be called from a thread that is NOT the reader thread.
+     * The contents of incomingBuffer are copied, so the caller may reuse it as soon as this method returns.
      * @param incomingBuffer The data being pushed into this input stream.
      * @param accessPlan target access plan for the data.
      * @param filePosition the current position of the file pointer
@@ -27,6 +27,7 @@ package org.broadinstitute.gatk.engine.datasources.reads;
 
 import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -55,44 +56,90 @@ class BlockLoader implements Runnable {
      */
     private final boolean decompress;
 
+    /**
+     * Index of this loader within the dispatcher's pool.
+     */
+    private final int loaderIndex;
+
     /**
      * An direct input buffer for incoming data from disk.
      */
     private final ByteBuffer inputBuffer;
 
-    public BlockLoader(final BGZFBlockLoadingDispatcher dispatcher, final FileHandleCache fileHandleCache, final boolean decompress) {
+    /**
+     * Holds the deflated contents of the block being decompressed.
+     */
+    private final byte[] compressedContent = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+
+    public BlockLoader(final BGZFBlockLoadingDispatcher dispatcher, final FileHandleCache fileHandleCache, final boolean decompress, final int loaderIndex) {
         this.dispatcher = dispatcher;
         this.fileHandleCache = fileHandleCache;
         this.decompress = decompress;
+        this.loaderIndex = loaderIndex;
 
         this.inputBuffer = ByteBuffer.allocateDirect(64*1024 + BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length);
         inputBuffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     public void run() {
+        // The file last served by this loader; preferring it keeps its handle warm in the file handle cache.
+        SAMReaderID lastReader = null;
         for(;;) {
-            BAMAccessPlan accessPlan = null;
+            BAMAccessPlan accessPlan = dispatcher.claimNextWorkRequest(loaderIndex,lastReader);
+            if(accessPlan == null)
+                return;
+            lastReader = accessPlan.getReader();
             try {
-                accessPlan = dispatcher.claimNextWorkRequest();
-                FileInputStream inputStream = fileHandleCache.claimFileInputStream(accessPlan.getReader());
-
-                //long blockAddress = readerPosition.getBlockAddress();
-                //System.out.printf("Thread %s: BlockLoader: copying bytes from %s at position %d into %s%n",Thread.currentThread().getId(),inputStream,blockAddress,readerPosition.getInputStream());
-
-                ByteBuffer compressedBlock = readBGZFBlock(inputStream,accessPlan.getBlockAddress());
-                long nextBlockAddress = position(inputStream);
-                fileHandleCache.releaseFileInputStream(accessPlan.getReader(),inputStream);
-
+                final MappedBGZFFile mappedFile = dispatcher.getMappedFile(accessPlan.getReader());
+                ByteBuffer compressedBlock;
+                long nextBlockAddress;
+                if(mappedFile != null) {
+                    final long blockAddress = findMappedBGZFBlock(mappedFile,accessPlan.getBlockAddress());
+                    compressedBlock = sliceMappedBGZFBlock(mappedFile,blockAddress);
+                    nextBlockAddress = blockAddress + compressedBlock.remaining();
+                }
+                else {
+                    FileInputStream inputStream = fileHandleCache.claimFileInputStream(accessPlan.getReader());
+
+                    //long blockAddress = readerPosition.getBlockAddress();
+                    //System.out.printf("Thread %s: BlockLoader: copying bytes from %s at position %d into %s%n",Thread.currentThread().getId(),inputStream,blockAddress,readerPosition.getInputStream());
+
+                    // The cache caps the number of open handles, so a handle must go back to it even if the read fails.
+                    // A handle that failed a read is closed rather than reused.
+                    boolean readSucceeded = false;
+                    try {
+                        compressedBlock = readBGZFBlock(inputStream,accessPlan.getBlockAddress());
+                        nextBlockAddress = position(inputStream);
+                        readSucceeded = true;
+                    }
+                    finally {
+                        if(readSucceeded)
+                            fileHandleCache.releaseFileInputStream(accessPlan.getReader(),inputStream);
+                        else
+                            fileHandleCache.discardFileInputStream(accessPlan.getReader(),inputStream);
+                    }
+                }
+
+                final int compressedBytes = compressedBlock.remaining();
+                final long decompressionStart = System.nanoTime();
                 ByteBuffer block = decompress ? decompressBGZFBlock(compressedBlock) : compressedBlock;
                 int bytesCopied = block.remaining();
+                dispatcher.recordBlockLoad(compressedBytes,bytesCopied,System.nanoTime()-decompressionStart);
 
                 BlockInputStream bamInputStream = accessPlan.getInputStream();
-                bamInputStream.copyIntoBuffer(block,accessPlan,nextBlockAddress);
+                try {
+                    bamInputStream.copyIntoBuffer(block,accessPlan,nextBlockAddress);
+                }
+                finally {
+                    // The input stream copies the block, so the buffer can be reused straight away.
+                    if(decompress)
+                        dispatcher.getBufferPool().releaseBuffer(block.array());
+                }
 
                 //System.out.printf("Thread %s: BlockLoader: copied %d bytes from %s at position %d into %s%n",Thread.currentThread().getId(),bytesCopied,inputStream,blockAddress,readerPosition.getInputStream());
             }
             catch(Throwable error) {
-                if(accessPlan != null && accessPlan.getInputStream() != null)
+                if(accessPlan.getInputStream() != null)
                     accessPlan.getInputStream().reportException(error);
             }
         }
@@ -120,14 +167,7 @@ class BlockLoader implements Runnable {
                 throw new ReviewedGATKException("BUG: unable to read a the complete block header in one pass.");
 
             // Verify that the file was read at a valid point.
-            if(unpackUByte8(inputBuffer,0) != BlockCompressedStreamConstants.GZIP_ID1 ||
-                    unpackUByte8(inputBuffer,1) != BlockCompressedStreamConstants.GZIP_ID2 ||
-                    unpackUByte8(inputBuffer,3) != BlockCompressedStreamConstants.GZIP_FLG ||
-                    unpackUInt16(inputBuffer,10) != BlockCompressedStreamConstants.GZIP_XLEN ||
-                    unpackUByte8(inputBuffer,12) != BlockCompressedStreamConstants.BGZF_ID1 ||
-                    unpackUByte8(inputBuffer,13) != BlockCompressedStreamConstants.BGZF_ID2) {
-                throw new ReviewedGATKException("BUG: Started reading compressed block at incorrect position");
-            }
+            verifyBlockHeader(inputBuffer);
 
             inputBuffer.position(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET);
             bufferSize = unpackUInt16(inputBuffer,BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET)+1;
@@ -149,28 +189,90 @@ class BlockLoader implements Runnable {
         return inputBuffer;
     }
 
+    /**
+     * Finds the first BGZF block at or after the given address that holds data, skipping over empty blocks.
+     * @param mappedFile the file being read.
+     * @param blockAddress address of the first candidate block.
+     * @return address of the first non-empty block, or of the last block in the file if all the remaining blocks are empty.
+     */
+    private long findMappedBGZFBlock(final MappedBGZFFile mappedFile, final long blockAddress) {
+        long address = blockAddress;
+        for(;;) {
+            final ByteBuffer block = sliceMappedBGZFBlock(mappedFile,address);
+            final long nextAddress = address + block.remaining();
+            // Check the uncompressed length.  If 0 and not at EOF, we'll want to check the next block.
+            if(block.getInt(block.limit()-4) != 0 || nextAddress >= mappedFile.length())
+                return address;
+            address = nextAddress;
+        }
+    }
+
+    /**
+     * Gets the BGZF block at the given address straight out of the file mapping, without copying.
+     * @param mappedFile the file being read.
+     * @param blockAddress address of the block.
+     * @return a buffer holding exactly the block, starting at position 0.
+     */
+    private ByteBuffer sliceMappedBGZFBlock(final MappedBGZFFile mappedFile, final long blockAddress) {
+        final ByteBuffer block = mappedFile.viewAt(blockAddress);
+        if(block.remaining() < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH)
+            throw new ReviewedGATKException("BUG: unable to read a the complete block header in one pass.");
+        verifyBlockHeader(block);
+        final int blockSize = unpackUInt16(block,BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET)+1;
+        if(block.remaining() < blockSize)
+            throw new ReviewedGATKException(String.format("Truncated BGZF block at position %d",blockAddress));
+        block.limit(blockSize);
+        return block;
+    }
+
+    /**
+     * Checks that the buffer starts with a BGZF block header.
+     * @param buffer buffer whose position 0 holds the start of a block.
+     */
+    private void verifyBlockHeader(final ByteBuffer buffer) {
+        if(unpackUByte8(buffer,0) != BlockCompressedStreamConstants.GZIP_ID1 ||
+                unpackUByte8(buffer,1) != BlockCompressedStreamConstants.GZIP_ID2 ||
+                unpackUByte8(buffer,3) != BlockCompressedStreamConstants.GZIP_FLG ||
+                unpackUInt16(buffer,10) != BlockCompressedStreamConstants.GZIP_XLEN ||
+                unpackUByte8(buffer,12) != BlockCompressedStreamConstants.BGZF_ID1 ||
+                unpackUByte8(buffer,13) != BlockCompressedStreamConstants.BGZF_ID2) {
+            throw new ReviewedGATKException("BUG: Started reading compressed block at incorrect position");
+        }
+    }
+
     private ByteBuffer decompressBGZFBlock(final ByteBuffer bgzfBlock) throws DataFormatException {
         final int compressedBufferSize = bgzfBlock.remaining();
 
         // Determine the uncompressed buffer size (
         bgzfBlock.position(bgzfBlock.limit()-4);
         int uncompressedBufferSize = bgzfBlock.getInt();
-        byte[] uncompressedContent = new byte[uncompressedBufferSize];
-
-        // Bound the CDATA section of the buffer.
-        bgzfBlock.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
-        bgzfBlock.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-        byte[] compressedContent = new byte[bgzfBlock.remaining()];
-        ByteBuffer.wrap(compressedContent).put(bgzfBlock);
-
-        // Decompress the buffer.
-        final Inflater inflater = new Inflater(true);
-        inflater.setInput(compressedContent);
-        int bytesUncompressed = inflater.inflate(uncompressedContent);
-        if(bytesUncompressed != uncompressedBufferSize)
-            throw new ReviewedGATKException("Error decompressing block");
-
-        return ByteBuffer.wrap(uncompressedContent);
+        if(uncompressedBufferSize > BGZFBufferPool.BUFFER_SIZE)
+            throw new ReviewedGATKException(String.format("BGZF block claims an uncompressed size of %d bytes",uncompressedBufferSize));
+        final byte[] uncompressedContent = dispatcher.getBufferPool().claimBuffer();
+        boolean decompressed = false;
+        try {
+            // Bound the CDATA section of the buffer.
+            bgzfBlock.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+            bgzfBlock.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            // Inflater only accepts arrays, so the deflated data is copied into the reusable input array.
+            final int compressedContentSize = bgzfBlock.remaining();
+            bgzfBlock.get(compressedContent,0,compressedContentSize);
+
+            // Decompress the buffer.
+            final Inflater inflater = BGZFBufferPool.getInflater();
+            inflater.setInput(compressedContent,0,compressedContentSize);
+            int bytesUncompressed = inflater.inflate(uncompressedContent,0,uncompressedBufferSize);
+            if(bytesUncompressed != uncompressedBufferSize)
+                throw new ReviewedGATKException("Error decompressing block");
+            decompressed = true;
+        }
+        finally {
+            // Only a successfully decompressed block is handed on; otherwise the buffer goes straight back to the pool.
+            if(!decompressed)
+                dispatcher.getBufferPool().releaseBuffer(uncompressedContent);
+        }
+
+        return ByteBuffer.wrap(uncompressedContent,0,uncompressedBufferSize);
     }
 
     private long position(final FileInputStream inputStream) throws IOException {
@@ -25,78 +25,111 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
-import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.GATKException;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.sam.SAMReaderID;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Caches frequently used  file handles.  Right now, caches only a single file handle.
- * TODO: Generalize to support arbitrary file handle caches.
+ * Caches frequently used file handles, keeping at most cacheSize handles open at once across all readers,
+ * whether they're in use or idle.
+ *
+ * Idle handles are kept in a lock-free stack per reader, so that checkouts of different files never contend,
+ * and in a single deque in release order from which the least recently released handle is closed when a claim
+ * needs its slot.  A handle is owned by whichever thread first flips its claimed flag, which then removes it
+ * from the other structure.  A semaphore counts the handles not in use, idle or not yet opened, so a claim only
+ * blocks when all cacheSize handles are checked out.
  */
 public class FileHandleCache {
     /**
-     * The underlying data structure storing file handles.
+     * Idle file handles by reader, most recently released first.
      */
-    private final FileHandleStorage fileHandleStorage;
+    private final ConcurrentMap<SAMReaderID,Deque<IdleFileHandle>> idleHandlesByReader = new ConcurrentHashMap<SAMReaderID,Deque<IdleFileHandle>>();
 
     /**
-     * How many file handles should be kept open at once.
+     * Idle file handles across all readers, least recently released first.
      */
-    private final int cacheSize;
+    private final Deque<IdleFileHandle> evictionOrder = new ConcurrentLinkedDeque<IdleFileHandle>();
 
     /**
-     * A uniquifier: assign a unique ID to every instance of a file handle.
+     * How many file handles should be kept open at once.
      */
-    private final Map<SAMReaderID,Integer> keyCounter = new HashMap<SAMReaderID,Integer>();
+    private final int cacheSize;
 
     /**
-     * A shared lock, private so that outside users cannot notify it.
+     * One permit per handle that isn't checked out, either idle in the cache or not yet opened.
      */
-    private final Object lock = new Object();
+    private final Semaphore availableHandles;
 
     /**
-     * Indicates how many file handles are outstanding at this point.
+     * Indicates how many file handles, in use or idle, are open at this point.  Includes the ones being opened.
      */
-    private int numOutstandingFileHandles = 0;
+    private final AtomicInteger numOpenFileHandles = new AtomicInteger();
 
     /**
      * Create a new file handle cache of the given cache size.
      * @param cacheSize how many readers to hold open at once.
      */
     public FileHandleCache(final int cacheSize) {
+        if(cacheSize < 1)
+            throw new IllegalArgumentException("cacheSize must be at least 1 but got " + cacheSize);
         this.cacheSize = cacheSize;
-        fileHandleStorage = new FileHandleStorage();
+        this.availableHandles = new Semaphore(cacheSize);
     }
 
     /**
-     * Retrieves or opens a file handle for the given reader ID.
-     * @param key The ke
+     * Retrieves or opens a file handle for the given reader ID, waiting for one to be released if cacheSize handles are in use.
+     * @param key The reader.
      * @return A file input stream from the cache, if available, or otherwise newly opened.
      */
     public FileInputStream claimFileInputStream(final SAMReaderID key) {
-        synchronized(lock) {
-            FileInputStream inputStream = findExistingEntry(key);
-            if(inputStream == null) {
+        try {
+            availableHandles.acquire();
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while waiting for a file handle");
+        }
+
+        // The permit guarantees an idle handle or an unopened slot for this claim, though another claim may take
+        // the one seen first.  That claim has then been served, so looking again always finds another.
+        for(;;) {
+            final IdleFileHandle idleHandle = claimIdleHandle(idleHandlesByReader.get(key));
+            if(idleHandle != null) {
+                // Usually among the last few handles released, so found near the end of the deque.
+                evictionOrder.removeLastOccurrence(idleHandle);
+                return idleHandle.inputStream;
+            }
+
+            final int numOpen = numOpenFileHandles.get();
+            if(numOpen < cacheSize) {
+                if(numOpenFileHandles.compareAndSet(numOpen,numOpen+1))
+                    return openInputStream(key);
+                continue;
+            }
+
+            // Take over the slot of the least recently released handle, which is also the last one for its reader.
+            final IdleFileHandle evictedHandle = claimIdleHandle(evictionOrder);
+            if(evictedHandle != null) {
+                idleHandlesByReader.get(evictedHandle.key).removeLastOccurrence(evictedHandle);
                 try {
-                    // If the cache is maxed out, wait for another file handle to emerge.
-                    if(numOutstandingFileHandles >= cacheSize)
-                        lock.wait();
+                    closeInputStream(evictedHandle.inputStream);
                 }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupted while waiting for a file handle");
+                catch(GATKException ex) {
+                    releaseSlot();
+                    throw ex;
                 }
-                inputStream = openInputStream(key);
+                return openInputStream(key);
             }
-            numOutstandingFileHandles++;
-
-            //System.out.printf("Handing input stream %s to thread %s%n",inputStream,Thread.currentThread().getId());
-            return inputStream;
         }
     }
 
@@ -106,48 +139,61 @@ public class FileHandleCache {
      * @param inputStream The stream being used.
      */
     public void releaseFileInputStream(final SAMReaderID key, final FileInputStream inputStream) {
-        synchronized(lock) {
-            numOutstandingFileHandles--;
-            UniqueKey newID = allocateKey(key);
-            fileHandleStorage.put(newID,inputStream);
-            // Let any listeners know that another file handle has become available.
-            lock.notify();
-        }
+        final IdleFileHandle idleHandle = new IdleFileHandle(key,inputStream);
+        getIdleHandles(key).addFirst(idleHandle);
+        evictionOrder.addLast(idleHandle);
+
+        // Only hand out the permit once the handle can be found.
+        availableHandles.release();
     }
 
     /**
-     * Finds an existing entry in the storage mechanism.
-     * @param key Reader.
-     * @return a cached stream, if available.  Otherwise,
+     * Closes a handle that can't be trusted any more, for example after a failed read, and frees its slot.
+     * @param key The reader.
+     * @param inputStream The stream being used.
      */
-    private FileInputStream findExistingEntry(final SAMReaderID key) {
-        int existingHandles = getMostRecentUniquifier(key);
-
-        // See if any of the keys currently exist in the repository.
-        for(int i = 0; i <= existingHandles; i++) {
-            UniqueKey uniqueKey = new UniqueKey(key,i);
-            if(fileHandleStorage.containsKey(uniqueKey))
-                return fileHandleStorage.remove(uniqueKey);
+    public void discardFileInputStream(final SAMReaderID key, final FileInputStream inputStream) {
+        try {
+            closeInputStream(inputStream);
+        }
+        finally {
+            releaseSlot();
         }
+    }
 
+    /**
+     * Takes the first idle handle off the given stack or queue that no other thread has claimed.
+     * @param idleHandles idle handles, or null if there are none.
+     * @return the claimed handle, or null if there were none left.
+     */
+    private IdleFileHandle claimIdleHandle(final Deque<IdleFileHandle> idleHandles) {
+        if(idleHandles == null)
+            return null;
+        IdleFileHandle idleHandle;
+        while((idleHandle = idleHandles.pollFirst()) != null) {
+            if(idleHandle.claim())
+                return idleHandle;
+        }
         return null;
     }
 
     /**
-     * Gets the most recent uniquifier used for the given reader.
-     * @param reader Reader for which to determine uniqueness.
-     * @return
+     * Gives up the slot of a handle that has been closed, or that failed to open.
      */
-    private int getMostRecentUniquifier(final SAMReaderID reader) {
-        if(keyCounter.containsKey(reader))
-            return keyCounter.get(reader);
-        else return -1;
+    private void releaseSlot() {
+        numOpenFileHandles.decrementAndGet();
+        availableHandles.release();
     }
 
-    private UniqueKey allocateKey(final SAMReaderID reader) {
-        int uniquifier = getMostRecentUniquifier(reader)+1;
-        keyCounter.put(reader,uniquifier);
-        return new UniqueKey(reader,uniquifier);
+    private Deque<IdleFileHandle> getIdleHandles(final SAMReaderID key) {
+        Deque<IdleFileHandle> idleHandles = idleHandlesByReader.get(key);
+        if(idleHandles == null) {
+            final Deque<IdleFileHandle> newIdleHandles = new ConcurrentLinkedDeque<IdleFileHandle>();
+            idleHandles = idleHandlesByReader.putIfAbsent(key,newIdleHandles);
+            if(idleHandles == null)
+                idleHandles = newIdleHandles;
+        }
+        return idleHandles;
     }
 
     private FileInputStream openInputStream(final SAMReaderID reader) {
@@ -155,6 +201,7 @@ public class FileHandleCache {
             return new FileInputStream(reader.getSamFilePath());
         }
         catch(IOException ex) {
+            releaseSlot();
             throw new GATKException("Unable to open input file");
         }
     }
@@ -164,66 +211,29 @@ public class FileHandleCache {
             inputStream.close();
         }
         catch(IOException ex) {
-            throw new GATKException("Unable to open input file");
-        }
-    }
-
-    /**
-     * Actually contains the file handles, purging them as they get too old.
-     */
-    private class FileHandleStorage extends LinkedHashMap<UniqueKey,FileInputStream> {
-        /**
-         * Remove the oldest entry
-         * @param entry Entry to consider removing.
-         * @return True if the cache size has been exceeded.  False otherwise.
-         */
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<UniqueKey,FileInputStream> entry) {
-            synchronized (lock) {
-                if(size() > cacheSize) {
-                    keyCounter.put(entry.getKey().key,keyCounter.get(entry.getKey().key)-1);
-                    closeInputStream(entry.getValue());
-
-                    return true;
-                }
-            }
-            return false;
+            throw new GATKException("Unable to close input file");
         }
     }
 
     /**
-     * Uniquifies a key by adding a numerical uniquifier.
+     * An open file handle waiting in the cache.  Compared by identity, so each release is a distinct entry.
      */
-    private class UniqueKey {
-        /**
-         * The file handle's key.
-         */
+    private static class IdleFileHandle {
         private final SAMReaderID key;
+        private final FileInputStream inputStream;
 
         /**
-         * A uniquifier, so that multiple of the same reader can exist in the cache.
+         * Set by whichever thread takes the handle out of the cache, either to use or to close it.
          */
-        private final int uniqueID;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
 
-        public UniqueKey(final SAMReaderID reader, final int uniqueID) {
-            this.key = reader;
-            this.uniqueID = uniqueID;
+        public IdleFileHandle(final SAMReaderID key, final FileInputStream inputStream) {
+            this.key = key;
+            this.inputStream = inputStream;
         }
 
-        @Override
-        public boolean equals(Object other) {
-            if(!(other instanceof UniqueKey))
-                return false;
-            UniqueKey otherUniqueKey = (UniqueKey)other;
-            return key.equals(otherUniqueKey.key) && this.uniqueID == otherUniqueKey.uniqueID;
-        }
-
-        @Override
-        public int hashCode() {
-            return key.hashCode();
+        public boolean claim() {
+            return claimed.compareAndSet(false,true);
         }
     }
-
-
-
 }
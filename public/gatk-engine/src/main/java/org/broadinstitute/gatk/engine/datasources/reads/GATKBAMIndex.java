@@ -26,6 +26,8 @@
 package org.broadinstitute.gatk.engine.datasources.reads;
 
 import htsjdk.samtools.Bin;
+import htsjdk.samtools.GATKBin;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 
 /**
  * A basic interface for querying BAM indices.
@@ -75,28 +77,52 @@ public abstract class GATKBAMIndex {
      * @param levelNumber Level number.  0-based.
      * @return The size (number of possible bins) of the given level.
      */
-    public abstract int getLevelSize(final int levelNumber);
+    public int getLevelSize(final int levelNumber) {
+        if(levelNumber == getNumIndexLevels()-1)
+            return MAX_BINS-LEVEL_STARTS[levelNumber]-1;
+        else
+            return LEVEL_STARTS[levelNumber+1]-LEVEL_STARTS[levelNumber];
+    }
 
     /**
      * Gets the level associated with the given bin number.
      * @param bin The bin  for which to determine the level.
      * @return the level associated with the given bin number.
      */
-    public abstract int getLevelForBin(final Bin bin);
+    public int getLevelForBin(final Bin bin) {
+        final GATKBin gatkBin = new GATKBin(bin);
+        if(gatkBin.getBinNumber() >= MAX_BINS)
+            throw new ReviewedGATKException("Tried to get level for invalid bin in index file " + this);
+        for(int i = getNumIndexLevels()-1; i >= 0; i--) {
+            if(gatkBin.getBinNumber() >= LEVEL_STARTS[i])
+                return i;
+        }
+        throw new ReviewedGATKException("Unable to find correct bin for bin " + bin + " in index file " + this);
+    }
 
     /**
      * Gets the first locus that this bin can index into.
      * @param bin The bin to test.
      * @return The last position that the given bin can represent.
      */
-    public abstract int getFirstLocusInBin(final Bin bin);
+    public int getFirstLocusInBin(final Bin bin) {
+        final int level = getLevelForBin(bin);
+        final int levelStart = LEVEL_STARTS[level];
+        final int levelSize = ((level==getNumIndexLevels()-1) ? MAX_BINS-1 : LEVEL_STARTS[level+1]) - levelStart;
+        return (new GATKBin(bin).getBinNumber() - levelStart)*(BIN_GENOMIC_SPAN /levelSize)+1;
+    }
 
     /**
      * Gets the last locus that this bin can index into.
      * @param bin The bin to test.
      * @return The last position that the given bin can represent.
      */
-    public abstract int getLastLocusInBin(final Bin bin);
+    public int getLastLocusInBin(final Bin bin) {
+        final int level = getLevelForBin(bin);
+        final int levelStart = LEVEL_STARTS[level];
+        final int levelSize = ((level==getNumIndexLevels()-1) ? MAX_BINS-1 : LEVEL_STARTS[level+1]) - levelStart;
+        return (new GATKBin(bin).getBinNumber()-levelStart+1)*(BIN_GENOMIC_SPAN /levelSize);
+    }
 
     /**
      * Use to get close to the unmapped reads at the end of a BAM file.
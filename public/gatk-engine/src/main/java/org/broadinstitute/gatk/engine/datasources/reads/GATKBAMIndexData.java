@@ -47,6 +47,13 @@ public class GATKBAMIndexData {
         this.linearIndex = linearIndex;
     }
 
+    /**
+     * For subclasses that look up bins and the linear index themselves, overriding addChunksInBin and getMinimumOffset.
+     */
+    protected GATKBAMIndexData(final GATKBAMIndex index, final int referenceSequence) {
+        this(index, referenceSequence, null, null);
+    }
+
     public int getReferenceSequence() {
         return referenceSequence;
     }
@@ -65,29 +72,42 @@ public class GATKBAMIndexData {
         final int binLevel = index.getLevelForBin(bin);
         final int firstLocusInBin = index.getFirstLocusInBin(bin);
 
-        // Add the specified bin to the tree if it exists.
-        List<GATKBin> binTree = new ArrayList<GATKBin>();
-        if(gatkBin.getBinNumber() < bins.size() && bins.get(gatkBin.getBinNumber()) != null)
-            binTree.add(bins.get(gatkBin.getBinNumber()));
+        // Add the chunks of the specified bin, and of all of the bins containing it, if they exist.
+        List<GATKChunk> chunkList = new ArrayList<GATKChunk>();
+        addChunksInBin(gatkBin.getBinNumber(), chunkList);
 
         int currentBinLevel = binLevel;
         while(--currentBinLevel >= 0) {
             final int binStart = index.getFirstBinInLevel(currentBinLevel);
             final int binWidth = index.getMaxAddressibleGenomicLocation()/index.getLevelSize(currentBinLevel);
             final int binNumber = firstLocusInBin/binWidth + binStart;
-            if(binNumber < bins.size() && bins.get(binNumber) != null)
-                binTree.add(bins.get(binNumber));
+            addChunksInBin(binNumber, chunkList);
         }
 
-        List<GATKChunk> chunkList = new ArrayList<GATKChunk>();
-        for(GATKBin coveringBin: binTree) {
-            for(GATKChunk chunk: coveringBin.getChunkList())
+        final int start = index.getFirstLocusInBin(bin);
+        chunkList = optimizeChunkList(chunkList,getMinimumOffset(start));
+        return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
+    }
+
+    /**
+     * Add a copy of each of the chunks in the given bin to chunkList
+     * @param binNumber The number of the bin.  The bin may not exist in this index.
+     * @param chunkList The list to add the chunks to.
+     */
+    protected void addChunksInBin(final int binNumber, final List<GATKChunk> chunkList) {
+        if(binNumber < bins.size() && bins.get(binNumber) != null) {
+            for(GATKChunk chunk: bins.get(binNumber).getChunkList())
                 chunkList.add(chunk.clone());
         }
+    }
 
-        final int start = index.getFirstLocusInBin(bin);
-        chunkList = optimizeChunkList(chunkList,linearIndex.getMinimumOffset(start));
-        return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
+    /**
+     * Get the file offset of the first read overlapping the linear index window containing the given locus.
+     * @param locus The locus, 1-based.
+     * @return The minimum file offset of any read overlapping locus, or 0 if the linear index doesn't say.
+     */
+    protected long getMinimumOffset(final int locus) {
+        return linearIndex.getMinimumOffset(locus);
     }
 
     private List<GATKChunk> optimizeChunkList(final List<GATKChunk> chunks, final long minimumOffset) {
@@ -144,62 +144,6 @@ public class GATKBAMIndexFromFile extends GATKBAMIndex {
         return new GATKBAMIndexData(this,referenceSequence,bins,linearIndex);
     }
 
-    /**
-     * Gets the number of bins in the given level.
-     * @param levelNumber Level number.  0-based.
-     * @return The size (number of possible bins) of the given level.
-     */
-    @Override
-    public int getLevelSize(final int levelNumber) {
-        if(levelNumber == getNumIndexLevels()-1)
-            return MAX_BINS-LEVEL_STARTS[levelNumber]-1;
-        else
-            return LEVEL_STARTS[levelNumber+1]-LEVEL_STARTS[levelNumber];
-    }
-
-    /**
-     * Gets the level associated with the given bin number.
-     * @param bin The bin  for which to determine the level.
-     * @return the level associated with the given bin number.
-     */
-    @Override
-    public int getLevelForBin(final Bin bin) {
-        final GATKBin gatkBin = new GATKBin(bin);
-        if(gatkBin.getBinNumber() >= MAX_BINS)
-            throw new ReviewedGATKException("Tried to get level for invalid bin in index file " + mFile);
-        for(int i = getNumIndexLevels()-1; i >= 0; i--) {
-            if(gatkBin.getBinNumber() >= LEVEL_STARTS[i])
-                return i;
-        }
-        throw new ReviewedGATKException("Unable to find correct bin for bin " + bin + " in index file " + mFile);
-    }
-
-    /**
-     * Gets the first locus that this bin can index into.
-     * @param bin The bin to test.
-     * @return The last position that the given bin can represent.
-     */
-    @Override
-    public int getFirstLocusInBin(final Bin bin) {
-        final int level = getLevelForBin(bin);
-        final int levelStart = LEVEL_STARTS[level];
-        final int levelSize = ((level==getNumIndexLevels()-1) ? MAX_BINS-1 : LEVEL_STARTS[level+1]) - levelStart;
-        return (new GATKBin(bin).getBinNumber() - levelStart)*(BIN_GENOMIC_SPAN /levelSize)+1;
-    }
-
-    /**
-     * Gets the last locus that this bin can index into.
-     * @param bin The bin to test.
-     * @return The last position that the given bin can represent.
-     */
-    @Override
-    public int getLastLocusInBin(final Bin bin) {
-        final int level = getLevelForBin(bin);
-        final int levelStart = LEVEL_STARTS[level];
-        final int levelSize = ((level==getNumIndexLevels()-1) ? MAX_BINS-1 : LEVEL_STARTS[level+1]) - levelStart;
-        return (new GATKBin(bin).getBinNumber()-levelStart+1)*(BIN_GENOMIC_SPAN /levelSize);
-    }
-
     /**
      * Use to get close to the unmapped reads at the end of a BAM file.
      * @return The file offset of the first record in the last linear bin, or -1
@@ -240,6 +184,11 @@ public class GATKBAMIndexFromFile extends GATKBAMIndex {
         return lastLinearIndexPointer;
     }
 
+    @Override
+    public String toString() {
+        return mFile.toString();
+    }
+
     protected void skipToSequence(final int referenceSequence) {
         // Find the offset in the file of the last sequence whose position has been determined.  Start here
         // when searching the sequence for the next value to read.  (Note that sequenceStartCache[0] will always
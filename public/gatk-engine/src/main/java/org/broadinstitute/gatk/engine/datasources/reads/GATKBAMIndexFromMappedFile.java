@@ -0,0 +1,172 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.GATKChunk;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class implements BAM index querying API
+ * by memory-mapping the .bai file.
+ *
+ * Unlike GATKBAMIndexFromFile, reading a reference sequence doesn't load its bins and chunks onto the heap:
+ * queries are answered from the mapped file, and only the chunks of the bins being queried are ever created.
+ * The mapped files are shared by every instance in the process, across SAMDataSources, through a cache holding
+ * the most recently used indices up to a total size; readers of a file evicted from the cache map it again.
+ *
+ * @version 0.1
+ */
+public class GATKBAMIndexFromMappedFile extends GATKBAMIndex {
+    /**
+     * By default, keep up to this many bytes of index files mapped
+     */
+    public static final long DEFAULT_MAX_CACHED_INDEX_BYTES = 1024L * 1024L * 1024L;
+
+    private static final Map<String, MappedBAMIndexFile> sharedIndices = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedIndexBytes = 0;
+    private static long maxCachedIndexBytes = DEFAULT_MAX_CACHED_INDEX_BYTES;
+
+    private final File mFile;
+
+    /**
+     * Create a new index over a .bai file, mapping it (if it isn't already) and checking that it's a BAM index
+     * @param file the .bai file, for which canMap must be true
+     */
+    public GATKBAMIndexFromMappedFile(final File file) {
+        if ( ! canMap(file) )
+            throw new IllegalArgumentException("Cannot memory-map index file " + file);
+        mFile = file;
+        getMappedIndex();
+    }
+
+    /**
+     * Can we memory-map the given index file?  Only .bai files smaller than 2GB can be mapped; other indices
+     * (such as .crai files) need the conversion done by GATKBAMIndexFromFile.
+     * @param file an index file
+     * @return true if a GATKBAMIndexFromMappedFile can be created for file
+     */
+    public static boolean canMap(final File file) {
+        return file.getName().endsWith(BAMIndex.BAMIndexSuffix) && file.length() <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Set the total size of the index files kept mapped across the process, evicting the least
+     * recently used ones if they're over the new limit
+     * @param maxBytes the size, in bytes.  The most recently used index is kept even if it's bigger.
+     */
+    public static synchronized void setMaxCachedIndexBytes(final long maxBytes) {
+        if ( maxBytes < 0 ) throw new IllegalArgumentException("maxBytes must be >= 0 but got " + maxBytes);
+        maxCachedIndexBytes = maxBytes;
+        evictLeastRecentlyUsed();
+    }
+
+    /**
+     * @return the total size of the index files currently mapped by the shared cache
+     */
+    public static synchronized long getCachedIndexBytes() {
+        return cachedIndexBytes;
+    }
+
+    /**
+     * @return the number of index files currently mapped by the shared cache
+     */
+    public static synchronized int getNumCachedIndices() {
+        return sharedIndices.size();
+    }
+
+    /**
+     * Get the mapping of file from the shared cache, mapping it if needed.  A file that's changed since it
+     * was mapped is mapped again.
+     * @param file a .bai file
+     * @return a non-null mapped index
+     */
+    protected static synchronized MappedBAMIndexFile getMappedIndex(final File file) {
+        final String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        MappedBAMIndexFile index = sharedIndices.get(key);
+        if ( index == null ) {
+            index = new MappedBAMIndexFile(file);
+            sharedIndices.put(key, index);
+            cachedIndexBytes += index.getSizeInBytes();
+            evictLeastRecentlyUsed();
+        }
+        return index;
+    }
+
+    private static void evictLeastRecentlyUsed() {
+        final Iterator<MappedBAMIndexFile> it = sharedIndices.values().iterator();
+        while ( cachedIndexBytes > maxCachedIndexBytes && sharedIndices.size() > 1 ) {
+            cachedIndexBytes -= it.next().getSizeInBytes();
+            it.remove();
+        }
+    }
+
+    private MappedBAMIndexFile getMappedIndex() {
+        return getMappedIndex(mFile);
+    }
+
+    @Override
+    public GATKBAMIndexData readReferenceSequence(final int referenceSequence) {
+        return new MappedIndexData(this, referenceSequence, getMappedIndex().getSequenceDirectory(referenceSequence));
+    }
+
+    @Override
+    public long getStartOfLastLinearBin() {
+        return getMappedIndex().getStartOfLastLinearBin();
+    }
+
+    @Override
+    public String toString() {
+        return mFile.toString();
+    }
+
+    /**
+     * A single reference worth of data, looked up in the mapped file as it's queried
+     */
+    private static class MappedIndexData extends GATKBAMIndexData {
+        private final MappedBAMIndexFile.SequenceDirectory directory;
+
+        public MappedIndexData(final GATKBAMIndex index, final int referenceSequence, final MappedBAMIndexFile.SequenceDirectory directory) {
+            super(index, referenceSequence);
+            this.directory = directory;
+        }
+
+        @Override
+        protected void addChunksInBin(final int binNumber, final List<GATKChunk> chunkList) {
+            directory.addChunksInBin(binNumber, chunkList);
+        }
+
+        @Override
+        protected long getMinimumOffset(final int locus) {
+            return directory.getMinimumOffset(locus);
+        }
+    }
+}
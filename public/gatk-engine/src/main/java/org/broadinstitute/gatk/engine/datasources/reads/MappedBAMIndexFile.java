@@ -0,0 +1,309 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKChunk;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A .bai file mapped into memory, answering bin and linear index queries straight from the mapped bytes.
+ *
+ * Nothing is parsed up front.  The start of each reference sequence is found by skipping through the file the
+ * first time it's needed, and a reference's bins are then located once, in a sorted directory of bin numbers
+ * and file offsets.  Chunks and linear index entries are always read from the mapping itself.
+ *
+ * Thread-safe: the mapping is only read with absolute gets, and the lazily computed state is either
+ * guarded or immutable once published, so a single instance can be shared by any number of readers.
+ */
+final class MappedBAMIndexFile {
+    /**
+     * BAM index file magic number.
+     */
+    private static final byte[] BAM_INDEX_MAGIC = "BAI\1".getBytes();
+
+    private static final int INT_SIZE_IN_BYTES = Integer.SIZE / 8;
+    private static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;
+    private static final int CHUNK_SIZE_IN_BYTES = 2 * LONG_SIZE_IN_BYTES;
+
+    /**
+     * Width, as a power of two, of the windows of the linear index
+     */
+    private static final int LINEAR_INDEX_SHIFT = 14;
+
+    private final File file;
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of sequences stored in this index.
+     */
+    private final int sequenceCount;
+
+    /**
+     * The offset of the start of each sequence, or -1 if we haven't skipped that far yet
+     */
+    private final long[] sequenceStarts;
+
+    /**
+     * The directory of each sequence, once it's been built
+     */
+    private final AtomicReferenceArray<SequenceDirectory> directories;
+
+    private volatile Long startOfLastLinearBin = null;
+
+    /**
+     * Map file into memory and check that it's a BAM index
+     * @param file the .bai file, which must be smaller than 2GB
+     */
+    MappedBAMIndexFile(final File file) {
+        this.file = file;
+
+        try ( final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } catch ( IOException exc ) {
+            throw new ReviewedGATKException("Unable to open index file (" + exc.getMessage() +")" + file, exc);
+        }
+
+        checkAvailable(0, BAM_INDEX_MAGIC.length + INT_SIZE_IN_BYTES);
+        final byte[] magic = new byte[BAM_INDEX_MAGIC.length];
+        for ( int i = 0; i < magic.length; i++ )
+            magic[i] = buffer.get(i);
+        if ( ! Arrays.equals(magic, BAM_INDEX_MAGIC) )
+            throw new ReviewedGATKException("Invalid file header in BAM index " + file + ": " + new String(magic));
+
+        sequenceCount = readInteger(BAM_INDEX_MAGIC.length);
+        sequenceStarts = new long[sequenceCount];
+        Arrays.fill(sequenceStarts, -1);
+        if ( sequenceCount > 0 )
+            sequenceStarts[0] = BAM_INDEX_MAGIC.length + INT_SIZE_IN_BYTES;
+        directories = new AtomicReferenceArray<>(sequenceCount);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of bytes mapped
+     */
+    long getSizeInBytes() {
+        return buffer.capacity();
+    }
+
+    int getSequenceCount() {
+        return sequenceCount;
+    }
+
+    /**
+     * Get the bins and linear index of a reference sequence
+     * @param referenceSequence the index of the sequence
+     * @return a non-null directory
+     */
+    SequenceDirectory getSequenceDirectory(final int referenceSequence) {
+        if ( referenceSequence < 0 || referenceSequence >= sequenceCount )
+            throw new ReviewedGATKException("Invalid sequence number " + referenceSequence + " in index file " + file);
+
+        SequenceDirectory directory = directories.get(referenceSequence);
+        if ( directory == null ) {
+            // a race here only means building the same directory twice
+            directory = new SequenceDirectory(getSequenceStart(referenceSequence));
+            directories.set(referenceSequence, directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Use to get close to the unmapped reads at the end of a BAM file.
+     * @return The file offset of the first record in the last linear bin, or -1
+     * if there are no elements in linear bins (i.e. no mapped reads).
+     */
+    long getStartOfLastLinearBin() {
+        if ( startOfLastLinearBin == null ) {
+            // Because no reads may align to the last sequence in the sequence dictionary,
+            // grab the last element of the linear index for each sequence, and return
+            // the last one from the last sequence that has one.
+            long lastLinearIndexPointer = -1;
+            for ( int i = 0; i < sequenceCount; i++ ) {
+                final long linearIndexStart = skipBins(getSequenceStart(i));
+                final int nLinearBins = readInteger(linearIndexStart);
+                if ( nLinearBins > 0 )
+                    lastLinearIndexPointer = readLong(linearIndexStart + INT_SIZE_IN_BYTES + (long)LONG_SIZE_IN_BYTES * (nLinearBins - 1));
+            }
+            startOfLastLinearBin = lastLinearIndexPointer;
+        }
+        return startOfLastLinearBin;
+    }
+
+    /**
+     * Find the start of a reference sequence, skipping over (and remembering the starts of) the sequences
+     * before it that we haven't looked at yet
+     */
+    private synchronized long getSequenceStart(final int referenceSequence) {
+        int sequenceIndex = referenceSequence;
+        while ( sequenceStarts[sequenceIndex] == -1 )
+            sequenceIndex--;
+
+        for ( int i = sequenceIndex; i < referenceSequence; i++ ) {
+            final long linearIndexStart = skipBins(sequenceStarts[i]);
+            final int nLinearBins = readInteger(linearIndexStart);
+            sequenceStarts[i+1] = linearIndexStart + INT_SIZE_IN_BYTES + (long)LONG_SIZE_IN_BYTES * nLinearBins;
+        }
+
+        return sequenceStarts[referenceSequence];
+    }
+
+    /**
+     * @param sequenceStart the offset of the start of a sequence
+     * @return the offset of the linear index of that sequence
+     */
+    private long skipBins(final long sequenceStart) {
+        final int nBins = readInteger(sequenceStart);
+        long offset = sequenceStart + INT_SIZE_IN_BYTES;
+        for ( int i = 0; i < nBins; i++ ) {
+            final int nChunks = readInteger(offset + INT_SIZE_IN_BYTES);
+            offset += 2 * INT_SIZE_IN_BYTES + (long)CHUNK_SIZE_IN_BYTES * nChunks;
+        }
+        return offset;
+    }
+
+    private void checkAvailable(final long offset, final long count) {
+        if ( offset < 0 || count < 0 || offset + count > buffer.capacity() )
+            throw new UserException.MalformedFile(file, String.format("Premature end-of-file while reading BAM index file %s. " +
+                            "It's likely that this file is truncated or corrupt -- " +
+                            "Please try re-indexing the corresponding BAM file.",
+                    file));
+    }
+
+    private int readInteger(final long offset) {
+        checkAvailable(offset, INT_SIZE_IN_BYTES);
+        return buffer.getInt((int)offset);
+    }
+
+    private long readLong(final long offset) {
+        checkAvailable(offset, LONG_SIZE_IN_BYTES);
+        return buffer.getLong((int)offset);
+    }
+
+    /**
+     * Where the bins and linear index of a single reference sequence are in the file.  Immutable.
+     */
+    final class SequenceDirectory {
+        /**
+         * The bin numbers present for this sequence, sorted
+         */
+        private final int[] binNumbers;
+
+        /**
+         * The offset of the chunk count of each bin in binNumbers
+         */
+        private final int[] binOffsets;
+
+        private final long linearIndexStart;
+        private final int nLinearBins;
+
+        private SequenceDirectory(final long sequenceStart) {
+            final int nBins = readInteger(sequenceStart);
+            // every bin takes at least its number and chunk count
+            checkAvailable(sequenceStart + INT_SIZE_IN_BYTES, 2L * INT_SIZE_IN_BYTES * nBins);
+
+            // pack each bin number with its offset, so that sorting on bin number keeps bins that appear
+            // more than once in file order
+            final long[] binsAndOffsets = new long[nBins];
+            long offset = sequenceStart + INT_SIZE_IN_BYTES;
+            for ( int i = 0; i < nBins; i++ ) {
+                final int binNumber = readInteger(offset);
+                final int nChunks = readInteger(offset + INT_SIZE_IN_BYTES);
+                checkAvailable(offset + 2 * INT_SIZE_IN_BYTES, (long)CHUNK_SIZE_IN_BYTES * nChunks);
+                binsAndOffsets[i] = ((long)binNumber << 32) | (offset + INT_SIZE_IN_BYTES);
+                offset += 2 * INT_SIZE_IN_BYTES + (long)CHUNK_SIZE_IN_BYTES * nChunks;
+            }
+            Arrays.sort(binsAndOffsets);
+
+            // if a bin appears more than once, only the last one counts
+            int nDistinctBins = 0;
+            for ( int i = 0; i < nBins; i++ ) {
+                if ( i + 1 == nBins || binsAndOffsets[i] >>> 32 != binsAndOffsets[i+1] >>> 32 )
+                    binsAndOffsets[nDistinctBins++] = binsAndOffsets[i];
+            }
+            binNumbers = new int[nDistinctBins];
+            binOffsets = new int[nDistinctBins];
+            for ( int i = 0; i < nDistinctBins; i++ ) {
+                binNumbers[i] = (int)(binsAndOffsets[i] >>> 32);
+                binOffsets[i] = (int)binsAndOffsets[i];
+            }
+
+            linearIndexStart = offset + INT_SIZE_IN_BYTES;
+            nLinearBins = readInteger(offset);
+            checkAvailable(linearIndexStart, (long)LONG_SIZE_IN_BYTES * nLinearBins);
+        }
+
+        /**
+         * @return the number of distinct bins of this sequence
+         */
+        int getNumBins() {
+            return binNumbers.length;
+        }
+
+        /**
+         * Add a new chunk for each of the chunks in the given bin to chunkList
+         * @param binNumber The number of the bin.  The bin may not exist in this index.
+         * @param chunkList The list to add the chunks to.
+         */
+        void addChunksInBin(final int binNumber, final List<GATKChunk> chunkList) {
+            final int i = Arrays.binarySearch(binNumbers, binNumber);
+            if ( i < 0 )
+                return;
+
+            final int binOffset = binOffsets[i];
+            final int nChunks = buffer.getInt(binOffset);
+            for ( int ci = 0; ci < nChunks; ci++ ) {
+                final int chunkOffset = binOffset + INT_SIZE_IN_BYTES + ci * CHUNK_SIZE_IN_BYTES;
+                chunkList.add(new GATKChunk(buffer.getLong(chunkOffset), buffer.getLong(chunkOffset + LONG_SIZE_IN_BYTES)));
+            }
+        }
+
+        /**
+         * Get the file offset of the first read overlapping the linear index window containing the given locus.
+         * Equivalent to htsjdk's LinearIndex.getMinimumOffset.
+         * @param locus The locus, 1-based.
+         * @return The minimum file offset of any read overlapping locus, or 0 if the linear index doesn't say.
+         */
+        long getMinimumOffset(final int locus) {
+            final int window = (locus <= 0 ? 0 : locus - 1) >> LINEAR_INDEX_SHIFT;
+            return window < nLinearBins ? buffer.getLong((int)(linearIndexStart + (long)LONG_SIZE_IN_BYTES * window)) : 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.broadinstitute.gatk.utils.exceptions.GATKException;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only memory mapping of a BGZF file, used by the block loaders in place of a file handle.
+ *
+ * A single MappedByteBuffer cannot exceed 2GB, so the file is mapped in segments.  Consecutive segments overlap by
+ * the maximum BGZF block size, so that any block is wholly contained in the segment its address falls into.
+ * The mapping is immutable once created and can be shared between threads.
+ */
+class MappedBGZFFile {
+    /**
+     * Distance between the starts of consecutive segments.
+     */
+    static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    private final SAMReaderID reader;
+
+    private final long length;
+
+    private final long segmentSize;
+
+    private final MappedByteBuffer[] segments;
+
+    public MappedBGZFFile(final SAMReaderID reader) {
+        this(reader,DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Maps the given file.
+     * @param reader the file to map.
+     * @param segmentSize distance between the starts of consecutive segments; should only be overridden for testing.
+     */
+    MappedBGZFFile(final SAMReaderID reader, final long segmentSize) {
+        if(segmentSize <= 0 || segmentSize + BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        this.reader = reader;
+        this.segmentSize = segmentSize;
+
+        try(FileChannel channel = FileChannel.open(reader.getSamFile().toPath(),StandardOpenOption.READ)) {
+            length = channel.size();
+            final int segmentCount = (int)Math.max(1,(length + segmentSize - 1) / segmentSize);
+            segments = new MappedByteBuffer[segmentCount];
+            for(int i = 0; i < segmentCount; i++) {
+                final long start = i * segmentSize;
+                final long size = Math.min(length - start,segmentSize + BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,start,size);
+            }
+        }
+        catch(IOException ex) {
+            throw new GATKException("Unable to memory-map input file " + reader.getSamFilePath(),ex);
+        }
+    }
+
+    public SAMReaderID getReader() {
+        return reader;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Gets a view of the file starting at the given address and running to the end of its segment.
+     * @param address position in the file.
+     * @return a little-endian buffer whose position 0 corresponds to the given address; never null.
+     */
+    public ByteBuffer viewAt(final long address) {
+        if(address < 0 || address >= length)
+            throw new IllegalArgumentException(String.format("Address %d is outside of %s",address,reader.getSamFilePath()));
+        final int segmentIndex = (int)(address / segmentSize);
+        final ByteBuffer view = segments[segmentIndex].duplicate();
+        view.position((int)(address - segmentIndex * segmentSize));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
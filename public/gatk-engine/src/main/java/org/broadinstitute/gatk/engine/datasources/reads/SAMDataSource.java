@@ -239,10 +239,54 @@ public class SAMDataSource {
                 IntervalMergingRule.ALL);
     }
 
+    /**
+     * See complete constructor.  Does not memory-map the BAM files.
+     */
+    public SAMDataSource(
+            final File referenceFile,
+            Collection<SAMReaderID> samFiles,
+            ThreadAllocation threadAllocation,
+            Integer numFileHandles,
+            GenomeLocParser genomeLocParser,
+            boolean useOriginalBaseQualities,
+            ValidationStringency strictness,
+            Integer readBufferSize,
+            DownsamplingMethod downsamplingMethod,
+            ValidationExclusion exclusionList,
+            Collection<ReadFilter> supplementalFilters,
+            List<ReadTransformer> readTransformers,
+            boolean includeReadsWithDeletionAtLoci,
+            byte defaultBaseQualities,
+            boolean removeProgramRecords,
+            final boolean keepReadsInLIBS,
+            final Map<String, String> sampleRenameMap,
+            final IntervalMergingRule intervalMergingRule) {
+        this(   referenceFile,
+                samFiles,
+                threadAllocation,
+                numFileHandles,
+                false,
+                genomeLocParser,
+                useOriginalBaseQualities,
+                strictness,
+                readBufferSize,
+                downsamplingMethod,
+                exclusionList,
+                supplementalFilters,
+                readTransformers,
+                includeReadsWithDeletionAtLoci,
+                defaultBaseQualities,
+                removeProgramRecords,
+                keepReadsInLIBS,
+                sampleRenameMap,
+                intervalMergingRule);
+    }
+
     /**
      * Create a new SAM data source given the supplied read metadata.
      * @param referenceFile reference file.
      * @param samFiles list of reads files.
+     * @param memoryMapBAMFiles if using IO threads, read the BAM files through memory mappings rather than file handles.
      * @param useOriginalBaseQualities True if original base qualities should be used.
      * @param strictness Stringency of reads file parsing.
      * @param readBufferSize Number of reads to hold in memory per BAM.
@@ -263,6 +307,7 @@ public class SAMDataSource {
             Collection<SAMReaderID> samFiles,
             ThreadAllocation threadAllocation,
             Integer numFileHandles,
+            boolean memoryMapBAMFiles,
             GenomeLocParser genomeLocParser,
             boolean useOriginalBaseQualities,
             ValidationStringency strictness,
@@ -289,7 +334,7 @@ public class SAMDataSource {
         // TODO: Consider a borrowed-thread dispatcher implementation.
         if(this.threadAllocation.getNumIOThreads() > 0) {
             logger.info("Running in asynchronous I/O mode; number of threads = " + this.threadAllocation.getNumIOThreads());
-            dispatcher = new BGZFBlockLoadingDispatcher(this.threadAllocation.getNumIOThreads(), numFileHandles != null ? numFileHandles : 1);
+            dispatcher = new BGZFBlockLoadingDispatcher(this.threadAllocation.getNumIOThreads(), numFileHandles != null ? numFileHandles : 1, memoryMapBAMFiles);
         }
         else
             dispatcher = null;
@@ -392,7 +437,9 @@ public class SAMDataSource {
         for(SAMReaderID id: readerIDs) {
             File indexFile = findIndexFile(id.getSamFile());
             if(indexFile != null) {
-                bamIndices.put(id, new GATKBAMIndexFromFile(indexFile, samSequenceDictionary));
+                bamIndices.put(id, GATKBAMIndexFromMappedFile.canMap(indexFile) ?
+                        new GATKBAMIndexFromMappedFile(indexFile) :
+                        new GATKBAMIndexFromFile(indexFile, samSequenceDictionary));
                 continue;
             }
 
@@ -424,6 +471,13 @@ public class SAMDataSource {
             SamReader reader = readers.getReader(readerID);
             CloserUtil.close(reader);
         }
+        if(dispatcher != null) {
+            dispatcher.shutdown();
+            logger.info(String.format("Asynchronous I/O loaded %d BGZF blocks (%.2f MB uncompressed); peak queue depth %d, decompression throughput %.2f MB/s, buffer pool hit rate %.1f%%",
+                    dispatcher.getBlocksLoaded(), dispatcher.getUncompressedBytesLoaded() / 1e6,
+                    dispatcher.getPeakQueueDepth(), dispatcher.getDecompressionThroughput() / 1e6,
+                    dispatcher.getBufferPoolHitRate() * 100));
+        }
     }
 
     /**
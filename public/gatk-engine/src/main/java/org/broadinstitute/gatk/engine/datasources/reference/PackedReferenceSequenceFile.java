@@ -0,0 +1,364 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reference;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.StringLineReader;
+import htsjdk.samtools.util.StringUtil;
+import org.broadinstitute.gatk.engine.alignment.reference.packing.PackUtils;
+import org.broadinstitute.gatk.utils.BaseUtils;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A reference packed into two bits per base, read through memory maps.
+ *
+ * A packed reference holds the same bases as its FASTA in about a quarter of the space, and since it's mapped
+ * rather than read onto the heap, the pages of a packed reference are shared by every process using it through
+ * the page cache.  Bases can be decoded straight into a caller-supplied buffer with getBases.
+ *
+ * Like CachingIndexedFastaSequenceFile, this reader upper-cases the bases and converts IUPAC bases to Ns,
+ * unless asked to preserve them, so that it returns exactly the same bases as a CachingIndexedFastaSequenceFile
+ * over the FASTA the packed reference was created from.  Thread-safe.
+ *
+ * The format, all numbers big-endian:
+ *
+ *   "GPAC", the format version (int), and the sequence dictionary as a SAM text header (int length, then UTF-8)
+ *   for each contig in the dictionary: the file offsets of its packed bases, exceptions and case mask (longs),
+ *   then its number of exceptions and case mask runs (ints)
+ *
+ * then the data of each contig:
+ *
+ *   packed bases: four per byte, the first in the highest bits, encoded as PackUtils.packBase
+ *   exceptions: runs of bases other than ACGT (such as Ns), as 0-based start (int), length (int), base (byte)
+ *   case mask: runs of lower case bases, as 0-based start (int) and length (int)
+ *
+ * Runs are in order and don't overlap.  Bases covered by exceptions are packed as A.
+ */
+public class PackedReferenceSequenceFile implements ReferenceSequenceFile {
+    /** Extension of the packed reference created next to a FASTA */
+    public static final String PACKED_REFERENCE_EXTENSION = ".gpac";
+
+    public static final byte[] MAGIC = "GPAC".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+
+    /** Bytes in each contig's entry in the table after the header */
+    public static final int CONTIG_ENTRY_SIZE = 3 * 8 + 2 * 4;
+
+    /** Bytes in each run of exceptions */
+    public static final int EXCEPTION_RUN_SIZE = 4 + 4 + 1;
+
+    /** Bytes in each run of the case mask */
+    public static final int CASE_RUN_SIZE = 4 + 4;
+
+    public static final int BASES_PER_BYTE = PackUtils.BITS_PER_BYTE / PackUtils.BITS_PER_BASE;
+
+    /** The four (upper case) bases packed into each possible byte */
+    private static final byte[][] UNPACKED_BYTES = new byte[256][BASES_PER_BYTE];
+    static {
+        for ( int packed = 0; packed < 256; packed++ )
+            for ( int i = 0; i < BASES_PER_BYTE; i++ )
+                UNPACKED_BYTES[packed][i] = PackUtils.unpackBase((byte)((packed >>> (PackUtils.BITS_PER_BYTE - PackUtils.BITS_PER_BASE * (i + 1))) & 0x3));
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final SAMSequenceDictionary sequenceDictionary;
+    private final long[] packedOffsets;
+    private final long[] exceptionsOffsets;
+    private final long[] caseMaskOffsets;
+    private final int[] nExceptionRuns;
+    private final int[] nCaseMaskRuns;
+
+    /** The mapped data of each contig, mapped as it's first used */
+    private final AtomicReferenceArray<MappedContig> mappedContigs;
+
+    private final boolean preserveCase;
+    private final boolean preserveIUPAC;
+
+    /** The contig nextSequence will return */
+    private int nextContig = 0;
+
+    /**
+     * Open a packed reference, upper-casing bases and converting IUPAC bases to Ns
+     * @param file the packed reference
+     */
+    public PackedReferenceSequenceFile(final File file) {
+        this(file, false, false);
+    }
+
+    /**
+     * Open a packed reference
+     *
+     * @param file the packed reference
+     * @param preserveCase If true, we will keep the case of the underlying bases, otherwise everything is converted to upper case
+     * @param preserveIUPAC If true, we will keep the IUPAC bases, otherwise they are converted to Ns
+     */
+    public PackedReferenceSequenceFile(final File file, final boolean preserveCase, final boolean preserveIUPAC) {
+        this.file = file;
+        this.preserveCase = preserveCase;
+        this.preserveIUPAC = preserveIUPAC;
+
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+            final ByteBuffer preamble = read(0, MAGIC.length + 8);
+            final byte[] magic = new byte[MAGIC.length];
+            preamble.get(magic);
+            if ( ! Arrays.equals(magic, MAGIC) )
+                throw new UserException.MalformedFile(file, "Not a packed reference");
+            final int version = preamble.getInt();
+            if ( version != VERSION )
+                throw new UserException.MalformedFile(file, "Unsupported packed reference version " + version);
+
+            final int headerLength = preamble.getInt();
+            final ByteBuffer headerText = read(MAGIC.length + 8, headerLength);
+            sequenceDictionary = new SAMTextHeaderCodec().decode(new StringLineReader(new String(headerText.array(), StandardCharsets.UTF_8)), file.getPath()).getSequenceDictionary();
+
+            final int nContigs = sequenceDictionary.size();
+            packedOffsets = new long[nContigs];
+            exceptionsOffsets = new long[nContigs];
+            caseMaskOffsets = new long[nContigs];
+            nExceptionRuns = new int[nContigs];
+            nCaseMaskRuns = new int[nContigs];
+            final ByteBuffer table = read(MAGIC.length + 8 + headerLength, (long)CONTIG_ENTRY_SIZE * nContigs);
+            for ( int i = 0; i < nContigs; i++ ) {
+                packedOffsets[i] = table.getLong();
+                exceptionsOffsets[i] = table.getLong();
+                caseMaskOffsets[i] = table.getLong();
+                nExceptionRuns[i] = table.getInt();
+                nCaseMaskRuns[i] = table.getInt();
+            }
+            mappedContigs = new AtomicReferenceArray<>(nContigs);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, e);
+        }
+    }
+
+    /**
+     * Where would the packed version of fasta be?
+     * @param fasta a FASTA file
+     * @return the packed reference created next to fasta by CreatePackedReference, which may not exist
+     */
+    public static File getPackedReferenceFile(final File fasta) {
+        return new File(fasta.getPath() + PACKED_REFERENCE_EXTENSION);
+    }
+
+    private ByteBuffer read(final long offset, final long length) throws IOException {
+        if ( length < 0 || length > Integer.MAX_VALUE || offset + length > channel.size() )
+            throw new UserException.MalformedFile(file, "Packed reference is truncated or corrupt");
+        final ByteBuffer buffer = ByteBuffer.allocate((int)length);
+        while ( buffer.hasRemaining() ) {
+            if ( channel.read(buffer, offset + buffer.position()) < 0 )
+                throw new UserException.MalformedFile(file, "Packed reference is truncated or corrupt");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private MappedContig getMappedContig(final int contigIndex) {
+        MappedContig contig = mappedContigs.get(contigIndex);
+        if ( contig == null ) {
+            // a race here only means mapping the same contig twice
+            contig = new MappedContig(contigIndex);
+            mappedContigs.set(contigIndex, contig);
+        }
+        return contig;
+    }
+
+    /**
+     * Decode the bases of a contig in the range [start,stop] into dest, upper-casing them and converting IUPAC
+     * bases to Ns as requested when this reader was created
+     *
+     * @param contigIndex the index of the contig in the sequence dictionary
+     * @param start inclusive, 1-based start of region.
+     * @param stop inclusive, 1-based stop of region.
+     * @param dest the buffer to decode the bases into
+     * @param destOffset where in dest to put the base at start
+     */
+    public void getBases(final int contigIndex, final long start, final long stop, final byte[] dest, final int destOffset) {
+        final SAMSequenceRecord contigInfo = sequenceDictionary.getSequence(contigIndex);
+        if ( contigInfo == null )
+            throw new SAMException("Unable to find entry for contig index: " + contigIndex);
+        if ( start < 1 || start > stop + 1 )
+            throw new SAMException(String.format("Malformed query; start point %d lies after end point %d", start, stop));
+        if ( stop > contigInfo.getSequenceLength() )
+            throw new SAMException("Query asks for data past end of contig");
+        if ( destOffset < 0 || destOffset + (stop - start + 1) > dest.length )
+            throw new IllegalArgumentException("Buffer of length " + dest.length + " too small for " + (stop - start + 1) + " bases at offset " + destOffset);
+
+        if ( stop >= start )
+            getMappedContig(contigIndex).decode((int)(start - 1), (int)stop, dest, destOffset);
+    }
+
+    @Override
+    public SAMSequenceDictionary getSequenceDictionary() {
+        return sequenceDictionary;
+    }
+
+    @Override
+    public ReferenceSequence nextSequence() {
+        if ( nextContig >= sequenceDictionary.size() )
+            return null;
+        final SAMSequenceRecord contigInfo = sequenceDictionary.getSequence(nextContig++);
+        return getSubsequenceAt(contigInfo.getSequenceName(), 1, contigInfo.getSequenceLength());
+    }
+
+    @Override
+    public void reset() {
+        nextContig = 0;
+    }
+
+    @Override
+    public boolean isIndexed() {
+        return true;
+    }
+
+    @Override
+    public ReferenceSequence getSequence(final String contig) {
+        final SAMSequenceRecord contigInfo = sequenceDictionary.getSequence(contig);
+        if ( contigInfo == null )
+            throw new SAMException("Unable to find entry for contig: " + contig);
+        return getSubsequenceAt(contig, 1, contigInfo.getSequenceLength());
+    }
+
+    @Override
+    public ReferenceSequence getSubsequenceAt(final String contig, final long start, final long stop) {
+        final SAMSequenceRecord contigInfo = sequenceDictionary.getSequence(contig);
+        if ( contigInfo == null )
+            throw new SAMException("Unable to find entry for contig: " + contig);
+        if ( start > stop + 1 )
+            throw new SAMException(String.format("Malformed query; start point %d lies after end point %d", start, stop));
+
+        final byte[] bases = new byte[(int)(stop - start + 1)];
+        getBases(contigInfo.getSequenceIndex(), start, stop, bases, 0);
+        return new ReferenceSequence(contigInfo.getSequenceName(), contigInfo.getSequenceIndex(), bases);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * The mapped data of a single contig
+     */
+    private final class MappedContig {
+        private final ByteBuffer packedBases;
+        private final ByteBuffer exceptions;
+        private final ByteBuffer caseMask;
+        private final int nExceptions;
+        private final int nCaseRuns;
+
+        private MappedContig(final int contigIndex) {
+            final long length = sequenceDictionary.getSequence(contigIndex).getSequenceLength();
+            nExceptions = nExceptionRuns[contigIndex];
+            nCaseRuns = nCaseMaskRuns[contigIndex];
+            packedBases = map(packedOffsets[contigIndex], (length + BASES_PER_BYTE - 1) / BASES_PER_BYTE);
+            exceptions = map(exceptionsOffsets[contigIndex], (long)EXCEPTION_RUN_SIZE * nExceptions);
+            caseMask = map(caseMaskOffsets[contigIndex], (long)CASE_RUN_SIZE * nCaseRuns);
+        }
+
+        private ByteBuffer map(final long offset, final long length) {
+            try {
+                if ( length < 0 || length > Integer.MAX_VALUE || offset + length > channel.size() )
+                    throw new UserException.MalformedFile(file, "Packed reference is truncated or corrupt");
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+        }
+
+        /**
+         * Decode the bases in [from,to), 0-based, into dest at destOffset
+         */
+        private void decode(final int from, final int to, final byte[] dest, final int destOffset) {
+            // the bases themselves, upper case
+            for ( int pos = from; pos < to; ) {
+                final byte[] unpacked = UNPACKED_BYTES[packedBases.get(pos / BASES_PER_BYTE) & 0xFF];
+                for ( int i = pos % BASES_PER_BYTE; i < BASES_PER_BYTE && pos < to; i++, pos++ )
+                    dest[destOffset + pos - from] = unpacked[i];
+            }
+
+            if ( preserveCase ) {
+                for ( int run = firstRunEndingAfter(caseMask, CASE_RUN_SIZE, nCaseRuns, from); run < nCaseRuns; run++ ) {
+                    final int runStart = caseMask.getInt(run * CASE_RUN_SIZE);
+                    if ( runStart >= to )
+                        break;
+                    final int runEnd = runStart + caseMask.getInt(run * CASE_RUN_SIZE + 4);
+                    for ( int pos = Math.max(runStart, from); pos < Math.min(runEnd, to); pos++ )
+                        dest[destOffset + pos - from] = StringUtil.toLowerCase(dest[destOffset + pos - from]);
+                }
+            }
+
+            // the exceptions carry their own case
+            final byte[] exceptionBase = new byte[1];
+            for ( int run = firstRunEndingAfter(exceptions, EXCEPTION_RUN_SIZE, nExceptions, from); run < nExceptions; run++ ) {
+                final int runStart = exceptions.getInt(run * EXCEPTION_RUN_SIZE);
+                if ( runStart >= to )
+                    break;
+                final int runEnd = runStart + exceptions.getInt(run * EXCEPTION_RUN_SIZE + 4);
+                exceptionBase[0] = exceptions.get(run * EXCEPTION_RUN_SIZE + 8);
+                if ( ! preserveCase ) StringUtil.toUpperCase(exceptionBase);
+                if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(exceptionBase, true, false);
+                Arrays.fill(dest, destOffset + Math.max(runStart, from) - from, destOffset + Math.min(runEnd, to) - from, exceptionBase[0]);
+            }
+        }
+
+        /**
+         * @return the index of the first of the nRuns runs in runs, each runSize bytes, ending after pos
+         */
+        private int firstRunEndingAfter(final ByteBuffer runs, final int runSize, final int nRuns, final int pos) {
+            int low = 0, high = nRuns;
+            while ( low < high ) {
+                final int mid = (low + high) >>> 1;
+                if ( runs.getInt(mid * runSize) + runs.getInt(mid * runSize + 4) <= pos )
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+}
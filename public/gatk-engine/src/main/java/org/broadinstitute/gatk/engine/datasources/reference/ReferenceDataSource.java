@@ -42,7 +42,7 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Loads reference data from fasta file
+ * Loads reference data from fasta file, or from its packed version if there is one
  * Looks for fai and dict files, and tries to create them if they don't exist
  */
 public class ReferenceDataSource {
@@ -53,10 +53,20 @@ public class ReferenceDataSource {
 
     /**
      * Create reference data source from fasta file
+     *
+     * If a packed version of the fasta, made by CreatePackedReference, is next to it and is at least as new
+     * as it is, the bases are read from the packed reference instead
+     *
      * @param fastaFile Fasta file to be used as reference
      */
     public ReferenceDataSource(final File fastaFile) {
-        reference = CachingIndexedFastaSequenceFile.checkAndCreate(fastaFile);
+        final File packedFile = fastaFile == null ? null : PackedReferenceSequenceFile.getPackedReferenceFile(fastaFile);
+        if ( packedFile != null && packedFile.exists() && packedFile.lastModified() >= fastaFile.lastModified() ) {
+            logger.info("Reading reference bases from packed reference " + packedFile);
+            reference = new PackedReferenceSequenceFile(packedFile);
+        } else {
+            reference = CachingIndexedFastaSequenceFile.checkAndCreate(fastaFile);
+        }
     }
 
     /**
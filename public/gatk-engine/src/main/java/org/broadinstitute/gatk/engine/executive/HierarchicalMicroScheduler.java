@@ -46,6 +46,10 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * A microscheduler that schedules shards according to a tree-like structure.
@@ -53,14 +57,40 @@ import java.util.concurrent.*;
  */
 public class HierarchicalMicroScheduler extends MicroScheduler implements HierarchicalMicroSchedulerMBean, ReduceTree.TreeReduceNotifier {
     /**
-     * How many outstanding output merges are allowed before the scheduler stops
-     * allowing new processes and starts merging flat-out.
+     * With the fork/join scheduler, how many shard traversals per data thread may be queued up ahead of time,
+     * so that a thread finishing a shard can immediately start on the next one.
      */
-    private static final int MAX_OUTSTANDING_OUTPUT_MERGES = 50;
+    private static final int SHARDS_IN_FLIGHT_PER_THREAD = 2;
 
     /** Manage currently running threads. */
     private ExecutorService threadPool;
 
+    /**
+     * The pool running shard traversals and tree reduces as dependent tasks, if we're using the fork/join scheduler;
+     * null otherwise.
+     */
+    private ForkJoinPool forkJoinPool = null;
+
+    /**
+     * Limits the number of shard traversals submitted to the fork/join pool but not yet complete.
+     */
+    private Semaphore shardsInFlight = null;
+
+    /**
+     * With the fork/join scheduler, stop starting new shards while more than this many bytes of completed shard
+     * output are waiting to be merged.
+     */
+    private long maxOutstandingOutputBytes = 0;
+
+    /** How many bytes of completed shard output are waiting to be merged? */
+    private final AtomicLong outstandingOutputBytes = new AtomicLong(0);
+
+    /** The walker combining shard results on the fork/join pool. */
+    private TreeReducible forkJoinReducer = null;
+
+    /** How many tree reduces have been scheduled on the fork/join pool but haven't completed? */
+    private final AtomicInteger pendingForkJoinReduces = new AtomicInteger(0);
+
     /**
      * A thread local output tracker for managing output per-thread.
      */
@@ -100,6 +130,9 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     /** What is the total time spent merging output? */
     private long totalOutputMergeTime = 0;
 
+    /** What is the total time spent waiting for a free slot or for output to merge before starting shards? */
+    private volatile long totalBackPressureWaitTime = 0;
+
     /**
      * Create a new hierarchical microscheduler to process the given reads and reference.
      *
@@ -121,7 +154,13 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             throw new UserException.BadArgumentValue("nt", "Cannot monitor thread efficiency with -nt, sorry");
         }
 
-        this.threadPool = Executors.newFixedThreadPool(nThreadsToUse, new UniqueThreadGroupThreadFactory());
+        if ( engine.getArguments() != null && engine.getArguments().forkJoinScheduler ) {
+            this.forkJoinPool = new ForkJoinPool(nThreadsToUse, new UniqueThreadGroupForkJoinWorkerThreadFactory(), null, false);
+            this.shardsInFlight = new Semaphore(nThreadsToUse * SHARDS_IN_FLIGHT_PER_THREAD);
+            this.maxOutstandingOutputBytes = engine.getArguments().maxOutstandingOutputMB * 1024L * 1024L;
+        }
+        else
+            this.threadPool = Executors.newFixedThreadPool(nThreadsToUse, new UniqueThreadGroupThreadFactory());
     }
 
     /**
@@ -138,6 +177,36 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         }
     }
 
+    /**
+     * Creates fork/join workers each with a unique thread group, like the UniqueThreadGroupThreadFactory.
+     *
+     * A ForkJoinWorkerThread always joins the thread group of the thread constructing it, so each worker
+     * is constructed from a short-lived thread started in the worker's own new group.
+     */
+    private static class UniqueThreadGroupForkJoinWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+            final ThreadGroup group = new ThreadGroup("HMS-group-" + counter.getAndIncrement());
+            final ForkJoinWorkerThread[] worker = new ForkJoinWorkerThread[1];
+            final Thread creator = new Thread(group, new Runnable() {
+                @Override
+                public void run() {
+                    worker[0] = new ForkJoinWorkerThread(pool) {};
+                }
+            });
+            creator.start();
+            try {
+                creator.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null; // the pool treats a null worker as a failure to add a thread
+            }
+            return worker[0];
+        }
+    }
+
     public Object execute( Walker walker, Iterable<Shard> shardStrategy ) {
         super.startingExecution();
 
@@ -147,6 +216,9 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
 
         this.traversalTasks = shardStrategy.iterator();
 
+        if ( forkJoinPool != null )
+            return executeForkJoin(walker);
+
         final ReduceTree reduceTree = new ReduceTree(this);
         initializeWalker(walker);
 
@@ -154,9 +226,9 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             // Check for errors during execution.
             errorTracker.throwErrorIfPending();
 
-            // Too many files sitting around taking up space?  Merge them.
-            if (isMergeLimitExceeded())
-                mergeExistingOutput(false);
+            // Merge the output of shards as soon as they're complete, in order, so that their temporary
+            // storage (usually kept in memory) doesn't pile up.
+            mergeExistingOutput(false);
 
             // Wait for the next slot in the queue to become free.
             waitForFreeQueueSlot();
@@ -198,6 +270,118 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         return result;
     }
 
+    /**
+     * Runs the traversal on the fork/join pool.  Each shard traversal is a task, and each tree reduce is a task
+     * depending on the two results it combines, so reduces start as soon as their inputs are available without
+     * this thread having to notice.  This thread only feeds shards to the pool and merges their output, in order,
+     * as soon as it's complete.
+     *
+     * @param walker the TreeReducible walker to run
+     * @return the result of the traversal
+     */
+    private Object executeForkJoin( final Walker walker ) {
+        forkJoinReducer = (TreeReducible) walker;
+        final ReduceTree reduceTree = new ReduceTree(this);
+        initializeWalker(walker);
+
+        try {
+            while (! abortExecution() && isShardTraversePending()) {
+                // Check for errors during execution.
+                errorTracker.throwErrorIfPending();
+
+                // Merge whatever is ready, then hold off on new shards while too much output is waiting to be merged.
+                mergeExistingOutput(false);
+                while ( outstandingOutputBytes.get() > maxOutstandingOutputBytes && ! outputMergeTasks.isEmpty() )
+                    mergeNextOutput();
+
+                // Wait for the next slot in the pool to become free.
+                final long startTime = System.currentTimeMillis();
+                shardsInFlight.acquire();
+                totalBackPressureWaitTime += System.currentTimeMillis() - startTime;
+
+                queueNextForkJoinShardTraverse(walker, reduceTree);
+            }
+        } catch (InterruptedException ex) {
+            throw new ReviewedGATKException("Interrupted while scheduling shard traversals", ex);
+        }
+
+        errorTracker.throwErrorIfPending();
+
+        // Merge any lingering output files.  If these files aren't ready,
+        // sit around and wait for them, then merge them.
+        mergeExistingOutput(true);
+
+        Object result = null;
+        try {
+            result = reduceTree.getResult().get();
+            notifyTraversalDone(walker,result);
+        } catch (ReviewedGATKException ex) {
+            throw ex;
+        } catch ( ExecutionException ex ) {
+            // the task died and we are failing to get the result, rethrow it as a runtime exception
+            throw notifyOfTraversalError(ex.getCause());
+        } catch (Exception ex) {
+            throw new ReviewedGATKException("Unable to retrieve result", ex);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        // do final cleanup operations
+        outputTracker.close();
+        cleanup();
+        executionIsDone();
+
+        return result;
+    }
+
+    /**
+     * Submits the next shard traversal to the fork/join pool.  Its output size is accounted for as soon as it's
+     * complete, and its slot in the pool released.
+     *
+     * @param walker     Walker to apply to the dataset.
+     * @param reduceTree Tree of reduces to which to add this shard traverse.
+     */
+    private void queueNextForkJoinShardTraverse( final Walker walker, final ReduceTree reduceTree ) {
+        final ShardTraverser traverser = new ShardTraverser(this, walker, traversalTasks.next(), outputTracker);
+
+        final CompletableFuture<Object> traverseResult = CompletableFuture.supplyAsync(new Supplier<Object>() {
+            @Override
+            public Object get() {
+                try {
+                    return traverser.call();
+                } finally {
+                    final OutputMergeTask mergeTask = traverser.getOutputMergeTask();
+                    if ( mergeTask != null )
+                        outstandingOutputBytes.addAndGet(mergeTask.getSizeInBytes());
+                    shardsInFlight.release();
+                }
+            }
+        }, forkJoinPool);
+
+        reduceTree.addEntry(traverseResult);
+        synchronized (outputMergeTasks) {
+            outputMergeTasks.add(traverser);
+        }
+
+        // No more data?  Let the reduce tree know so it can finish processing what it's got.
+        if (!isShardTraversePending())
+            reduceTree.complete();
+    }
+
+    /**
+     * Waits for the oldest shard with unmerged output and merges it.
+     */
+    private void mergeNextOutput() {
+        final ShardTraverser traverser;
+        synchronized (outputMergeTasks) {
+            traverser = outputMergeTasks.remove();
+        }
+        final long startTime = System.currentTimeMillis();
+        traverser.waitForComplete();
+        totalBackPressureWaitTime += System.currentTimeMillis() - startTime;
+        mergeOutput(traverser);
+    }
+
     /**
      * Run the initialize method of the walker.  Ensure that any calls
      * to the output stream will bypass thread local storage and write
@@ -269,22 +453,6 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         return reduceTasks.size() > 0;
     }
 
-    /**
-     * Returns whether the maximum number of files is sitting in the temp directory
-     * waiting to be merged back in.
-     *
-     * @return True if the merging needs to take priority.  False otherwise.
-     */
-    protected boolean isMergeLimitExceeded() {
-        int pendingTasks = 0;
-        for( ShardTraverser shardTraverse: outputMergeTasks ) {
-            if( !shardTraverse.isComplete() )
-                break;
-            pendingTasks++;
-        }
-        return (outputMergeTasks.size() >= MAX_OUTSTANDING_OUTPUT_MERGES);
-    }
-
     /**
      * Merging all output that's sitting ready in the OutputMerger queue into
      * the final data streams.
@@ -297,15 +465,17 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
 
         // Create a list of the merge tasks that will be performed in this run of the mergeExistingOutput().
         Queue<ShardTraverser> mergeTasksInSession = new LinkedList<ShardTraverser>();
-        while( !outputMergeTasks.isEmpty() ) {
-            ShardTraverser traverser = outputMergeTasks.peek();
+        synchronized( outputMergeTasks ) {
+            while( !outputMergeTasks.isEmpty() ) {
+                ShardTraverser traverser = outputMergeTasks.peek();
 
-            // If the next traversal isn't done and we're not supposed to wait, we've found our working set.  Continue.
-            if( !traverser.isComplete() && !wait )
-                break;
+                // If the next traversal isn't done and we're not supposed to wait, we've found our working set.  Continue.
+                if( !traverser.isComplete() && !wait )
+                    break;
 
-            outputMergeTasks.remove();
-            mergeTasksInSession.add(traverser);
+                outputMergeTasks.remove();
+                mergeTasksInSession.add(traverser);
+            }
         }
 
 //        logger.warn("Selected things to merge:");
@@ -317,18 +487,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             if( !traverser.isComplete() )
                 traverser.waitForComplete();
 
-            OutputMergeTask mergeTask = traverser.getOutputMergeTask();
-            if( mergeTask != null ) {
-                try {
-                    mergeTask.merge();
-                }
-                catch(TribbleException ex) {
-                    // Specifically catch Tribble I/O exceptions and rethrow them as Reviewed.  We don't expect
-                    // any issues here because we created the Tribble output file mere moments ago and expect it to
-                    // be completely valid.
-                    throw new ReviewedGATKException("Unable to merge temporary Tribble output file.",ex);
-                }
-            }
+            mergeOutput(traverser);
         }
 
         long endTime = System.currentTimeMillis();
@@ -336,6 +495,28 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         totalOutputMergeTime += ( endTime - startTime );
     }
 
+    /**
+     * Merges the output of a completed shard traversal into the final data streams.
+     * @param traverser the completed traversal
+     */
+    private void mergeOutput( final ShardTraverser traverser ) {
+        OutputMergeTask mergeTask = traverser.getOutputMergeTask();
+        if( mergeTask != null ) {
+            final long mergeSize = mergeTask.getSizeInBytes();
+            try {
+                mergeTask.merge();
+            }
+            catch(TribbleException ex) {
+                // Specifically catch Tribble I/O exceptions and rethrow them as Reviewed.  We don't expect
+                // any issues here because we created the Tribble output file mere moments ago and expect it to
+                // be completely valid.
+                throw new ReviewedGATKException("Unable to merge temporary Tribble output file.",ex);
+            }
+            if ( forkJoinPool != null )
+                outstandingOutputBytes.addAndGet(-mergeSize);
+        }
+    }
+
     /**
      * Queues the next traversal of a walker from the traversal tasks queue.
      *
@@ -401,11 +582,39 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      * @return A new, composite future of the result of this reduce.
      */
     public Future notifyReduce( final Future lhs, final Future rhs ) {
+        if ( forkJoinPool != null )
+            return notifyForkJoinReduce((CompletableFuture<Object>)lhs, (CompletableFuture<Object>)rhs);
+
         final TreeReduceTask reducer = new TreeReduceTask(new TreeReducer(this, lhs, rhs));
         reduceTasks.add(reducer);
         return reducer;
     }
 
+    /**
+     * Schedules the reduce of lhs and rhs to run on the fork/join pool as soon as both are complete.
+     *
+     * @return A new future of the result of this reduce.
+     */
+    private CompletableFuture<Object> notifyForkJoinReduce( final CompletableFuture<Object> lhs, final CompletableFuture<Object> rhs ) {
+        final TreeReducible reducible = forkJoinReducer;
+        pendingForkJoinReduces.incrementAndGet();
+        return lhs.thenCombineAsync(rhs, new BiFunction<Object, Object, Object>() {
+            @Override
+            public Object apply(final Object lhsResult, final Object rhsResult) {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    final Object result = reducible.treeReduce(lhsResult, rhsResult);
+                    reportTreeReduceTime(System.currentTimeMillis() - startTime);
+                    return result;
+                } catch (Throwable t) {
+                    throw notifyOfTraversalError(t);
+                } finally {
+                    pendingForkJoinReduces.decrementAndGet();
+                }
+            }
+        }, forkJoinPool);
+    }
+
     /**
      * Allows other threads to notify of an error during traversal.
      */
@@ -454,6 +663,8 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
 
     /** {@inheritDoc} */
     public int getNumberOfTasksInReduceQueue() {
+        if ( forkJoinPool != null )
+            return pendingForkJoinReduces.get();
         return reduceTasks.size();
     }
 
@@ -492,4 +703,14 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     public long getTotalOutputMergeTimeMillis() {
         return totalOutputMergeTime;
     }
+
+    /** {@inheritDoc} */
+    public long getOutstandingOutputBytes() {
+        return outstandingOutputBytes.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getTotalBackPressureWaitTimeMillis() {
+        return totalBackPressureWaitTime;
+    }
 }
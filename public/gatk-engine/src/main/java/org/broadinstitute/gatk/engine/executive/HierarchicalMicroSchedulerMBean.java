@@ -82,5 +82,18 @@ public interface HierarchicalMicroSchedulerMBean {
      * @return Average time spent running tree reduces; 0 if none have been run.
      */
     public long getAvgTreeReduceTimeMillis();
+
+    /**
+     * How much completed shard output is waiting to be merged?  Only tracked by the fork/join scheduler.
+     * @return Total size in bytes of the temporary output of completed shards not yet merged.
+     */
+    public long getOutstandingOutputBytes();
+
+    /**
+     * How long has the scheduler held off on starting new shards, waiting for a free thread or for output to merge?
+     * Only tracked by the fork/join scheduler.
+     * @return Total time spent waiting before starting shards; 0 if it never had to wait.
+     */
+    public long getTotalBackPressureWaitTimeMillis();
 }
 
@@ -52,6 +52,10 @@ import javax.management.ObjectName;
 import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -72,6 +76,9 @@ import java.util.*;
  * and returned when done.  Also allows us to tracks all created traversal engines so this microscheduler
  * can properly shut them all down when the scheduling is done.
  *
+ * With a shared CPU executor the nano threads of all of the traversal engines come from a single pool
+ * owned by this microscheduler instead, which is shut down along with the engines.
+ *
  */
 public abstract class MicroScheduler implements MicroSchedulerMBean {
     protected static final Logger logger = Logger.getLogger(MicroScheduler.class);
@@ -119,6 +126,11 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
      */
     ThreadEfficiencyMonitor threadEfficiencyMonitor = null;
 
+    /**
+     * The pool running the CPU threads of all of our traversal engines, if they share one; null otherwise
+     */
+    private ForkJoinPool sharedCPUPool = null;
+
     /**
      * MicroScheduler factory function.  Create a microscheduler appropriate for reducing the
      * selected walker.
@@ -194,6 +206,14 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
 
         final File progressLogFile = engine.getArguments() == null ? null : engine.getArguments().performanceLog;
 
+        // Each data thread does its share of the CPU work itself, so nt * (nct - 1) pool threads gives us
+        // at most nt * nct threads doing CPU work.  The pool is FIFO so no data thread's jobs starve another's.
+        if ( engine.getArguments() != null && engine.getArguments().sharedCPUExecutor && threadAllocation.getNumCPUThreadsPerDataThread() > 1 ) {
+            final int nPoolThreads = threadAllocation.getNumDataThreads() * (threadAllocation.getNumCPUThreadsPerDataThread() - 1);
+            logger.info(String.format("Running the CPU threads of all data threads on a shared pool of %d threads", nPoolThreads));
+            sharedCPUPool = new ForkJoinPool(nPoolThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+
         // Creates uninitialized TraversalEngines appropriate for walker and threadAllocation,
         // and adds it to the list of created engines for later shutdown.
         for ( int i = 0; i < threadAllocation.getNumDataThreads(); i++ ) {
@@ -233,21 +253,60 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
      */
     @Ensures("result != null")
     private TraversalEngine createTraversalEngine(final Walker walker, final ThreadAllocation threadAllocation) {
+        final ExecutorService sharedExecutor = sharedCPUPool == null ? null : new SharedCPUExecutor();
         if (walker instanceof ReadWalker) {
-            return new TraverseReadsNano(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseReadsNano(threadAllocation.getNumCPUThreadsPerDataThread(), sharedExecutor);
         } else if (walker instanceof LocusWalker) {
-            return new TraverseLociNano(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseLociNano(threadAllocation.getNumCPUThreadsPerDataThread(), sharedExecutor);
         } else if (walker instanceof DuplicateWalker) {
             return new TraverseDuplicates();
         } else if (walker instanceof ReadPairWalker) {
             return new TraverseReadPairs();
         } else if (walker instanceof ActiveRegionWalker) {
-            return new TraverseActiveRegions(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseActiveRegions(threadAllocation.getNumCPUThreadsPerDataThread(), sharedExecutor);
         } else {
             throw new UnsupportedOperationException("Unable to determine traversal type, the walker is an unknown type.");
         }
     }
 
+    /**
+     * The view of the shared CPU pool given to a traversal engine
+     *
+     * Binds each task to the output storage of the data thread submitting it, as the pool's threads don't
+     * belong to any data thread.  Shutting it down does nothing, since the pool is shared between all of our
+     * traversal engines; the pool itself is shut down with the engines in shutdownTraversalEngines().
+     */
+    private class SharedCPUExecutor extends AbstractExecutorService {
+        @Override
+        public void execute(final Runnable command) {
+            // the output tracker isn't available yet when the traversal engines are created, so look it up now
+            sharedCPUPool.execute(getOutputTracker().bindToCurrentStorage(command));
+        }
+
+        @Override
+        public void shutdown() { }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return sharedCPUPool.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return sharedCPUPool.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return sharedCPUPool.awaitTermination(timeout, unit);
+        }
+    }
+
 
     /**
      * Return the ThreadEfficiencyMonitor we are using to track our resource utilization, if there is one
@@ -347,6 +406,9 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         for ( final TraversalEngine te : allCreatedTraversalEngines)
             te.shutdown();
 
+        if ( sharedCPUPool != null )
+            sharedCPUPool.shutdownNow();
+
         allCreatedTraversalEngines.clear();
         availableTraversalEngines.clear();
     }
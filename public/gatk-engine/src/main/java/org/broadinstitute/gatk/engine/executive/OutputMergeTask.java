@@ -73,6 +73,17 @@ public class OutputMergeTask {
             mergeOperation.temporaryStorage.mergeInto(mergeOperation.targetStream);
     }
 
+    /**
+     * How much temporary data is waiting to be merged by this task?
+     * @return The total size in bytes of the temporary storage.
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        for( MergeOperation mergeOperation: mergeOperations )
+            size += mergeOperation.temporaryStorage.getSizeInBytes();
+        return size;
+    }
+
     /**
      * Represents a single file needed to be merged.
      * @param <StreamType> Type of the file to be merged.
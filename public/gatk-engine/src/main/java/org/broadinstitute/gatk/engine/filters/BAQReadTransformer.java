@@ -32,6 +32,7 @@ import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
 import org.broadinstitute.gatk.engine.walkers.BAQMode;
 import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.baq.BAQ;
+import org.broadinstitute.gatk.utils.baq.FastBAQ;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -51,7 +52,7 @@ public class BAQReadTransformer extends ReadTransformer {
         this.refReader = engine.getReferenceDataSource().getReference();
         this.cmode = engine.getArguments().BAQMode;
         this.qmode = mode.QualityMode();
-        baqHMM = new BAQ(engine.getArguments().BAQGOP);
+        baqHMM = new FastBAQ(engine.getArguments().BAQGOP);
 
         if ( qmode == BAQ.QualityMode.DONT_MODIFY )
             throw new ReviewedGATKException("BUG: shouldn't create BAQ transformer with quality mode DONT_MODIFY");
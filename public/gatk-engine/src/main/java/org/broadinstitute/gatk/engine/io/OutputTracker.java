@@ -83,6 +83,19 @@ public abstract class OutputTracker implements ReferenceBacked {
      */
     public abstract <T> T getStorage( Stub<T> stub );
 
+    /**
+     * Wraps a task that will be run on some other thread, such as a thread of a pool shared between
+     * several traversals, so that it writes its output to the storage of the thread submitting it.
+     *
+     * Output trackers that don't keep per-thread storage have nothing to do here.
+     *
+     * @param task the task to run
+     * @return a task that runs task with the storage of the current thread
+     */
+    public Runnable bindToCurrentStorage( final Runnable task ) {
+        return task;
+    }
+
     @Override
     public File getReferenceFile() {
         return referenceFile;
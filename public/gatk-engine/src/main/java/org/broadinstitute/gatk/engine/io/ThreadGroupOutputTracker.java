@@ -58,6 +58,12 @@ public class ThreadGroupOutputTracker extends OutputTracker {
      */
     private Map<ThreadGroup, Map<Stub, Storage>> threadsToStorage = new HashMap<ThreadGroup, Map<Stub, Storage>>();
 
+    /**
+     * The storage map of the thread that submitted the task this thread is running, for threads of
+     * pools shared between master threads.  Takes precedence over the thread's group.
+     */
+    private final ThreadLocal<Map<Stub, Storage>> boundStorage = new ThreadLocal<Map<Stub, Storage>>();
+
     /**
      * A total hack.  If bypass = true, bypass thread local storage and write directly
      * to the target file.  Used to handle output during initialize() and onTraversalDone().
@@ -118,7 +124,39 @@ public class ThreadGroupOutputTracker extends OutputTracker {
     }
 
 
+    @Override
+    public Runnable bindToCurrentStorage( final Runnable task ) {
+        final Map<Stub,Storage> storage;
+        synchronized (this) {
+            storage = threadsToStorage.get(Thread.currentThread().getThreadGroup());
+        }
+
+        // not a master thread, so there's nothing to bind
+        if ( storage == null )
+            return task;
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                final Map<Stub,Storage> previous = boundStorage.get();
+                boundStorage.set(storage);
+                try {
+                    task.run();
+                } finally {
+                    if ( previous == null )
+                        boundStorage.remove();
+                    else
+                        boundStorage.set(previous);
+                }
+            }
+        };
+    }
+
     private synchronized Map<Stub,Storage> findStorage(final Thread thread) {
+        final Map<Stub, Storage> bound = boundStorage.get();
+        if ( bound != null && thread == Thread.currentThread() )
+            return bound;
+
         final Map<Stub, Storage> map = threadsToStorage.get(thread.getThreadGroup());
 
         if ( map != null ) {
@@ -35,6 +35,11 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 
 public class OutputStreamStorage extends OutputStream implements Storage<OutputStream> {
+    /**
+     * How much temporary output to keep in memory before spilling it to the temporary file.
+     */
+    private static final int MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+
     /**
      * File to which data will temporarily be written.
      */
@@ -43,7 +48,13 @@ public class OutputStreamStorage extends OutputStream implements Storage<OutputS
     /**
      * Stream to which data in this shard will be written.
      */
-    private final OutputStream outputStream;
+    private OutputStream outputStream;
+
+    /**
+     * Temporary output kept in memory until it's merged or it outgrows MAX_BUFFERED_BYTES.  Null if this storage
+     * writes straight to its target, or once the temporary output has been spilled to file.
+     */
+    private ByteArrayOutputStream buffer = null;
 
     /**
      * Create a new storage area with the given stub.
@@ -64,7 +75,8 @@ public class OutputStreamStorage extends OutputStream implements Storage<OutputS
 
     public OutputStreamStorage( OutputStreamStub stub, File file ) {
         this.file = file;
-        this.outputStream = initializeOutputStream(file);
+        this.buffer = new ByteArrayOutputStream();
+        this.outputStream = buffer;
     }
 
     private OutputStream initializeOutputStream( File file ) {
@@ -76,6 +88,18 @@ public class OutputStreamStorage extends OutputStream implements Storage<OutputS
         }
     }
 
+    /**
+     * Moves the buffered output to the temporary file if writing len more bytes would outgrow the buffer.
+     * @param len number of bytes about to be written.
+     */
+    private void spillIfNecessary( int len ) throws IOException {
+        if( buffer != null && buffer.size() + len > MAX_BUFFERED_BYTES ) {
+            outputStream = new BufferedOutputStream(initializeOutputStream(file));
+            buffer.writeTo(outputStream);
+            buffer = null;
+        }
+    }
+
     /**
      * @{inheritDoc}
      */
@@ -100,10 +124,20 @@ public class OutputStreamStorage extends OutputStream implements Storage<OutputS
         }
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    public long getSizeInBytes() {
+        if( buffer != null )
+            return buffer.size();
+        return file == null ? 0 : file.length();
+    }
+
     /**
      * @{inheritDoc}
      */
     public void write( byte[] b ) throws IOException {
+        spillIfNecessary(b.length);
         outputStream.write(b);
     }
 
@@ -111,6 +145,7 @@ public class OutputStreamStorage extends OutputStream implements Storage<OutputS
      * @{inheritDoc}
      */
     public void write( byte[] b, int off, int len ) throws IOException {
+        spillIfNecessary(len);
         outputStream.write(b, off, len);
     }
 
@@ -118,11 +153,25 @@ public class OutputStreamStorage extends OutputStream implements Storage<OutputS
      * @{inheritDoc}
      */
     public void write( int b ) throws IOException {
+        spillIfNecessary(1);
         outputStream.write(b);
     }
 
 
     public void mergeInto( OutputStream targetStream ) {
+        if( buffer != null ) {
+            // never spilled, so there's nothing to read back from disk
+            try {
+                buffer.writeTo(targetStream);
+            }
+            catch( IOException ex ) {
+                throw new UserException.CouldNotCreateOutputFile(file, "Unable to merge buffered output", ex);
+            }
+            buffer = null;
+            file.delete();
+            return;
+        }
+
         FileInputStream sourceStream = null;
         try {
             sourceStream = new FileInputStream( file );
@@ -35,10 +35,10 @@ import org.broadinstitute.gatk.utils.exceptions.GATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.SimplifyingSAMFileWriter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -49,19 +49,66 @@ import java.lang.reflect.Method;
  * @version 0.1
  */
 public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWriter> {
+    /**
+     * How many bytes of BAM-encoded reads to keep in memory before spilling them to the temporary file.
+     */
+    private static final int MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+
     private final File file;
     private File referenceFasta;
     private SAMFileWriter writer;
 
+    /**
+     * The stub of temporary storage, used to open the temporary file if the output outgrows the buffer.
+     */
+    private final SAMFileWriterStub stub;
+
+    /**
+     * Temporary output kept in memory as uncompressed BAM records, in order, until it's merged or outgrows
+     * MAX_BUFFERED_BYTES.  The reads are encoded as they're added, so walkers are free to reuse or modify a read
+     * once it has been written.  Null if this storage writes straight to its target, or once the temporary output
+     * has been spilled to file.
+     */
+    private ByteArrayOutputStream buffer = null;
+
+    /**
+     * Encodes reads into the buffer, and decodes them again when they're spilled or merged.
+     */
+    private BAMRecordCodec bufferCodec = null;
+    private ProgressLoggerInterface progressLogger = null;
+
     private static Logger logger = Logger.getLogger(SAMFileWriterStorage.class);
 
     public SAMFileWriterStorage( SAMFileWriterStub stub ) {
-        this(stub,stub.getOutputFile());
+        this.stub = stub;
+        this.file = stub.getOutputFile();
+        openWriter();
     }
 
+    /**
+     * Constructs storage which will redirect into a different file.
+     *
+     * The reads are kept in memory, BAM-encoded, and decoded straight into the target when merging, unless
+     * they outgrow MAX_BUFFERED_BYTES, in which case they're spilled to the file.  Stubs writing to a stream
+     * rather than a file still write straight to the stream.
+     *
+     * @param stub Stub to use when synthesizing file / header info.
+     * @param file File into which to direct the output data.
+     */
     public SAMFileWriterStorage( SAMFileWriterStub stub, File file ) {
-        this.referenceFasta = stub.getReferenceFile();
+        this.stub = stub;
         this.file = file;
+        if ( stub.getOutputFile() != null ) {
+            this.buffer = new ByteArrayOutputStream();
+            this.bufferCodec = new BAMRecordCodec(stub.getFileHeader());
+            this.bufferCodec.setOutputStream(buffer);
+        }
+        else
+            openWriter();
+    }
+
+    private void openWriter() {
+        this.referenceFasta = stub.getReferenceFile();
         SAMFileWriterFactory factory = new SAMFileWriterFactory();
         // Enable automatic index creation for pre-sorted BAMs.
         if (stub.getFileHeader().getSortOrder().equals(SAMFileHeader.SortOrder.coordinate) && stub.getIndexOnTheFly())
@@ -96,15 +143,47 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
         }
     }
 
+    /**
+     * Moves the buffered reads to the temporary file, and directs all further output there.
+     */
+    private void spill() {
+        openWriter();
+        if ( progressLogger != null )
+            writer.setProgressLogger(progressLogger);
+        writeBufferedReads(writer);
+    }
+
+    /**
+     * Decodes the buffered reads into the given writer, in the order they were added, and releases the buffer.
+     * @param target writer to receive the buffered reads.
+     */
+    private void writeBufferedReads( final SAMFileWriter target ) {
+        bufferCodec.setInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        buffer = null;
+        for ( SAMRecord read = bufferCodec.decode(); read != null; read = bufferCodec.decode() )
+            target.addAlignment(read);
+        bufferCodec = null;
+    }
+
     public SAMFileHeader getFileHeader() {
+        if ( buffer != null )
+            return stub.getFileHeader();
         return writer.getFileHeader();
     }
 
     public void addAlignment( SAMRecord read ) {
-        writer.addAlignment(read);
+        if ( buffer != null ) {
+            bufferCodec.encode(read);
+            if ( buffer.size() > MAX_BUFFERED_BYTES )
+                spill();
+        }
+        else
+            writer.addAlignment(read);
     }
 
     public void close() {
+        if ( writer == null )
+            return;
         try {
             writer.close();
         } catch (RuntimeIOException e) {
@@ -112,7 +191,24 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
         }
     }
 
+    /**
+     * How many bytes of reads are waiting to be merged?  Reads still held in memory are counted by their
+     * uncompressed BAM encoding.
+     */
+    public long getSizeInBytes() {
+        if ( buffer != null )
+            return buffer.size();
+        return file == null ? 0 : file.length();
+    }
+
     public void mergeInto( SAMFileWriter targetStream ) {
+        if ( buffer != null ) {
+            // never spilled, so the reads go straight to the target without a round trip through the file
+            writeBufferedReads(targetStream);
+            file.delete();
+            return;
+        }
+
         final SamReader reader = SamReaderFactory.makeDefault().open(file);
         try {
             CloseableIterator<SAMRecord> iterator = reader.iterator();
@@ -172,6 +268,9 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
 
     @Override
     public void setProgressLogger(final ProgressLoggerInterface logger) {
-        writer.setProgressLogger(logger);
+        if ( buffer != null )
+            progressLogger = logger;
+        else
+            writer.setProgressLogger(logger);
     }
 }
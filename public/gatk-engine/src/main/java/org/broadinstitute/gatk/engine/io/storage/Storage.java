@@ -42,4 +42,10 @@ public interface Storage<StreamType> {
      * @param target Target stream for the temporary storage.  May not be null.
      */
     public void mergeInto( StreamType target );
+
+    /**
+     * How much data is sitting in this temporary storage waiting to be merged?
+     * @return Size in bytes of the backing file; 0 if this storage writes directly to its target.
+     */
+    public long getSizeInBytes();
 }
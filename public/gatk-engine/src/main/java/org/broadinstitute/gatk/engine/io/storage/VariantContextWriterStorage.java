@@ -26,6 +26,9 @@
 package org.broadinstitute.gatk.engine.io.storage;
 
 import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.tribble.readers.LineIterator;
 import org.apache.log4j.Logger;
 import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.Feature;
@@ -39,6 +42,7 @@ import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.*;
@@ -60,11 +64,34 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
 
     private final static int BUFFER_SIZE = 1048576;
 
+    /**
+     * How many bytes of encoded VCF records to keep in memory before spilling them to the temporary file.
+     */
+    private final static int MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+
     protected final File file;
     protected OutputStream stream;
-    protected final VariantContextWriter writer;
+    protected VariantContextWriter writer;
     boolean closed = false;
 
+    /**
+     * The stub of temporary storage, used to open the temporary file if the output outgrows the buffer.
+     */
+    private final VariantContextWriterStub stub;
+
+    /**
+     * Temporary output kept in memory as VCF text, in order, until it's merged or its records outgrow
+     * MAX_BUFFERED_BYTES.  The records are encoded as they're added, so walkers are free to reuse or modify a
+     * VariantContext once it has been written.  Null if this storage writes straight to its target, or once the
+     * temporary output has been spilled to file.
+     */
+    private ByteArrayOutputStream buffer = null;
+
+    /**
+     * Size of the VCF header at the start of the buffer, which isn't counted as output waiting to be merged.
+     */
+    private int bufferedHeaderSize = 0;
+
     /**
      * Constructs an object which will write directly into the output file provided by the stub.
      * Intentionally delaying the writing of the header -- this should be filled in by the walker.
@@ -75,6 +102,7 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
      * @param stub Stub to use when constructing the output file.
      */
     public VariantContextWriterStorage(VariantContextWriterStub stub)  {
+        this.stub = stub;
         if ( stub.getOutputFile() != null ) {
             this.file = stub.getOutputFile();
             writer = vcfWriterToFile(stub,stub.getOutputFile(),true,true);
@@ -95,6 +123,9 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
     /**
      * Constructs an object which will redirect into a different file.
      *
+     * The records are kept in memory as VCF text and decoded straight into the target when merging, unless
+     * they outgrow MAX_BUFFERED_BYTES, in which case they're spilled to the file.
+     *
      * Note that this function does not respect the isCompressed() request from the stub, in order
      * to ensure that tmp. files can be read back in by the Tribble system, and merged with the mergeInto function.
      *
@@ -102,10 +133,44 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
      * @param tempFile File into which to direct the output data.
      */
     public VariantContextWriterStorage(VariantContextWriterStub stub, File tempFile) {
-        //logger.debug("Creating temporary output file " + tempFile.getAbsolutePath() + " for VariantContext output.");
         this.file = tempFile;
-        this.writer = vcfWriterToFile(stub, file, false, false);
+        this.stub = stub;
+        this.buffer = new ByteArrayOutputStream();
+
+        // the buffer always holds VCF text, even when the stub asks for BCF, so that it can be decoded line by line
+        final EnumSet<Options> options = stub.getWriterOptions(false);
+        options.remove(Options.FORCE_BCF);
+        this.writer = new VariantContextWriterBuilder()
+                .setOutputVCFStream(buffer)
+                .setReferenceDictionary(stub.getMasterSequenceDictionary())
+                .setOptions(options)
+                .build();
+        writer.writeHeader(stub.getVCFHeader());
+        this.bufferedHeaderSize = buffer.size();
+    }
+
+    /**
+     * Moves the buffered records to the temporary file, and directs all further output there.
+     */
+    private void spill() {
+        //logger.debug("Creating temporary output file " + file.getAbsolutePath() + " for VariantContext output.");
+        writer.close(); // flushes the buffered records
+        writer = vcfWriterToFile(stub, file, false, false);
         writer.writeHeader(stub.getVCFHeader());
+        writeBufferedRecords(writer);
+    }
+
+    /**
+     * Decodes the buffered records into the given writer, in the order they were added, and releases the buffer.
+     * @param target writer to receive the buffered records.
+     */
+    private void writeBufferedRecords(final VariantContextWriter target) {
+        final LineIterator lines = new AsciiLineReaderIterator(new AsciiLineReader(new ByteArrayInputStream(buffer.toByteArray())));
+        buffer = null;
+        final VCFCodec codec = new VCFCodec();
+        codec.readActualHeader(lines);
+        while ( lines.hasNext() )
+            target.add(codec.decode(lines.next()));
     }
 
     /**
@@ -211,6 +276,8 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
     public void add(VariantContext vc) {
         if ( closed ) throw new ReviewedGATKException("Attempting to write to a closed VariantContextWriterStorage " + vc.getStart() + " storage=" + this);
         writer.add(vc);
+        if ( buffer != null && buffer.size() - bufferedHeaderSize > MAX_BUFFERED_BYTES )
+            spill();
     }
 
     /**
@@ -219,6 +286,8 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
      * @param header  the header
      */
     public void writeHeader(VCFHeader header) {
+        if ( buffer != null )
+            spill();
         writer.writeHeader(header);
     }
 
@@ -230,10 +299,27 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
         closed = true;
     }
 
+    /**
+     * How much VCF data is waiting to be merged?  Records still held in memory are counted by their VCF encoding.
+     */
+    public long getSizeInBytes() {
+        if ( buffer != null )
+            return buffer.size() - bufferedHeaderSize;
+        return file == null ? 0 : file.length();
+    }
+
     public void mergeInto(VariantContextWriterStorage target) {
+        if ( ! closed )
+            throw new ReviewedGATKException("Writer not closed, but we are merging into the file!");
+
+        if ( buffer != null ) {
+            // never spilled, so the records go straight to the target without a round trip through the file
+            writeBufferedRecords(target.writer);
+            file.delete();
+            return;
+        }
+
         try {
-            if ( ! closed )
-                throw new ReviewedGATKException("Writer not closed, but we are merging into the file!");
             final String targetFilePath = target.file != null ? target.file.getAbsolutePath() : "/dev/stdin";
             logger.debug(String.format("Merging VariantContextWriterStorage from %s into %s", file.getAbsolutePath(), targetFilePath));
 
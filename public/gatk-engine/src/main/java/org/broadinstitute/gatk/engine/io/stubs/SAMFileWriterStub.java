@@ -36,6 +36,7 @@ import org.broadinstitute.gatk.utils.io.ReferenceBacked;
 import org.broadinstitute.gatk.utils.sam.GATKSAMFileWriter;
 import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
 import org.broadinstitute.gatk.utils.baq.BAQ;
+import org.broadinstitute.gatk.utils.baq.FastBAQ;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -121,7 +122,7 @@ public class SAMFileWriterStub implements Stub<SAMFileWriter>, GATKSAMFileWriter
     /**
      * HMM for BAQ, if needed
      */
-    BAQ baqHMM = new BAQ();
+    BAQ baqHMM = new FastBAQ();
 
     /**
      * Should we simplify the BAM file while writing it out?
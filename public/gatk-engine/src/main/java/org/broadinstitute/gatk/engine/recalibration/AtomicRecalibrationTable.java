@@ -0,0 +1,266 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free recalibration table made of primitive counters, for accumulating observations from many threads.
+ *
+ * The table has the same dimensions and keys as the NestedIntegerArray&lt;RecalDatum&gt; it stands in for, but
+ * flattens the keys into a single index into arrays of counters.  Counters are allocated in fixed-size chunks the
+ * first time a key within the chunk is incremented, so sparse key spaces stay cheap, and all updates are CAS
+ * operations on AtomicLongArrays.  Each cell takes two longs: the observation count, which also records the reported
+ * quality of the first observation in its top bits, and the raw bits of the (possibly fractional) error count.
+ *
+ * Small, heavily updated tables can be striped: each thread then updates one of several copies of the counters,
+ * picked by its thread id, and the copies are summed when the RecalDatums are materialized by {@link #toNestedIntegerArray()}.
+ */
+public final class AtomicRecalibrationTable {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int QUAL_SHIFT = 56;
+    private static final long OBSERVATIONS_MASK = (1L << QUAL_SHIFT) - 1;
+
+    private final int[] dimensions;
+
+    /**
+     * Distance in the flattened index between consecutive values of each key.
+     */
+    private final long[] strides;
+
+    private final long numCells;
+
+    /**
+     * Counter chunks, by stripe and then chunk index.
+     */
+    private final AtomicReferenceArray<AtomicLongArray>[] stripes;
+
+    private final int stripeMask;
+
+    /**
+     * Create a new, empty table with a single stripe.
+     * @param dimensions the size of each key dimension, as for NestedIntegerArray.
+     */
+    public AtomicRecalibrationTable(final int... dimensions) {
+        this(1, dimensions);
+    }
+
+    /**
+     * Create a new, empty table.
+     * @param numStripes number of copies of the counters; must be a power of two.
+     * @param dimensions the size of each key dimension, as for NestedIntegerArray.
+     */
+    @SuppressWarnings("unchecked")
+    public AtomicRecalibrationTable(final int numStripes, final int[] dimensions) {
+        if ( numStripes < 1 || Integer.bitCount(numStripes) != 1 )
+            throw new IllegalArgumentException("The number of stripes must be a power of two: " + numStripes);
+        if ( dimensions.length == 0 )
+            throw new IllegalArgumentException("There must be at least one dimension");
+        this.dimensions = dimensions.clone();
+        strides = new long[dimensions.length];
+        long size = 1;
+        for ( int i = dimensions.length - 1; i >= 0; i-- ) {
+            if ( dimensions[i] < 1 )
+                throw new IllegalArgumentException("Invalid dimensions " + Arrays.toString(dimensions));
+            strides[i] = size;
+            size *= dimensions[i];
+        }
+        numCells = size;
+        final long numChunks = (numCells + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+        if ( numChunks > Integer.MAX_VALUE )
+            throw new IllegalArgumentException("Table dimensions are too large: " + Arrays.toString(dimensions));
+
+        stripes = new AtomicReferenceArray[numStripes];
+        for ( int s = 0; s < numStripes; s++ )
+            stripes[s] = new AtomicReferenceArray<AtomicLongArray>((int) numChunks);
+        stripeMask = numStripes - 1;
+    }
+
+    /**
+     * @return the dimensions of this table.  DO NOT MODIFY
+     */
+    public int[] getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Records one observation at the given keys.
+     *
+     * @param reportedQual quality reported for the observed base; the first observation of a cell sets its reported quality.
+     * @param isError the error value of the observation, between 0 and 1.
+     * @param keys location of the cell, one key per dimension.
+     */
+    public void increment(final byte reportedQual, final double isError, final int... keys) {
+        if ( reportedQual < 0 )
+            throw new IllegalArgumentException("reportedQual < 0");
+        final long index = flatIndex(keys);
+        final AtomicLongArray chunk = getOrCreateChunk(stripes[(int) Thread.currentThread().getId() & stripeMask], index);
+        final int offset = (int) (index & CHUNK_MASK) << 1;
+
+        // The first observation records the reported quality, shifted by one so that 0 means unset.
+        long observations;
+        do {
+            observations = chunk.get(offset);
+        } while ( ! chunk.compareAndSet(offset, observations, observations == 0 ? ((long) (reportedQual + 1) << QUAL_SHIFT) | 1 : observations + 1) );
+
+        if ( isError != 0.0 ) {
+            long errorBits;
+            do {
+                errorBits = chunk.get(offset + 1);
+            } while ( ! chunk.compareAndSet(offset + 1, errorBits, Double.doubleToRawLongBits(Double.longBitsToDouble(errorBits) + isError)) );
+        }
+    }
+
+    /**
+     * Gets the number of observations recorded at the given keys, over all stripes.
+     * @param keys location of the cell, one key per dimension.
+     * @return a non-negative count.
+     */
+    public long getNumObservations(final int... keys) {
+        final long index = flatIndex(keys);
+        long total = 0;
+        for ( final AtomicReferenceArray<AtomicLongArray> stripe : stripes ) {
+            final AtomicLongArray chunk = stripe.get((int) (index >>> CHUNK_BITS));
+            if ( chunk != null )
+                total += chunk.get((int) (index & CHUNK_MASK) << 1) & OBSERVATIONS_MASK;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of errors recorded at the given keys, over all stripes.
+     * @param keys location of the cell, one key per dimension.
+     * @return a non-negative count.
+     */
+    public double getNumMismatches(final int... keys) {
+        final long index = flatIndex(keys);
+        double total = 0;
+        for ( final AtomicReferenceArray<AtomicLongArray> stripe : stripes ) {
+            final AtomicLongArray chunk = stripe.get((int) (index >>> CHUNK_BITS));
+            if ( chunk != null )
+                total += Double.longBitsToDouble(chunk.get(((int) (index & CHUNK_MASK) << 1) + 1));
+        }
+        return total;
+    }
+
+    /**
+     * Materializes the counters as RecalDatums.  Should only be called once all updates are done, as concurrent
+     * updates may or may not be reflected in the result.
+     *
+     * @return a newly allocated table with one RecalDatum per cell with at least one observation.
+     */
+    public NestedIntegerArray<RecalDatum> toNestedIntegerArray() {
+        final NestedIntegerArray<RecalDatum> result = new NestedIntegerArray<RecalDatum>(dimensions);
+        addTo(result);
+        return result;
+    }
+
+    /**
+     * Materializes the counters as RecalDatums and adds them to the given table, combining them with any
+     * RecalDatum already present.  Should only be called once all updates are done.
+     *
+     * @param table destination table, with the same dimensions as this one.
+     */
+    public void addTo(final NestedIntegerArray<RecalDatum> table) {
+        if ( ! Arrays.equals(table.getDimensions(), dimensions) )
+            throw new IllegalArgumentException("Table dimensions " + Arrays.toString(table.getDimensions()) + " differ from " + Arrays.toString(dimensions));
+        final int numChunks = stripes[0].length();
+        final int[] keys = new int[dimensions.length];
+        for ( int c = 0; c < numChunks; c++ ) {
+            if ( ! isChunkAllocated(c) )
+                continue;
+            for ( int i = 0; i < CHUNK_SIZE; i++ ) {
+                long observations = 0;
+                double mismatches = 0;
+                int reportedQual = -1;
+                for ( final AtomicReferenceArray<AtomicLongArray> stripe : stripes ) {
+                    final AtomicLongArray chunk = stripe.get(c);
+                    if ( chunk == null )
+                        continue;
+                    final long packedObservations = chunk.get(i << 1);
+                    if ( packedObservations == 0 )
+                        continue;
+                    observations += packedObservations & OBSERVATIONS_MASK;
+                    mismatches += Double.longBitsToDouble(chunk.get((i << 1) + 1));
+                    if ( reportedQual < 0 )
+                        reportedQual = (int) (packedObservations >>> QUAL_SHIFT) - 1;
+                }
+                if ( observations > 0 ) {
+                    unflattenIndex(((long) c << CHUNK_BITS) | i, keys);
+                    final RecalDatum datum = new RecalDatum(observations, mismatches, (byte) reportedQual);
+                    final RecalDatum existingDatum = table.get(keys);
+                    if ( existingDatum == null )
+                        table.put(datum, keys);
+                    else
+                        existingDatum.combine(datum);
+                }
+            }
+        }
+    }
+
+    private boolean isChunkAllocated(final int chunkIndex) {
+        for ( final AtomicReferenceArray<AtomicLongArray> stripe : stripes )
+            if ( stripe.get(chunkIndex) != null )
+                return true;
+        return false;
+    }
+
+    private long flatIndex(final int[] keys) {
+        if ( keys.length != dimensions.length )
+            throw new IllegalArgumentException("Exactly " + dimensions.length + " keys should be passed to this table but " + keys.length + " were provided");
+        long index = 0;
+        for ( int i = 0; i < keys.length; i++ ) {
+            if ( keys[i] < 0 || keys[i] >= dimensions[i] )
+                throw new IllegalArgumentException("Key " + keys[i] + " is out of bounds for dimension " + i + " of size " + dimensions[i]);
+            index += keys[i] * strides[i];
+        }
+        return index;
+    }
+
+    private void unflattenIndex(long index, final int[] keys) {
+        for ( int i = 0; i < keys.length; i++ ) {
+            keys[i] = (int) (index / strides[i]);
+            index -= keys[i] * strides[i];
+        }
+    }
+
+    private static AtomicLongArray getOrCreateChunk(final AtomicReferenceArray<AtomicLongArray> stripe, final long index) {
+        final int chunkIndex = (int) (index >>> CHUNK_BITS);
+        final AtomicLongArray chunk = stripe.get(chunkIndex);
+        if ( chunk != null )
+            return chunk;
+        // Racing threads may both allocate a chunk, but only one gets installed.
+        stripe.compareAndSet(chunkIndex, null, new AtomicLongArray(CHUNK_SIZE << 1));
+        return stripe.get(chunkIndex);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import com.google.java.contract.Ensures;
+import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.recalibration.EventType;
+
+/**
+ * Lock-free counterpart of {@link RecalibrationTables} for accumulating observations from many threads at once.
+ *
+ * All threads update the same tables of primitive counters, so there are no per-thread copies to merge and no
+ * RecalDatum objects until {@link #toRecalibrationTables()} is called to write the report.  The read group and
+ * quality score tables, which every observation updates, are striped to spread the contention.
+ */
+public final class AtomicRecalibrationTables {
+    /**
+     * Number of stripes of the small, heavily updated tables.
+     */
+    static final int DEFAULT_NUM_STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+    private final AtomicRecalibrationTable[] tables;
+    private final Covariate[] covariates;
+    private final int numReadGroups;
+
+    public AtomicRecalibrationTables(final Covariate[] covariates) {
+        this(covariates, covariates[RecalibrationTables.TableType.READ_GROUP_TABLE.ordinal()].maximumKeyValue() + 1);
+    }
+
+    public AtomicRecalibrationTables(final Covariate[] covariates, final int numReadGroups) {
+        this(covariates, numReadGroups, DEFAULT_NUM_STRIPES);
+    }
+
+    /**
+     * Create new, empty tables with the same layout as RecalibrationTables.
+     * @param covariates the covariates, in table order.
+     * @param numReadGroups number of read groups.
+     * @param numStripes number of stripes of the read group and quality score tables; must be a power of two.
+     */
+    public AtomicRecalibrationTables(final Covariate[] covariates, final int numReadGroups, final int numStripes) {
+        this.covariates = covariates;
+        this.numReadGroups = numReadGroups;
+        final int qualDimension = covariates[RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal()].maximumKeyValue() + 1;
+        final int eventDimension = EventType.values().length;
+
+        tables = new AtomicRecalibrationTable[covariates.length];
+        tables[RecalibrationTables.TableType.READ_GROUP_TABLE.ordinal()] =
+                new AtomicRecalibrationTable(numStripes, new int[] {numReadGroups, eventDimension});
+        tables[RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal()] =
+                new AtomicRecalibrationTable(numStripes, new int[] {numReadGroups, qualDimension, eventDimension});
+        for ( int i = RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal(); i < covariates.length; i++ )
+            tables[i] = new AtomicRecalibrationTable(numReadGroups, qualDimension, covariates[i].maximumKeyValue() + 1, eventDimension);
+    }
+
+    @Ensures("result != null")
+    public AtomicRecalibrationTable getReadGroupTable() {
+        return getTable(RecalibrationTables.TableType.READ_GROUP_TABLE.ordinal());
+    }
+
+    @Ensures("result != null")
+    public AtomicRecalibrationTable getQualityScoreTable() {
+        return getTable(RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal());
+    }
+
+    @Ensures("result != null")
+    public AtomicRecalibrationTable getTable(final int index) {
+        return tables[index];
+    }
+
+    @Ensures("result >= 0")
+    public int numTables() {
+        return tables.length;
+    }
+
+    /**
+     * Materializes the counters as RecalDatums, for writing the recalibration report.
+     * Should only be called once all updates are done.
+     *
+     * @return newly allocated RecalibrationTables holding the accumulated data.
+     */
+    public RecalibrationTables toRecalibrationTables() {
+        final RecalibrationTables result = new RecalibrationTables(covariates, numReadGroups);
+        for ( int i = 0; i < tables.length; i++ )
+            tables[i].addTo(result.getTable(i));
+        return result;
+    }
+}
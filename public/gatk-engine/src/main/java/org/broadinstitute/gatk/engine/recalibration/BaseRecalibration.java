@@ -129,6 +129,7 @@ public class BaseRecalibration {
 
         final ReadCovariates readCovariates = RecalUtils.computeCovariates(read, requestedCovariates);
         final int readLength = read.getReadLength();
+        final List<RecalDatum> empiricalQualCovs = new ArrayList<RecalDatum>(requestedCovariates.length);
 
         for (final EventType errorModel : EventType.values()) { // recalibrate all three quality strings
             if (disableIndelQuals && errorModel != EventType.BASE_SUBSTITUTION) {
@@ -156,7 +157,7 @@ public class BaseRecalibration {
                         // get the keyset for this base using the error model
                         final int[] keySet = fullReadKeySet[offset];
                         final RecalDatum empiricalQualQS = recalibrationTables.getQualityScoreTable().get(keySet[0], keySet[1], errorModel.ordinal());
-                        final List<RecalDatum> empiricalQualCovs = new ArrayList<RecalDatum>();
+                        empiricalQualCovs.clear();
                         for (int i = 2; i < requestedCovariates.length; i++) {
                             if (keySet[i] < 0) {
                                 continue;
@@ -29,6 +29,8 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.LRUCache;
 import org.broadinstitute.gatk.utils.recalibration.EventType;
 
+import java.util.Arrays;
+
 /**
  * The object temporarily held by a read that describes all of it's covariates.
  *
@@ -46,15 +48,18 @@ public class ReadCovariates {
     private static final int LRU_CACHE_SIZE = 500;
 
     /**
-     * Use an LRU cache to keep cache of keys (int[][][]) arrays for each read length we've seen.
-     * The cache allows us to avoid the expense of recreating these arrays for every read.  The LRU
-     * keeps the total number of cached arrays to less than LRU_CACHE_SIZE.
+     * Per-thread arena for the keys (int[][][]) arrays of the reads we've seen.
+     *
+     * The arena owns a single pool of key rows (one int[numberOfCovariates] per event type and read offset) sized
+     * for the longest read seen so far.  The keys of a read of a given length are a view over the first readLength
+     * rows of the pool, so reads of different lengths share the same rows and only the (small) views are cached,
+     * in an LRU that keeps the total number of views to less than LRU_CACHE_SIZE.
      *
-     * This is a thread local variable, so the total memory required may grow to N_THREADS x LRU_CACHE_SIZE
+     * This is a thread local variable, so the total memory required grows with N_THREADS x the longest read length
      */
-    private final static ThreadLocal<LRUCache<Integer, int[][][]>> keysCache = new ThreadLocal<LRUCache<Integer, int[][][]>>() {
-        @Override protected LRUCache<Integer, int[][][]> initialValue() {
-            return new LRUCache<Integer, int[][][]>(LRU_CACHE_SIZE);
+    private final static ThreadLocal<KeyArena> keysCache = new ThreadLocal<KeyArena>() {
+        @Override protected KeyArena initialValue() {
+            return new KeyArena();
         }
     };
 
@@ -66,10 +71,29 @@ public class ReadCovariates {
         keysCache.remove();
     }
 
+    /**
+     * Get the ReadCovariates owned by this thread, set up to hold the keys of a read of length readLength
+     *
+     * Unlike the constructor this doesn't allocate anything once the arena has seen a read of this length, which
+     * matters when computing the covariates of every read of a BAM.  The returned object (and its keys) is only
+     * valid until the next call to this method from the same thread.
+     *
+     * @param readLength the length of the read, must be >= 0
+     * @param numberOfCovariates the number of covariates to hold per offset
+     * @return a non-null ReadCovariates, reused across calls on the same thread
+     */
+    public static ReadCovariates getThreadLocalReadCovariates(final int readLength, final int numberOfCovariates) {
+        final KeyArena arena = keysCache.get();
+        final ReadCovariates readCovariates = arena.readCovariates;
+        readCovariates.keys = arena.getKeys(readLength, numberOfCovariates);
+        readCovariates.currentCovariateIndex = 0;
+        return readCovariates;
+    }
+
     /**
      * Our keys, indexed by event type x read length x covariate
      */
-    private final int[][][] keys;
+    private int[][][] keys;
 
     /**
      * The index of the current covariate, used by addCovariate
@@ -77,18 +101,14 @@ public class ReadCovariates {
     private int currentCovariateIndex = 0;
 
     public ReadCovariates(final int readLength, final int numberOfCovariates) {
-        final LRUCache<Integer, int[][][]> cache = keysCache.get();
-        final int[][][] cachedKeys = cache.get(readLength);
-        if ( cachedKeys == null ) {
-            // There's no cached value for read length so we need to create a new int[][][] array
-            if ( logger.isDebugEnabled() ) logger.debug("Keys cache miss for length " + readLength + " cache size " + cache.size());
-            keys = new int[EventType.values().length][readLength][numberOfCovariates];
-            cache.put(readLength, keys);
-        } else {
-            keys = cachedKeys;
-        }
+        keys = keysCache.get().getKeys(readLength, numberOfCovariates);
     }
 
+    /**
+     * Only used by the KeyArena to create its reusable instance
+     */
+    private ReadCovariates() {}
+
     public void setCovariateIndex(final int index) {
         currentCovariateIndex = index;
     }
@@ -147,4 +167,58 @@ public class ReadCovariates {
     protected int[] getDeletionsKeySet(final int readPosition) {
         return getKeySet(readPosition, EventType.BASE_DELETION);
     }
+
+    /**
+     * The pool of key rows backing the ReadCovariates of a single thread
+     */
+    private static final class KeyArena {
+        private final ReadCovariates readCovariates = new ReadCovariates();
+        private final LRUCache<Integer, int[][][]> views = new LRUCache<Integer, int[][][]>(LRU_CACHE_SIZE);
+
+        /**
+         * The rows, indexed by event type x offset.  Only the first capacity offsets are allocated.
+         */
+        private final int[][][] rows = new int[EventType.values().length][0][];
+        private int capacity = 0;
+        private int numberOfCovariates = -1;
+
+        /**
+         * The most recently requested view, since consecutive reads almost always have the same length
+         */
+        private int[][][] lastKeys = null;
+
+        private int[][][] getKeys(final int readLength, final int numberOfCovariates) {
+            if ( lastKeys != null && lastKeys[0].length == readLength )
+                return lastKeys;
+
+            int[][][] keys = views.get(readLength);
+            if ( keys == null ) {
+                // There's no cached view for this read length so we need to build one over the pool
+                if ( logger.isDebugEnabled() ) logger.debug("Keys cache miss for length " + readLength + " cache size " + views.size());
+                if ( readLength > capacity )
+                    growRows(readLength, numberOfCovariates);
+                keys = new int[rows.length][][];
+                for ( int i = 0; i < rows.length; i++ )
+                    keys[i] = Arrays.copyOf(rows[i], readLength);
+                views.put(readLength, keys);
+            }
+            lastKeys = keys;
+            return keys;
+        }
+
+        private void growRows(final int readLength, final int numberOfCovariates) {
+            if ( this.numberOfCovariates == -1 )
+                this.numberOfCovariates = numberOfCovariates;
+
+            // rows allocated so far stay in place so that views handed out earlier remain valid
+            final int newCapacity = Math.max(readLength, capacity + (capacity >> 1));
+            for ( int i = 0; i < rows.length; i++ ) {
+                final int[][] grown = Arrays.copyOf(rows[i], newCapacity);
+                for ( int offset = capacity; offset < newCapacity; offset++ )
+                    grown[offset] = new int[this.numberOfCovariates];
+                rows[i] = grown;
+            }
+            capacity = newCapacity;
+        }
+    }
 }
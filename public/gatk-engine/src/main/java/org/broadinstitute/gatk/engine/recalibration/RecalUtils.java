@@ -897,12 +897,15 @@ public class RecalUtils {
      * value for the ith position in the read and the jth covariate in
      * reqeustedCovariates list.
      *
+     * The result is this thread's reusable ReadCovariates (see ReadCovariates.getThreadLocalReadCovariates), so
+     * it is only valid until the next call to this method from the same thread.
+     *
      * @param read                The read for which to compute covariate values.
      * @param requestedCovariates The list of requested covariates.
      * @return a matrix with all the covariates calculated for every base in the read
      */
     public static ReadCovariates computeCovariates(final GATKSAMRecord read, final Covariate[] requestedCovariates) {
-        final ReadCovariates readCovariates = new ReadCovariates(read.getReadLength(), requestedCovariates.length);
+        final ReadCovariates readCovariates = ReadCovariates.getThreadLocalReadCovariates(read.getReadLength(), requestedCovariates.length);
         computeCovariates(read, requestedCovariates, readCovariates);
         return readCovariates;
     }
@@ -28,15 +28,11 @@ package org.broadinstitute.gatk.engine.recalibration.covariates;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.recalibration.RecalibrationArgumentCollection;
 import org.broadinstitute.gatk.utils.BaseUtils;
-import org.broadinstitute.gatk.utils.clipping.ClippingRepresentation;
-import org.broadinstitute.gatk.utils.clipping.ReadClipper;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.engine.recalibration.ReadCovariates;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
-import java.util.ArrayList;
-
 /**
  * Created by IntelliJ IDEA.
  * User: rpoplin
@@ -86,40 +82,71 @@ public class ContextCovariate implements StandardCovariate {
 
     @Override
     public void recordValues(final GATKSAMRecord read, final ReadCovariates values) {
-
-        // store the original bases and then write Ns over low quality ones
-        final byte[] originalBases = read.getReadBases().clone();
-        // Write N's over the low quality tail of the reads to avoid adding them into the context
-        final GATKSAMRecord clippedRead = ReadClipper.clipLowQualEnds(read, LOW_QUAL_TAIL, ClippingRepresentation.WRITE_NS);
-        
-        final boolean negativeStrand = clippedRead.getReadNegativeStrandFlag();
-        byte[] bases = clippedRead.getReadBases();
-        if (negativeStrand)
-            bases = BaseUtils.simpleReverseComplement(bases);
-
-        final ArrayList<Integer> mismatchKeys = contextWith(bases, mismatchesContextSize, mismatchesKeyMask);
-        final ArrayList<Integer> indelKeys = contextWith(bases, indelsContextSize, indelsKeyMask);
-
+        final byte[] bases = read.getReadBases();
+        final byte[] quals = read.getBaseQualities();
         final int readLength = bases.length;
 
-        // this is necessary to ensure that we don't keep historical data in the ReadCovariates values
-        // since the context covariate may not span the entire set of values in read covariates
-        // due to the clipping of the low quality bases
-        if ( readLength != originalBases.length ) {
-            // don't both zeroing out if we are going to overwrite the whole array
-            for ( int i = 0; i < originalBases.length; i++ )
-                // this base has been clipped off, so zero out the covariate values here
+        // Treat the low quality tails of the read as N's to avoid adding them into the context.  This matches
+        // ReadClipper.clipLowQualEnds(read, LOW_QUAL_TAIL, ClippingRepresentation.WRITE_NS) without copying the read.
+        int firstGoodBase = 0;
+        int lastGoodBase = readLength - 1;
+        while (lastGoodBase >= 0 && quals[lastGoodBase] <= LOW_QUAL_TAIL) lastGoodBase--;
+        while (firstGoodBase < readLength && quals[firstGoodBase] <= LOW_QUAL_TAIL) firstGoodBase++;
+
+        if (firstGoodBase > lastGoodBase) {
+            // the entire read is clipped, so zero out the covariate values to ensure that we don't keep
+            // historical data in the ReadCovariates values
+            for (int i = 0; i < readLength; i++)
                 values.addCovariate(0, 0, 0, i);
+            return;
         }
 
+        // roll both contexts along the read in the direction of sequencing, so that each key only costs a
+        // shift and a mask on top of the previous one
+        final boolean negativeStrand = read.getReadNegativeStrandFlag();
+        final int mismatchesNewBaseOffset = 2 * (mismatchesContextSize - 1) + LENGTH_BITS;
+        final int indelsNewBaseOffset = 2 * (indelsContextSize - 1) + LENGTH_BITS;
+        int mismatchKey = 0;
+        int indelKey = 0;
+        int consecutiveBases = 0; // the number of ACGT bases ending at the current one
+
         for (int i = 0; i < readLength; i++) {
             final int readOffset = (negativeStrand ? readLength - i - 1 : i);
-            final int indelKey = indelKeys.get(i);
-            values.addCovariate(mismatchKeys.get(i), indelKey, indelKey, readOffset);
+            final int baseIndex;
+            if (readOffset < firstGoodBase || readOffset > lastGoodBase)
+                baseIndex = -1;
+            else
+                baseIndex = BaseUtils.simpleBaseToBaseIndex(negativeStrand ? BaseUtils.simpleComplement(bases[readOffset]) : bases[readOffset]);
+
+            if (baseIndex == -1) { // ignore non-ACGT bases
+                consecutiveBases = 0;
+                mismatchKey = 0;
+                indelKey = 0;
+            } else {
+                consecutiveBases++;
+                mismatchKey = rollContext(mismatchKey, baseIndex, mismatchesNewBaseOffset, mismatchesKeyMask, mismatchesContextSize);
+                indelKey = rollContext(indelKey, baseIndex, indelsNewBaseOffset, indelsKeyMask, indelsContextSize);
+            }
+
+            final int mismatchContext = consecutiveBases >= mismatchesContextSize ? mismatchKey : -1;
+            final int indelContext = consecutiveBases >= indelsContextSize ? indelKey : -1;
+            values.addCovariate(mismatchContext, indelContext, indelContext, readOffset);
         }
+    }
 
-        // put the original bases back in
-        read.setReadBases(originalBases);
+    /**
+     * Push a base onto a context key: shift everything 2 bits, mask out the non-context bits, and add the new base
+     * and the length in.  Once contextSize bases have been pushed the result equals keyFromContext() of those bases.
+     *
+     * @param key           the key of the context ending at the previous base
+     * @param baseIndex     the index of the new base, between 0 and 3
+     * @param newBaseOffset the bit offset of the last base of the context
+     * @param mask          mask for pulling out just the context bits
+     * @param contextSize   context size to use building the context
+     * @return the key of the context ending at the new base
+     */
+    private static int rollContext(final int key, final int baseIndex, final int newBaseOffset, final int mask, final int contextSize) {
+        return ((key >> 2) & mask) | (baseIndex << newBaseOffset) | contextSize;
     }
 
     // Used to get the covariate's value from input csv file during on-the-fly recalibration
@@ -150,68 +177,6 @@ public class ContextCovariate implements StandardCovariate {
         return mask << LENGTH_BITS;
     }
 
-    /**
-     * calculates the context of a base independent of the covariate mode (mismatch, insertion or deletion)
-     *
-     * @param bases       the bases in the read to build the context from
-     * @param contextSize context size to use building the context
-     * @param mask        mask for pulling out just the context bits
-     */
-    private static ArrayList<Integer> contextWith(final byte[] bases, final int contextSize, final int mask) {
-
-        final int readLength = bases.length;
-        final ArrayList<Integer> keys = new ArrayList<Integer>(readLength);
-
-        // the first contextSize-1 bases will not have enough previous context
-        for (int i = 1; i < contextSize && i <= readLength; i++)
-            keys.add(-1);
-
-        if (readLength < contextSize)
-            return keys;
-
-        final int newBaseOffset = 2 * (contextSize - 1) + LENGTH_BITS;
-
-        // get (and add) the key for the context starting at the first base
-        int currentKey = keyFromContext(bases, 0, contextSize);
-        keys.add(currentKey);
-
-        // if the first key was -1 then there was an N in the context; figure out how many more consecutive contexts it affects
-        int currentNPenalty = 0;
-        if (currentKey == -1) {
-            currentKey = 0;
-            currentNPenalty = contextSize - 1;
-            int offset = newBaseOffset;
-            while (bases[currentNPenalty] != 'N') {
-                final int baseIndex = BaseUtils.simpleBaseToBaseIndex(bases[currentNPenalty]);
-                currentKey |= (baseIndex << offset);
-                offset -= 2;
-                currentNPenalty--;
-            }
-        }
-
-        for (int currentIndex = contextSize; currentIndex < readLength; currentIndex++) {
-            final int baseIndex = BaseUtils.simpleBaseToBaseIndex(bases[currentIndex]);
-            if (baseIndex == -1) { // ignore non-ACGT bases
-                currentNPenalty = contextSize;
-                currentKey = 0; // reset the key
-            } else {
-                // push this base's contribution onto the key: shift everything 2 bits, mask out the non-context bits, and add the new base and the length in
-                currentKey = (currentKey >> 2) & mask;
-                currentKey |= (baseIndex << newBaseOffset);
-                currentKey |= contextSize;
-            }
-
-            if (currentNPenalty == 0) {
-                keys.add(currentKey);
-            } else {
-                currentNPenalty--;
-                keys.add(-1);
-            }
-        }
-
-        return keys;
-    }
-
     public static int keyFromContext(final String dna) {
         return keyFromContext(dna.getBytes(), 0, dna.length());
     }
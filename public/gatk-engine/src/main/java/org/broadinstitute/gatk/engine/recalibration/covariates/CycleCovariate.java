@@ -77,10 +77,21 @@ public class CycleCovariate implements StandardCovariate {
     public static final int CUSHION_FOR_INDELS = 4;
     private String default_platform = null;
 
+    /**
+     * The keys of discrete platform reads only depend on the read length, strand and pair order, so we compute them
+     * once per thread and reuse them for every read with the same shape.
+     */
+    private final ThreadLocal<DiscreteCycleKeys> discreteCycleKeys = new ThreadLocal<DiscreteCycleKeys>() {
+        @Override protected DiscreteCycleKeys initialValue() {
+            return new DiscreteCycleKeys();
+        }
+    };
+
     // Initialize any member variables using the command-line arguments passed to the walkers
     @Override
     public void initialize(final RecalibrationArgumentCollection RAC) {
         this.MAXIMUM_CYCLE_VALUE = RAC.MAXIMUM_CYCLE_VALUE;
+        discreteCycleKeys.remove(); // the cached keys were checked against the previous maximum cycle value
 
         if (RAC.DEFAULT_PLATFORM != null && !NGSPlatform.isKnown(RAC.DEFAULT_PLATFORM))
             throw new UserException.CommandLineException("The requested default platform (" + RAC.DEFAULT_PLATFORM + ") is not a recognized platform.");
@@ -97,25 +108,11 @@ public class CycleCovariate implements StandardCovariate {
 
         // Discrete cycle platforms
         if (ngsPlatform.getSequencerType() == SequencerFlowClass.DISCRETE) {
-            final int readOrderFactor = read.getReadPairedFlag() && read.getSecondOfPairFlag() ? -1 : 1;
-            final int increment;
-            int cycle;
-            if (read.getReadNegativeStrandFlag()) {
-                cycle = readLength * readOrderFactor;
-                increment = -1 * readOrderFactor;
-            }
-            else {
-                cycle = readOrderFactor;
-                increment = readOrderFactor;
-            }
-
-            final int MAX_CYCLE_FOR_INDELS = readLength - CUSHION_FOR_INDELS - 1;
-            for (int i = 0; i < readLength; i++) {
-                final int substitutionKey = keyFromCycle(cycle);
-                final int indelKey = (i < CUSHION_FOR_INDELS || i > MAX_CYCLE_FOR_INDELS) ? -1 : substitutionKey;
-                values.addCovariate(substitutionKey, indelKey, indelKey, i);
-                cycle += increment;
-            }
+            final int[][] cycleKeys = discreteCycleKeys.get().getKeys(readLength, read.getReadNegativeStrandFlag(), read.getReadPairedFlag() && read.getSecondOfPairFlag());
+            final int[] substitutionKeys = cycleKeys[0];
+            final int[] indelKeys = cycleKeys[1];
+            for (int i = 0; i < readLength; i++)
+                values.addCovariate(substitutionKeys[i], indelKeys[i], indelKeys[i], i);
         }
 
         // Flow cycle platforms
@@ -253,4 +250,46 @@ public class CycleCovariate implements StandardCovariate {
             result++; // negative cycles get the lower-most bit set
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Cache of the substitution and indel cycle keys of discrete platform reads, indexed by strand x pair order.
+     * Reads of a run almost always share the same length, so each entry only remembers the last length it saw.
+     */
+    private final class DiscreteCycleKeys {
+        private final int[][][] keys = new int[4][][];
+
+        private int[][] getKeys(final int readLength, final boolean negativeStrand, final boolean secondOfPair) {
+            final int index = (negativeStrand ? 2 : 0) + (secondOfPair ? 1 : 0);
+            int[][] cached = keys[index];
+            if ( cached == null || cached[0].length != readLength ) {
+                cached = computeKeys(readLength, negativeStrand, secondOfPair);
+                keys[index] = cached;
+            }
+            return cached;
+        }
+
+        private int[][] computeKeys(final int readLength, final boolean negativeStrand, final boolean secondOfPair) {
+            final int readOrderFactor = secondOfPair ? -1 : 1;
+            final int increment;
+            int cycle;
+            if (negativeStrand) {
+                cycle = readLength * readOrderFactor;
+                increment = -1 * readOrderFactor;
+            }
+            else {
+                cycle = readOrderFactor;
+                increment = readOrderFactor;
+            }
+
+            final int[] substitutionKeys = new int[readLength];
+            final int[] indelKeys = new int[readLength];
+            final int MAX_CYCLE_FOR_INDELS = readLength - CUSHION_FOR_INDELS - 1;
+            for (int i = 0; i < readLength; i++) {
+                substitutionKeys[i] = keyFromCycle(cycle);
+                indelKeys[i] = (i < CUSHION_FOR_INDELS || i > MAX_CYCLE_FOR_INDELS) ? -1 : substitutionKeys[i];
+                cycle += increment;
+            }
+            return new int[][]{substitutionKeys, indelKeys};
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.traversals;
+
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+/**
+ * Limits the total number of reads in the active regions being mapped at once by TraverseActiveRegions
+ *
+ * With -nct, each map thread takes the next ready active region as soon as it's done with its last one,
+ * so a few threads picking up deep regions at the same time can hold far more reads than any one region.
+ * A region is acquired when it's handed out for mapping, which makes the thread taking it wait until
+ * enough of the regions already being mapped have been released.  A region is always let through when
+ * nothing else is in flight, so a region with more reads than the whole budget is mapped on its own
+ * rather than never.
+ *
+ * Regions are handed out in order, so waiting here never reorders the reduce.  This relies on each map
+ * thread taking a single region at a time, as TraverseActiveRegions doesn't batch its map inputs.
+ */
+final class InFlightReadBudget {
+    private final int maxReadsInFlight;
+    private int readsInFlight = 0;
+    private int regionsInFlight = 0;
+    private long totalWaitNanos = 0;
+
+    /**
+     * @param maxReadsInFlight the maximum number of reads across all of the regions in flight
+     */
+    InFlightReadBudget(final int maxReadsInFlight) {
+        if ( maxReadsInFlight < 1 ) throw new IllegalArgumentException("maxReadsInFlight must be >= 1, got " + maxReadsInFlight);
+        this.maxReadsInFlight = maxReadsInFlight;
+    }
+
+    /**
+     * Wait until a region with nReads reads fits into the budget, and count it as in flight
+     *
+     * @param nReads the number of reads in the region
+     */
+    synchronized void acquire(final int nReads) {
+        if ( nReads < 0 ) throw new IllegalArgumentException("nReads must be >= 0, got " + nReads);
+
+        if ( ! fits(nReads) ) {
+            final long start = System.nanoTime();
+            try {
+                while ( ! fits(nReads) )
+                    wait();
+            } catch ( InterruptedException ex ) {
+                throw new ReviewedGATKException("Interrupted while waiting for active regions to finish mapping", ex);
+            } finally {
+                totalWaitNanos += System.nanoTime() - start;
+            }
+        }
+
+        readsInFlight += nReads;
+        regionsInFlight++;
+    }
+
+    /**
+     * Note that a region previously acquired with nReads reads is done
+     *
+     * @param nReads the number of reads the region was acquired with
+     */
+    synchronized void release(final int nReads) {
+        if ( regionsInFlight == 0 || nReads > readsInFlight ) throw new IllegalStateException("Releasing a region with " + nReads + " reads that was never acquired");
+
+        readsInFlight -= nReads;
+        regionsInFlight--;
+        notifyAll();
+    }
+
+    private boolean fits(final int nReads) {
+        return regionsInFlight == 0 || readsInFlight + nReads <= maxReadsInFlight;
+    }
+
+    synchronized int getReadsInFlight() {
+        return readsInFlight;
+    }
+
+    synchronized int getRegionsInFlight() {
+        return regionsInFlight;
+    }
+
+    /**
+     * @return the total time, in nanoseconds, threads have spent waiting in acquire
+     */
+    synchronized long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.traversals;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecordIterator;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of reads, written in order and then streamed back once
+ *
+ * Reads are stored in the (uncompressed) binary encoding of BAM records, so they take a fraction of the space
+ * they take on the heap.  Only what's in the BAM record survives the round trip: reads come back as new
+ * GATKSAMRecords, without the file source or temporary attributes of the originals.
+ *
+ * The file is deleted once it's been read back, or when it's discarded.
+ */
+final class ReadSpillFile {
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final SAMFileHeader header;
+    private final File file;
+    private OutputStream outputStream;
+    private final BAMRecordCodec encoder;
+    private int nReads = 0;
+    private long nBytes = 0;
+
+    /**
+     * Create a new, empty spill file for reads with the given header
+     *
+     * @param header the header of the reads we'll write
+     */
+    ReadSpillFile(final SAMFileHeader header) {
+        if ( header == null ) throw new IllegalArgumentException("header cannot be null");
+        this.header = header;
+
+        try {
+            file = File.createTempFile("TAROrderedReadCache", ".reads");
+            file.deleteOnExit();
+            outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        } catch ( IOException e ) {
+            throw new UserException.BadTmpDir("Unable to create a temporary file for spilling reads: " + e.getMessage());
+        }
+
+        encoder = new BAMRecordCodec(header);
+        encoder.setOutputStream(outputStream, file.getPath());
+    }
+
+    /**
+     * Append read to this file
+     *
+     * @param read the read to write
+     */
+    void write(final GATKSAMRecord read) {
+        if ( outputStream == null ) throw new IllegalStateException("Spill file " + file + " has already been closed for writing");
+        encoder.encode(read);
+        nReads++;
+    }
+
+    /**
+     * @return the number of reads written to this file
+     */
+    int size() {
+        return nReads;
+    }
+
+    /**
+     * @return the size of this file in bytes, once it's been closed for writing by readBack
+     */
+    long getSizeInBytes() {
+        return nBytes;
+    }
+
+    /**
+     * Stream all of the reads written to this file back, in the order they were written
+     *
+     * No more reads can be written afterwards.  The file is deleted when the returned iterator is exhausted or closed.
+     *
+     * @return an iterator over the reads in this file
+     */
+    CloseableIterator<GATKSAMRecord> readBack() {
+        closeOutput();
+
+        final InputStream inputStream;
+        try {
+            inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, "Unable to read back spilled reads", e);
+        }
+
+        final BAMRecordCodec decoder = new BAMRecordCodec(header);
+        decoder.setInputStream(inputStream, file.getPath());
+
+        return new GATKSAMRecordIterator(new CloseableIterator<SAMRecord>() {
+            private SAMRecord nextRead = decoder.decode();
+
+            @Override
+            public boolean hasNext() {
+                if ( nextRead == null )
+                    close();
+                return nextRead != null;
+            }
+
+            @Override
+            public SAMRecord next() {
+                if ( ! hasNext() ) throw new NoSuchElementException("No more spilled reads in " + file);
+                final SAMRecord read = nextRead;
+                nextRead = decoder.decode();
+                return read;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from spilled reads");
+            }
+
+            @Override
+            public void close() {
+                nextRead = null;
+                try {
+                    inputStream.close();
+                } catch ( IOException e ) {
+                    // we're done with the file anyway
+                }
+                deleteFile();
+            }
+        });
+    }
+
+    /**
+     * Throw away this file without reading it back
+     */
+    void discard() {
+        closeOutput();
+        deleteFile();
+    }
+
+    private void closeOutput() {
+        if ( outputStream != null ) {
+            try {
+                outputStream.close();
+            } catch ( IOException e ) {
+                throw new RuntimeIOException("Unable to finish writing spilled reads to " + file, e);
+            }
+            outputStream = null;
+            nBytes = file.length();
+        }
+    }
+
+    private void deleteFile() {
+        if ( file.exists() && ! file.delete() )
+            file.deleteOnExit();
+    }
+}
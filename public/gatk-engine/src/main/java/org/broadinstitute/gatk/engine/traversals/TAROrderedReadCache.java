@@ -25,53 +25,141 @@
 
 package org.broadinstitute.gatk.engine.traversals;
 
-import org.broadinstitute.gatk.utils.downsampling.Downsampler;
-import org.broadinstitute.gatk.utils.downsampling.ReservoirDownsampler;
+import htsjdk.samtools.util.CloseableIterator;
+import org.broadinstitute.gatk.utils.Utils;
 import org.broadinstitute.gatk.utils.sam.AlignmentStartComparator;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 /**
  * Subsystem to track a list of all reads currently live in the TraverseActiveRegions system,
  * while limiting the total number of reads to a maximum capacity.
  *
+ * Optionally the cache also limits the (estimated) number of bytes of reads it keeps on the heap.  Once
+ * the reads in memory go over that budget they're spilled, in order, to a temporary file, and streamed
+ * back from it when the reads are popped.
+ *
+ * Once more than maxCapacity reads have been added since the last pop, the cache downsamples them with
+ * reservoir sampling ("Algorithm R", as in ReservoirDownsampler, drawing the same random numbers so it
+ * keeps the same reads).  We track which read sits in each reservoir slot ourselves rather than handing
+ * the reads to a ReservoirDownsampler so that reservoir reads stay under the same memory budget: they're
+ * charged against it and spilled like any other reads, and the spilled reads are streamed through the
+ * reservoir when it's started rather than read back into memory.
+ *
  * User: depristo
  * Date: 4/7/13
  * Time: 11:23 AM
  */
 public class TAROrderedReadCache {
+    /**
+     * Rough number of bytes a read takes on the heap on top of its bases and qualities: the record
+     * itself, its read name, cigar and attributes
+     */
+    protected static final int READ_OVERHEAD_BYTES = 400;
+
     private final int maxCapacity;
+    private final long maxBytesInMemory;
+
+    /**
+     * The reads in memory, in the order they were added, while we've had no more than maxCapacity reads
+     * since the last pop; null while we're downsampling
+     */
     private ArrayList<GATKSAMRecord> undownsampledCache;
-    private Downsampler<GATKSAMRecord> downsampler;
+
+    /**
+     * The reads before those in memory, if we've gone over maxBytesInMemory since the last pop; null otherwise.
+     * While we're downsampling this holds reservoir reads, some of which may since have been replaced.
+     */
+    private ReadSpillFile spillFile = null;
+
+    /** estimated bytes of the reads in undownsampledCache, or of the reservoir reads in memory */
+    private long bytesInMemory = 0;
+
+    //
+    // reservoir state, used once we're downsampling
+    //
+
+    /** the sequence number (order of submission to the reservoir) of the read in each slot; null if we're not downsampling */
+    private int[] reservoirSeqs = null;
+
+    /** the read in each slot, or null if it's been spilled to disk */
+    private GATKSAMRecord[] reservoirReads = null;
+
+    /** the number of reads submitted to the reservoir */
+    private int nSubmitted = 0;
+
+    /** the number of non-null entries in reservoirReads */
+    private int nReservoirReadsInMemory = 0;
+
+    /** the sequence numbers of the reads written to spillFile while downsampling, so we can tell which are still in the reservoir */
+    private BitSet spilledSeqs = null;
+
+    /**
+     * The slots filled since the reservoir was last spilled, in order, with the sequence numbers of the reads
+     * that filled them.  An entry is stale if its slot has since been refilled.
+     */
+    private int[] unspilledSlots = null;
+    private int[] unspilledSeqs = null;
+    private int nUnspilled = 0;
+
+    // occupancy statistics, over the lifetime of this cache
+    private int peakReadsInMemory = 0;
+    private long peakBytesInMemory = 0;
+    private long nReadsSpilled = 0;
+    private long nBytesSpilled = 0;
 
     private static final int UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE = 10000;
+    private static final int UNSPILLED_SLOTS_INITIAL_SIZE = 1024;
 
     /**
      * Create a new empty ReadCache
      * @param maxCapacity the max capacity of the read cache.
      */
     public TAROrderedReadCache( final int maxCapacity ) {
+        this(maxCapacity, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create a new empty ReadCache that spills reads to disk beyond maxBytesInMemory
+     * @param maxCapacity the max capacity of the read cache.
+     * @param maxBytesInMemory the max estimated bytes of reads to keep in memory before spilling them to disk
+     */
+    public TAROrderedReadCache( final int maxCapacity, final long maxBytesInMemory ) {
         if ( maxCapacity < 0 ) throw new IllegalArgumentException("maxCapacity must be >= 0 but got " + maxCapacity);
+        if ( maxBytesInMemory < 0 ) throw new IllegalArgumentException("maxBytesInMemory must be >= 0 but got " + maxBytesInMemory);
         this.maxCapacity = maxCapacity;
+        this.maxBytesInMemory = maxBytesInMemory;
 
-        // The one we're not currently using will always be null:
         initializeUndownsampledCache();
-        this.downsampler = null;
     }
 
     /**
-     * Moves all reads over to the downsampler, causing it to be used from this point on. Should be called
-     * when the undownsampledCache fills up and we need to start discarding reads. Since the
-     * ReservoirDownsampler doesn't preserve relative ordering, pop operations become expensive
-     * after this point, as they require a O(n log n) sort.
+     * Moves all reads over to the reservoir, causing it to be used from this point on. Should be called
+     * when the undownsampledCache fills up and we need to start discarding reads. Since reservoir sampling
+     * doesn't preserve relative ordering, pop operations become expensive after this point, as they
+     * require a O(n log n) sort.
      */
     private void activateDownsampler() {
-        downsampler = new ReservoirDownsampler<>(maxCapacity, false);
-        downsampler.submit(undownsampledCache);
-        undownsampledCache = null; // preferable to the O(n) clear() method
+        if ( spillFile != null ) {
+            // stream all of the reads through the reservoir from disk, in the order they were added, so we never
+            // hold the reads we've already spilled in memory
+            spillUndownsampledCache();
+            final CloseableIterator<GATKSAMRecord> spilledReads = readBackSpillFile();
+            try {
+                initializeReservoir();
+                while ( spilledReads.hasNext() )
+                    submitToReservoir(spilledReads.next());
+            } finally {
+                spilledReads.close();
+            }
+        }
+        else {
+            final List<GATKSAMRecord> cachedReads = undownsampledCache;
+            initializeReservoir();
+            for ( final GATKSAMRecord read : cachedReads )
+                submitToReservoir(read);
+        }
     }
 
     /**
@@ -81,6 +169,162 @@ public class TAROrderedReadCache {
         undownsampledCache = new ArrayList<>(Math.min(maxCapacity + 1, UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE));
     }
 
+    /**
+     * Drop the undownsampled cache and allocate an empty reservoir in its place
+     */
+    private void initializeReservoir() {
+        undownsampledCache = null; // preferable to the O(n) clear() method
+        bytesInMemory = 0;
+        reservoirSeqs = new int[maxCapacity];
+        reservoirReads = new GATKSAMRecord[maxCapacity];
+        nSubmitted = 0;
+        nReservoirReadsInMemory = 0;
+        spilledSeqs = new BitSet();
+        unspilledSlots = new int[UNSPILLED_SLOTS_INITIAL_SIZE];
+        unspilledSeqs = new int[UNSPILLED_SLOTS_INITIAL_SIZE];
+        nUnspilled = 0;
+    }
+
+    /**
+     * Go back to the state the constructor puts us in, forgetting about all of the reads in memory
+     */
+    private void reset() {
+        initializeUndownsampledCache();
+        bytesInMemory = 0;
+        reservoirSeqs = null;
+        reservoirReads = null;
+        nSubmitted = 0;
+        nReservoirReadsInMemory = 0;
+        spilledSeqs = null;
+        unspilledSlots = null;
+        unspilledSeqs = null;
+        nUnspilled = 0;
+    }
+
+    /**
+     * Submit read to the reservoir, in the same way as ReservoirDownsampler.submit
+     *
+     * The first maxCapacity reads fill the reservoir, and each later one replaces the read in a random slot with
+     * probability maxCapacity / nSubmitted.
+     *
+     * @param read the read to submit
+     */
+    private void submitToReservoir( final GATKSAMRecord read ) {
+        final int seq = nSubmitted++;
+        final int slot;
+        if ( seq < maxCapacity ) {
+            slot = seq;
+        }
+        else {
+            slot = Utils.getRandomGenerator().nextInt(nSubmitted);
+            if ( slot >= maxCapacity )
+                return; // discarded
+
+            final GATKSAMRecord replacedRead = reservoirReads[slot];
+            if ( replacedRead != null ) {
+                bytesInMemory -= estimateSizeInBytes(replacedRead);
+                nReservoirReadsInMemory--;
+            }
+        }
+
+        reservoirSeqs[slot] = seq;
+        reservoirReads[slot] = read;
+        bytesInMemory += estimateSizeInBytes(read);
+        nReservoirReadsInMemory++;
+        addUnspilledSlot(slot, seq);
+
+        if ( bytesInMemory > maxBytesInMemory ) {
+            updatePeakOccupancy();
+            spillReservoir();
+        }
+    }
+
+    /**
+     * Remember that slot was filled with the read with sequence number seq since we last spilled the reservoir
+     */
+    private void addUnspilledSlot( final int slot, final int seq ) {
+        if ( nUnspilled == unspilledSlots.length ) {
+            // drop the entries for slots refilled since, and only grow if that doesn't free up enough room
+            int nLive = 0;
+            for ( int i = 0; i < nUnspilled; i++ ) {
+                if ( reservoirSeqs[unspilledSlots[i]] == unspilledSeqs[i] ) {
+                    unspilledSlots[nLive] = unspilledSlots[i];
+                    unspilledSeqs[nLive] = unspilledSeqs[i];
+                    nLive++;
+                }
+            }
+            nUnspilled = nLive;
+
+            if ( nUnspilled > unspilledSlots.length / 2 ) {
+                unspilledSlots = Arrays.copyOf(unspilledSlots, 2 * unspilledSlots.length);
+                unspilledSeqs = Arrays.copyOf(unspilledSeqs, 2 * unspilledSeqs.length);
+            }
+        }
+
+        unspilledSlots[nUnspilled] = slot;
+        unspilledSeqs[nUnspilled] = seq;
+        nUnspilled++;
+    }
+
+    /**
+     * Write all of the reads in undownsampledCache to the spill file, after any reads already there
+     */
+    private void spillUndownsampledCache() {
+        if ( spillFile == null )
+            spillFile = new ReadSpillFile(undownsampledCache.get(0).getHeader());
+        for ( final GATKSAMRecord read : undownsampledCache )
+            spillFile.write(read);
+
+        nReadsSpilled += undownsampledCache.size();
+        initializeUndownsampledCache();
+        bytesInMemory = 0;
+    }
+
+    /**
+     * Write all of the reservoir reads in memory to the spill file, after any reads already there
+     *
+     * Every read in memory went into the reservoir since the last spill, so writing the live unspilled
+     * slots in order keeps the spill file in the order the reads were submitted.
+     */
+    private void spillReservoir() {
+        for ( int i = 0; i < nUnspilled; i++ ) {
+            final int slot = unspilledSlots[i];
+            if ( reservoirSeqs[slot] != unspilledSeqs[i] )
+                continue; // this read has since been replaced
+
+            final GATKSAMRecord read = reservoirReads[slot];
+            if ( spillFile == null )
+                spillFile = new ReadSpillFile(read.getHeader());
+            spillFile.write(read);
+            spilledSeqs.set(unspilledSeqs[i]);
+            reservoirReads[slot] = null;
+            nReadsSpilled++;
+        }
+
+        nUnspilled = 0;
+        nReservoirReadsInMemory = 0;
+        bytesInMemory = 0;
+    }
+
+    /**
+     * Close the spill file for writing, returning an iterator over its reads and forgetting about it
+     */
+    private CloseableIterator<GATKSAMRecord> readBackSpillFile() {
+        final CloseableIterator<GATKSAMRecord> spilledReads = spillFile.readBack();
+        nBytesSpilled += spillFile.getSizeInBytes();
+        spillFile = null;
+        return spilledReads;
+    }
+
+    /**
+     * Roughly how many bytes does read take on the heap?
+     * @param read a read
+     * @return a positive number of bytes
+     */
+    protected static long estimateSizeInBytes( final GATKSAMRecord read ) {
+        return READ_OVERHEAD_BYTES + 2L * read.getReadLength();
+    }
+
     /**
      * What's the maximum number of reads we'll store in the cache?
      * @return a positive integer
@@ -89,6 +333,14 @@ public class TAROrderedReadCache {
         return maxCapacity;
     }
 
+    /**
+     * What's the maximum estimated number of bytes of reads we'll keep in memory before spilling them to disk?
+     * @return a non-negative number, or Long.MAX_VALUE if we never spill
+     */
+    public long getMaxBytesInMemory() {
+        return maxBytesInMemory;
+    }
+
     /**
      * Add a single read to this cache.  Assumed to be in sorted order w.r.t. the previously added reads
      * @param read a read to add
@@ -96,17 +348,24 @@ public class TAROrderedReadCache {
     public void add( final GATKSAMRecord read ) {
         if ( read == null ) throw new IllegalArgumentException("Read cannot be null");
 
-        if ( downsampler != null ) {
-            downsampler.submit(read);
+        if ( reservoirSeqs != null ) {
+            submitToReservoir(read);
         }
         else {
             undownsampledCache.add(read);
+            bytesInMemory += estimateSizeInBytes(read);
 
             // No more room in the undownsampledCache? Time to start downsampling
-            if ( undownsampledCache.size() > maxCapacity ) {
+            if ( size() > maxCapacity ) {
                 activateDownsampler();
             }
+            else if ( bytesInMemory > maxBytesInMemory ) {
+                updatePeakOccupancy();
+                spillUndownsampledCache();
+            }
         }
+
+        updatePeakOccupancy();
     }
 
     /**
@@ -125,7 +384,19 @@ public class TAROrderedReadCache {
      * @return a positive integer
      */
     public int size() {
-        return downsampler != null ? downsampler.size() : undownsampledCache.size();
+        return reservoirSeqs != null ? Math.min(nSubmitted, maxCapacity) : undownsampledCache.size() + (spillFile == null ? 0 : spillFile.size());
+    }
+
+    /**
+     * How many of the reads currently in the cache have been spilled to disk?
+     * @return a non-negative integer
+     */
+    public int getNumSpilled() {
+        return size() - getNumReadsInMemory();
+    }
+
+    private int getNumReadsInMemory() {
+        return reservoirSeqs != null ? nReservoirReadsInMemory : undownsampledCache.size();
     }
 
     /**
@@ -134,35 +405,228 @@ public class TAROrderedReadCache {
      * @return number of items discarded during downsampling since last pop operation
      */
     public int getNumDiscarded() {
-        return downsampler != null ? downsampler.getNumberOfDiscardedItems() : 0;
+        return reservoirSeqs != null ? nSubmitted - size() : 0;
+    }
+
+    private void updatePeakOccupancy() {
+        final int readsInMemory = getNumReadsInMemory();
+        if ( readsInMemory > peakReadsInMemory )
+            peakReadsInMemory = readsInMemory;
+        if ( bytesInMemory > peakBytesInMemory )
+            peakBytesInMemory = bytesInMemory;
+    }
+
+    /**
+     * @return the most reads this cache has held in memory at once
+     */
+    public int getPeakReadsInMemory() {
+        return peakReadsInMemory;
+    }
+
+    /**
+     * @return the most (estimated) bytes of reads this cache has held in memory at once, including the reads
+     *         in the reservoir while downsampling.  At most maxBytesInMemory plus the size of one read.
+     */
+    public long getPeakBytesInMemory() {
+        return peakBytesInMemory;
+    }
+
+    /**
+     * @return the total number of reads spilled to disk by this cache
+     */
+    public long getTotalReadsSpilled() {
+        return nReadsSpilled;
+    }
+
+    /**
+     * @return the total size of the files reads were spilled to by this cache, not counting the current one
+     */
+    public long getTotalBytesSpilled() {
+        return nBytesSpilled;
     }
 
     /**
      * Removes all reads currently in the cache, and returns them in sorted order (w.r.t. alignmentStart)
      *
      * Flushes this cache, so after this call the cache will contain no reads, and we'll be in the same
-     * initial state as the constructor would put us in, with a non-null undownsampledCache and a null
-     * downsampler.
+     * initial state as the constructor would put us in, with a non-null undownsampledCache and no reservoir.
+     *
+     * If some of the reads have been spilled to disk, they're all read back into memory.  Use
+     * popCurrentReadsIterator to avoid this.
      *
      * @return a list of GATKSAMRecords in this cache
      */
     public List<GATKSAMRecord> popCurrentReads() {
+        if ( spillFile != null ) {
+            final List<GATKSAMRecord> poppedReads = new ArrayList<>(size());
+            final CloseableIterator<GATKSAMRecord> it = popCurrentReadsIterator();
+            try {
+                while ( it.hasNext() )
+                    poppedReads.add(it.next());
+            } finally {
+                it.close();
+            }
+            return poppedReads;
+        }
+
         final List<GATKSAMRecord> poppedReads;
 
-        if ( downsampler == null ) {
+        if ( reservoirSeqs == null ) {
             poppedReads = undownsampledCache;  // avoid making a copy here, since we're going to allocate a new cache
         }
         else {
             // If we triggered the downsampler, we need to sort the reads before returning them,
-            // since the ReservoirDownsampler is not guaranteed to preserve relative ordering of items.
+            // since reservoir sampling doesn't preserve relative ordering of items.
             // After consuming the downsampled items in this call to popCurrentReads(), we switch back
             // to using the undownsampledCache until we fill up again.
-            poppedReads = downsampler.consumeFinalizedItems();  // avoid making a copy here
+            poppedReads = new ArrayList<>(Arrays.asList(reservoirReads).subList(0, size()));
             Collections.sort(poppedReads, new AlignmentStartComparator());
-            downsampler = null;
         }
 
-        initializeUndownsampledCache();
+        reset();
         return poppedReads;
     }
+
+    /**
+     * Like popCurrentReads, but streams the reads spilled to disk back one at a time instead of reading them
+     * all into memory at once
+     *
+     * The cache is flushed immediately, so reads can be added to it while iterating.  The iterator must be
+     * closed if it isn't exhausted, to delete any spill file.
+     *
+     * @return an iterator over the GATKSAMRecords in this cache, in sorted order (w.r.t. alignmentStart)
+     */
+    public CloseableIterator<GATKSAMRecord> popCurrentReadsIterator() {
+        if ( reservoirSeqs != null && spillFile != null )
+            return popSpilledReservoirIterator();
+
+        final CloseableIterator<GATKSAMRecord> spilledReads = spillFile == null ? null : readBackSpillFile();
+        final Iterator<GATKSAMRecord> readsInMemory = popCurrentReads().iterator();
+
+        return new CloseableIterator<GATKSAMRecord>() {
+            @Override
+            public boolean hasNext() {
+                return ( spilledReads != null && spilledReads.hasNext() ) || readsInMemory.hasNext();
+            }
+
+            @Override
+            public GATKSAMRecord next() {
+                return spilledReads != null && spilledReads.hasNext() ? spilledReads.next() : readsInMemory.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from popped reads");
+            }
+
+            @Override
+            public void close() {
+                if ( spilledReads != null )
+                    spilledReads.close();
+            }
+        };
+    }
+
+    /**
+     * popCurrentReadsIterator for a reservoir with some of its reads spilled to disk
+     *
+     * The reads were submitted in sorted order, so we walk the reservoir in order of submission, taking each read
+     * either from memory or from the spill file (skipping the spilled reads that have since been replaced).  To
+     * return exactly the order popCurrentReads gives an in-memory reservoir -- a stable sort of the slots -- reads
+     * with the same alignment start are put back in slot order, so only one such group is held in memory at once.
+     */
+    private CloseableIterator<GATKSAMRecord> popSpilledReservoirIterator() {
+        // the sequence number of the read in each slot in the high bits, the slot in the low bits, sorted by sequence number
+        final long[] seqsAndSlots = new long[size()];
+        for ( int slot = 0; slot < seqsAndSlots.length; slot++ )
+            seqsAndSlots[slot] = ((long)reservoirSeqs[slot] << 32) | slot;
+        Arrays.sort(seqsAndSlots);
+
+        final GATKSAMRecord[] readsInMemory = reservoirReads;
+        final BitSet spilledReadSeqs = spilledSeqs;
+        final CloseableIterator<GATKSAMRecord> spilledReads = readBackSpillFile();
+        reset();
+
+        return new CloseableIterator<GATKSAMRecord>() {
+            private final Comparator<GATKSAMRecord> comparator = new AlignmentStartComparator();
+            private final TreeMap<Integer, GATKSAMRecord> readsAtStartBySlot = new TreeMap<>();
+            private int nextIndex = 0;
+            private int nextSpilledSeq = spilledReadSeqs.nextSetBit(0);
+            private GATKSAMRecord nextRead = null;
+            private int nextReadSlot;
+
+            /**
+             * Set nextRead and nextReadSlot to the next read in order of submission, or nextRead to null if there are none left
+             */
+            private void advance() {
+                if ( nextIndex == seqsAndSlots.length ) {
+                    nextRead = null;
+                    return;
+                }
+
+                final int seq = (int)(seqsAndSlots[nextIndex] >>> 32);
+                nextReadSlot = (int)seqsAndSlots[nextIndex];
+                nextIndex++;
+
+                nextRead = readsInMemory[nextReadSlot];
+                if ( nextRead != null ) {
+                    readsInMemory[nextReadSlot] = null;
+                }
+                else {
+                    while ( nextSpilledSeq != seq ) {
+                        spilledReads.next(); // replaced after it was spilled
+                        nextSpilledSeq = spilledReadSeqs.nextSetBit(nextSpilledSeq + 1);
+                    }
+                    nextRead = spilledReads.next();
+                    nextSpilledSeq = spilledReadSeqs.nextSetBit(nextSpilledSeq + 1);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                if ( readsAtStartBySlot.isEmpty() ) {
+                    if ( nextIndex == 0 )
+                        advance();
+                    if ( nextRead != null ) {
+                        final GATKSAMRecord first = nextRead;
+                        do {
+                            readsAtStartBySlot.put(nextReadSlot, nextRead);
+                            advance();
+                        } while ( nextRead != null && comparator.compare(first, nextRead) == 0 );
+                    }
+                    if ( readsAtStartBySlot.isEmpty() )
+                        close();
+                }
+                return ! readsAtStartBySlot.isEmpty();
+            }
+
+            @Override
+            public GATKSAMRecord next() {
+                if ( ! hasNext() ) throw new NoSuchElementException("No more popped reads");
+                return readsAtStartBySlot.pollFirstEntry().getValue();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from popped reads");
+            }
+
+            @Override
+            public void close() {
+                spilledReads.close();
+            }
+        };
+    }
+
+    /**
+     * Throw away all of the reads in this cache, deleting any of them spilled to disk
+     */
+    public void close() {
+        if ( spillFile != null ) {
+            spillFile.discard();
+            nBytesSpilled += spillFile.getSizeInBytes();
+            spillFile = null;
+        }
+        popCurrentReads();
+    }
 }
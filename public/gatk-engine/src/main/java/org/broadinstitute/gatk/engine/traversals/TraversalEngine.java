@@ -120,5 +120,17 @@ public abstract class TraversalEngine<M,T,WalkerType extends Walker<M,T>,Provide
         if ( progressMeter != null )
             progressMeter.notifyOfProgress(loc, engine.getCumulativeMetrics().getNumIterations());
     }
+
+    /**
+     * Log the batching behavior of an adaptively batching NanoScheduler, at the same points we update progress
+     *
+     * @param lastBatchSize the number of inputs in the last batch mapped
+     * @param totalStallTimeNanos the total time the map threads have spent waiting for earlier batches to be reduced
+     */
+    protected void logBatchProgress(final int lastBatchSize, final long totalStallTimeNanos) {
+        if ( logger.isDebugEnabled() )
+            logger.debug(String.format("NanoScheduler batch size %d, total map thread stall time %.2f sec",
+                    lastBatchSize, totalStallTimeNanos / 1e9));
+    }
 }
 
@@ -27,6 +27,7 @@ package org.broadinstitute.gatk.engine.traversals;
 
 import com.google.java.contract.Ensures;
 import com.google.java.contract.Requires;
+import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
@@ -55,6 +56,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Implement active region traversal
@@ -74,6 +76,12 @@ import java.util.List;
  *   in the collected read list.  All of the data related to the live region is captured by the local
  *   variable spanOfLastReadSeen
  *
+ * Parallelism:
+ *
+ *   With -nct, ready active regions are mapped in parallel by the NanoScheduler and reduced in order.  Finding
+ *   the regions (the isActive calls and the activity profile) stays serial, as it's done while handing out the
+ *   next region.  The reads in the regions being mapped at once are limited by an InFlightReadBudget.
+ *
  */
 public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,ActiveRegionWalker<M,T>,LocusShardDataProvider> {
     private final static boolean DEBUG = false;
@@ -94,6 +102,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     private GenomeLoc spanOfLastReadSeen = null;
     private ActivityProfile activityProfile = null;
     int maxReadsInMemory = 0;
+    private int maxReadsInFlight = -1;
     ActiveRegionWalker<M, T> walker;
 
     final NanoScheduler<MapData, M, T> nanoScheduler;
@@ -105,9 +114,13 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         public ActiveRegion activeRegion;
         public RefMetaDataTracker tracker;
 
+        /** the number of reads in activeRegion before map, which may change the region */
+        public final int nReads;
+
         private MapData(ActiveRegion activeRegion, RefMetaDataTracker tracker) {
             this.activeRegion = activeRegion;
             this.tracker = tracker;
+            this.nReads = activeRegion.size();
         }
     }
 
@@ -123,7 +136,16 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
      * @param nThreads number of threads
      */
     public TraverseActiveRegions(final int nThreads) {
-        nanoScheduler = new NanoScheduler<>(nThreads);
+        this(nThreads, null);
+    }
+
+    /**
+     * Create an active region traverser that runs its nThreads map jobs on sharedExecutor
+     * @param nThreads number of threads, including the thread calling traverse
+     * @param sharedExecutor executor shared with other traversals, or null to create threads of our own
+     */
+    public TraverseActiveRegions(final int nThreads, final ExecutorService sharedExecutor) {
+        nanoScheduler = sharedExecutor == null ? new NanoScheduler<MapData, M, T>(nThreads) : new NanoScheduler<MapData, M, T>(nThreads, sharedExecutor);
         nanoScheduler.setProgressFunction(new NSProgressFunction<MapData>() {
             @Override
             public void progress(MapData lastActiveRegion) {
@@ -164,7 +186,9 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
         final int maxReadsAcrossSamples = this.walker.maxReadsInMemoryPerSample * ReadUtils.getSAMFileSamples(engine.getSAMFileHeader()).size();
         final int maxReadsToHoldInMemory = Math.min(maxReadsAcrossSamples, this.walker.maxTotalReadsInMemory);
-        myReads = new TAROrderedReadCache(maxReadsToHoldInMemory);
+        final long maxReadBytesInMemory = this.walker.maxReadCacheMemoryMB == null ? Long.MAX_VALUE : this.walker.maxReadCacheMemoryMB * 1024L * 1024L;
+        myReads = new TAROrderedReadCache(maxReadsToHoldInMemory, maxReadBytesInMemory);
+        maxReadsInFlight = this.walker.maxReadsInFlight == null ? maxReadsToHoldInMemory : this.walker.maxReadsInFlight;
     }
 
     // -------------------------------------------------------------------------------------
@@ -208,6 +232,21 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         return "active regions";
     }
 
+    @Override
+    public void shutdown() {
+        if ( myReads != null ) {
+            final String occupancy = String.format("TraverseActiveRegions read cache: peak of %d reads (~%.1f MB) in memory, %d reads (%.1f MB) spilled to disk",
+                    myReads.getPeakReadsInMemory(), myReads.getPeakBytesInMemory() / (1024.0 * 1024.0),
+                    myReads.getTotalReadsSpilled(), myReads.getTotalBytesSpilled() / (1024.0 * 1024.0));
+            if ( myReads.getMaxBytesInMemory() != Long.MAX_VALUE )
+                logger.info(occupancy);
+            else
+                logger.debug(occupancy);
+            myReads.close();
+        }
+        nanoScheduler.shutdown();
+    }
+
     @Override
     public String toString() {
         return "TraverseActiveRegions";
@@ -268,11 +307,19 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
             logger.info(String.format("TraverseActiveRegions.traverse: Shard is %s", dataProvider));
 
         nanoScheduler.setDebug(false);
-        final Iterator<MapData> activeRegionIterator = new ActiveRegionIterator(dataProvider);
-        final TraverseActiveRegionMap myMap = new TraverseActiveRegionMap();
+
+        // with more than one thread several regions can be mapped at once, so limit the reads they hold together
+        final InFlightReadBudget readBudget = nanoScheduler.getnThreads() > 1 ? new InFlightReadBudget(Math.max(maxReadsInFlight, 1)) : null;
+
+        final Iterator<MapData> activeRegionIterator = new ActiveRegionIterator(dataProvider, readBudget);
+        final TraverseActiveRegionMap myMap = new TraverseActiveRegionMap(readBudget);
         final TraverseActiveRegionReduce myReduce = new TraverseActiveRegionReduce();
         final T result = nanoScheduler.execute(activeRegionIterator, myMap, sum, myReduce);
 
+        if ( readBudget != null && logger.isDebugEnabled() )
+            logger.debug(String.format("TraverseActiveRegions.traverse: map threads waited %.2f sec for reads in flight to drop below %d",
+                    readBudget.getTotalWaitNanos() / 1e9, maxReadsInFlight));
+
         return result;
     }
 
@@ -286,9 +333,15 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         private final IntervalReferenceOrderedView referenceOrderedDataView;
         private final GenomeLoc currentWindow;
         private final boolean processRemainingActiveRegions;
+        private final InFlightReadBudget readBudget;
 
-        public ActiveRegionIterator( final LocusShardDataProvider dataProvider ) {
+        /**
+         * @param dataProvider the data to traverse
+         * @param readBudget the budget each region handed out by next() is acquired from, or null if there's no limit
+         */
+        public ActiveRegionIterator( final LocusShardDataProvider dataProvider, final InFlightReadBudget readBudget ) {
             this.dataProvider = dataProvider;
+            this.readBudget = readBudget;
             locusView = new AllLocusView(dataProvider);
             referenceView = new LocusReferenceView( walker, dataProvider );
 
@@ -323,7 +376,14 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
         @Override
         public MapData next() {
-            return readyActiveRegions.pop();
+            final MapData mapData = readyActiveRegions.pop();
+
+            // called by the map thread that's about to map this region, and regions are handed out in order,
+            // so waiting for room here holds back the regions after this one without reordering anything
+            if ( readBudget != null )
+                readBudget.acquire(mapData.nReads);
+
+            return mapData;
         }
         @Override
         public boolean hasNext() {
@@ -659,30 +719,36 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     private MapData prepActiveRegionForProcessing(final ActiveRegion activeRegion,
                                                   final ActiveRegionWalker<M, T> walker,
                                                   final IntervalReferenceOrderedView referenceOrderedDataView) {
-        final List<GATKSAMRecord> stillLive = new LinkedList<>();
-        for ( final GATKSAMRecord read : myReads.popCurrentReads() ) {
-            boolean killed = false;
-            final GenomeLoc readLoc = this.engine.getGenomeLocParser().createGenomeLoc( read );
-
-            if( activeRegion.getLocation().overlapsP( readLoc ) ) {
-                activeRegion.add(read);
+        // the cache is flushed by the pop, so the reads that are still live go straight back into it as we
+        // stream through them, in the same order
+        final CloseableIterator<GATKSAMRecord> currentReads = myReads.popCurrentReadsIterator();
+        try {
+            while ( currentReads.hasNext() ) {
+                final GATKSAMRecord read = currentReads.next();
+                boolean killed = false;
+                final GenomeLoc readLoc = this.engine.getGenomeLocParser().createGenomeLoc( read );
+
+                if( activeRegion.getLocation().overlapsP( readLoc ) ) {
+                    activeRegion.add(read);
+
+                    if ( ! walker.wantsNonPrimaryReads() ) {
+                        killed = true;
+                    }
+                } else if( walker.wantsExtendedReads() && activeRegion.getExtendedLoc().overlapsP( readLoc )) {
+                    activeRegion.add( read );
+                }
 
-                if ( ! walker.wantsNonPrimaryReads() ) {
+                // if the read hasn't already been killed, check if it cannot occur in any more active regions, and maybe kill it
+                if ( ! killed && readCannotOccurInAnyMoreActiveRegions(read, activeRegion) ) {
                     killed = true;
                 }
-            } else if( walker.wantsExtendedReads() && activeRegion.getExtendedLoc().overlapsP( readLoc )) {
-                activeRegion.add( read );
-            }
 
-            // if the read hasn't already been killed, check if it cannot occur in any more active regions, and maybe kill it
-            if ( ! killed && readCannotOccurInAnyMoreActiveRegions(read, activeRegion) ) {
-                killed = true;
+                // keep track of all of the still live active regions
+                if ( ! killed ) myReads.add(read);
             }
-
-            // keep track of all of the still live active regions
-            if ( ! killed ) stillLive.add(read);
+        } finally {
+            currentReads.close();
         }
-        myReads.addAll(stillLive);
 
         if ( logger.isDebugEnabled() ) {
             logger.debug(">> Map call with " + activeRegion.getReads().size() + " " + (activeRegion.isActive() ? "active" : "inactive") + " reads @ " + activeRegion.getLocation() + " with full extent: " + activeRegion.getReadSpanLoc());
@@ -703,10 +769,21 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     }
 
     private class TraverseActiveRegionMap implements NSMapFunction<MapData, M> {
+        private final InFlightReadBudget readBudget;
+
+        private TraverseActiveRegionMap(final InFlightReadBudget readBudget) {
+            this.readBudget = readBudget;
+        }
+
         @Override
         public M apply(final MapData mapData) {
             if ( DEBUG ) logger.info("Executing walker.map for " + mapData.activeRegion + " in thread " + Thread.currentThread().getName());
-            return walker.map(mapData.activeRegion, mapData.tracker);
+            try {
+                return walker.map(mapData.activeRegion, mapData.tracker);
+            } finally {
+                if ( readBudget != null )
+                    readBudget.release(mapData.nReads);
+            }
         }
     }
 
@@ -25,6 +25,7 @@
 
 package org.broadinstitute.gatk.engine.traversals;
 
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.engine.WalkerManager;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
@@ -39,8 +40,10 @@ import org.broadinstitute.gatk.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSReduceFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
 import org.broadinstitute.gatk.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
 
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A simple solution to iterating over all reference positions over a series of genomic locations.
@@ -52,10 +55,29 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
     final NanoScheduler<MapData, MapResult, T> nanoScheduler;
 
     public TraverseLociNano(int nThreads) {
-        nanoScheduler = new NanoScheduler<MapData, MapResult, T>(nThreads);
+        this(nThreads, null);
+    }
+
+    /**
+     * Create a locus traverser that runs its nThreads map jobs on sharedExecutor
+     *
+     * @param nThreads number of threads, including the thread calling traverse
+     * @param sharedExecutor executor shared with other traversals, or null to create threads of our own
+     */
+    public TraverseLociNano(final int nThreads, final ExecutorService sharedExecutor) {
+        nanoScheduler = sharedExecutor == null
+                ? new NanoScheduler<MapData, MapResult, T>(nThreads)
+                : new NanoScheduler<MapData, MapResult, T>(nThreads, sharedExecutor);
         nanoScheduler.setProgressFunction(new TraverseLociProgress());
     }
 
+    @Override
+    public void initialize(GenomeAnalysisEngine engine, Walker walker, ProgressMeter progressMeter) {
+        super.initialize(engine, walker, progressMeter);
+        if ( engine.getArguments() != null )
+            nanoScheduler.setAdaptiveBatching(engine.getArguments().nanoSchedulerAdaptiveBatching);
+    }
+
     @Override
     public final String getTraversalUnits() {
         return "sites";
@@ -300,5 +322,10 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
             if (lastProcessedMap.alignmentContext != null)
                 printProgress(lastProcessedMap.alignmentContext.getLocation());
         }
+
+        @Override
+        public void batchProgress(int lastBatchSize, long totalStallTimeNanos) {
+            logBatchProgress(lastBatchSize, totalStallTimeNanos);
+        }
     }
 }
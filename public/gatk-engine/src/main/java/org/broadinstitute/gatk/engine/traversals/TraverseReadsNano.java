@@ -27,6 +27,7 @@ package org.broadinstitute.gatk.engine.traversals;
 
 import htsjdk.samtools.SAMRecord;
 import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
 import org.broadinstitute.gatk.engine.datasources.providers.ReadBasedReferenceOrderedView;
 import org.broadinstitute.gatk.engine.datasources.providers.ReadReferenceView;
@@ -34,14 +35,17 @@ import org.broadinstitute.gatk.engine.datasources.providers.ReadShardDataProvide
 import org.broadinstitute.gatk.engine.datasources.providers.ReadView;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.engine.walkers.ReadWalker;
+import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSReduceFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
+import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A nano-scheduling version of TraverseReads.
@@ -61,7 +65,19 @@ public class TraverseReadsNano<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,
     final NanoScheduler<MapData, MapResult, T> nanoScheduler;
 
     public TraverseReadsNano(int nThreads) {
-        nanoScheduler = new NanoScheduler<MapData, MapResult, T>(nThreads);
+        this(nThreads, null);
+    }
+
+    /**
+     * Create a read traverser that runs its nThreads map jobs on sharedExecutor
+     *
+     * @param nThreads number of threads, including the thread calling traverse
+     * @param sharedExecutor executor shared with other traversals, or null to create threads of our own
+     */
+    public TraverseReadsNano(final int nThreads, final ExecutorService sharedExecutor) {
+        nanoScheduler = sharedExecutor == null
+                ? new NanoScheduler<MapData, MapResult, T>(nThreads)
+                : new NanoScheduler<MapData, MapResult, T>(nThreads, sharedExecutor);
         nanoScheduler.setProgressFunction(new NSProgressFunction<MapData>() {
             @Override
             public void progress(MapData lastProcessedMap) {
@@ -69,9 +85,21 @@ public class TraverseReadsNano<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,
                     // note, need to use getStopLocation so we don't give an interval to ProgressMeterDaemon
                     printProgress(lastProcessedMap.refContext.getLocus().getStopLocation());
             }
+
+            @Override
+            public void batchProgress(int lastBatchSize, long totalStallTimeNanos) {
+                logBatchProgress(lastBatchSize, totalStallTimeNanos);
+            }
         });
     }
 
+    @Override
+    public void initialize(GenomeAnalysisEngine engine, Walker walker, ProgressMeter progressMeter) {
+        super.initialize(engine, walker, progressMeter);
+        if ( engine.getArguments() != null )
+            nanoScheduler.setAdaptiveBatching(engine.getArguments().nanoSchedulerAdaptiveBatching);
+    }
+
     @Override
     public String getTraversalUnits() {
         return "reads";
@@ -125,6 +125,24 @@ public abstract class ActiveRegionWalker<MapType, ReduceType> extends Walker<Map
     @Argument(fullName="maxTotalReadsInMemory", shortName="maxTotalReadsInMemory", doc="Maximum total reads given to traversal map() function", required = false)
     public int maxTotalReadsInMemory = 10000000;
 
+    /**
+     * With -nct, what is the maximum number of reads we're willing to have in the active regions being
+     * processed by the map() function at the same time?  Threads wait before taking on a region that would
+     * take us over this limit.  If not provided, defaults to the limit on the reads held in memory.
+     */
+    @Advanced
+    @Argument(fullName="maxReadsInFlight", shortName="maxReadsInFlight", doc="With -nct, maximum total reads in the active regions being processed by map() at once", required = false, minValue = 1)
+    public Integer maxReadsInFlight = null;
+
+    /**
+     * How much memory, in megabytes, may the reads waiting to be assigned to active regions take up?  Beyond
+     * this the reads are spilled to a temporary file, and read back when the next active region is processed.
+     * Memory use is estimated from the length of the reads.  If not provided, reads are never spilled.
+     */
+    @Advanced
+    @Argument(fullName="maxReadCacheMemoryMB", shortName="maxReadCacheMB", doc="Spill reads waiting for active regions to disk beyond this many megabytes", required = false, minValue = 0)
+    public Integer maxReadCacheMemoryMB = null;
+
     /*
      * For active region limits in ActivityProfile
 *   */
@@ -120,7 +120,7 @@ public class EngineFeaturesIntegrationTest extends WalkerTest {
                 continue; // cannot reliably throw errors in TREE_REDUCE
 
             final String failArg = " -fail " + failMethod.name();
-            for ( final String args : Arrays.asList("", " -nt 2", " -nct 2") ) {
+            for ( final String args : Arrays.asList("", " -nt 2", " -nt 2 -fjs", " -nct 2", " -nct 2 -nab", " -nct 2 -sharedExec", " -nt 2 -nct 2 -sharedExec") ) {
                 new EngineErrorHandlingTestProvider(NullPointerException.class, failArg + args);
                 new EngineErrorHandlingTestProvider(UserException.class, failArg + args);
                 new EngineErrorHandlingTestProvider(ReviewedGATKException.class, failArg + args);
@@ -144,6 +144,47 @@ public class EngineFeaturesIntegrationTest extends WalkerTest {
         }
     }
 
+    // --------------------------------------------------------------------------------
+    //
+    // Test that the parallel execution modes write the same output as a single-threaded run
+    //
+    // --------------------------------------------------------------------------------
+
+    private class ParallelOutputTestProvider extends TestDataProvider {
+        final String baseArgs;
+        final String parallelArgs;
+
+        public ParallelOutputTestProvider(final String walkerName, final String baseArgs, final String parallelArgs) {
+            super(ParallelOutputTestProvider.class);
+            this.baseArgs = baseArgs;
+            this.parallelArgs = parallelArgs;
+            setName(String.format("Parallel output: %s with args%s", walkerName, parallelArgs));
+        }
+    }
+
+    @DataProvider(name = "ParallelOutputTestProvider")
+    public Object[][] makeParallelOutputTestProvider() {
+        String printVariants = "-T TestPrintVariantsWalker -R " + exampleFASTA + " -V " + publicTestDir + "exampleDBSNP.vcf"
+                + " -U ALLOW_SEQ_DICT_INCOMPATIBILITY --no_cmdline_in_header -o %s";
+        for ( int start = 1; start < 100000; start += 10000 )
+            printVariants += String.format(" -L chr1:%d-%d", start, start + 4999);
+        final String printReads = "-T TestPrintReadsWalker -R " + exampleFASTA + " -I " + publicTestDir + "exampleBAM.bam -o %s";
+
+        for ( final String args : Arrays.asList(" -nt 4", " -nt 4 -fjs", " -nt 4 -fjs -maxOutputMB 0", " -nct 2 -sharedExec", " -nt 2 -nct 2 -sharedExec") )
+            new ParallelOutputTestProvider("TestPrintVariantsWalker", printVariants, args);
+        for ( final String args : Arrays.asList(" -nct 4", " -nct 4 -nab", " -nct 4 -sharedExec", " -nct 4 -nab -sharedExec") )
+            new ParallelOutputTestProvider("TestPrintReadsWalker", printReads, args);
+
+        return ParallelOutputTestProvider.getTests(ParallelOutputTestProvider.class);
+    }
+
+    @Test(enabled = true, dataProvider = "ParallelOutputTestProvider")
+    public void testParallelOutputMatchesSingleThreadedRun(final ParallelOutputTestProvider cfg) {
+        final String singleThreadedMD5 = executeTest(cfg + " single-threaded", new WalkerTestSpec(cfg.baseArgs, Arrays.asList(""))).getSecond().get(0);
+        final String parallelMD5 = executeTest(cfg.toString(), new WalkerTestSpec(cfg.baseArgs + cfg.parallelArgs, Arrays.asList(""))).getSecond().get(0);
+        Assert.assertEquals(parallelMD5, singleThreadedMD5, "Output with" + cfg.parallelArgs + " differs from the single-threaded run");
+    }
+
     // --------------------------------------------------------------------------------
     //
     // Test that read filters are being applied in the order we expect
@@ -0,0 +1,275 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Inflater;
+
+public class BGZFBlockLoadingDispatcherUnitTest extends BaseTest {
+
+    private static final File[] BAM_FILES = {
+            new File(publicTestDir + "exampleBAM.bam"),
+            new File(publicTestDir + "exampleNORG.bam")
+    };
+
+    @DataProvider(name = "dispatcherConfigurations")
+    public Object[][] makeDispatcherConfigurations() {
+        return new Object[][] {
+                // threads, file handles, streams per file, memory mapping
+                {1, 1, 1, false},
+                {4, 1, 3, false},
+                {4, 8, 3, false},
+                {8, 2, 6, false},
+                {1, 1, 1, true},
+                {4, 1, 3, true},
+        };
+    }
+
+    @Test(dataProvider = "dispatcherConfigurations", timeOut = 60000)
+    public void testConcurrentStreamsMatchPicard(final int numThreads, final int numFileHandles, final int streamsPerFile, final boolean memoryMapFiles) throws Exception {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(numThreads, numFileHandles, memoryMapFiles);
+        final ExecutorService readers = Executors.newFixedThreadPool(BAM_FILES.length * streamsPerFile);
+        try {
+            final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+            for (final File bamFile : BAM_FILES) {
+                final SAMReaderID readerID = new SAMReaderID(bamFile, new Tags());
+                for (int i = 0; i < streamsPerFile; i++)
+                    results.add(readers.submit(new Callable<byte[]>() {
+                        public byte[] call() throws IOException {
+                            return readFully(new BlockInputStream(dispatcher, readerID, false));
+                        }
+                    }));
+            }
+
+            long expectedBytes = 0;
+            for (int f = 0; f < BAM_FILES.length; f++) {
+                final byte[] expected = readFully(new BlockCompressedInputStream(BAM_FILES[f]));
+                expectedBytes += (long) expected.length * streamsPerFile;
+                for (int i = 0; i < streamsPerFile; i++)
+                    Assert.assertEquals(results.get(f * streamsPerFile + i).get(), expected,
+                            "Decompressed contents of " + BAM_FILES[f] + " differ from Picard's");
+            }
+
+            Assert.assertEquals(dispatcher.getQueueDepth(), 0);
+            Assert.assertTrue(dispatcher.getPeakQueueDepth() > 0);
+            Assert.assertTrue(dispatcher.getBlocksLoaded() > 0);
+            Assert.assertEquals(dispatcher.getUncompressedBytesLoaded(), expectedBytes);
+            Assert.assertTrue(dispatcher.getCompressedBytesLoaded() > 0);
+            Assert.assertTrue(dispatcher.getDecompressionThroughput() > 0);
+            if (dispatcher.getBlocksLoaded() > numThreads)
+                Assert.assertTrue(dispatcher.getBufferPoolHitRate() > 0, "Decompression buffers should be reused");
+        } finally {
+            readers.shutdownNow();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testFileHandleCacheReusesAndEvicts() throws IOException {
+        final FileHandleCache cache = new FileHandleCache(2);
+        final SAMReaderID first = new SAMReaderID(BAM_FILES[0], new Tags());
+        final SAMReaderID second = new SAMReaderID(BAM_FILES[1], new Tags());
+
+        final FileInputStream firstHandle = cache.claimFileInputStream(first);
+        cache.releaseFileInputStream(first, firstHandle);
+        Assert.assertSame(cache.claimFileInputStream(first), firstHandle, "An idle handle should be reused");
+
+        // With both handles outstanding the cache must open a new one.
+        final FileInputStream secondHandle = cache.claimFileInputStream(first);
+        Assert.assertNotSame(secondHandle, firstHandle);
+
+        // Both fit in a cache of size two once released.
+        cache.releaseFileInputStream(first, firstHandle);
+        cache.releaseFileInputStream(first, secondHandle);
+        Assert.assertTrue(isOpen(firstHandle));
+        Assert.assertTrue(isOpen(secondHandle));
+
+        // Opening a handle for another file closes the least recently released one.  Handles for different files are never mixed up.
+        final FileInputStream otherHandle = cache.claimFileInputStream(second);
+        Assert.assertNotSame(otherHandle, secondHandle);
+        Assert.assertFalse(isOpen(firstHandle));
+        Assert.assertTrue(isOpen(secondHandle));
+        Assert.assertSame(cache.claimFileInputStream(first), secondHandle);
+
+        cache.releaseFileInputStream(second, otherHandle);
+        cache.releaseFileInputStream(first, secondHandle);
+        otherHandle.close();
+        secondHandle.close();
+    }
+
+    @Test(timeOut = 60000)
+    public void testFileHandleCacheWaitsForAHandleWhenFull() throws Exception {
+        final FileHandleCache cache = new FileHandleCache(1);
+        final SAMReaderID first = new SAMReaderID(BAM_FILES[0], new Tags());
+        final SAMReaderID second = new SAMReaderID(BAM_FILES[1], new Tags());
+
+        final FileInputStream firstHandle = cache.claimFileInputStream(first);
+        final ExecutorService claimer = Executors.newSingleThreadExecutor();
+        try {
+            final Future<FileInputStream> secondClaim = claimer.submit(new Callable<FileInputStream>() {
+                public FileInputStream call() {
+                    return cache.claimFileInputStream(second);
+                }
+            });
+
+            Thread.sleep(200);
+            Assert.assertFalse(secondClaim.isDone(), "No more than one handle should be open at once");
+
+            // Releasing the only handle lets the waiting claim close it and open its own file.
+            cache.releaseFileInputStream(first, firstHandle);
+            final FileInputStream secondHandle = secondClaim.get();
+            Assert.assertFalse(isOpen(firstHandle));
+            Assert.assertTrue(isOpen(secondHandle));
+            cache.releaseFileInputStream(second, secondHandle);
+            secondHandle.close();
+        } finally {
+            claimer.shutdownNow();
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testFileHandleCacheDiscardFreesTheSlot() throws IOException {
+        final FileHandleCache cache = new FileHandleCache(1);
+        final SAMReaderID first = new SAMReaderID(BAM_FILES[0], new Tags());
+        final SAMReaderID second = new SAMReaderID(BAM_FILES[1], new Tags());
+
+        // A handle that failed a read is closed, and its slot can be used straight away without it ever being released.
+        final FileInputStream failedHandle = cache.claimFileInputStream(first);
+        cache.discardFileInputStream(first, failedHandle);
+        Assert.assertFalse(isOpen(failedHandle));
+
+        final FileInputStream secondHandle = cache.claimFileInputStream(second);
+        Assert.assertTrue(isOpen(secondHandle));
+        cache.releaseFileInputStream(second, secondHandle);
+
+        // The discarded handle is never handed out again.
+        final FileInputStream firstHandle = cache.claimFileInputStream(first);
+        Assert.assertNotSame(firstHandle, failedHandle);
+        Assert.assertTrue(isOpen(firstHandle));
+        Assert.assertFalse(isOpen(secondHandle));
+        cache.releaseFileInputStream(first, firstHandle);
+        firstHandle.close();
+    }
+
+    @Test
+    public void testMappedSegmentsCoverWholeFile() throws IOException {
+        final File bamFile = BAM_FILES[0];
+        final byte[] contents = readFully(new FileInputStream(bamFile));
+        // Small segments force every block lookup to pick the right segment and rely on the overlap.
+        final MappedBGZFFile mappedFile = new MappedBGZFFile(new SAMReaderID(bamFile, new Tags()), 1000);
+        Assert.assertEquals(mappedFile.length(), contents.length);
+        for (int address = 0; address < contents.length; address += 97) {
+            final ByteBuffer view = mappedFile.viewAt(address);
+            Assert.assertEquals(view.position(), 0);
+            final int available = Math.min(contents.length - address, BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE);
+            Assert.assertTrue(view.remaining() >= available, "A view must hold at least one maximum sized block");
+            final byte[] viewed = new byte[available];
+            view.get(viewed);
+            Assert.assertEquals(viewed, Arrays.copyOfRange(contents, address, address + available));
+        }
+    }
+
+    @Test
+    public void testBufferPoolReusesBuffers() {
+        final BGZFBufferPool pool = new BGZFBufferPool(1);
+        final byte[] first = pool.claimBuffer();
+        final byte[] second = pool.claimBuffer();
+        Assert.assertEquals(first.length, BGZFBufferPool.BUFFER_SIZE);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(pool.getHitRate(), 0.0);
+
+        // Only one of the two buffers fits in the pool.
+        pool.releaseBuffer(first);
+        pool.releaseBuffer(second);
+        Assert.assertSame(pool.claimBuffer(), first);
+        Assert.assertNotSame(pool.claimBuffer(), second);
+        Assert.assertEquals(pool.getRequests(), 4);
+        Assert.assertEquals(pool.getHitRate(), 0.25);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBufferPoolRejectsForeignBuffers() {
+        new BGZFBufferPool(1).releaseBuffer(new byte[10]);
+    }
+
+    @Test
+    public void testInflaterIsCachedPerThread() throws Exception {
+        final Inflater inflater = BGZFBufferPool.getInflater();
+        Assert.assertSame(BGZFBufferPool.getInflater(), inflater);
+        final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertNotSame(otherThread.submit(new Callable<Inflater>() {
+                public Inflater call() {
+                    return BGZFBufferPool.getInflater();
+                }
+            }).get(), inflater);
+        } finally {
+            otherThread.shutdownNow();
+        }
+    }
+
+    // FileInputStream.getChannel() hands out a fresh open channel after close(), so probe the stream itself.
+    private static boolean isOpen(final FileInputStream inputStream) {
+        try {
+            inputStream.available();
+            return true;
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static byte[] readFully(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[10000];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) > 0)
+            contents.write(buffer, 0, bytesRead);
+        inputStream.close();
+        return contents.toByteArray();
+    }
+}
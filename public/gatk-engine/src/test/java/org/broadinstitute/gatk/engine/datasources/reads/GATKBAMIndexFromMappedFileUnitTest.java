@@ -0,0 +1,144 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.*;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.sam.ArtificialBAMBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test that the memory-mapped BAM index answers queries exactly as the one reading the file does.
+ */
+public class GATKBAMIndexFromMappedFileUnitTest extends BaseTest {
+
+    @AfterMethod
+    public void resetSharedCache() {
+        GATKBAMIndexFromMappedFile.setMaxCachedIndexBytes(GATKBAMIndexFromMappedFile.DEFAULT_MAX_CACHED_INDEX_BYTES);
+    }
+
+    private static File makeArtificialBAM(final int nReadsPerLocus, final int nLoci, final int skipNLoci) {
+        final ArtificialBAMBuilder builder = new ArtificialBAMBuilder(nReadsPerLocus, nLoci);
+        builder.setSkipNLoci(skipNLoci);
+        return builder.makeTemporarilyBAMFile();
+    }
+
+    @DataProvider(name = "IndexedBAMs")
+    public Object[][] makeIndexedBAMs() {
+        final List<Object[]> tests = new ArrayList<>();
+        tests.add(new Object[]{new File(publicTestDir + "exampleBAM.bam")});
+        tests.add(new Object[]{new File(publicTestDir + "exampleBAM_with_unmapped.bam")});
+        tests.add(new Object[]{makeArtificialBAM(1, 1000, 10)});
+        tests.add(new Object[]{makeArtificialBAM(10, 5000, 100)});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "IndexedBAMs")
+    public void testMappedIndexMatchesIndexFromFile(final File bamFile) throws IOException {
+        final SamReader reader = SamReaderFactory.makeDefault().open(bamFile);
+        final SAMSequenceDictionary sequenceDictionary = reader.getFileHeader().getSequenceDictionary();
+        reader.close();
+
+        final File indexFile = SamFiles.findIndex(bamFile);
+        Assert.assertTrue(GATKBAMIndexFromMappedFile.canMap(indexFile));
+
+        final GATKBAMIndex expectedIndex = new GATKBAMIndexFromFile(indexFile, sequenceDictionary);
+        final GATKBAMIndex mappedIndex = new GATKBAMIndexFromMappedFile(indexFile);
+        Assert.assertEquals(mappedIndex.getStartOfLastLinearBin(), expectedIndex.getStartOfLastLinearBin());
+
+        // query the sequences backwards, to check that skipping ahead to a sequence doesn't depend on the ones before it
+        for ( int referenceSequence = sequenceDictionary.size() - 1; referenceSequence >= 0; referenceSequence-- ) {
+            final GATKBAMIndexData expectedData = expectedIndex.readReferenceSequence(referenceSequence);
+            final GATKBAMIndexData mappedData = mappedIndex.readReferenceSequence(referenceSequence);
+            Assert.assertEquals(mappedData.getReferenceSequence(), referenceSequence);
+
+            for ( int binNumber = 0; binNumber < GATKBAMIndex.MAX_BINS; binNumber++ ) {
+                final Bin bin = new Bin(referenceSequence, binNumber);
+                Assert.assertEquals(mappedIndex.getFirstLocusInBin(bin), expectedIndex.getFirstLocusInBin(bin));
+                Assert.assertEquals(mappedIndex.getLastLocusInBin(bin), expectedIndex.getLastLocusInBin(bin));
+                Assert.assertEquals(mappedData.getSpanOverlapping(bin).getGATKChunks(), expectedData.getSpanOverlapping(bin).getGATKChunks(),
+                        "Different chunks for bin " + binNumber + " of sequence " + referenceSequence + " in " + indexFile);
+            }
+        }
+    }
+
+    @Test
+    public void testIndicesAreSharedAcrossInstances() {
+        final File indexFile = new File(publicTestDir + "exampleBAM.bam.bai");
+        final File otherIndexFile = new File(publicTestDir + "exampleBAM_with_unmapped.bai");
+
+        // start off with only indexFile in the cache
+        GATKBAMIndexFromMappedFile.setMaxCachedIndexBytes(0);
+        final GATKBAMIndex index = new GATKBAMIndexFromMappedFile(indexFile);
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getNumCachedIndices(), 1);
+        GATKBAMIndexFromMappedFile.setMaxCachedIndexBytes(GATKBAMIndexFromMappedFile.DEFAULT_MAX_CACHED_INDEX_BYTES);
+
+        Assert.assertSame(GATKBAMIndexFromMappedFile.getMappedIndex(indexFile), GATKBAMIndexFromMappedFile.getMappedIndex(indexFile));
+        new GATKBAMIndexFromMappedFile(indexFile);
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getNumCachedIndices(), 1, "The same index file should only be mapped once");
+
+        new GATKBAMIndexFromMappedFile(otherIndexFile);
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getNumCachedIndices(), 2);
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getCachedIndexBytes(), indexFile.length() + otherIndexFile.length());
+
+        // shrinking the cache evicts all but the most recently used index, and evicted indices are mapped again on demand
+        GATKBAMIndexFromMappedFile.setMaxCachedIndexBytes(0);
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getNumCachedIndices(), 1);
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getCachedIndexBytes(), otherIndexFile.length());
+        Assert.assertNotNull(index.readReferenceSequence(0));
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getNumCachedIndices(), 1);
+        Assert.assertEquals(GATKBAMIndexFromMappedFile.getCachedIndexBytes(), indexFile.length());
+    }
+
+    @Test
+    public void testCannotMapCRAMIndex() {
+        Assert.assertFalse(GATKBAMIndexFromMappedFile.canMap(new File(publicTestDir + "exampleCRAM-nobai-withcrai.cram.crai")));
+    }
+
+    @Test( expectedExceptions = UserException.MalformedFile.class )
+    public void testDetectTruncatedBamIndex() throws IOException {
+        final File bamFile = makeArtificialBAM(10, 5000, 100);
+        final byte[] index = Files.readAllBytes(SamFiles.findIndex(bamFile).toPath());
+
+        final File truncatedIndexFile = File.createTempFile("truncated", ".bai");
+        truncatedIndexFile.deleteOnExit();
+        Files.write(truncatedIndexFile.toPath(), Arrays.copyOf(index, index.length / 2 + 1));
+
+        final GATKBAMIndex truncatedIndex = new GATKBAMIndexFromMappedFile(truncatedIndexFile);
+        truncatedIndex.readReferenceSequence(0);
+    }
+}
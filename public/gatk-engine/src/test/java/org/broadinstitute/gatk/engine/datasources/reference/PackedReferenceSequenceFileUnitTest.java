@@ -0,0 +1,176 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reference;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import org.broadinstitute.gatk.engine.alignment.reference.packing.CreatePackedReference;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.BaseUtils;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class PackedReferenceSequenceFileUnitTest extends BaseTest {
+    private static final String[] TRICKY_CONTIGS = {
+            "ACGTacgtNNNNnnnnACGTRYKMacgtrykmAC",
+            "A",
+            "nnnnnnnnNNNNNNNNNNNNNgattaca",
+            "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCG",
+            "tTtTtTtNnNnNaAaAaA",
+            "ACG*T"
+    };
+
+    private File packedExampleFasta;
+    private File trickyFasta;
+    private File packedTrickyFasta;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        packedExampleFasta = createTempFile("exampleFASTA", PackedReferenceSequenceFile.PACKED_REFERENCE_EXTENSION);
+        CreatePackedReference.writePackedReference(ReferenceSequenceFileFactory.getReferenceSequenceFile(new File(exampleFASTA)), packedExampleFasta);
+
+        // an unindexed fasta, with no dictionary
+        trickyFasta = createTempFile("tricky", ".fasta");
+        try ( final FileWriter writer = new FileWriter(trickyFasta) ) {
+            for ( int i = 0; i < TRICKY_CONTIGS.length; i++ )
+                writer.write(">contig" + i + "\n" + TRICKY_CONTIGS[i] + "\n");
+        }
+        packedTrickyFasta = createTempFile("tricky", PackedReferenceSequenceFile.PACKED_REFERENCE_EXTENSION);
+        CreatePackedReference.writePackedReference(ReferenceSequenceFileFactory.getReferenceSequenceFile(trickyFasta), packedTrickyFasta);
+    }
+
+    @DataProvider(name = "Modes")
+    public Object[][] makeModes() {
+        final List<Object[]> tests = new ArrayList<>();
+        for ( final boolean preserveCase : Arrays.asList(true, false) )
+            for ( final boolean preserveIUPAC : Arrays.asList(true, false) )
+                tests.add(new Object[]{preserveCase, preserveIUPAC});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "Modes")
+    public void testMatchesCachingIndexedFasta(final boolean preserveCase, final boolean preserveIUPAC) throws IOException {
+        final ReferenceSequenceFile fasta = new CachingIndexedFastaSequenceFile(new File(exampleFASTA), preserveCase, preserveIUPAC);
+        final PackedReferenceSequenceFile packed = new PackedReferenceSequenceFile(packedExampleFasta, preserveCase, preserveIUPAC);
+
+        Assert.assertEquals(packed.getSequenceDictionary().getSequences(), fasta.getSequenceDictionary().getSequences());
+
+        final Random random = new Random(42);
+        for ( final SAMSequenceRecord contig : fasta.getSequenceDictionary().getSequences() ) {
+            assertSameSequence(packed.getSequence(contig.getSequenceName()), fasta.getSequence(contig.getSequenceName()));
+
+            for ( int i = 0; i < 1000; i++ ) {
+                final int start = random.nextInt(contig.getSequenceLength()) + 1;
+                final int stop = Math.min(start + random.nextInt(500), contig.getSequenceLength());
+                assertSameSequence(packed.getSubsequenceAt(contig.getSequenceName(), start, stop), fasta.getSubsequenceAt(contig.getSequenceName(), start, stop));
+
+                // decoding into the middle of a buffer touches nothing else
+                final byte[] buffer = new byte[stop - start + 1 + 11];
+                Arrays.fill(buffer, (byte)'x');
+                packed.getBases(contig.getSequenceIndex(), start, stop, buffer, 5);
+                Assert.assertEquals(Arrays.copyOfRange(buffer, 5, buffer.length - 6), fasta.getSubsequenceAt(contig.getSequenceName(), start, stop).getBases());
+                Assert.assertEquals(buffer[4], (byte)'x');
+                Assert.assertEquals(buffer[buffer.length - 6], (byte)'x');
+            }
+        }
+
+        packed.close();
+    }
+
+    @Test(dataProvider = "Modes")
+    public void testExceptionsAndCaseMask(final boolean preserveCase, final boolean preserveIUPAC) throws IOException {
+        final PackedReferenceSequenceFile packed = new PackedReferenceSequenceFile(packedTrickyFasta, preserveCase, preserveIUPAC);
+        Assert.assertEquals(packed.getSequenceDictionary().size(), TRICKY_CONTIGS.length);
+
+        // the contig with a bad base can only be read if we're preserving IUPAC bases
+        final int nContigsToCheck = preserveIUPAC ? TRICKY_CONTIGS.length : TRICKY_CONTIGS.length - 1;
+        for ( int contigIndex = 0; contigIndex < nContigsToCheck; contigIndex++ ) {
+            final String contig = "contig" + contigIndex;
+            final byte[] expected = TRICKY_CONTIGS[contigIndex].getBytes();
+            if ( ! preserveCase ) for ( int i = 0; i < expected.length; i++ ) expected[i] = (byte)Character.toUpperCase(expected[i]);
+            if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(expected, true, false);
+
+            // every subsequence, to check the runs are found whichever base we start and end on
+            for ( int start = 1; start <= expected.length; start++ ) {
+                for ( int stop = start - 1; stop <= expected.length; stop++ ) {
+                    final ReferenceSequence seq = packed.getSubsequenceAt(contig, start, stop);
+                    Assert.assertEquals(new String(seq.getBases()), new String(Arrays.copyOfRange(expected, start - 1, stop)),
+                            "Wrong bases for " + contig + ":" + start + "-" + stop);
+                }
+            }
+        }
+
+        packed.close();
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testFailOnBadBase() throws IOException {
+        final PackedReferenceSequenceFile packed = new PackedReferenceSequenceFile(packedTrickyFasta);
+        packed.getSequence("contig" + (TRICKY_CONTIGS.length - 1));
+    }
+
+    @Test(expectedExceptions = UserException.MalformedFile.class)
+    public void testNotAPackedReference() {
+        new PackedReferenceSequenceFile(new File(exampleFASTA));
+    }
+
+    @Test
+    public void testPackedReferenceIsSmaller() {
+        Assert.assertTrue(packedExampleFasta.length() < new File(exampleFASTA).length() / 3,
+                "Packed reference of " + packedExampleFasta.length() + " bytes is too big");
+    }
+
+    @Test
+    public void testNextSequence() {
+        final PackedReferenceSequenceFile packed = new PackedReferenceSequenceFile(packedTrickyFasta, true, true);
+        for ( int pass = 0; pass < 2; pass++ ) {
+            for ( final String contig : TRICKY_CONTIGS )
+                Assert.assertEquals(new String(packed.nextSequence().getBases()), contig);
+            Assert.assertNull(packed.nextSequence());
+            packed.reset();
+        }
+    }
+
+    private void assertSameSequence(final ReferenceSequence actual, final ReferenceSequence expected) {
+        Assert.assertEquals(actual.getName(), expected.getName());
+        Assert.assertEquals(actual.getContigIndex(), expected.getContigIndex());
+        Assert.assertEquals(actual.getBases(), expected.getBases());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import org.broadinstitute.gatk.engine.io.stubs.OutputStreamStub;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+public class OutputStreamStorageUnitTest extends BaseTest {
+    @DataProvider(name = "OutputSizes")
+    public Object[][] makeOutputSizes() {
+        return new Object[][] {
+                // size, expect the output to be spilled to the temporary file
+                {0, false},
+                {1000, false},
+                {4 * 1024 * 1024, false},
+                {4 * 1024 * 1024 + 1, true},
+                {10 * 1024 * 1024, true},
+        };
+    }
+
+    @Test(dataProvider = "OutputSizes")
+    public void testMergeTemporaryOutput(final int size, final boolean spilled) throws IOException {
+        final File tempFile = createTempFile("OutputStreamStorageUnitTest", ".tmp");
+        final OutputStreamStorage storage = new OutputStreamStorage(new OutputStreamStub(new File("unused.txt")), tempFile);
+
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        // write in a mix of chunks and single bytes
+        int offset = 0;
+        while ( offset < size ) {
+            final int chunk = Math.min(size - offset, 12345);
+            storage.write(data, offset, chunk);
+            offset += chunk;
+            if ( offset < size )
+                storage.write(data[offset++]);
+        }
+        storage.close();
+
+        Assert.assertEquals(storage.getSizeInBytes(), size);
+        Assert.assertEquals(tempFile.length(), spilled ? size : 0);
+
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        storage.mergeInto(target);
+        Assert.assertEquals(target.toByteArray(), data);
+        Assert.assertFalse(tempFile.exists(), "The temporary file should be deleted after merging");
+    }
+}
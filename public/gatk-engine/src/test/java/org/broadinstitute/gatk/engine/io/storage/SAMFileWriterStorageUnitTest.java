@@ -0,0 +1,107 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.ProgressLoggerInterface;
+import org.broadinstitute.gatk.engine.io.stubs.SAMFileWriterStub;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class SAMFileWriterStorageUnitTest extends BaseTest {
+    private static final int READ_LENGTH = 100;
+
+    @DataProvider(name = "ReadCounts")
+    public Object[][] makeReadCounts() {
+        return new Object[][] {
+                // number of reads, expect the reads to be spilled to the temporary file
+                {0, false},
+                {1, false},
+                {1000, false},
+                {50000, true},
+        };
+    }
+
+    @Test(dataProvider = "ReadCounts")
+    public void testMergeTemporaryOutput(final int nReads, final boolean spilled) {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 0, 10000000);
+        final SAMFileWriterStub stub = new SAMFileWriterStub(null, new File("unused.bam"));
+        stub.writeHeader(header);
+
+        final File tempFile = createTempFile("SAMFileWriterStorageUnitTest", ".bam");
+        final SAMFileWriterStorage storage = new SAMFileWriterStorage(stub, tempFile);
+
+        final Random random = new Random(nReads);
+        final List<String> expected = new ArrayList<>(nReads);
+        for ( int i = 0; i < nReads; i++ ) {
+            final byte[] bases = new byte[READ_LENGTH];
+            for ( int j = 0; j < READ_LENGTH; j++ )
+                bases[j] = "ACGT".getBytes()[random.nextInt(4)];
+            final byte[] quals = new byte[READ_LENGTH];
+            Arrays.fill(quals, (byte)30);
+
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, i + 1, bases, quals);
+            storage.addAlignment(read);
+            expected.add(read.getSAMString());
+
+            // the storage must not be affected by a walker reusing the read after writing it
+            read.setReadName("modified");
+            read.setAlignmentStart(1);
+        }
+
+        if ( ! spilled )
+            Assert.assertTrue(storage.getSizeInBytes() >= nReads * READ_LENGTH, "Buffered reads should count towards the size of the storage");
+        storage.close();
+        Assert.assertEquals(tempFile.length() > 0, spilled);
+
+        final CollectingWriter target = new CollectingWriter();
+        storage.mergeInto(target);
+        Assert.assertEquals(target.reads, expected);
+        Assert.assertFalse(tempFile.exists(), "The temporary file should be deleted after merging");
+    }
+
+    private static class CollectingWriter implements SAMFileWriter {
+        final List<String> reads = new ArrayList<>();
+
+        public void addAlignment(final SAMRecord alignment) { reads.add(alignment.getSAMString()); }
+
+        public SAMFileHeader getFileHeader() { return null; }
+
+        public void setProgressLogger(final ProgressLoggerInterface progress) {}
+
+        public void close() {}
+    }
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.*;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.arguments.GATKArgumentCollection;
+import org.broadinstitute.gatk.engine.io.stubs.VariantContextWriterStub;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.*;
+
+public class VariantContextWriterStorageUnitTest extends BaseTest {
+    private static final List<String> SAMPLES = Arrays.asList("NA1", "NA2", "NA3");
+    private static final List<Allele> ALLELES = Arrays.asList(Allele.create("A", true), Allele.create("C"));
+
+    private SAMSequenceDictionary dictionary;
+    private GenomeAnalysisEngine engine;
+    private VCFHeader header;
+
+    @BeforeClass
+    public void setup() {
+        dictionary = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 100000000).getSequenceDictionary();
+        engine = new GenomeAnalysisEngine() {
+            @Override
+            public SAMSequenceDictionary getMasterSequenceDictionary() {
+                return dictionary;
+            }
+        };
+        engine.setArguments(new GATKArgumentCollection());
+
+        final Set<VCFHeaderLine> lines = new LinkedHashSet<>();
+        lines.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.GENOTYPE_KEY));
+        lines.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.DEPTH_KEY));
+        lines.add(VCFStandardHeaderLines.getInfoLine(VCFConstants.DEPTH_KEY));
+        header = new VCFHeader(lines, SAMPLES);
+        header.setSequenceDictionary(dictionary);
+    }
+
+    @DataProvider(name = "RecordCounts")
+    public Object[][] makeRecordCounts() {
+        return new Object[][] {
+                // number of records, expect the records to be spilled to the temporary file
+                {0, false},
+                {1, false},
+                {1000, false},
+                {100000, true},
+        };
+    }
+
+    @Test(dataProvider = "RecordCounts")
+    public void testMergeTemporaryOutput(final int nRecords, final boolean spilled) {
+        final File tempFile = createTempFile("VariantContextWriterStorageUnitTest", ".vcf");
+        final VariantContextWriterStorage storage = new VariantContextWriterStorage(makeStub(new File("unused.vcf")), tempFile);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final VariantContextWriter expectedWriter = new VariantContextWriterBuilder()
+                .setOutputVCFStream(expected)
+                .setReferenceDictionary(dictionary)
+                .unsetOption(htsjdk.variant.variantcontext.writer.Options.INDEX_ON_THE_FLY)
+                .build();
+        expectedWriter.writeHeader(header);
+
+        final Random random = new Random(nRecords);
+        for ( int i = 0; i < nRecords; i++ ) {
+            final VariantContext vc = makeRecord(i + 1, random);
+            storage.add(vc);
+            expectedWriter.add(vc);
+        }
+        expectedWriter.close();
+
+        if ( ! spilled )
+            Assert.assertTrue(storage.getSizeInBytes() >= nRecords * 10, "Buffered records should count towards the size of the storage");
+        storage.close();
+        Assert.assertEquals(tempFile.length() > 0, spilled);
+
+        final ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        final VariantContextWriterStorage target = new VariantContextWriterStorage(makeStub(merged));
+        target.writeHeader(header);
+        storage.mergeInto(target);
+        target.close();
+
+        Assert.assertEquals(merged.toString(), expected.toString());
+        Assert.assertFalse(tempFile.exists(), "The temporary file should be deleted after merging");
+    }
+
+    private VariantContext makeRecord(final int position, final Random random) {
+        final List<Genotype> genotypes = new ArrayList<>(SAMPLES.size());
+        for ( final String sample : SAMPLES )
+            genotypes.add(new GenotypeBuilder(sample, Arrays.asList(ALLELES.get(0), ALLELES.get(random.nextInt(2)))).DP(random.nextInt(100)).make());
+        return new VariantContextBuilder("test", dictionary.getSequence(0).getSequenceName(), position, position, ALLELES)
+                .attribute(VCFConstants.DEPTH_KEY, random.nextInt(300))
+                .genotypes(genotypes)
+                .make();
+    }
+
+    private VariantContextWriterStub makeStub(final File file) {
+        return new VariantContextWriterStub(engine, file, Collections.emptyList()) {
+            @Override
+            public VCFHeader getVCFHeader() {
+                return header;
+            }
+        };
+    }
+
+    private VariantContextWriterStub makeStub(final OutputStream stream) {
+        return new VariantContextWriterStub(engine, stream, Collections.emptyList()) {
+            @Override
+            public VCFHeader getVCFHeader() {
+                return header;
+            }
+        };
+    }
+}
@@ -0,0 +1,171 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+import org.broadinstitute.gatk.utils.recalibration.EventType;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class AtomicRecalibrationTablesUnitTest extends BaseTest {
+    private final int numReadGroups = 4;
+
+    @DataProvider(name = "threading")
+    public Object[][] makeThreading() {
+        return new Object[][] {
+                // threads, stripes
+                {1, 1},
+                {4, 1},
+                {8, 4},
+                {16, 16},
+        };
+    }
+
+    // Each thread records the same pattern of observations, with errors that are not all integral.
+    private static void fill(final int rg, final int iterations, final Recorder recorder) {
+        for ( int i = 0; i < iterations; i++ ) {
+            for ( final EventType et : EventType.values() ) {
+                for ( int qual = 10; qual < 13; qual++ ) {
+                    final double error = (i + qual) % 3 == 0 ? 1.0 : (i % 5 == 0 ? 1.0 / 3 : 0.0);
+                    final byte qualByte = (byte) qual;
+                    recorder.record(0, qualByte, error, rg, et.ordinal());
+                    recorder.record(1, qualByte, error, rg, qual, et.ordinal());
+                    recorder.record(2, qualByte, error, rg, qual, (i * 7) % 40, et.ordinal());
+                    recorder.record(3, qualByte, error, rg, qual, (i * 13) % 9, et.ordinal());
+                }
+            }
+        }
+    }
+
+    private interface Recorder {
+        void record(int table, byte qual, double isError, int... keys);
+    }
+
+    @Test(dataProvider = "threading")
+    public void testConcurrentUpdatesMatchSequential(final int numThreads, final int numStripes) throws Exception {
+        final Covariate[] covariates = RecalibrationTestUtils.makeInitializedStandardCovariates();
+        final AtomicRecalibrationTables atomicTables = new AtomicRecalibrationTables(covariates, numReadGroups, numStripes);
+        final RecalibrationTables expected = new RecalibrationTables(covariates, numReadGroups);
+        final int iterations = 200;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for ( int t = 0; t < numThreads; t++ ) {
+                final int rg = t % numReadGroups;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        fill(rg, iterations, new Recorder() {
+                            public void record(final int table, final byte qual, final double isError, final int... keys) {
+                                atomicTables.getTable(table).increment(qual, isError, keys);
+                            }
+                        });
+                        return null;
+                    }
+                }));
+                fill(rg, iterations, new Recorder() {
+                    public void record(final int table, final byte qual, final double isError, final int... keys) {
+                        RecalUtils.incrementDatumOrPutIfNecessary(expected.getTable(table), qual, isError, keys);
+                    }
+                });
+            }
+            for ( final Future<Void> future : futures )
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final RecalibrationTables actual = atomicTables.toRecalibrationTables();
+        Assert.assertEquals(actual.numTables(), expected.numTables());
+        for ( int i = 0; i < expected.numTables(); i++ ) {
+            final NestedIntegerArray<RecalDatum> actualTable = actual.getTable(i);
+            final List<NestedIntegerArray.Leaf<RecalDatum>> expectedLeaves = expected.getTable(i).getAllLeaves();
+            Assert.assertEquals(actualTable.getAllLeaves().size(), expectedLeaves.size(), "Wrong number of datums in table " + i);
+            for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : expectedLeaves ) {
+                final RecalDatum actualDatum = actualTable.get(leaf.keys);
+                Assert.assertNotNull(actualDatum);
+                Assert.assertEquals(actualDatum.getNumObservations(), leaf.value.getNumObservations());
+                Assert.assertEquals(actualDatum.getNumMismatches(), leaf.value.getNumMismatches(), 1e-6);
+                Assert.assertEquals(atomicTables.getTable(i).getNumObservations(leaf.keys), leaf.value.getNumObservations());
+                Assert.assertEquals(atomicTables.getTable(i).getNumMismatches(leaf.keys), leaf.value.getNumMismatches(), 1e-6);
+                if ( i != RecalibrationTables.TableType.READ_GROUP_TABLE.ordinal() )
+                    Assert.assertEquals(actualDatum.getEstimatedQReported(), leaf.value.getEstimatedQReported());
+            }
+        }
+    }
+
+    @Test
+    public void testFirstObservationSetsReportedQuality() {
+        final AtomicRecalibrationTable table = new AtomicRecalibrationTable(2, 3);
+        table.increment((byte) 0, 0.0, 0, 0);
+        table.increment((byte) 40, 1.0, 0, 0);
+        table.increment((byte) 93, 1.0, 1, 2);
+
+        final NestedIntegerArray<RecalDatum> datums = table.toNestedIntegerArray();
+        Assert.assertEquals(datums.getAllValues().size(), 2);
+        Assert.assertEquals(datums.get(0, 0).getEstimatedQReported(), 0.0);
+        Assert.assertEquals(datums.get(0, 0).getNumObservations(), 2);
+        Assert.assertEquals(datums.get(0, 0).getNumMismatches(), 1.0);
+        Assert.assertEquals(datums.get(1, 2).getEstimatedQReported(), 93.0);
+        Assert.assertNull(datums.get(1, 1));
+    }
+
+    @Test
+    public void testAddToCombinesWithExistingDatums() {
+        final AtomicRecalibrationTable table = new AtomicRecalibrationTable(2, 3);
+        table.increment((byte) 20, 1.0, 1, 1);
+        final NestedIntegerArray<RecalDatum> destination = new NestedIntegerArray<RecalDatum>(2, 3);
+        destination.put(new RecalDatum(4, 2.0, (byte) 20), 1, 1);
+        table.addTo(destination);
+        Assert.assertEquals(destination.get(1, 1).getNumObservations(), 5);
+        Assert.assertEquals(destination.get(1, 1).getNumMismatches(), 3.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testKeyOutOfBounds() {
+        new AtomicRecalibrationTable(2, 3).increment((byte) 20, 0.0, 2, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongNumberOfKeys() {
+        new AtomicRecalibrationTable(2, 3).increment((byte) 20, 0.0, 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testStripesMustBePowerOfTwo() {
+        new AtomicRecalibrationTable(3, new int[] {2, 3});
+    }
+}
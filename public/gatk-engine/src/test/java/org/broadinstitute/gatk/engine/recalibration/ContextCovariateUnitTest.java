@@ -27,6 +27,7 @@ package org.broadinstitute.gatk.engine.recalibration;
 
 import org.broadinstitute.gatk.engine.recalibration.covariates.ContextCovariate;
 import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.clipping.ClippingRepresentation;
 import org.broadinstitute.gatk.utils.clipping.ReadClipper;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -68,6 +69,45 @@ public class ContextCovariateUnitTest {
         verifyCovariateArray(readCovariates.getDeletionsKeySet(),  RAC.INDELS_CONTEXT_SIZE,  clippedRead, covariate);
     }
 
+    @Test(enabled = true)
+    public void testNegativeStrandAndLowQualityTails() {
+        for (int length : new int[]{5, 50, 151, 50}) {
+            final GATKSAMRecord read = ReadUtils.createRandomRead(length);
+            read.setReadNegativeStrandFlag(true);
+            final byte[] quals = read.getBaseQualities();
+            quals[0] = RAC.LOW_QUAL_TAIL;
+            quals[length - 1] = RAC.LOW_QUAL_TAIL;
+            read.setBaseQualities(quals);
+            final byte[] originalBases = read.getReadBases().clone();
+
+            final GATKSAMRecord clippedRead = ReadClipper.clipLowQualEnds(read, RAC.LOW_QUAL_TAIL, ClippingRepresentation.WRITE_NS);
+            final GATKSAMRecord reversedRead = ReadUtils.createRandomRead(length);
+            reversedRead.setReadBases(BaseUtils.simpleReverseComplement(clippedRead.getReadBases()));
+
+            final ReadCovariates readCovariates = ReadCovariates.getThreadLocalReadCovariates(length, 1);
+            covariate.recordValues(read, readCovariates);
+
+            Assert.assertEquals(read.getReadBases(), originalBases);
+            for (int offset = 0; offset < length; offset++) {
+                final int reversedOffset = length - offset - 1;
+                Assert.assertEquals(covariate.formatKey(readCovariates.getMismatchesKeySet(offset)[0]), expectedContext(reversedRead, reversedOffset, RAC.MISMATCHES_CONTEXT_SIZE));
+                Assert.assertEquals(covariate.formatKey(readCovariates.getInsertionsKeySet(offset)[0]), expectedContext(reversedRead, reversedOffset, RAC.INDELS_CONTEXT_SIZE));
+            }
+        }
+    }
+
+    @Test(enabled = true)
+    public void testEntirelyLowQualityRead() {
+        final GATKSAMRecord read = ReadUtils.createRandomRead(20);
+        final ReadCovariates readCovariates = new ReadCovariates(read.getReadLength(), 1);
+        covariate.recordValues(read, readCovariates);
+
+        read.setBaseQualities(new byte[20]);
+        covariate.recordValues(read, readCovariates);
+        for (int offset = 0; offset < 20; offset++)
+            Assert.assertEquals(readCovariates.getMismatchesKeySet(offset)[0], 0);
+    }
+
     public static void verifyCovariateArray(int[][] values, int contextSize, GATKSAMRecord read, Covariate contextCovariate) {
         for (int i = 0; i < values.length; i++)
             Assert.assertEquals(contextCovariate.formatKey(values[i][0]), expectedContext(read, i, contextSize));
@@ -119,4 +119,24 @@ public class ReadCovariatesUnitTest {
 
     }
 
+    @Test
+    public void testThreadLocalReadCovariatesShareRows() {
+        final ReadCovariates longRead = ReadCovariates.getThreadLocalReadCovariates(100, 2);
+        Assert.assertEquals(longRead.getMismatchesKeySet().length, 100);
+        longRead.setCovariateIndex(1);
+        longRead.addCovariate(1, 2, 3, 10);
+
+        final ReadCovariates shortRead = ReadCovariates.getThreadLocalReadCovariates(20, 2);
+        Assert.assertSame(shortRead, longRead);
+        Assert.assertEquals(shortRead.getMismatchesKeySet().length, 20);
+        Assert.assertEquals(shortRead.getInsertionsKeySet().length, 20);
+        Assert.assertSame(shortRead.getDeletionsKeySet(10), new ReadCovariates(100, 2).getDeletionsKeySet(10));
+        Assert.assertEquals(shortRead.getDeletionsKeySet(10)[1], 3);
+
+        // growing the arena keeps the rows handed out so far
+        final int[] row = shortRead.getMismatchesKeySet(10);
+        Assert.assertEquals(ReadCovariates.getThreadLocalReadCovariates(1000, 2).getMismatchesKeySet().length, 1000);
+        Assert.assertSame(ReadCovariates.getThreadLocalReadCovariates(1000, 2).getMismatchesKeySet(10), row);
+        Assert.assertEquals(ReadCovariates.getThreadLocalReadCovariates(0, 2).getMismatchesKeySet().length, 0);
+    }
 }
@@ -0,0 +1,125 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.traversals;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InFlightReadBudgetUnitTest extends BaseTest {
+    @Test
+    public void testAcquireAndRelease() {
+        final InFlightReadBudget budget = new InFlightReadBudget(100);
+        budget.acquire(60);
+        budget.acquire(40);
+        Assert.assertEquals(budget.getReadsInFlight(), 100);
+        Assert.assertEquals(budget.getRegionsInFlight(), 2);
+
+        budget.release(60);
+        budget.release(40);
+        Assert.assertEquals(budget.getReadsInFlight(), 0);
+        Assert.assertEquals(budget.getRegionsInFlight(), 0);
+        Assert.assertEquals(budget.getTotalWaitNanos(), 0);
+    }
+
+    @Test
+    public void testRegionLargerThanBudgetIsLetThroughAlone() {
+        final InFlightReadBudget budget = new InFlightReadBudget(10);
+        budget.acquire(1000);
+        Assert.assertEquals(budget.getReadsInFlight(), 1000);
+        budget.release(1000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadBudget() {
+        new InFlightReadBudget(0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReleaseWithoutAcquire() {
+        new InFlightReadBudget(10).release(1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testAcquireWaitsForRelease() throws InterruptedException {
+        final InFlightReadBudget budget = new InFlightReadBudget(10);
+        budget.acquire(8);
+
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                budget.acquire(5);
+            }
+        });
+        waiter.start();
+
+        // the waiter can't get in until we release our 8 reads
+        waiter.join(200);
+        Assert.assertTrue(waiter.isAlive(), "acquire should be waiting for room in the budget");
+        Assert.assertEquals(budget.getRegionsInFlight(), 1);
+
+        budget.release(8);
+        waiter.join();
+        Assert.assertEquals(budget.getReadsInFlight(), 5);
+        Assert.assertEquals(budget.getRegionsInFlight(), 1);
+        Assert.assertTrue(budget.getTotalWaitNanos() > 0);
+    }
+
+    @Test(timeOut = 30000)
+    public void testBudgetIsNeverExceededByConcurrentRegions() throws InterruptedException {
+        final int maxReads = 50;
+        final InFlightReadBudget budget = new InFlightReadBudget(maxReads);
+        final AtomicInteger maxSeen = new AtomicInteger(0);
+
+        final List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; t++ ) {
+            final int nReads = 5 + 5 * t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < 200; i++ ) {
+                        budget.acquire(nReads);
+                        final int inFlight = budget.getReadsInFlight();
+                        if ( inFlight > maxSeen.get() )
+                            maxSeen.set(inFlight);
+                        budget.release(nReads);
+                    }
+                }
+            }));
+        }
+
+        for ( final Thread thread : threads ) thread.start();
+        for ( final Thread thread : threads ) thread.join();
+
+        Assert.assertTrue(maxSeen.get() <= maxReads, "Saw " + maxSeen.get() + " reads in flight, more than the budget of " + maxReads);
+        Assert.assertEquals(budget.getReadsInFlight(), 0);
+        Assert.assertEquals(budget.getRegionsInFlight(), 0);
+    }
+}
@@ -26,8 +26,12 @@
 package org.broadinstitute.gatk.engine.traversals;
 
 import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.CloseableIterator;
 import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.downsampling.ReservoirDownsampler;
 import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.gatk.utils.sam.AlignmentStartComparator;
 import org.broadinstitute.gatk.utils.sam.ArtificialBAMBuilder;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
@@ -39,6 +43,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class TAROrderedReadCacheUnitTest extends BaseTest {
@@ -101,6 +106,84 @@ public class TAROrderedReadCacheUnitTest extends BaseTest {
         verifySortednessOfReads(cacheReads);
     }
 
+    @Test(dataProvider = "ReadCacheTestData")
+    public void testReadCacheDownsamplesLikeReservoirDownsampler(final int nReadsPerLocus, final int nLoci, final int max, final boolean addAllAtOnce) {
+        final List<GATKSAMRecord> reads = new ArtificialBAMBuilder(seq, nReadsPerLocus, nLoci).makeReads();
+        if ( max == 0 || reads.isEmpty() )
+            return;
+
+        Utils.resetRandomGenerator();
+        final ReservoirDownsampler<GATKSAMRecord> downsampler = new ReservoirDownsampler<>(max, false);
+        downsampler.submit(reads);
+        final List<GATKSAMRecord> expectedReads = downsampler.consumeFinalizedItems();
+        Collections.sort(expectedReads, new AlignmentStartComparator());
+
+        Utils.resetRandomGenerator();
+        final TAROrderedReadCache cache = new TAROrderedReadCache(max);
+        cache.addAll(reads);
+        Assert.assertEquals(cache.popCurrentReads(), expectedReads);
+    }
+
+    @DataProvider(name = "SpillingReadCacheTestData")
+    public Object[][] makeSpillingReadCacheTestData() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int nReadsPerLocus : Arrays.asList(1, 10, 200) ) {
+            for ( final int nLoci : Arrays.asList(10, 100) ) {
+                for ( final int max : Arrays.asList(50, 1000) ) {
+                    for ( final long maxBytes : Arrays.asList(0L, 10000L, 100000L) ) {
+                        tests.add(new Object[]{nReadsPerLocus, nLoci, max, maxBytes});
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "SpillingReadCacheTestData")
+    public void testSpillingReadCache(final int nReadsPerLocus, final int nLoci, final int max, final long maxBytes) {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(seq, nReadsPerLocus, nLoci);
+        final List<GATKSAMRecord> reads = bamBuilder.makeReads();
+
+        Utils.resetRandomGenerator();
+        final TAROrderedReadCache expectedCache = new TAROrderedReadCache(max);
+        expectedCache.addAll(reads);
+        final List<GATKSAMRecord> expectedReads = expectedCache.popCurrentReads();
+
+        Utils.resetRandomGenerator();
+        final TAROrderedReadCache cache = new TAROrderedReadCache(max, maxBytes);
+        Assert.assertEquals(cache.getMaxBytesInMemory(), maxBytes);
+        cache.addAll(reads);
+
+        Assert.assertEquals(cache.size(), expectedReads.size(), "wrong number of reads kept");
+        Assert.assertEquals(cache.getNumDiscarded(), reads.size() - expectedReads.size(), "wrong number of reads discarded");
+        final long readSize = TAROrderedReadCache.estimateSizeInBytes(reads.get(0));
+        if ( expectedReads.size() * readSize > maxBytes )
+            Assert.assertTrue(cache.getNumSpilled() > 0, "reads over the memory budget should have been spilled");
+        Assert.assertTrue(cache.getPeakBytesInMemory() <= maxBytes + readSize,
+                "held more bytes in memory than allowed: " + cache.getPeakBytesInMemory());
+        Assert.assertTrue(cache.getPeakBytesInMemory() >= Math.min(maxBytes, expectedReads.size() * readSize),
+                "the reservoir reads weren't counted in memory: " + cache.getPeakBytesInMemory());
+
+        final List<GATKSAMRecord> cacheReads = new ArrayList<GATKSAMRecord>();
+        final CloseableIterator<GATKSAMRecord> it = cache.popCurrentReadsIterator();
+        Assert.assertEquals(cache.size(), 0, "Should be no reads left");
+        while ( it.hasNext() )
+            cacheReads.add(it.next());
+        it.close();
+
+        // spilled reads come back as new records, so compare them by name and position
+        Assert.assertEquals(cacheReads.size(), expectedReads.size());
+        for ( int i = 0; i < cacheReads.size(); i++ ) {
+            Assert.assertEquals(cacheReads.get(i).getReadName(), expectedReads.get(i).getReadName());
+            Assert.assertEquals(cacheReads.get(i).getAlignmentStart(), expectedReads.get(i).getAlignmentStart());
+            Assert.assertEquals(cacheReads.get(i).getReadBases(), expectedReads.get(i).getReadBases());
+        }
+        verifySortednessOfReads(cacheReads);
+        cache.close();
+    }
+
     private void verifySortednessOfReads( final List<GATKSAMRecord> reads) {
         int lastStart = -1;
         for ( GATKSAMRecord read : reads ) {
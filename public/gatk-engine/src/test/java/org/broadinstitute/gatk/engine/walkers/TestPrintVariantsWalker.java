@@ -42,7 +42,7 @@ import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
 
 import java.util.*;
 
-public class TestPrintVariantsWalker extends RodWalker<Integer, Integer> implements TreeReducible<Integer> {
+public class TestPrintVariantsWalker extends RodWalker<List<VariantContext>, Integer> implements TreeReducible<Integer>, NanoSchedulable {
     @ArgumentCollection
     private StandardVariantContextInputArgumentCollection variantCollection = new StandardVariantContextInputArgumentCollection();
 
@@ -65,17 +65,20 @@ public class TestPrintVariantsWalker extends RodWalker<Integer, Integer> impleme
         vcfWriter.writeHeader(vcfHeader);
     }
 
+    /**
+     * Returns the variants at this site, which are written in reduce so that the output is in order under -nct
+     */
     @Override
-    public Integer map(final RefMetaDataTracker tracker, final ReferenceContext ref, final AlignmentContext context) {
+    public List<VariantContext> map(final RefMetaDataTracker tracker, final ReferenceContext ref, final AlignmentContext context) {
         if (tracker == null)
-            return 0;
-        final Collection<VariantContext> vcs = tracker.getValues(variantCollection.variants, context.getLocation());
-        for (VariantContext vc : vcs) {
+            return Collections.emptyList();
+        final List<VariantContext> vcs = new ArrayList<>();
+        for (VariantContext vc : tracker.getValues(variantCollection.variants, context.getLocation())) {
             if (fullyDecode)
                 vc = vc.fullyDecode(vcfRods.get(vc.getSource()), getToolkit().lenientVCFProcessing());
-            vcfWriter.add(vc);
+            vcs.add(vc);
         }
-        return vcs.isEmpty() ? 0 : 1;
+        return vcs;
     }
 
     @Override
@@ -84,13 +87,15 @@ public class TestPrintVariantsWalker extends RodWalker<Integer, Integer> impleme
     }
 
     @Override
-    public Integer reduce(final Integer counter, final Integer sum) {
-        return counter + sum;
+    public Integer reduce(final List<VariantContext> vcs, final Integer sum) {
+        for (final VariantContext vc : vcs)
+            vcfWriter.add(vc);
+        return vcs.isEmpty() ? sum : sum + 1;
     }
 
     @Override
     public Integer treeReduce(final Integer lhs, final Integer rhs) {
-        return reduce(lhs, rhs);
+        return lhs + rhs;
     }
 
     @Override
@@ -140,7 +140,57 @@ public class CoverageUtils {
         Map<String, int[]> countsByRGName = new HashMap<String, int[]>();
         Map<String, SAMReadGroupRecord> RGByName = new HashMap<String, SAMReadGroupRecord>();
 
-        List<PileupElement> countPileup = new LinkedList<PileupElement>();
+        for (PileupElement e : getCountedElements(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType)) {
+            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
+
+            // uniqueReadGroupID is unique across the library, read group ID, and the sample
+            String uniqueReadGroupId = readGroup.getSample() + "_" + readGroup.getReadGroupId() + "_" + readGroup.getLibrary() + "_" + readGroup.getPlatformUnit();
+            int[] counts = countsByRGName.get(uniqueReadGroupId);
+            if (counts == null) {
+                counts = new int[6];
+                countsByRGName.put(uniqueReadGroupId, counts);
+                RGByName.put(uniqueReadGroupId, readGroup);
+            }
+
+            updateCounts(counts, e);
+        }
+
+        for (String readGroupId : RGByName.keySet()) {
+            countsByRG.put(RGByName.get(readGroupId), countsByRGName.get(readGroupId));
+        }
+
+        return countsByRG;
+    }
+
+    /**
+     * Returns the base counts of each read group in the context, without building any per-locus maps
+     *
+     * @param readGroupIndices the index of each read group ID of the header
+     * @return the counts of bases, indexed by read group index and then by the index fields of BaseUtils;
+     *         read groups with no counted bases have a null entry
+     */
+    public static int[][] getBaseCountsByReadGroupIndex(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType, Map<String,Integer> readGroupIndices) {
+        int[][] countsByReadGroup = new int[readGroupIndices.size()][];
+
+        for (PileupElement e : getCountedElements(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType)) {
+            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
+            Integer index = readGroupIndices.get(readGroup.getReadGroupId());
+            if (index == null) {
+                throw new UserException.MalformedBAM(e.getRead(), "Read "+e.getRead().getReadName()+" has read group "+readGroup.getReadGroupId()+" which is not in the header");
+            }
+
+            if (countsByReadGroup[index] == null) {
+                countsByReadGroup[index] = new int[6];
+            }
+
+            updateCounts(countsByReadGroup[index], e);
+        }
+
+        return countsByReadGroup;
+    }
+
+    private static List<PileupElement> getCountedElements(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType) {
+        List<PileupElement> countPileup = new ArrayList<PileupElement>();
         FragmentCollection<PileupElement> fpile;
 
         switch (countType) {
@@ -203,26 +253,7 @@ public class CoverageUtils {
                 throw new UserException("Must use valid CountPileupType");
         }
 
-        for (PileupElement e : countPileup) {
-            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
-
-            // uniqueReadGroupID is unique across the library, read group ID, and the sample
-            String uniqueReadGroupId = readGroup.getSample() + "_" + readGroup.getReadGroupId() + "_" + readGroup.getLibrary() + "_" + readGroup.getPlatformUnit();
-            int[] counts = countsByRGName.get(uniqueReadGroupId);
-            if (counts == null) {
-                counts = new int[6];
-                countsByRGName.put(uniqueReadGroupId, counts);
-                RGByName.put(uniqueReadGroupId, readGroup);
-            }
-
-            updateCounts(counts, e);
-        }
-
-        for (String readGroupId : RGByName.keySet()) {
-            countsByRG.put(RGByName.get(readGroupId), countsByRGName.get(readGroupId));
-        }
-
-        return countsByRG;
+        return countPileup;
     }
 
     private static boolean countElement(PileupElement e, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ) {
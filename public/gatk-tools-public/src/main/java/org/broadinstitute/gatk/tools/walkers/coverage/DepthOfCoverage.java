@@ -42,6 +42,7 @@ import org.broadinstitute.gatk.utils.refdata.utils.LocationAwareSeekableRODItera
 import org.broadinstitute.gatk.utils.refdata.utils.RODRecordList;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
 import org.broadinstitute.gatk.utils.codecs.refseq.RefSeqCodec;
 import org.broadinstitute.gatk.utils.codecs.refseq.RefSeqFeature;
 import org.broadinstitute.gatk.utils.collections.Pair;
@@ -110,7 +111,7 @@ import java.util.*;
 @By(DataSource.REFERENCE)
 @PartitionBy(PartitionType.NONE)
 @Downsample(by= DownsampleType.NONE, toCoverage=Integer.MAX_VALUE)
-public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map<String,int[]>>, CoveragePartitioner> implements TreeReducible<CoveragePartitioner> {
+public class DepthOfCoverage extends LocusWalker<Pair<GenomeLoc,int[][]>, CoveragePartitioner> implements TreeReducible<CoveragePartitioner> {
     private final static Logger logger = Logger.getLogger(DepthOfCoverage.class);
 
     /**
@@ -158,7 +159,7 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     boolean omitLocusTable = false;
 
     /**
-     * Disabling the tabulation of interval statistics (mean, median, quartiles AND # intervals by sample by coverage) should speed up processing. This option is required in order to use -nt parallelism.
+     * Disabling the tabulation of interval statistics (mean, median, quartiles AND # intervals by sample by coverage) should speed up processing. With -nt parallelism, the per-interval summary lines are kept until the end of the traversal and printed then.
      */
     @Argument(fullName = "omitIntervalStatistics", shortName = "omitIntervals", doc = "Do not calculate per-interval statistics", required = false)
     boolean omitIntervals = false;
@@ -253,6 +254,18 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     String[] OUTPUT_FORMATS = {"table","rtable","csv"};
     String separator = "\t";
     Map<DoCOutputType.Partition,List<String>> orderCheck = new HashMap<DoCOutputType.Partition,List<String>>();
+    Map<String,Integer> readGroupIndices = new HashMap<String,Integer>();
+
+    // per-interval statistics: the reduce result carries the coverage of each interval until all of its loci have
+    // been seen, and then summarizes and discards it.  Run serially the summaries are printed as each interval is
+    // done.  With -nt an interval split across shards is only done in treeReduce, where no output can be written,
+    // so the summary lines are kept in the reduce result and printed in interval order when the traversal is done.
+    private GenomeLocSortedSet intervals = null;
+    private boolean deferIntervalSummaries = false;
+    private boolean printedIntervalSummaryHeader = false;
+    private LocationAwareSeekableRODIterator refseqIterator = null;
+    private List<Pair<String,DepthOfCoverageStats>> statsByGene = null; // maintains order
+    private Map<String,DepthOfCoverageStats> geneNamesToStats = null; // allows indirect updating of objects in list
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STANDARD WALKER METHODS
@@ -327,6 +340,28 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             }
             Collections.sort(orderCheck.get(type));
         }
+
+        for ( SAMReadGroupRecord rg : getToolkit().getSAMFileHeader().getReadGroups() ) {
+            readGroupIndices.put(rg.getReadGroupId(),readGroupIndices.size());
+        }
+
+        if ( ! omitIntervals && getToolkit().getIntervals() != null ) {
+            intervals = getToolkit().getIntervals();
+            if ( getToolkit().getArguments().numberOfDataThreads > 1 ) {
+                if ( refSeqGeneList != null && partitionTypes.contains(DoCOutputType.Partition.sample) ) {
+                    throw new UserException.BadArgumentValue("nt", "Gene statistics are gathered in a single pass over the gene list in interval order, so they do not support parallel execution. Please run without the -nt option.");
+                }
+                deferIntervalSummaries = true;
+            }
+
+            if ( refSeqGeneList != null && partitionTypes.contains(DoCOutputType.Partition.sample) ) {
+                logger.debug("Initializing refseq...");
+                refseqIterator = initializeRefSeq();
+                logger.debug("Refseq init done.");
+                statsByGene = new ArrayList<Pair<String,DepthOfCoverageStats>>();
+                geneNamesToStats = new HashMap<String,DepthOfCoverageStats>();
+            }
+        }
     }
 
     private HashSet<String> getSamplesFromToolKit( Collection<DoCOutputType.Partition> types ) {
@@ -377,12 +412,16 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         return partition;
     }
 
-    public boolean isReduceByInterval() {
-        return ( ! omitIntervals );
+    public CoveragePartitioner reduceInit() {
+        CoveragePartitioner aggro = newCoveragePartitioner();
+        if ( intervals != null ) {
+            aggro.setIntervalCoverage(new IntervalCoverage());
+        }
+        return aggro;
     }
 
-    public CoveragePartitioner reduceInit() {
-        CoveragePartitioner aggro = new CoveragePartitioner(partitionTypes,start,stop,nBins);
+    private CoveragePartitioner newCoveragePartitioner() {
+        CoveragePartitioner aggro = new CoveragePartitioner(partitionTypes,start,stop,nBins,getToolkit().getSAMFileHeader().getReadGroups());
         for (DoCOutputType.Partition t : partitionTypes ) {
             aggro.addIdentifiers(t,getSamplesFromToolKit(t));
         }
@@ -391,29 +430,38 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         return aggro;
     }
 
-    public Map<DoCOutputType.Partition,Map<String,int[]>> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public Pair<GenomeLoc,int[][]> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if (includeRefNBases || BaseUtils.isRegularBase(ref.getBase())) {
             if ( ! omitDepthOutput ) {
                 getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary).printf("%s",ref.getLocus()); // yes: print locus in map, and the rest of the info in reduce (for eventual cumulatives)
                 //System.out.printf("\t[log]\t%s",ref.getLocus());
             }
 
-            return CoverageUtils.getBaseCountsByPartition(context,minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType,partitionTypes);
+            return new Pair<GenomeLoc,int[][]>(ref.getLocus(),
+                    CoverageUtils.getBaseCountsByReadGroupIndex(context,minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType,readGroupIndices));
         } else {
-            return null;
+            return new Pair<GenomeLoc,int[][]>(ref.getLocus(),null);
         }
     }
 
-    public CoveragePartitioner reduce(Map<DoCOutputType.Partition,Map<String,int[]>> thisMap, CoveragePartitioner prevReduce) {
-        if ( thisMap != null ) { // skip sites we didn't want to include in the calculation (ref Ns)
+    public CoveragePartitioner reduce(Pair<GenomeLoc,int[][]> thisMap, CoveragePartitioner prevReduce) {
+        // with intervals, the locus goes to the coverage of its interval, which is merged into prevReduce when the interval closes
+        IntervalCoverage.OpenInterval interval = prevReduce.getIntervalCoverage() == null ? null : getOpenInterval(thisMap.first,prevReduce);
+        CoveragePartitioner coverage = interval == null ? prevReduce : interval.coverage;
+
+        if ( thisMap.second != null ) { // skip sites we didn't want to include in the calculation (ref Ns)
+            coverage.update(thisMap.second);
+
             if ( ! omitDepthOutput ) {
                 //checkOrder(prevReduce); // tests prevReduce.getIdentifiersByType().get(t) against the initialized header order
-                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),thisMap,prevReduce.getIdentifiersByType());
-                // this is an additional iteration through thisMap, plus dealing with IO, so should be much slower without
+                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),coverage);
+                // this is an additional iteration through the counts, plus dealing with IO, so should be much slower without
                 // turning on omit
             }
+        }
 
-            prevReduce.update(thisMap); // note that in "useBoth" cases, this method alters the thisMap object
+        if ( interval != null && ++interval.lociSeen == interval.interval.size() ) {
+            closeInterval(interval,prevReduce);
         }
 
         return prevReduce;
@@ -421,6 +469,9 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
 
     public CoveragePartitioner treeReduce(CoveragePartitioner left, CoveragePartitioner right) {
         left.merge(right);
+        if ( left.getIntervalCoverage() != null ) {
+            mergeIntervalCoverage(left,right);
+        }
         return left;
     }
 
@@ -428,44 +479,132 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     // INTERVAL ON TRAVERSAL DONE
     ////////////////////////////////////////////////////////////////////////////////////
 
-    public void onTraversalDone( List<Pair<GenomeLoc, CoveragePartitioner>> statsByInterval ) {
-        if ( refSeqGeneList != null && partitionTypes.contains(DoCOutputType.Partition.sample) ) {
-            printGeneStats(statsByInterval);
+    /**
+     * @return the accumulator of the interval holding locus, started if this is the first of its loci in coverageProfiles
+     */
+    private IntervalCoverage.OpenInterval getOpenInterval(GenomeLoc locus, CoveragePartitioner coverageProfiles) {
+        IntervalCoverage intervalCoverage = coverageProfiles.getIntervalCoverage();
+        IntervalCoverage.OpenInterval current = intervalCoverage.getCurrentInterval();
+        if ( current != null && current.interval.containsP(locus) ) {
+            return current;
         }
 
-        if ( !statsByInterval.isEmpty() ) {
-            for(DoCOutputType.Partition partition: partitionTypes) {
-                if ( checkType(statsByInterval.get(0).getSecond().getCoverageByAggregationType(partition) ,partition) ) {
-                    printIntervalStats(statsByInterval,
-                            getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.summary),
-                            getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.statistics),
-                            partition);
-                } else {
-                    throw new ReviewedGATKException("Partition type "+partition.toString()+" had no entries. Please check that your .bam header has all appropriate partition types.");
+        // run serially, every locus of an interval comes before the next interval, so one that's been left is done
+        if ( current != null && ! deferIntervalSummaries ) {
+            closeInterval(current,coverageProfiles);
+        }
+
+        List<GenomeLoc> overlapping = intervals.getOverlapping(locus);
+        if ( overlapping.isEmpty() ) {
+            throw new ReviewedGATKException("Locus "+locus+" lies outside of the traversal intervals");
+        }
+
+        IntervalCoverage.OpenInterval interval = intervalCoverage.getOpenInterval(overlapping.get(0));
+        if ( interval == null ) {
+            CoveragePartitioner spare = intervalCoverage.takeSpareCoverage();
+            interval = intervalCoverage.open(overlapping.get(0), spare != null ? spare : newCoveragePartitioner());
+        }
+        intervalCoverage.setCurrentInterval(interval);
+        return interval;
+    }
+
+    /**
+     * Combines the interval coverage of two reduce results, summarizing the intervals whose pieces add up to all of their loci
+     */
+    private void mergeIntervalCoverage(CoveragePartitioner left, CoveragePartitioner right) {
+        IntervalCoverage leftIntervals = left.getIntervalCoverage();
+        IntervalCoverage rightIntervals = right.getIntervalCoverage();
+        leftIntervals.mergeSummaries(rightIntervals);
+
+        for ( IntervalCoverage.OpenInterval rightInterval : rightIntervals.getOpenIntervals() ) {
+            IntervalCoverage.OpenInterval leftInterval = leftIntervals.getOpenInterval(rightInterval.interval);
+            if ( leftInterval == null ) {
+                leftIntervals.adopt(rightInterval);
+            } else {
+                leftInterval.coverage.merge(rightInterval.coverage);
+                leftInterval.lociSeen += rightInterval.lociSeen;
+                if ( leftInterval.lociSeen == leftInterval.interval.size() ) {
+                    closeInterval(leftInterval,left);
                 }
             }
-        } else {
-            throw new UserException.CommandLineException("Cannot reduce by interval without a list of intervals. Please provide an interval list using the -L argument.");
         }
+    }
 
-        onTraversalDone(mergeAll(statsByInterval));
+    /**
+     * Summarizes an interval, either printing its summary lines or keeping them in coverageProfiles to print at
+     * the end, and merges its coverage into coverageProfiles
+     */
+    private void closeInterval(IntervalCoverage.OpenInterval interval, CoveragePartitioner coverageProfiles) {
+        IntervalCoverage intervalCoverage = coverageProfiles.getIntervalCoverage();
+        intervalCoverage.close(interval);
+
+        Map<DoCOutputType.Partition,String> summaries = new EnumMap<DoCOutputType.Partition,String>(DoCOutputType.Partition.class);
+        for(DoCOutputType.Partition partition: partitionTypes) {
+            DepthOfCoverageStats targetStats = interval.coverage.getCoverageByAggregationType(partition);
+            summaries.put(partition,formatTargetSummary(new Pair<GenomeLoc,DepthOfCoverageStats>(interval.interval,targetStats)));
+            updateTargetTable(intervalCoverage.getTargetTable(partition,targetStats),targetStats);
+        }
 
+        if ( deferIntervalSummaries ) {
+            intervalCoverage.addSummaries(interval.interval,summaries);
+        } else {
+            printIntervalSummaries(summaries,interval.coverage);
+            if ( geneNamesToStats != null ) {
+                updateGeneStats(interval.interval,interval.coverage.getCoverageByAggregationType(DoCOutputType.Partition.sample));
+            }
+        }
+
+        coverageProfiles.merge(interval.coverage);
+        interval.coverage.reset();
+        intervalCoverage.setSpareCoverage(interval.coverage);
     }
 
-    public CoveragePartitioner mergeAll(List<Pair<GenomeLoc, CoveragePartitioner>> stats) {
-        CoveragePartitioner first = stats.remove(0).second;
-        for ( Pair<GenomeLoc, CoveragePartitioner> iStat : stats ) {
-            treeReduce(first,iStat.second);
+    private void printIntervalSummaries(Map<DoCOutputType.Partition,String> summaries, CoveragePartitioner firstCoverage) {
+        if ( ! printedIntervalSummaryHeader ) {
+            for(DoCOutputType.Partition partition: partitionTypes) {
+                DepthOfCoverageStats firstStats = firstCoverage.getCoverageByAggregationType(partition);
+                if ( ! checkType(firstStats,partition) ) {
+                    throw new ReviewedGATKException("Partition type "+partition.toString()+" had no entries. Please check that your .bam header has all appropriate partition types.");
+                }
+
+                printIntervalSummaryHeader(getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.summary),firstStats);
+            }
+            printedIntervalSummaryHeader = true;
         }
 
-        return first;
+        for(DoCOutputType.Partition partition: partitionTypes) {
+            getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.summary).printf("%s%n",summaries.get(partition));
+        }
     }
 
-    private DepthOfCoverageStats printIntervalStats(List<Pair<GenomeLoc, CoveragePartitioner>> statsByInterval, PrintStream summaryOut, PrintStream statsOut, DoCOutputType.Partition type) {
-        Pair<GenomeLoc, CoveragePartitioner> firstPair = statsByInterval.get(0);
-        CoveragePartitioner firstAggregator = firstPair.second;
-        DepthOfCoverageStats firstStats = firstAggregator.getCoverageByAggregationType(type);
+    private void finishIntervals(CoveragePartitioner coverageProfiles) {
+        IntervalCoverage intervalCoverage = coverageProfiles.getIntervalCoverage();
+
+        // intervals whose loci weren't all seen are summarized now, in order
+        while ( intervalCoverage.getFirstOpenInterval() != null ) {
+            closeInterval(intervalCoverage.getFirstOpenInterval(),coverageProfiles);
+        }
+
+        for ( Map<DoCOutputType.Partition,String> summaries : intervalCoverage.getSummaries() ) {
+            printIntervalSummaries(summaries,coverageProfiles);
+        }
+
+        if ( ! printedIntervalSummaryHeader ) {
+            throw new UserException.CommandLineException("Cannot reduce by interval without a list of intervals. Please provide an interval list using the -L argument.");
+        }
+
+        if ( geneNamesToStats != null ) {
+            printGeneStats();
+        }
+
+        for(DoCOutputType.Partition partition: partitionTypes) {
+            printIntervalTable(getCorrectStream(partition, DoCOutputType.Aggregation.interval, DoCOutputType.FileType.statistics),
+                    intervalCoverage.getTargetTable(partition,coverageProfiles.getCoverageByAggregationType(partition)),
+                    coverageProfiles.getCoverageByAggregationType(partition).getEndpoints());
+        }
+    }
 
+    private void printIntervalSummaryHeader(PrintStream summaryOut, DepthOfCoverageStats firstStats) {
         StringBuilder summaryHeader = new StringBuilder();
         summaryHeader.append("Target");
         summaryHeader.append(separator);
@@ -498,44 +637,24 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         }
 
         summaryOut.printf("%s%n",summaryHeader);
-
-        int[][] nTargetsByAvgCvgBySample = new int[firstStats.getHistograms().size()][firstStats.getEndpoints().length+1];
-
-        for ( Pair<GenomeLoc, CoveragePartitioner> targetAggregator : statsByInterval ) {
-
-            Pair<GenomeLoc,DepthOfCoverageStats> targetStats = new Pair<GenomeLoc,DepthOfCoverageStats>(
-                    targetAggregator.first, targetAggregator.second.getCoverageByAggregationType(type));
-            printTargetSummary(summaryOut,targetStats);
-            updateTargetTable(nTargetsByAvgCvgBySample,targetStats.second);
-        }
-
-        printIntervalTable(statsOut,nTargetsByAvgCvgBySample,firstStats.getEndpoints());
-
-        return firstStats;
     }
 
-    private void printGeneStats(List<Pair<GenomeLoc, CoveragePartitioner>> statsByTarget) {
-        logger.debug("statsByTarget size is "+Integer.toString(statsByTarget.size()));
-        logger.debug("Initializing refseq...");
-        LocationAwareSeekableRODIterator refseqIterator = initializeRefSeq();
-        logger.debug("Refseq init done.");
-        List<Pair<String,DepthOfCoverageStats>> statsByGene = new ArrayList<Pair<String,DepthOfCoverageStats>>();// maintains order
-        Map<String,DepthOfCoverageStats> geneNamesToStats = new HashMap<String,DepthOfCoverageStats>(); // allows indirect updating of objects in list
-
-        for ( Pair<GenomeLoc, CoveragePartitioner> targetStats : statsByTarget ) {
-            List<String> genes = getGeneNames(targetStats.first,refseqIterator);
-            for (String gene : genes) {
-            	if ( geneNamesToStats.keySet().contains(gene) ) {
-            		logger.debug("Merging "+geneNamesToStats.get(gene).toString()+" and "+targetStats.second.getCoverageByAggregationType(DoCOutputType.Partition.sample).toString());
-            		geneNamesToStats.get(gene).merge(targetStats.second.getCoverageByAggregationType(DoCOutputType.Partition.sample));
-            	} else {
-            		DepthOfCoverageStats merger = new DepthOfCoverageStats(targetStats.second.getCoverageByAggregationType(DoCOutputType.Partition.sample));
-            		geneNamesToStats.put(gene,merger);
-            		statsByGene.add(new Pair<String,DepthOfCoverageStats>(gene,merger));
-            	}
+    private void updateGeneStats(GenomeLoc target, DepthOfCoverageStats targetStats) {
+        List<String> genes = getGeneNames(target,refseqIterator);
+        for (String gene : genes) {
+            if ( geneNamesToStats.keySet().contains(gene) ) {
+                logger.debug("Merging "+geneNamesToStats.get(gene).toString()+" and "+targetStats.toString());
+                geneNamesToStats.get(gene).merge(targetStats);
+            } else {
+                DepthOfCoverageStats merger = new DepthOfCoverageStats(targetStats);
+                geneNamesToStats.put(gene,merger);
+                statsByGene.add(new Pair<String,DepthOfCoverageStats>(gene,merger));
             }
         }
+    }
 
+    private void printGeneStats() {
+        logger.debug("statsByGene size is "+Integer.toString(statsByGene.size()));
         PrintStream geneSummaryOut = getCorrectStream(DoCOutputType.Partition.sample, DoCOutputType.Aggregation.gene, DoCOutputType.FileType.summary);
         StringBuilder summaryHeader = new StringBuilder();
         summaryHeader.append("Gene");
@@ -619,6 +738,10 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     }
 
     private void printTargetSummary(PrintStream output, Pair<?,DepthOfCoverageStats> intervalStats) {
+        output.printf("%s%n", formatTargetSummary(intervalStats));
+    }
+
+    private String formatTargetSummary(Pair<?,DepthOfCoverageStats> intervalStats) {
         DepthOfCoverageStats stats = intervalStats.second;
         int[] bins = stats.getEndpoints();
 
@@ -629,11 +752,13 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         targetSummary.append(separator);
         targetSummary.append(String.format("%.2f",stats.getTotalMeanCoverage()));
 
+        Map<String,Long> totals = stats.getTotals();
+        Map<String,Double> means = stats.getMeans();
         for ( String s : stats.getAllSamples() ) {
             targetSummary.append(separator);
-            targetSummary.append(stats.getTotals().get(s));
+            targetSummary.append(totals.get(s));
             targetSummary.append(separator);
-            targetSummary.append(String.format("%.2f", stats.getMeans().get(s)));
+            targetSummary.append(String.format("%.2f", means.get(s)));
             targetSummary.append(separator);
             int median = getQuantile(stats.getHistograms().get(s),0.5);
             int q1 = getQuantile(stats.getHistograms().get(s),0.25);
@@ -649,7 +774,7 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
 
         }
 
-        output.printf("%s%n", targetSummary);
+        return targetSummary.toString();
     }
 
     private String formatBin(int[] bins, int quartile) {
@@ -717,6 +842,10 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     ////////////////////////////////////////////////////////////////////////////////////
 
     public void onTraversalDone(CoveragePartitioner coverageProfiles) {
+        if ( coverageProfiles.getIntervalCoverage() != null ) {
+            finishIntervals(coverageProfiles);
+        }
+
         ///////////////////
         // OPTIONAL OUTPUTS
         //////////////////
@@ -907,20 +1036,21 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         return 100*( (double) above )/( above + below );
     }
 
-    private void printDepths(PrintStream stream, Map<DoCOutputType.Partition,Map<String,int[]>> countsBySampleByType, Map<DoCOutputType.Partition,List<String>> identifiersByType) {
+    private void printDepths(PrintStream stream, CoveragePartitioner coverage) {
         // get the depths per sample and build up the output string while tabulating total and average coverage
+        Map<DoCOutputType.Partition,List<String>> identifiersByType = coverage.getIdentifiersByType();
         StringBuilder perSampleOutput = new StringBuilder();
         int tDepth = 0;
         boolean depthCounted = false;
         for (DoCOutputType.Partition type : partitionTypes ) {
-            Map<String,int[]> countsByID = countsBySampleByType.get(type);
-            for ( String s : identifiersByType.get(type) ) {
+            int[][] countsByIndex = coverage.getLocusCounts(type);
+            for ( int index : coverage.getSortedIdentifierIndices(type) ) {
                 perSampleOutput.append(separator);
-                long dp = (countsByID != null && countsByID.keySet().contains(s)) ? sumArray(countsByID.get(s)) : 0 ;
+                long dp = sumArray(countsByIndex[index]);
                 perSampleOutput.append(dp);
                 if ( printBaseCounts ) {
                     perSampleOutput.append(separator);
-                    perSampleOutput.append(baseCounts(countsByID != null ? countsByID.get(s) : null ));
+                    perSampleOutput.append(baseCounts(countsByIndex[index]));
                 }
                 if ( ! depthCounted ) {
                     tDepth += dp;
@@ -1071,7 +1201,17 @@ class CoveragePartitioner {
     private Map<DoCOutputType.Partition,DepthOfCoverageStats> coverageProfiles;
     private Map<DoCOutputType.Partition,List<String>> identifiersByType;
     private Set<String> allIdentifiers;
-    public CoveragePartitioner(Collection<DoCOutputType.Partition> typesToUse, int start, int stop, int nBins) {
+    private List<SAMReadGroupRecord> readGroups;
+    // per type, the index in the DepthOfCoverageStats of each read group and of each sorted identifier
+    private Map<DoCOutputType.Partition,int[]> identifierIndexByReadGroup;
+    private Map<DoCOutputType.Partition,int[]> sortedIdentifierIndices;
+    // per type, the base counts of each identifier at the current locus; reused across loci
+    private Map<DoCOutputType.Partition,int[][]> locusCountsByType;
+    private int[][] previousCountsByReadGroup = null;
+    // the coverage of the intervals still being traversed, when per-interval statistics are gathered
+    private IntervalCoverage intervalCoverage = null;
+
+    public CoveragePartitioner(Collection<DoCOutputType.Partition> typesToUse, int start, int stop, int nBins, List<SAMReadGroupRecord> readGroups) {
         coverageProfiles = new TreeMap<DoCOutputType.Partition,DepthOfCoverageStats>();
         identifiersByType = new HashMap<DoCOutputType.Partition,List<String>>();
         types = typesToUse;
@@ -1080,6 +1220,7 @@ class CoveragePartitioner {
             identifiersByType.put(type,new ArrayList<String>());
         }
         allIdentifiers = new HashSet<String>();
+        this.readGroups = readGroups;
     }
 
     public void merge(CoveragePartitioner otherAggregator) {
@@ -1088,6 +1229,12 @@ class CoveragePartitioner {
         }
     }
 
+    public void reset() {
+        for ( DoCOutputType.Partition type : types ) {
+            coverageProfiles.get(type).reset();
+        }
+    }
+
     public DepthOfCoverageStats getCoverageByAggregationType(DoCOutputType.Partition t) {
         return coverageProfiles.get(t);
     }
@@ -1102,20 +1249,77 @@ class CoveragePartitioner {
     }
 
     public void initialize(boolean useDels, boolean omitLocusTable) {
+        identifierIndexByReadGroup = new HashMap<DoCOutputType.Partition,int[]>();
+        sortedIdentifierIndices = new HashMap<DoCOutputType.Partition,int[]>();
+        locusCountsByType = new HashMap<DoCOutputType.Partition,int[][]>();
         for ( DoCOutputType.Partition t : types ) {
+            DepthOfCoverageStats stats = coverageProfiles.get(t);
             if ( useDels ) {
-                coverageProfiles.get(t).initializeDeletions();
+                stats.initializeDeletions();
             }
             if ( ! omitLocusTable ) {
-                coverageProfiles.get(t).initializeLocusCounts();
+                stats.initializeLocusCounts();
             }
+
+            int[] readGroupIndices = new int[readGroups.size()];
+            for ( int rg = 0; rg < readGroupIndices.length; rg++ ) {
+                readGroupIndices[rg] = stats.getSampleIndex(CoverageUtils.getTypeID(readGroups.get(rg),t));
+            }
+            identifierIndexByReadGroup.put(t,readGroupIndices);
+
+            List<String> identifiers = identifiersByType.get(t);
+            int[] sortedIndices = new int[identifiers.size()];
+            for ( int i = 0; i < sortedIndices.length; i++ ) {
+                sortedIndices[i] = stats.getSampleIndex(identifiers.get(i));
+            }
+            sortedIdentifierIndices.put(t,sortedIndices);
+
+            locusCountsByType.put(t,new int[stats.getNumberOfSamples()][6]);
         }
     }
 
-    public void update(Map<DoCOutputType.Partition,Map<String,int[]>> countsByIdentifierByType) {
+    /**
+     * Adds one locus to the coverage of every partition type
+     *
+     * @param countsByReadGroup base counts indexed by the position of the read group in the header, null where there are none
+     */
+    public void update(int[][] countsByReadGroup) {
         for ( DoCOutputType.Partition t : types ) {
-            coverageProfiles.get(t).update(countsByIdentifierByType.get(t));
+            int[] readGroupIndices = identifierIndexByReadGroup.get(t);
+            int[][] locusCounts = locusCountsByType.get(t);
+
+            if ( previousCountsByReadGroup != null ) {
+                for ( int rg = 0; rg < previousCountsByReadGroup.length; rg++ ) {
+                    if ( previousCountsByReadGroup[rg] != null && readGroupIndices[rg] >= 0 ) {
+                        Arrays.fill(locusCounts[readGroupIndices[rg]],0);
+                    }
+                }
+            }
+
+            for ( int rg = 0; rg < countsByReadGroup.length; rg++ ) {
+                if ( countsByReadGroup[rg] != null && readGroupIndices[rg] >= 0 ) {
+                    CoverageUtils.addCounts(locusCounts[readGroupIndices[rg]],countsByReadGroup[rg]);
+                }
+            }
+
+            coverageProfiles.get(t).update(locusCounts);
         }
+
+        previousCountsByReadGroup = countsByReadGroup;
+    }
+
+    /**
+     * @return the base counts of each identifier at the last locus given to update(), indexed as in the DepthOfCoverageStats
+     */
+    public int[][] getLocusCounts(DoCOutputType.Partition t) {
+        return locusCountsByType.get(t);
+    }
+
+    /**
+     * @return the DepthOfCoverageStats index of each identifier, in the order of getIdentifiersByType()
+     */
+    public int[] getSortedIdentifierIndices(DoCOutputType.Partition t) {
+        return sortedIdentifierIndices.get(t);
     }
 
     public Set<String> getAllIdentifiers() {
@@ -1125,4 +1329,131 @@ class CoveragePartitioner {
     public Map<DoCOutputType.Partition,List<String>> getIdentifiersByType() {
         return identifiersByType;
     }
+
+    public IntervalCoverage getIntervalCoverage() {
+        return intervalCoverage;
+    }
+
+    public void setIntervalCoverage(IntervalCoverage intervalCoverage) {
+        this.intervalCoverage = intervalCoverage;
+    }
+}
+
+/**
+ * The per-interval state of a reduce result: the coverage of each interval whose loci haven't all been seen yet,
+ * keyed by interval so that the pieces of an interval split across shards can be combined in treeReduce, plus the
+ * target tables and summary lines of the intervals already done.
+ */
+class IntervalCoverage {
+    static class OpenInterval {
+        final GenomeLoc interval;
+        final CoveragePartitioner coverage;
+        long lociSeen = 0;
+
+        OpenInterval(GenomeLoc interval, CoveragePartitioner coverage) {
+            this.interval = interval;
+            this.coverage = coverage;
+        }
+    }
+
+    private final TreeMap<GenomeLoc,OpenInterval> openIntervals = new TreeMap<GenomeLoc,OpenInterval>();
+    private OpenInterval currentInterval = null;
+    // the coverage of the last interval closed, reset, for the next one to reuse
+    private CoveragePartitioner spareCoverage = null;
+    private final Map<DoCOutputType.Partition,int[][]> targetTables = new EnumMap<DoCOutputType.Partition,int[][]>(DoCOutputType.Partition.class);
+    private final TreeMap<GenomeLoc,Map<DoCOutputType.Partition,String>> summaries = new TreeMap<GenomeLoc,Map<DoCOutputType.Partition,String>>();
+
+    public OpenInterval getOpenInterval(GenomeLoc interval) {
+        return openIntervals.get(interval);
+    }
+
+    public OpenInterval getFirstOpenInterval() {
+        return openIntervals.isEmpty() ? null : openIntervals.firstEntry().getValue();
+    }
+
+    public Collection<OpenInterval> getOpenIntervals() {
+        return openIntervals.values();
+    }
+
+    public OpenInterval open(GenomeLoc interval, CoveragePartitioner coverage) {
+        OpenInterval openInterval = new OpenInterval(interval,coverage);
+        openIntervals.put(interval,openInterval);
+        return openInterval;
+    }
+
+    /**
+     * Takes over an interval opened in another reduce result
+     */
+    public void adopt(OpenInterval openInterval) {
+        openIntervals.put(openInterval.interval,openInterval);
+    }
+
+    public void close(OpenInterval openInterval) {
+        openIntervals.remove(openInterval.interval);
+        if ( currentInterval == openInterval ) {
+            currentInterval = null;
+        }
+    }
+
+    public OpenInterval getCurrentInterval() {
+        return currentInterval;
+    }
+
+    public void setCurrentInterval(OpenInterval currentInterval) {
+        this.currentInterval = currentInterval;
+    }
+
+    public CoveragePartitioner takeSpareCoverage() {
+        CoveragePartitioner spare = spareCoverage;
+        spareCoverage = null;
+        return spare;
+    }
+
+    public void setSpareCoverage(CoveragePartitioner spareCoverage) {
+        this.spareCoverage = spareCoverage;
+    }
+
+    /**
+     * @return the number of intervals by number of samples by median coverage bin for the partition, created on first use
+     */
+    public int[][] getTargetTable(DoCOutputType.Partition partition, DepthOfCoverageStats stats) {
+        int[][] table = targetTables.get(partition);
+        if ( table == null ) {
+            table = new int[stats.getHistograms().size()][stats.getEndpoints().length+1];
+            targetTables.put(partition,table);
+        }
+        return table;
+    }
+
+    public void addSummaries(GenomeLoc interval, Map<DoCOutputType.Partition,String> intervalSummaries) {
+        summaries.put(interval,intervalSummaries);
+    }
+
+    /**
+     * @return the summary lines kept for the intervals already done, in interval order
+     */
+    public Collection<Map<DoCOutputType.Partition,String>> getSummaries() {
+        return summaries.values();
+    }
+
+    /**
+     * Adds the target tables and summary lines of the intervals done in other to this one's
+     */
+    public void mergeSummaries(IntervalCoverage other) {
+        for ( Map.Entry<DoCOutputType.Partition,int[][]> entry : other.targetTables.entrySet() ) {
+            int[][] table = targetTables.get(entry.getKey());
+            if ( table == null ) {
+                targetTables.put(entry.getKey(),entry.getValue());
+            } else {
+                for ( int i = 0; i < table.length; i++ ) {
+                    for ( int j = 0; j < table[i].length; j++ ) {
+                        table[i][j] += entry.getValue()[i][j];
+                    }
+                }
+            }
+        }
+        summaries.putAll(other.summaries);
+        // the next locus reduced into this result isn't necessarily next to the last one
+        currentInterval = null;
+    }
 }
@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.tools.walkers.coverage;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -44,16 +45,21 @@ public class DepthOfCoverageStats {
     // STATIC DATA
     ////////////////////////////////////////////////////////////////////////////////////
 
-    /* none so far */
+    private static final int MAX_DEPTH_LOOKUP_SIZE = 4096; // depths below this are binned by table lookup
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STANDARD DATA
     ////////////////////////////////////////////////////////////////////////////////////
 
-    private Map<String,long[]> granularHistogramBySample; // holds the counts per each bin
-    private Map<String,Long> totalCoverages; // holds total coverage per sample
+    private Map<String,long[]> granularHistogramBySample; // holds the counts per each bin; shares its arrays with histogramsByIndex
+    private Map<String,Integer> sampleIndices; // position of each sample in the per-sample arrays below
+    private String[] sampleNames; // sample name for each index
+    private long[][] histogramsByIndex; // holds the counts per each bin, by sample index
+    private long[] totalCoverages; // holds total coverage per sample, by sample index
+    private int nSamples;
     private int[] binLeftEndpoints; // describes the left endpoint for each bin
-    private long[][] locusCoverageCounts; // holds counts of number of bases with >=X samples at >=Y coverage
+    private int[] binByDepth; // the bin of each small depth
+    private long[][] locusCoverageCounts; // holds counts of number of bases with exactly X+1 samples at >=Y coverage; see getLocusCounts()
     private boolean tabulateLocusCounts = false;
     private long nLoci; // number of loci seen
     private long totalDepthOfCoverage;
@@ -63,8 +69,8 @@ public class DepthOfCoverageStats {
     // TEMPORARY DATA ( not worth re-instantiating )
     ////////////////////////////////////////////////////////////////////////////////////
 
-    private int[] locusHistogram; // holds a histogram for each locus; reset after each update() call
-    private int totalLocusDepth; // holds the total depth of coverage for each locus; reset after each update() call
+    private int[] locusHistogram; // holds the number of samples in each bin for a locus; reset after each update() call
+    private int[] locusDepths; // holds the depth of each sample for a locus
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STATIC METHODS
@@ -101,36 +107,49 @@ public class DepthOfCoverageStats {
     // INITIALIZATION METHODS
     ////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * @param leftEndpoints the increasing left endpoints of the granular bins, as from calculateBinEndpoints()
+     */
     public DepthOfCoverageStats(int[] leftEndpoints) {
         this.binLeftEndpoints = leftEndpoints;
+        binByDepth = new int[Math.min(leftEndpoints[leftEndpoints.length-1]+1, MAX_DEPTH_LOOKUP_SIZE)];
+        for ( int depth = 0; depth < binByDepth.length; depth++ ) {
+            binByDepth[depth] = searchBins(depth);
+        }
         granularHistogramBySample = new HashMap<String,long[]>();
-        totalCoverages = new HashMap<String,Long>();
+        sampleIndices = new HashMap<String,Integer>();
+        sampleNames = new String[0];
+        histogramsByIndex = new long[0][];
+        totalCoverages = new long[0];
+        locusDepths = new int[0];
         nLoci = 0;
-        totalLocusDepth = 0;
         totalDepthOfCoverage = 0;
     }
 
+    /**
+     * Copies the per-sample histograms and totals of another stats object. The locus counts are not
+     * carried over, so the copy never tabulates them.
+     *
+     * @param cloneMe the stats to copy
+     */
     public DepthOfCoverageStats(DepthOfCoverageStats cloneMe) {
         this.binLeftEndpoints = cloneMe.binLeftEndpoints;
+        this.binByDepth = cloneMe.binByDepth;
         granularHistogramBySample = new TreeMap<String,long[]>();
-        totalCoverages = new TreeMap<String,Long>();
-        for ( String s : cloneMe.getAllSamples() ) {
-            granularHistogramBySample.put(s,new long[cloneMe.getHistograms().get(s).length]);
-            for ( int i = 0; i < granularHistogramBySample.get(s).length; i++ ) {
-                granularHistogramBySample.get(s)[i] = cloneMe.getHistograms().get(s)[i];
-            }
-            totalCoverages.put(s,cloneMe.totalCoverages.get(s));
+        sampleIndices = new HashMap<String,Integer>(cloneMe.sampleIndices);
+        nSamples = cloneMe.nSamples;
+        sampleNames = Arrays.copyOf(cloneMe.sampleNames, nSamples);
+        histogramsByIndex = new long[nSamples][];
+        totalCoverages = Arrays.copyOf(cloneMe.totalCoverages, nSamples);
+        locusDepths = new int[nSamples];
+        for ( int i = 0; i < nSamples; i++ ) {
+            histogramsByIndex[i] = cloneMe.histogramsByIndex[i].clone();
+            granularHistogramBySample.put(sampleNames[i],histogramsByIndex[i]);
         }
 
         this.includeDeletions = cloneMe.includeDeletions;
-        if ( cloneMe.tabulateLocusCounts ) {
-            this.locusCoverageCounts = new long[cloneMe.locusCoverageCounts.length][cloneMe.locusCoverageCounts[0].length];
-        }
-        //this.granularHistogramBySample = cloneMe.granularHistogramBySample;
-        //this.totalCoverages = cloneMe.totalCoverages;
         this.nLoci = cloneMe.nLoci;
         this.totalDepthOfCoverage = cloneMe.totalDepthOfCoverage;
-        this.tabulateLocusCounts = cloneMe.tabulateLocusCounts;
     }
 
     public void addSample(String sample) {
@@ -139,24 +158,25 @@ public class DepthOfCoverageStats {
         }
 
         long[] binCounts = new long[this.binLeftEndpoints.length+1];
-        for ( int b = 0; b < binCounts.length; b ++ ) {
-            binCounts[b] = 0;
+
+        if ( nSamples == sampleNames.length ) {
+            int capacity = Math.max(4, 2*nSamples);
+            sampleNames = Arrays.copyOf(sampleNames, capacity);
+            histogramsByIndex = Arrays.copyOf(histogramsByIndex, capacity);
+            totalCoverages = Arrays.copyOf(totalCoverages, capacity);
+            locusDepths = new int[capacity];
         }
 
+        sampleIndices.put(sample,nSamples);
+        sampleNames[nSamples] = sample;
+        histogramsByIndex[nSamples] = binCounts;
+        nSamples++;
         granularHistogramBySample.put(sample,binCounts);
-        totalCoverages.put(sample,0l);
     }
 
     public void initializeLocusCounts() {
-        locusCoverageCounts = new long[granularHistogramBySample.size()][binLeftEndpoints.length+1];
+        locusCoverageCounts = new long[nSamples][binLeftEndpoints.length+1];
         locusHistogram = new int[binLeftEndpoints.length+1];
-        for ( int b = 0; b < binLeftEndpoints.length+1; b ++ ) {
-            for ( int a = 0; a < granularHistogramBySample.size(); a ++ ) {
-                locusCoverageCounts[a][b] = 0;
-            }
-            locusHistogram[b] = 0;
-        }
-
         tabulateLocusCounts = true;
     }
 
@@ -164,90 +184,142 @@ public class DepthOfCoverageStats {
         includeDeletions = true;
     }
 
+    /**
+     * Clears all counts accumulated so far, keeping the samples and bins, so that this object can be reused.
+     */
+    public void reset() {
+        for ( int i = 0; i < nSamples; i++ ) {
+            Arrays.fill(histogramsByIndex[i], 0);
+        }
+        Arrays.fill(totalCoverages, 0);
+        if ( tabulateLocusCounts ) {
+            for ( long[] counts : locusCoverageCounts ) {
+                Arrays.fill(counts, 0);
+            }
+        }
+        nLoci = 0;
+        totalDepthOfCoverage = 0;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////
     // UPDATE METHODS
     ////////////////////////////////////////////////////////////////////////////////////
 
     public void updateDepths(Map<String,Integer> depthBySample) {
-        int b;
-        for ( String sample : granularHistogramBySample.keySet() ) {
-            if ( depthBySample.containsKey(sample) ) {
-                b = updateSample(sample,depthBySample.get(sample));
-                totalLocusDepth += depthBySample.get(sample);
-            } else {
-                b = updateSample(sample,0);
+        Arrays.fill(locusDepths, 0);
+        for ( Map.Entry<String,Integer> depth : depthBySample.entrySet() ) {
+            Integer index = sampleIndices.get(depth.getKey());
+            if ( index != null ) {
+                locusDepths[index] = depth.getValue();
             }
+        }
+
+        this.updateDepths(locusDepths);
+    }
+
+    /**
+     * Adds one locus to the statistics.
+     *
+     * @param depthBySampleIndex the depth of each sample at the locus, indexed by getSampleIndex()
+     */
+    public void updateDepths(int[] depthBySampleIndex) {
+        int totalLocusDepth = 0;
+        for ( int i = 0; i < nSamples; i++ ) {
+            int depth = depthBySampleIndex[i];
+            int b = depthToBin(depth);
+            histogramsByIndex[i][b]++;
+            totalCoverages[i] += depth;
+            totalLocusDepth += depth;
 
             if ( tabulateLocusCounts ) {
-                for ( int i = 0; i <= b; i ++ ) {
-                    locusHistogram[i]++;
-                }
+                locusHistogram[b]++;
             }
         }
         updateLocusCounts(locusHistogram);
 
         nLoci++;
         totalDepthOfCoverage += totalLocusDepth;
-        totalLocusDepth = 0;
     }
 
     public void update(Map<String,int[]> countsBySample) {
-        if ( countsBySample == null ) {
-            this.updateDepths(new HashMap<String,Integer>(1));
-            return;
-        }
-        // todo -- do we want to do anything special regarding base count or deletion statistics?
-        HashMap<String,Integer> depthBySample = new HashMap<String,Integer>();
-        // todo -- needs fixing with advent of new baseutils functionality using ENUMS and handling N,D
-        for ( String s : countsBySample.keySet() ) {
-            int total = 0;
-            int[] counts = countsBySample.get(s);
-            for ( byte base : BaseUtils.EXTENDED_BASES ) {
-                if ( includeDeletions || ! ( base == BaseUtils.Base.D.base) ) { // note basesAreEqual assigns TRUE to (N,D) as both have simple index -1
-                    total += counts[BaseUtils.extendedBaseToBaseIndex(base)];
+        Arrays.fill(locusDepths, 0);
+        if ( countsBySample != null ) {
+            for ( Map.Entry<String,int[]> counts : countsBySample.entrySet() ) {
+                Integer index = sampleIndices.get(counts.getKey());
+                if ( index != null ) {
+                    locusDepths[index] = getDepth(counts.getValue());
                 }
             }
-            depthBySample.put(s,total);
         }
-        
-        this.updateDepths(depthBySample);
+
+        this.updateDepths(locusDepths);
     }
 
-    private int updateSample(String sample, int depth) {
-        totalCoverages.put(sample,totalCoverages.get(sample)+depth);
+    /**
+     * Adds one locus to the statistics.
+     *
+     * @param countsBySampleIndex the base counts of each sample at the locus, indexed by getSampleIndex()
+     */
+    public void update(int[][] countsBySampleIndex) {
+        for ( int i = 0; i < nSamples; i++ ) {
+            locusDepths[i] = getDepth(countsBySampleIndex[i]);
+        }
+
+        this.updateDepths(locusDepths);
+    }
 
-        long[] granularBins = granularHistogramBySample.get(sample);
-        for ( int b = 0; b < binLeftEndpoints.length; b ++ ) {
-            if ( depth < binLeftEndpoints[b] ) {
-                granularBins[b]++;
-                return b;
+    // todo -- do we want to do anything special regarding base count or deletion statistics?
+    private int getDepth(int[] counts) {
+        int total = 0;
+        for ( int index = 0; index < counts.length; index++ ) {
+            if ( includeDeletions || index != BaseUtils.Base.D.ordinal() ) {
+                total += counts[index];
             }
         }
+        return total;
+    }
 
-        granularBins[binLeftEndpoints.length]++; // greater than all left-endpoints
-        return binLeftEndpoints.length;
+    /*
+     * Returns the first bin whose left endpoint is greater than depth, or binLeftEndpoints.length if there is none
+     */
+    private int depthToBin(int depth) {
+        return depth < binByDepth.length ? binByDepth[depth] : searchBins(depth);
+    }
+
+    private int searchBins(int depth) {
+        int low = 0;
+        int high = binLeftEndpoints.length;
+        while ( low < high ) {
+            int mid = (low + high) >>> 1;
+            if ( depth < binLeftEndpoints[mid] ) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
     }
 
     public void merge(DepthOfCoverageStats newStats) {
         this.mergeSamples(newStats);
         if ( this.tabulateLocusCounts && newStats.tabulateLocusCounts ) {
-            this.mergeLocusCounts(newStats.getLocusCounts());
+            this.mergeLocusCounts(newStats.locusCoverageCounts);
         }
         nLoci += newStats.getTotalLoci();
         totalDepthOfCoverage += newStats.getTotalCoverage();
     }
 
     private void mergeSamples(DepthOfCoverageStats otherStats) {
-        Map<String,long[]> otherHistogram = otherStats.getHistograms();
-        Map<String,Double> otherMeans = otherStats.getMeans();
-        for ( String s : this.getAllSamples() ) {
-            long[] internalCounts = granularHistogramBySample.get(s);
-            long[] externalCounts = otherHistogram.get(s);
+        for ( int i = 0; i < nSamples; i++ ) {
+            int otherIndex = i < otherStats.nSamples && sampleNames[i].equals(otherStats.sampleNames[i]) ?
+                    i : otherStats.sampleIndices.get(sampleNames[i]);
+            long[] internalCounts = histogramsByIndex[i];
+            long[] externalCounts = otherStats.histogramsByIndex[otherIndex];
             for ( int b = 0; b < internalCounts.length; b++ ) {
                 internalCounts[b] += externalCounts[b];
             }
 
-            this.totalCoverages.put(s, this.totalCoverages.get(s) + otherStats.totalCoverages.get(s));
+            totalCoverages[i] += otherStats.totalCoverages[otherIndex];
         }
     }
 
@@ -261,23 +333,25 @@ public class DepthOfCoverageStats {
 
     /*
      * Update locus counts -- takes an array in which the number of samples
-     * with depth ABOVE [i] is held. So if the bin left endpoints were 2, 5, 10
+     * with depth in bin [i] is held. So if the bin left endpoints were 2, 5, 10
      * then we'd have an array that represented:
-     * [# samples with depth 0 - inf], [# samples with depth 2 - inf],
-     * [# samples with depth 5 - inf], [# samples with depth 10-inf];
+     * [# samples with depth 0 - 1], [# samples with depth 2 - 4],
+     * [# samples with depth 5 - 9], [# samples with depth 10-inf];
      *
-     * this is
-     * @argument cumulativeSamplesByDepthBin - see above
+     * Only the largest number of samples at or above each bin is recorded; getLocusCounts()
+     * accumulates these into the counts for every smaller number of samples.
+     * @argument samplesByDepthBin - see above
      */
-    private void updateLocusCounts(int[] cumulativeSamplesByDepthBin) {
+    private void updateLocusCounts(int[] samplesByDepthBin) {
         if ( tabulateLocusCounts ) {
-            for ( int bin = 0; bin < cumulativeSamplesByDepthBin.length; bin ++ ) {
-                int numSamples = cumulativeSamplesByDepthBin[bin];
-                for ( int i = 0; i < numSamples; i ++ ) {
-                    locusCoverageCounts[i][bin]++;
+            int numSamples = 0;
+            for ( int bin = samplesByDepthBin.length-1; bin >= 0; bin -- ) {
+                numSamples += samplesByDepthBin[bin];
+                if ( numSamples > 0 ) {
+                    locusCoverageCounts[numSamples-1][bin]++;
                 }
 
-                cumulativeSamplesByDepthBin[bin] = 0; // reset counts in advance of next update()
+                samplesByDepthBin[bin] = 0; // reset counts in advance of next update()
             }
         }
     }
@@ -290,8 +364,25 @@ public class DepthOfCoverageStats {
         return granularHistogramBySample;
     }
 
+    /**
+     * @return the number of loci with at least [i+1] samples at or above the left endpoint of bin [j],
+     *         or null if locus counts are not being tabulated
+     */
     public long[][] getLocusCounts() {
-        return locusCoverageCounts;
+        if ( locusCoverageCounts == null ) {
+            return null;
+        }
+
+        long[][] cumulativeCounts = new long[locusCoverageCounts.length][binLeftEndpoints.length+1];
+        for ( int b = 0; b < binLeftEndpoints.length+1; b ++ ) {
+            long count = 0;
+            for ( int a = locusCoverageCounts.length-1; a >= 0; a -- ) {
+                count += locusCoverageCounts[a][b];
+                cumulativeCounts[a][b] = count;
+            }
+        }
+
+        return cumulativeCounts;
     }
 
     public int[] getEndpoints() {
@@ -300,15 +391,33 @@ public class DepthOfCoverageStats {
 
     public Map<String,Double> getMeans() {
         HashMap<String,Double> means = new HashMap<String,Double>();
-        for ( String s : getAllSamples() ) {
-            means.put(s,( (double)totalCoverages.get(s))/( (double) nLoci ));
+        for ( int i = 0; i < nSamples; i++ ) {
+            means.put(sampleNames[i],( (double)totalCoverages[i])/( (double) nLoci ));
         }
 
         return means;
     }
 
     public Map<String,Long> getTotals() {
-        return totalCoverages;
+        HashMap<String,Long> totals = new HashMap<String,Long>();
+        for ( int i = 0; i < nSamples; i++ ) {
+            totals.put(sampleNames[i],totalCoverages[i]);
+        }
+
+        return totals;
+    }
+
+    /**
+     * @param sample a sample added with addSample()
+     * @return the index of the sample in the arrays passed to update(int[][]) and updateDepths(int[]), or -1 if it is unknown
+     */
+    public int getSampleIndex(String sample) {
+        Integer index = sampleIndices.get(sample);
+        return index == null ? -1 : index;
+    }
+
+    public int getNumberOfSamples() {
+        return nSamples;
     }
 
     public long getTotalLoci() {
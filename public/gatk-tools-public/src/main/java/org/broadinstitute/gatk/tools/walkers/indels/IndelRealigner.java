@@ -41,6 +41,7 @@ import org.broadinstitute.gatk.engine.walkers.ReadWalker;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.smithwaterman.Parameters;
+import org.broadinstitute.gatk.utils.smithwaterman.FastSWPairwiseAlignment;
 import org.broadinstitute.gatk.utils.smithwaterman.SWPairwiseAlignment;
 import org.broadinstitute.gatk.utils.Utils;
 import org.broadinstitute.gatk.utils.baq.BAQ;
@@ -972,7 +973,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     private void createAndAddAlternateConsensus(final byte[] read, final Set<Consensus> altConsensesToPopulate, final byte[] reference) {
 
         // do a pairwise alignment against the reference
-         SWPairwiseAlignment swConsensus = new SWPairwiseAlignment(reference, read, swParameters);
+         SWPairwiseAlignment swConsensus = new FastSWPairwiseAlignment(reference, read, swParameters);
          Consensus c = createAlternateConsensus(swConsensus.getAlignmentStart2wrt1(), swConsensus.getCigar(), reference, read);
          if ( c != null )
              altConsensesToPopulate.add(c);
@@ -989,7 +990,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
          }
          // do a pairwise alignment against the reference
          SWalignmentRuns++;
-         SWPairwiseAlignment swConsensus = new SWPairwiseAlignment(reference, read.getReadBases(), swParameters);
+         SWPairwiseAlignment swConsensus = new FastSWPairwiseAlignment(reference, read.getReadBases(), swParameters);
          Consensus c = createAlternateConsensus(swConsensus.getAlignmentStart2wrt1(), swConsensus.getCigar(), reference, read.getReadBases());
          if ( c != null ) {
              altConsensesToPopulate.add(c);
@@ -138,6 +138,10 @@ import java.util.*;
  * list of incompatible combinations, so we recommend trying out combinations that you are interested in on a dummy
  * command line, to rapidly ascertain whether it will work or not.</p>
  *
+ * <p>When run with multiple threads (-nt), each thread keeps its own copy of the evaluation modules for every
+ * combination of stratification states, and these are combined once the traversal is done. The memory used by the
+ * evaluation modules therefore grows with the number of threads.</p>
+ *
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VAREVAL, extraDocs = {CommandLineGATK.class} )
 @Reference(window=@Window(start=-50, stop=50))
@@ -276,7 +280,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     final private static String ALL_SAMPLE_NAME = "all";
     final private static String ALL_FAMILY_NAME = "all";
 
-    // the number of processed bp for this walker
+    // the number of processed bp for this walker, summed over all threads once the traversal is done
     long nProcessedLoci = 0;
 
     // Utility class
@@ -287,6 +291,42 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
 
     // The set of all possible evaluation contexts
     StratificationManager<VariantStratifier, EvaluationContext> stratManager;
+
+    // The evaluators to run in each evaluation context
+    private Set<Class<? extends VariantEvaluator>> evaluationClasses;
+
+    // When running with multiple threads and all of the evaluators can combine their results, each
+    // thread accumulates into its own copy of the evaluation contexts, which are combined into
+    // stratManager in onTraversalDone.  Otherwise all threads share the contexts in stratManager.
+    // The stratification tree mapping states to keys is shared by all threads either way, but each
+    // copy holds one EvaluationContext per key, so the memory for the evaluators grows with -nt.
+    private boolean useThreadLocalEvaluationStates = false;
+    private EvaluationState sharedEvaluationState;
+    private final List<EvaluationState> evaluationStates = Collections.synchronizedList(new ArrayList<EvaluationState>());
+    private final ThreadLocal<EvaluationState> threadEvaluationState = new ThreadLocal<EvaluationState>() {
+        @Override
+        protected EvaluationState initialValue() {
+            if ( ! useThreadLocalEvaluationStates )
+                return sharedEvaluationState;
+
+            final EvaluationState state = new EvaluationState(createEvaluationContexts(stratManager.size(), evaluationClasses));
+            evaluationStates.add(state);
+            return state;
+        }
+    };
+
+    /**
+     * The evaluation contexts updated by a thread, indexed by stratManager key, along with the number
+     * of loci that thread has processed
+     */
+    private static final class EvaluationState {
+        final List<EvaluationContext> contexts;
+        long nProcessedLoci = 0;
+
+        private EvaluationState(final List<EvaluationContext> contexts) {
+            this.contexts = contexts;
+        }
+    }
     //Set<DynamicStratification> dynamicStratifications = Collections.emptySet();
 
     /**
@@ -408,15 +448,31 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     }
     
     final void createStratificationStates(final List<VariantStratifier> stratificationObjects, final Set<Class<? extends VariantEvaluator>> evaluationObjects) {
+        evaluationClasses = evaluationObjects;
         final List<VariantStratifier> strats = new ArrayList<VariantStratifier>(stratificationObjects);
         stratManager = new StratificationManager<VariantStratifier, EvaluationContext>(strats);
 
         logger.info("Creating " + stratManager.size() + " combinatorial stratification states");
-        for ( int i = 0; i < stratManager.size(); i++ ) {
-            EvaluationContext ec = new EvaluationContext(this, evaluationObjects);
-            stratManager.set(i, ec);
+        final List<EvaluationContext> contexts = createEvaluationContexts(stratManager.size(), evaluationObjects);
+        for ( int i = 0; i < stratManager.size(); i++ )
+            stratManager.set(i, contexts.get(i));
+
+        sharedEvaluationState = new EvaluationState(stratManager.values());
+        evaluationStates.add(sharedEvaluationState);
+
+        if ( getToolkit() != null && getToolkit().getArguments().numberOfDataThreads > 1 ) {
+            useThreadLocalEvaluationStates = stratManager.get(0).supportsCombine();
+            if ( ! useThreadLocalEvaluationStates )
+                logger.warn("Not all of the selected evaluation modules can combine their results, so all threads will share a single set of evaluation contexts");
         }
-    }    
+    }
+
+    private List<EvaluationContext> createEvaluationContexts(final int nStates, final Set<Class<? extends VariantEvaluator>> evaluationObjects) {
+        final List<EvaluationContext> contexts = new ArrayList<EvaluationContext>(nStates);
+        for ( int i = 0; i < nStates; i++ )
+            contexts.add(new EvaluationContext(this, evaluationObjects));
+        return contexts;
+    }
     
     public final Map<String, IntervalTree<GenomeLoc>> createIntervalTreeByContig(final IntervalBinding<Feature> intervals) {
         final Map<String, IntervalTree<GenomeLoc>> byContig = new HashMap<String, IntervalTree<GenomeLoc>>();
@@ -441,8 +497,9 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         // we track the processed bp and expose this for modules instead of wasting CPU power on calculating
         // the same thing over and over in evals that want the processed bp
-        synchronized (this) {
-            nProcessedLoci += context.getSkippedBases() + (ref == null ? 0 : 1);
+        final EvaluationState state = threadEvaluationState.get();
+        synchronized (state) {
+            state.nProcessedLoci += context.getSkippedBases() + (ref == null ? 0 : 1);
         }
 
         if (tracker != null) {
@@ -498,14 +555,14 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
 
                             Collection<EvaluationContext> contextsForStratification;
                             if (perFamilyIsEnabled)
-                                contextsForStratification = getEvaluationContexts(tracker, ref, eval, evalRod.getName(), comp, compRod.getName(), null, stratLevelName);
+                                contextsForStratification = getEvaluationContexts(state.contexts, tracker, ref, eval, evalRod.getName(), comp, compRod.getName(), null, stratLevelName);
                             else {
                                 String familyID;
                                 if (stratLevelName.equals("all"))
                                     familyID = "all";
                                 else
                                     familyID = getSampleDB().getSample(stratLevelName).getFamilyID();
-                                contextsForStratification = getEvaluationContexts(tracker, ref, eval, evalRod.getName(), comp, compRod.getName(), stratLevelName, familyID);
+                                contextsForStratification = getEvaluationContexts(state.contexts, tracker, ref, eval, evalRod.getName(), comp, compRod.getName(), stratLevelName, familyID);
                             }
                             for ( EvaluationContext nec : contextsForStratification ) {
 
@@ -561,6 +618,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
      *
      * TODO -- create an inline version that doesn't create the intermediate list of list
      *
+     * @param contexts the contexts to update, indexed by stratManager key; either the shared ones or a per-thread copy
      * @param tracker
      * @param ref
      * @param eval
@@ -570,7 +628,8 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
      * @param sampleName
      * @return
      */
-    protected Collection<EvaluationContext> getEvaluationContexts(final RefMetaDataTracker tracker,
+    protected Collection<EvaluationContext> getEvaluationContexts(final List<EvaluationContext> contexts,
+                                                                  final RefMetaDataTracker tracker,
                                                                   final ReferenceContext ref,
                                                                   final VariantContext eval,
                                                                   final String evalName,
@@ -582,7 +641,11 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
         for ( final VariantStratifier vs : stratManager.getStratifiers() ) {
             states.add(vs.getRelevantStates(ref, tracker, comp, compName, eval, evalName, sampleName, familyName));
         }
-        return stratManager.values(states);
+
+        final Collection<EvaluationContext> values = new LinkedList<EvaluationContext>();
+        for ( final int key : stratManager.getKeys(states) )
+            values.add(contexts.get(key));
+        return values;
     }
 
 
@@ -660,7 +723,9 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
      */
     public void onTraversalDone(Integer result) {
         logger.info("Finalizing variant report");
-        
+
+        combineEvaluationStates();
+
         // go through the evaluations and finalize them
         for ( final EvaluationContext nec : stratManager.values() )
             for ( final VariantEvaluator ve : nec.getVariantEvaluators() )
@@ -696,6 +761,22 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
         VariantEvalReportWriter.writeReport(out, stratManager, stratManager.getStratifiers(), stratManager.get(0).getVariantEvaluators());
     }
 
+    /**
+     * Combine the loci counts and evaluation contexts accumulated by each thread into nProcessedLoci and stratManager
+     */
+    private void combineEvaluationStates() {
+        nProcessedLoci = 0;
+        synchronized (evaluationStates) {
+            for ( final EvaluationState state : evaluationStates ) {
+                nProcessedLoci += state.nProcessedLoci;
+                if ( state != sharedEvaluationState ) {
+                    for ( int key = 0; key < stratManager.size(); key++ )
+                        stratManager.get(key).combine(state.contexts.get(key));
+                }
+            }
+        }
+    }
+
     // Accessors
     public Logger getLogger() { return logger; }
 
@@ -184,4 +184,42 @@ public class MendelianViolationEvaluator extends VariantEvaluator {
             }
         }
     }
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final MendelianViolationEvaluator that = (MendelianViolationEvaluator)other;
+        nVariants += that.nVariants;
+        nSkipped += that.nSkipped;
+        nFamCalled += that.nFamCalled;
+        nVarFamCalled += that.nVarFamCalled;
+        nLowQual += that.nLowQual;
+        nNoCall += that.nNoCall;
+        nLociViolations += that.nLociViolations;
+        nViolations += that.nViolations;
+        mvRefRef_Var += that.mvRefRef_Var;
+        mvRefRef_Het += that.mvRefRef_Het;
+        mvRefHet_Var += that.mvRefHet_Var;
+        mvRefVar_Var += that.mvRefVar_Var;
+        mvRefVar_Ref += that.mvRefVar_Ref;
+        mvVarHet_Ref += that.mvVarHet_Ref;
+        mvVarVar_Ref += that.mvVarVar_Ref;
+        mvVarVar_Het += that.mvVarVar_Het;
+        HomRefHomRef_HomRef += that.HomRefHomRef_HomRef;
+        HetHet_Het += that.HetHet_Het;
+        HetHet_HomRef += that.HetHet_HomRef;
+        HetHet_HomVar += that.HetHet_HomVar;
+        HomVarHomVar_HomVar += that.HomVarHomVar_HomVar;
+        HomRefHomVAR_Het += that.HomRefHomVAR_Het;
+        HetHet_inheritedRef += that.HetHet_inheritedRef;
+        HetHet_inheritedVar += that.HetHet_inheritedVar;
+        HomRefHet_inheritedRef += that.HomRefHet_inheritedRef;
+        HomRefHet_inheritedVar += that.HomRefHet_inheritedVar;
+        HomVarHet_inheritedRef += that.HomVarHet_inheritedRef;
+        HomVarHet_inheritedVar += that.HomVarHet_inheritedVar;
+    }
 }
@@ -64,4 +64,17 @@ public class MetricsCollection extends VariantEvaluator {
         this.indelRatioLociBased = indelRatioLociBased;
         this.tiTvRatio = tiTvRatio;
     }
+
+    /**
+     * The metrics are copied from the other evaluators after they are finalized, so
+     * there is no per-site state to combine
+     */
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+    }
 }
@@ -140,4 +140,18 @@ public class ThetaVariantEvaluator extends VariantEvaluator {
 
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final ThetaVariantEvaluator that = (ThetaVariantEvaluator)other;
+        numSites += that.numSites;
+        totalHet += that.totalHet;
+        thetaRegionNumSites += that.thetaRegionNumSites;
+        totalAvgDiffs += that.totalAvgDiffs;
+    }
+}
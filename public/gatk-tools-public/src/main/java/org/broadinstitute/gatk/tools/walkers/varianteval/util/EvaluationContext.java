@@ -97,6 +97,16 @@ public final class EvaluationContext {
         }
     }
 
+    /**
+     * @return true if every evaluator in this context can combine its results with another instance
+     */
+    public boolean supportsCombine() {
+        for ( final VariantEvaluator evaluation : evaluationInstances )
+            if ( ! evaluation.supportsCombine() )
+                return false;
+        return true;
+    }
+
     public void combine(final EvaluationContext rhs) {
         for ( int i = 0; i < evaluationInstances.size(); i++ )
             evaluationInstances.get(i).combine(rhs.evaluationInstances.get(i));
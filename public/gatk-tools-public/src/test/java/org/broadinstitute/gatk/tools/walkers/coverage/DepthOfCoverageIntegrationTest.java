@@ -26,6 +26,7 @@
 package org.broadinstitute.gatk.tools.walkers.coverage;
 
 import org.broadinstitute.gatk.engine.walkers.WalkerTest;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import org.testng.Assert;
 
@@ -124,12 +125,18 @@ public class DepthOfCoverageIntegrationTest extends WalkerTest {
         execute("testNoCoverageDueToFiltering",spec);
     }
 
-    @Test
-    public void testAdjacentIntervals() {
+    @DataProvider(name = "AdjacentIntervalsTest")
+    public Object[][] makeAdjacentIntervalsTest() {
+        return new Object[][]{{""}, {" -nt 2"}};
+    }
+
+    // with -nt the interval summaries are printed at the end of the traversal, so the output matches the serial run
+    @Test(dataProvider = "AdjacentIntervalsTest")
+    public void testAdjacentIntervals(final String parallelArgs) {
         String[] intervals = {"chr1:1-999", "chr1:1000-65536", "chr1:65537-80000", "chr1:80001-81000"};
         String[] bams = {publicTestDir+"exampleBAM.bam"};
 
-        String cmd = buildRootCmd(exampleFASTA, new ArrayList<String>(Arrays.asList(bams)), new ArrayList<String>(Arrays.asList(intervals))) + " -im OVERLAPPING_ONLY";
+        String cmd = buildRootCmd(exampleFASTA, new ArrayList<String>(Arrays.asList(bams)), new ArrayList<String>(Arrays.asList(intervals))) + " -im OVERLAPPING_ONLY" + parallelArgs;
         WalkerTestSpec spec = new WalkerTestSpec(cmd, 0, new ArrayList<String>());
 
         File baseOutputFile = WalkerTest.createTempFile("depthofcoverageadjinterval", ".tmp");
@@ -143,7 +150,7 @@ public class DepthOfCoverageIntegrationTest extends WalkerTest {
         spec.addAuxFile("1281605e022d7462fbbcd14de53d1ca3", createTempFileFromBase(baseOutputFile.getAbsolutePath()+".sample_statistics"));
         spec.addAuxFile("4b41d6ff88aa2662697cb7e4b5346cb8", createTempFileFromBase(baseOutputFile.getAbsolutePath()+".sample_summary"));
 
-        execute("testAdjacentIntervals", spec);
+        execute("testAdjacentIntervals" + parallelArgs, spec);
     }
 
 
@@ -0,0 +1,204 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.coverage;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.BaseUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class DepthOfCoverageStatsUnitTest extends BaseTest {
+    private static final String[] SAMPLES = {"NA12878", "NA12891", "NA12892", "HG00096", "HG00097"};
+
+    private DepthOfCoverageStats createStats(int[] endpoints, boolean tabulateLocusCounts) {
+        DepthOfCoverageStats stats = new DepthOfCoverageStats(endpoints);
+        for ( String sample : SAMPLES ) {
+            stats.addSample(sample);
+        }
+        if ( tabulateLocusCounts ) {
+            stats.initializeLocusCounts();
+        }
+        return stats;
+    }
+
+    private List<Map<String,int[]>> randomLoci(int nLoci, int maxDepth, Random random) {
+        List<Map<String,int[]>> loci = new ArrayList<Map<String,int[]>>(nLoci);
+        for ( int l = 0; l < nLoci; l++ ) {
+            Map<String,int[]> countsBySample = new HashMap<String,int[]>();
+            for ( String sample : SAMPLES ) {
+                if ( random.nextInt(4) > 0 ) {
+                    int[] counts = new int[6];
+                    for ( int b = 0; b < counts.length; b++ ) {
+                        counts[b] = random.nextInt(maxDepth / 4 + 1);
+                    }
+                    countsBySample.put(sample,counts);
+                }
+            }
+            loci.add(countsBySample);
+        }
+        return loci;
+    }
+
+    private int[][] byIndex(DepthOfCoverageStats stats, Map<String,int[]> countsBySample) {
+        int[][] countsByIndex = new int[stats.getNumberOfSamples()][6];
+        for ( Map.Entry<String,int[]> counts : countsBySample.entrySet() ) {
+            countsByIndex[stats.getSampleIndex(counts.getKey())] = counts.getValue().clone();
+        }
+        return countsByIndex;
+    }
+
+    private void assertStatsEqual(DepthOfCoverageStats actual, DepthOfCoverageStats expected) {
+        Assert.assertEquals(actual.getTotalLoci(), expected.getTotalLoci());
+        Assert.assertEquals(actual.getTotalCoverage(), expected.getTotalCoverage());
+        Assert.assertEquals(actual.getTotals(), expected.getTotals());
+        Assert.assertEquals(actual.getAllSamples(), expected.getAllSamples());
+        for ( String sample : expected.getAllSamples() ) {
+            Assert.assertEquals(actual.getHistograms().get(sample), expected.getHistograms().get(sample), sample);
+        }
+        Assert.assertEquals(actual.getLocusCounts(), expected.getLocusCounts());
+    }
+
+    @DataProvider(name = "StatsData")
+    public Object[][] makeStatsData() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( int[] binning : Arrays.asList(new int[]{1, 10, 5}, new int[]{1, 500, 499}, new int[]{3, 20, 4}) ) {
+            for ( int maxDepth : Arrays.asList(4, 40, 600) ) {
+                for ( boolean includeDeletions : Arrays.asList(true, false) ) {
+                    tests.add(new Object[]{DepthOfCoverageStats.calculateBinEndpoints(binning[0], binning[1], binning[2]), maxDepth, includeDeletions});
+                }
+            }
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "StatsData")
+    public void testUpdateByIndexMatchesUpdateByName(int[] endpoints, int maxDepth, boolean includeDeletions) {
+        DepthOfCoverageStats byName = createStats(endpoints, true);
+        DepthOfCoverageStats byIndex = createStats(endpoints, true);
+        if ( includeDeletions ) {
+            byName.initializeDeletions();
+            byIndex.initializeDeletions();
+        }
+
+        for ( Map<String,int[]> locus : randomLoci(200, maxDepth, new Random(maxDepth)) ) {
+            byName.update(locus);
+            byIndex.update(byIndex(byIndex, locus));
+        }
+
+        assertStatsEqual(byIndex, byName);
+    }
+
+    @Test(dataProvider = "StatsData")
+    public void testBinsAndLocusCounts(int[] endpoints, int maxDepth, boolean includeDeletions) {
+        DepthOfCoverageStats stats = createStats(endpoints, true);
+        if ( includeDeletions ) {
+            stats.initializeDeletions();
+        }
+
+        long[][] expectedLocusCounts = new long[SAMPLES.length][endpoints.length+1];
+        Map<String,long[]> expectedHistograms = new HashMap<String,long[]>();
+        for ( String sample : SAMPLES ) {
+            expectedHistograms.put(sample, new long[endpoints.length+1]);
+        }
+
+        for ( Map<String,int[]> locus : randomLoci(200, maxDepth, new Random(maxDepth + 1)) ) {
+            stats.update(locus);
+
+            int[] samplesAtOrAboveBin = new int[endpoints.length+1];
+            for ( String sample : SAMPLES ) {
+                int depth = 0;
+                if ( locus.containsKey(sample) ) {
+                    for ( int b = 0; b < 6; b++ ) {
+                        if ( includeDeletions || b != BaseUtils.Base.D.ordinal() ) {
+                            depth += locus.get(sample)[b];
+                        }
+                    }
+                }
+
+                int bin = 0;
+                while ( bin < endpoints.length && depth >= endpoints[bin] ) {
+                    bin++;
+                }
+                expectedHistograms.get(sample)[bin]++;
+                for ( int b = 0; b <= bin; b++ ) {
+                    samplesAtOrAboveBin[b]++;
+                }
+            }
+
+            for ( int bin = 0; bin < samplesAtOrAboveBin.length; bin++ ) {
+                for ( int i = 0; i < samplesAtOrAboveBin[bin]; i++ ) {
+                    expectedLocusCounts[i][bin]++;
+                }
+            }
+        }
+
+        for ( String sample : SAMPLES ) {
+            Assert.assertEquals(stats.getHistograms().get(sample), expectedHistograms.get(sample), sample);
+        }
+        Assert.assertEquals(stats.getLocusCounts(), expectedLocusCounts);
+    }
+
+    @Test(dataProvider = "StatsData")
+    public void testMergeAndReset(int[] endpoints, int maxDepth, boolean includeDeletions) {
+        List<Map<String,int[]>> loci = randomLoci(300, maxDepth, new Random(maxDepth + 2));
+        DepthOfCoverageStats whole = createStats(endpoints, true);
+        DepthOfCoverageStats left = createStats(endpoints, true);
+        DepthOfCoverageStats right = createStats(endpoints, true);
+
+        // samples are added in a different order, so merging has to match them by name
+        DepthOfCoverageStats reordered = new DepthOfCoverageStats(endpoints);
+        for ( int i = SAMPLES.length - 1; i >= 0; i-- ) {
+            reordered.addSample(SAMPLES[i]);
+        }
+        reordered.initializeLocusCounts();
+
+        for ( int l = 0; l < loci.size(); l++ ) {
+            whole.update(loci.get(l));
+            (l < 100 ? left : l < 200 ? right : reordered).update(loci.get(l));
+        }
+
+        right.merge(reordered);
+        left.merge(right);
+        assertStatsEqual(left, whole);
+
+        DepthOfCoverageStats copy = new DepthOfCoverageStats(whole);
+        Assert.assertEquals(copy.getTotals(), whole.getTotals());
+        Assert.assertNull(copy.getLocusCounts());
+
+        whole.reset();
+        for ( Map<String,int[]> locus : loci.subList(0, 100) ) {
+            whole.update(locus);
+        }
+        DepthOfCoverageStats fresh = createStats(endpoints, true);
+        for ( Map<String,int[]> locus : loci.subList(0, 100) ) {
+            fresh.update(locus);
+        }
+        assertStatsEqual(whole, fresh);
+    }
+}
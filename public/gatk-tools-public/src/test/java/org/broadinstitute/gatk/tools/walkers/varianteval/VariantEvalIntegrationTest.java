@@ -0,0 +1,53 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.varianteval;
+
+import org.broadinstitute.gatk.engine.walkers.WalkerTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class VariantEvalIntegrationTest extends WalkerTest {
+    @Test(enabled = true)
+    public void testMultiThreadedEvaluationMatchesSingleThreaded() {
+        String base = "-T VariantEval -R " + exampleFASTA
+                + " --eval " + publicTestDir + "exampleDBSNP.vcf"
+                + " --comp " + publicTestDir + "exampleDBSNP.vcf"
+                + " -U ALLOW_SEQ_DICT_INCOMPATIBILITY -o %s";
+        for ( int start = 1; start < 100000; start += 10000 )
+            base += String.format(" -L chr1:%d-%d", start, start + 4999);
+
+        final List<String> md5s = new ArrayList<>();
+        for ( final String args : Arrays.asList(" -nt 1", " -nt 2") ) {
+            final WalkerTestSpec spec = new WalkerTestSpec(base + args, Arrays.asList(""));
+            md5s.add(executeTest("testMultiThreadedEvaluation" + args, spec).getSecond().get(0));
+        }
+        Assert.assertEquals(md5s.get(1), md5s.get(0));
+    }
+}
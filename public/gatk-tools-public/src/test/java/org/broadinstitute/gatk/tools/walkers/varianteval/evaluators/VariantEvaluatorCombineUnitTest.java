@@ -0,0 +1,244 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.varianteval.evaluators;
+
+import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.vcf.VCFConstants;
+import org.broadinstitute.gatk.engine.samples.PedigreeValidationType;
+import org.broadinstitute.gatk.engine.samples.SampleDB;
+import org.broadinstitute.gatk.engine.samples.SampleDBBuilder;
+import org.broadinstitute.gatk.tools.walkers.varianteval.VariantEval;
+import org.broadinstitute.gatk.tools.walkers.varianteval.util.DataPoint;
+import org.broadinstitute.gatk.tools.walkers.varianteval.util.Molten;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Checks that combining the results of two evaluators gives the same results as a single evaluator
+ * that saw all of the sites, which is what lets VariantEval evaluate with multiple threads
+ */
+public class VariantEvaluatorCombineUnitTest extends BaseTest {
+    private static final int N_SITES = 200;
+    private static final List<String> SAMPLES = Arrays.asList("kid", "dad", "mom");
+    private static final String BASES = "ACGT";
+
+    private static final List<Class<? extends VariantEvaluator>> EVALUATORS = Arrays.asList(
+            CompOverlap.class,
+            CountVariants.class,
+            IndelLengthHistogram.class,
+            IndelSummary.class,
+            MendelianViolationEvaluator.class,
+            MetricsCollection.class,
+            MultiallelicSummary.class,
+            PrintMissingComp.class,
+            ThetaVariantEvaluator.class,
+            TiTvVariantEvaluator.class,
+            ValidationReport.class,
+            VariantSummary.class);
+
+    /**
+     * A VariantEval with the sample information the evaluators need, without running the engine
+     */
+    private static class TestVariantEval extends VariantEval {
+        private final SampleDB sampleDB = new SampleDBBuilder(null, PedigreeValidationType.STRICT)
+                .addSamplesFromPedigreeStrings(Arrays.asList(String.format("%s%n%s%n%s",
+                        "fam1 kid dad mom 1 2",
+                        "fam1 dad 0   0   1 1",
+                        "fam1 mom 0   0   2 2")))
+                .getFinalSampleDB();
+
+        @Override
+        public SampleDB getSampleDB() {
+            return sampleDB;
+        }
+
+        @Override
+        public Set<String> getSampleNamesForEvaluation() {
+            return new LinkedHashSet<String>(SAMPLES);
+        }
+
+        @Override
+        public long getnProcessedLoci() {
+            return 10 * N_SITES;
+        }
+    }
+
+    @DataProvider(name = "CombineTest")
+    public Object[][] makeCombineTests() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final Class<? extends VariantEvaluator> evaluator : EVALUATORS )
+            for ( final int split : Arrays.asList(0, 37, N_SITES / 2, N_SITES) )
+                tests.add(new Object[]{evaluator, split});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "CombineTest")
+    public void testCombineMatchesSingleEvaluator(final Class<? extends VariantEvaluator> evaluatorClass, final int split) throws Exception {
+        final List<VariantContext[]> sites = makeSites(new Random(N_SITES + split));
+        final VariantEval walker = new TestVariantEval();
+
+        final VariantEvaluator all = makeEvaluator(evaluatorClass, walker);
+        final VariantEvaluator first = makeEvaluator(evaluatorClass, walker);
+        final VariantEvaluator second = makeEvaluator(evaluatorClass, walker);
+        Assert.assertTrue(all.supportsCombine(), evaluatorClass.getSimpleName() + " should support combining results");
+
+        for ( int i = 0; i < sites.size(); i++ ) {
+            update(all, sites.get(i));
+            update(i < split ? first : second, sites.get(i));
+        }
+
+        first.combine(second);
+        all.finalizeEvaluation();
+        first.finalizeEvaluation();
+
+        assertSameResults(first, all);
+    }
+
+    private VariantEvaluator makeEvaluator(final Class<? extends VariantEvaluator> evaluatorClass, final VariantEval walker) throws Exception {
+        final VariantEvaluator evaluator = evaluatorClass.newInstance();
+        evaluator.initialize(walker);
+        return evaluator;
+    }
+
+    /**
+     * Update the evaluator in the same way as EvaluationContext.apply
+     * @param evaluator the evaluator to update
+     * @param site the eval and comp variant contexts at a site, either of which may be null
+     */
+    private void update(final VariantEvaluator evaluator, final VariantContext[] site) {
+        final VariantContext eval = site[0];
+        final VariantContext comp = site[1];
+        if ( evaluator.getComparisonOrder() == 1 ) {
+            if ( eval != null )
+                evaluator.update1(eval, null, null, null);
+        } else {
+            evaluator.update2(eval, comp, null, null, null);
+        }
+    }
+
+    private void assertSameResults(final VariantEvaluator combined, final VariantEvaluator expected) throws IllegalAccessException {
+        for ( final Field field : expected.getClass().getFields() ) {
+            if ( ! field.isAnnotationPresent(DataPoint.class) && ! field.isAnnotationPresent(Molten.class) )
+                continue;
+
+            final String name = expected.getSimpleName() + "." + field.getName();
+            final Object actualValue = field.get(combined);
+            final Object expectedValue = field.get(expected);
+            if ( expectedValue instanceof Double ) {
+                final double actualDouble = (Double)actualValue, expectedDouble = (Double)expectedValue;
+                if ( ! (Double.isNaN(actualDouble) && Double.isNaN(expectedDouble)) )
+                    Assert.assertEquals(actualDouble, expectedDouble, 1e-8 * Math.max(1.0, Math.abs(expectedDouble)), name);
+            } else {
+                Assert.assertEquals(actualValue, expectedValue, name);
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // making random sites
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * @return a list of sites, each an array of the eval and comp variant contexts at that site
+     */
+    private List<VariantContext[]> makeSites(final Random random) {
+        final List<VariantContext[]> sites = new ArrayList<VariantContext[]>(N_SITES);
+        for ( int position = 1; position <= N_SITES; position++ ) {
+            final VariantContext eval = random.nextInt(10) == 0 ? null : makeVariantContext(random, "eval", position);
+            final VariantContext comp = random.nextInt(2) == 0 ? null : makeVariantContext(random, "comp", position);
+            sites.add(new VariantContext[]{eval, comp});
+        }
+        return sites;
+    }
+
+    private VariantContext makeVariantContext(final Random random, final String source, final int position) {
+        final char refBase = BASES.charAt(random.nextInt(4));
+        final List<Allele> alleles = new ArrayList<Allele>();
+        switch ( random.nextInt(5) ) {
+            case 0: // multiallelic SNP
+                alleles.add(Allele.create((byte)refBase, true));
+                for ( final char base : BASES.toCharArray() )
+                    if ( base != refBase && alleles.size() < 3 )
+                        alleles.add(Allele.create((byte)base, false));
+                break;
+            case 1: // insertion
+                alleles.add(Allele.create(String.valueOf(refBase), true));
+                alleles.add(Allele.create(refBase + randomBases(random, 1 + random.nextInt(12)), false));
+                break;
+            case 2: // deletion
+                alleles.add(Allele.create(refBase + randomBases(random, 1 + random.nextInt(12)), true));
+                alleles.add(Allele.create(String.valueOf(refBase), false));
+                break;
+            default: // biallelic SNP
+                alleles.add(Allele.create((byte)refBase, true));
+                alleles.add(Allele.create((byte)BASES.charAt((BASES.indexOf(refBase) + 1 + random.nextInt(3)) % 4), false));
+        }
+
+        final List<Genotype> genotypes = new ArrayList<Genotype>(SAMPLES.size());
+        for ( final String sample : SAMPLES ) {
+            final List<Allele> genotypeAlleles = random.nextInt(20) == 0 ?
+                    Arrays.asList(Allele.NO_CALL, Allele.NO_CALL) :
+                    Arrays.asList(randomAllele(random, alleles), randomAllele(random, alleles));
+            genotypes.add(new GenotypeBuilder(sample, genotypeAlleles).GQ(random.nextInt(100)).DP(random.nextInt(50)).make());
+        }
+
+        final int stop = position + alleles.get(0).length() - 1;
+        final VariantContextBuilder builder = new VariantContextBuilder(source, "1", position, stop, alleles)
+                .genotypes(genotypes)
+                .attribute("ANCESTRALALLELE", String.valueOf(BASES.charAt(random.nextInt(4))))
+                .attribute(VariantEval.IS_SINGLETON_KEY, random.nextBoolean())
+                .attribute("SNPEFF_GENE_BIOTYPE", random.nextBoolean() ? "protein_coding" : "missing")
+                .attribute("SNPEFF_EFFECT", random.nextBoolean() ? "FRAME_SHIFT" : "CODON_INSERTION");
+        if ( random.nextInt(5) == 0 )
+            builder.id("rs" + position);
+        if ( random.nextInt(10) == 0 )
+            builder.filter("LowQual");
+        else
+            builder.passFilters();
+        if ( random.nextBoolean() )
+            builder.attribute(VCFConstants.ALLELE_COUNT_KEY, random.nextInt(3));
+        return builder.make();
+    }
+
+    private Allele randomAllele(final Random random, final List<Allele> alleles) {
+        // favour the reference allele so that some sites are monomorphic
+        return random.nextBoolean() ? alleles.get(0) : alleles.get(random.nextInt(alleles.size()));
+    }
+
+    private String randomBases(final Random random, final int length) {
+        final StringBuilder bases = new StringBuilder(length);
+        for ( int i = 0; i < length; i++ )
+            bases.append(BASES.charAt(random.nextInt(4)));
+        return bases.toString();
+    }
+}
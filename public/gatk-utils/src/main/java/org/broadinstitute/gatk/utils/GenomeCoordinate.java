@@ -0,0 +1,85 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils;
+
+/**
+ * Static helpers for single-base genome positions packed into a long as contigIndex << 32 | position.
+ *
+ * <p>Packed coordinates let hot loops carry a position around without allocating a GenomeLoc or looking up
+ * a contig by name.  Because the contig index occupies the high bits, comparing two packed coordinates as longs
+ * orders them exactly as the equivalent 1 bp GenomeLocs are ordered.  Use
+ * {@link GenomeLocParser#createGenomeLoc(long)} to turn one into a GenomeLoc when an API needs it.</p>
+ */
+public final class GenomeCoordinate {
+    /**
+     * A value that is never a valid packed coordinate, for use as a "no position" marker
+     */
+    public static final long NO_COORDINATE = -1L;
+
+    private GenomeCoordinate() {}
+
+    /**
+     * @param contigIndex the index of the contig in the sequence dictionary, must be >= 0
+     * @param position the position on the contig, must be >= 0
+     * @return the packed coordinate
+     */
+    public static long encode(final int contigIndex, final int position) {
+        if ( contigIndex < 0 ) throw new IllegalArgumentException("contigIndex must be >= 0 but got " + contigIndex);
+        if ( position < 0 ) throw new IllegalArgumentException("position must be >= 0 but got " + position);
+        return ((long) contigIndex << 32) | position;
+    }
+
+    /**
+     * @param loc a mapped GenomeLoc
+     * @return the packed coordinate of the first base of loc
+     */
+    public static long getStart(final GenomeLoc loc) {
+        return encode(loc.getContigIndex(), loc.getStart());
+    }
+
+    public static int getContigIndex(final long coordinate) {
+        return (int) (coordinate >>> 32);
+    }
+
+    public static int getPosition(final long coordinate) {
+        return (int) coordinate;
+    }
+
+    /**
+     * @return the packed coordinate by bases further along the same contig
+     */
+    public static long increment(final long coordinate, final int by) {
+        return encode(getContigIndex(coordinate), getPosition(coordinate) + by);
+    }
+
+    /**
+     * Does loc contain the base at coordinate?
+     */
+    public static boolean isContainedIn(final long coordinate, final GenomeLoc loc) {
+        return loc.getContigIndex() == getContigIndex(coordinate)
+                && loc.getStart() <= getPosition(coordinate) && getPosition(coordinate) <= loc.getStop();
+    }
+}
@@ -280,6 +280,37 @@ public final class GenomeLocParser {
         return createGenomeLoc(contig, getContigIndex(contig), pos, pos);
     }
 
+    /**
+     * Create a GenomeLoc on the contig with the given index, starting at start and ending (inclusive) at stop.
+     *
+     * The contig name comes from the sequence dictionary by index, so unlike the versions taking a contig name
+     * there's no lookup of the contig by name.  Doesn't require the start and stop to be on the genome.
+     *
+     * @param contigIndex the index of the contig in the GATK's SAMSequenceDictionary
+     * @param start the starting position
+     * @param stop  the stop position of this loc, inclusive
+     *
+     * @return a non-null GenomeLoc
+     */
+    @Ensures("result != null")
+    public GenomeLoc createGenomeLoc(final int contigIndex, final int start, final int stop) {
+        final String contig = validateGenomeLoc(contigIndex, start, stop);
+        return new GenomeLoc(contig, contigIndex, start, stop);
+    }
+
+    /**
+     * Create a single base GenomeLoc at a packed coordinate
+     *
+     * @param coordinate a coordinate packed by {@link GenomeCoordinate}
+     *
+     * @return a non-null GenomeLoc
+     */
+    @Ensures("result != null")
+    public GenomeLoc createGenomeLoc(final long coordinate) {
+        final int position = GenomeCoordinate.getPosition(coordinate);
+        return createGenomeLoc(GenomeCoordinate.getContigIndex(coordinate), position, position);
+    }
+
     /**
      * validate a position or interval on the genome as valid
      *
@@ -348,6 +379,21 @@ public final class GenomeLocParser {
         return isValidGenomeLoc(contig, start, stop, true);
     }
 
+    /**
+     * validate an interval given by contig index rather than name
+     *
+     * The contig index is always checked, even with ValidationLevel.NONE, since we need it to look up the contig name.
+     *
+     * @return the contig name from the master sequence dictionary
+     */
+    private String validateGenomeLoc(final int contigIndex, final int start, final int stop) {
+        if ( contigIndex < 0 || ! getContigInfo().hasContigIndex(contigIndex) )
+            vglHelper(String.format("The contig index %d isn't in the sequence dictionary", contigIndex));
+        if ( validationLevel != ValidationLevel.NONE && stop < start )
+            vglHelper(String.format("The stop position %d is less than start %d in contig with index %d", stop, start, contigIndex));
+        return getContigInfo().getSequence(contigIndex).getSequenceName();
+    }
+
     private void vglHelper(final String msg) {
         throw new UserException.MalformedGenomeLoc("Parameters to GenomeLocParser are incorrect:" + msg);
     }
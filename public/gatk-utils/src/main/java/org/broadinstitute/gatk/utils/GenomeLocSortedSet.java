@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.utils;
 import htsjdk.samtools.SAMSequenceDictionary;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.interval.IntervalIndex;
 import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
 import org.broadinstitute.gatk.utils.interval.IntervalUtils;
 
@@ -382,6 +383,9 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
     }
 
     public GenomeLocSortedSet subtractRegions(GenomeLocSortedSet toRemoveSet) {
+        if ( IntervalIndex.canIndex(mArray) && IntervalIndex.canIndex(toRemoveSet.mArray) )
+            return createSetFromIndex(IntervalIndex.create(genomeLocParser, mArray).subtract(IntervalIndex.create(genomeLocParser, toRemoveSet.mArray)));
+
         LinkedList<GenomeLoc> good = new LinkedList<>();
         Stack<GenomeLoc> toProcess = new Stack<>();
         Stack<GenomeLoc> toExclude = new Stack<>();
@@ -429,8 +433,10 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @param location the GenomeLoc to remove
      */
     public void remove(GenomeLoc location) {
-        if (!mArray.contains(location)) throw new IllegalArgumentException("Unable to remove location: " + location + ", not in the list");
-        mArray.remove(location);
+        final int index = Collections.binarySearch(mArray, location);
+        if (index < 0) throw new IllegalArgumentException("Unable to remove location: " + location + ", not in the list");
+        mArray.remove(index);
+        previousOverlapSearchIndex = -1;
     }
 
     /**
@@ -460,6 +466,21 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
         return set;
     }
 
+    /**
+     * Create a sorted genome location set from the intervals of an index, merging any that overlap
+     * (but not those that only abut).
+     *
+     * @param index the intervals
+     *
+     * @return the sorted genome loc list
+     */
+    public static GenomeLocSortedSet createSetFromIndex(final IntervalIndex index) {
+        final GenomeLocSortedSet set = new GenomeLocSortedSet(index.getGenomeLocParser());
+        // merged intervals are already sorted and disjoint, so there's no need to go through add()
+        set.mArray.addAll(index.merge(IntervalMergingRule.OVERLAPPING_ONLY).toGenomeLocs());
+        return set;
+    }
+
     /**
      * return a deep copy of this collection.
      *
@@ -37,6 +37,8 @@ import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
 
+import java.util.Arrays;
+
 /*
   The topology of the profile HMM:
 
@@ -158,31 +160,60 @@ public class BAQ {
         initializeCachedData();
 	}
 
-    private final static double EM = 0.33333333333;
-    private final static double EI = 0.25;
+    final static double EM = 0.33333333333;
+    final static double EI = 0.25;
 
-    private double[][][] EPSILONS = new double[256][256][SAMUtils.MAX_PHRED_SCORE+1];
+    /**
+     * The code of every byte as a base in the epsilon table: 0-3 for ACGT in either case, and 4 for anything else
+     */
+    private final static int N_BASE_CODES = 5;
+    private final static byte[] BASE_CODES = new byte[256];
+    static {
+        Arrays.fill(BASE_CODES, (byte)4);
+        final String bases = "ACGT";
+        for ( int i = 0; i < bases.length(); i++ ) {
+            BASE_CODES[bases.charAt(i)] = (byte)i;
+            BASE_CODES[Character.toLowerCase(bases.charAt(i))] = (byte)i;
+        }
+    }
 
-    private void initializeCachedData() {
-        for ( int i = 0; i < 256; i++ )
-            for ( int j = 0; j < 256; j++ )
-                for ( int q = 0; q <= SAMUtils.MAX_PHRED_SCORE; q++ ) {
-                    EPSILONS[i][j][q] = 1.0;
-                }
+    /**
+     * The epsilon of every (quality, ref base code, read base code), flattened quality-major so that the whole table
+     * is a few KB rather than a 256 x 256 x (MAX_PHRED_SCORE+1) cube.  Qualities outside [0, MAX_PHRED_SCORE] still
+     * fall outside of the table.
+     */
+    final double[] epsilons = new double[(SAMUtils.MAX_PHRED_SCORE+1) * N_BASE_CODES * N_BASE_CODES];
 
-        for ( char b1 : "ACGTacgt".toCharArray() ) {
-            for ( char b2 : "ACGTacgt".toCharArray() ) {
-                for ( int q = 0; q <= SAMUtils.MAX_PHRED_SCORE; q++ ) {
-                    double qual = qual2prob[q < minBaseQual ? minBaseQual : q];
-                    double e = Character.toLowerCase(b1) == Character.toLowerCase(b2) ? 1 - qual : qual * EM;
-                    EPSILONS[(byte)b1][(byte)b2][q] = e;
+    private void initializeCachedData() {
+        Arrays.fill(epsilons, 1.0);
+
+        for ( int q = 0; q <= SAMUtils.MAX_PHRED_SCORE; q++ ) {
+            final double qual = qual2prob[q < minBaseQual ? minBaseQual : q];
+            for ( int b1 = 0; b1 < 4; b1++ ) {
+                for ( int b2 = 0; b2 < 4; b2++ ) {
+                    double e = b1 == b2 ? 1 - qual : qual * EM;
+                    epsilons[epsilonIndex(q, b1, b2)] = e;
                 }
             }
         }
     }
 
+    /**
+     * @return the offset of the (qual, ref code, read code) entry in epsilons
+     */
+    static int epsilonIndex(final int qual, final int refCode, final int readCode) {
+        return (qual * N_BASE_CODES + refCode) * N_BASE_CODES + readCode;
+    }
+
+    /**
+     * @return the code of base in the epsilon table
+     */
+    static int baseCode(final byte base) {
+        return BASE_CODES[base & 0xFF];
+    }
+
     protected double calcEpsilon( byte ref, byte read, byte qualB ) {
-        return EPSILONS[ref][read][qualB];
+        return epsilons[epsilonIndex(qualB, baseCode(ref), baseCode(read))];
     }
 
     // ####################################################################################################
@@ -384,7 +415,7 @@ public class BAQ {
      * @param k
      * @return
      */
-    private static int set_u(final int b, final int i, final int k) {
+    static int set_u(final int b, final int i, final int k) {
 		int x = i - b;
 		x = x > 0 ? x : 0;
 		return (k + 1 - x) * 3;
@@ -0,0 +1,273 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.baq;
+
+import htsjdk.samtools.SAMUtils;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+import java.util.Arrays;
+
+/**
+ * BAQ whose HMM works in per-thread, reusable flat matrices instead of allocating fresh ones for every read.
+ *
+ * <p>The forward, backward and MAP passes perform exactly the same floating point operations in exactly the same
+ * order as {@link BAQ#hmm_glocal}, so the BAQ'd qualities and states are identical to those of BAQ, byte for byte.
+ * What changes is the bookkeeping around them: the banded matrices are single arrays indexed by row offset, the
+ * reference is translated to epsilon table codes once per read rather than per cell, the epsilon row of each read
+ * base is looked up once per row, and the b[0] row, which only feeds a sanity value that is never used, is skipped.</p>
+ *
+ * <p>Instances are as thread safe as BAQ itself: the matrices belong to the calling thread.</p>
+ */
+public class FastBAQ extends BAQ {
+    /**
+     * Matrices larger than this many doubles (about a 20 kb read at the default band width) are allocated for the
+     * read at hand rather than kept around by the thread.
+     */
+    private final static int MAX_RETAINED_MATRIX_SIZE = 1 << 20;
+
+    private final static ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * The per-thread buffers of the HMM
+     */
+    private final static class Workspace {
+        private double[] f = new double[0];
+        private double[] b = new double[0];
+        private double[] s = new double[0];
+        private int[] refCodes = new int[0];
+
+        private void ensureCapacity(final int matrixSize, final int scalingSize, final int refLength) {
+            if ( f.length < matrixSize ) {
+                final int size = Math.max(matrixSize, Math.min(2 * f.length, MAX_RETAINED_MATRIX_SIZE));
+                f = new double[size];
+                b = new double[size];
+            }
+            if ( s.length < scalingSize )
+                s = new double[Math.max(scalingSize, 2 * s.length)];
+            if ( refCodes.length < refLength )
+                refCodes = new int[Math.max(refLength, 2 * refCodes.length)];
+        }
+    }
+
+    /**
+     * Use defaults for everything
+     */
+    public FastBAQ() {
+        super();
+    }
+
+    /**
+     * Use defaults for everything but the gap open penalty
+     */
+    public FastBAQ(final double gapOpenPenalty) {
+        super(gapOpenPenalty);
+    }
+
+    /**
+     * @see BAQ#BAQ(double, double, int, byte, boolean)
+     */
+    public FastBAQ(final double d, final double e, final int b, final byte minBaseQual, final boolean includeClippedBases) {
+        super(d, e, b, minBaseQual, includeClippedBases);
+    }
+
+    @Override
+    public int hmm_glocal(final byte[] ref, final byte[] query, int qstart, int l_query, final byte[] _iqual, int[] state, byte[] q) {
+        if ( ref == null ) throw new ReviewedGATKException("BUG: ref sequence is null");
+        if ( query == null ) throw new ReviewedGATKException("BUG: query sequence is null");
+        if ( _iqual == null ) throw new ReviewedGATKException("BUG: query quality vector is null");
+        if ( query.length != _iqual.length ) throw new ReviewedGATKException("BUG: read sequence length != qual length");
+        if ( l_query < 1 ) throw new ReviewedGATKException("BUG: length of query sequence < 0: " + l_query);
+        if ( qstart < 0 ) throw new ReviewedGATKException("BUG: query sequence start < 0: " + qstart);
+
+        final double cd = this.cd, ce = getGapExtensionProb();
+        final int cb = getBandWidth();
+        final byte minBaseQual = getMinBaseQual();
+        final double[] epsilons = this.epsilons;
+
+        int i, k;
+
+        /*** initialization ***/
+        final int l_ref = ref.length;
+
+        // set band width, exactly as BAQ does
+        int bw2, bw = l_ref > l_query? l_ref : l_query;
+        if (cb < Math.abs(l_ref - l_query)) bw = Math.abs(l_ref - l_query) + 3;
+        if (bw > cb) bw = cb;
+        if (bw < Math.abs(l_ref - l_query)) bw = Math.abs(l_ref - l_query);
+        bw2 = bw * 2 + 1;
+
+        // the forward and backward matrices are (l_query+1) rows of width cells, row i starting at i * width
+        final int width = bw2*3 + 6;
+        final int matrixSize = (l_query+1) * width;
+        final Workspace workspace = matrixSize > MAX_RETAINED_MATRIX_SIZE ? new Workspace() : workspaces.get();
+        workspace.ensureCapacity(matrixSize, l_query+2, l_ref);
+        final double[] f = workspace.f, b = workspace.b, s = workspace.s;
+        Arrays.fill(f, 0, matrixSize, 0.);
+        Arrays.fill(b, 0, matrixSize, 0.);
+
+        // the reference, as offsets into a row of the epsilon table
+        final int[] refCodes = workspace.refCodes;
+        for (k = 0; k < l_ref; ++k) refCodes[k] = epsilonIndex(0, baseCode(ref[k]), 0);
+
+        // initialize transition probabilities
+        final double sM, sI, bM, bI;
+        sM = sI = 1. / (2 * l_query + 2);
+        bM = (1 - cd) / l_ref; bI = cd / l_ref; // (bM+bI)*l_ref==1
+
+        final double m0 = (1 - cd - cd) * (1 - sM), m1 = cd * (1 - sM), m2 = cd * (1 - sM);
+        final double m3 = (1 - ce) * (1 - sI), m4 = ce * (1 - sI);
+        final double m6 = 1 - ce, m8 = ce;
+        final double eiM1 = EI * m1, eiM4 = EI * m4;
+
+        /*** forward ***/
+        // f[0]
+        f[set_u(bw, 0, 0)] = s[0] = 1.;
+        { // f[1]
+            final int fi = width;
+            double sum;
+            int beg = 1, end = l_ref < bw + 1? l_ref : bw + 1, _beg, _end;
+            final int eRow = epsilonRow(query[qstart], _iqual[qstart]);
+            for (k = beg, sum = 0.; k <= end; ++k) {
+                final double e = epsilons[eRow + refCodes[k-1]];
+                final int u = fi + set_u(bw, 1, k);
+                f[u+0] = e * bM; f[u+1] = EI * bI;
+                sum += f[u] + f[u+1];
+            }
+            // rescale
+            s[1] = sum;
+            _beg = set_u(bw, 1, beg); _end = set_u(bw, 1, end); _end += 2;
+            for (k = fi + _beg; k <= fi + _end; ++k) f[k] /= sum;
+        }
+
+        // f[2..l_query]
+        for (i = 2; i <= l_query; ++i) {
+            final int fi = i * width, fi1 = fi - width;
+            final int x0 = i - bw > 0 ? i - bw : 0, x1 = i - 1 - bw > 0 ? i - 1 - bw : 0;
+            double sum;
+            int beg = 1, end = l_ref, x, _beg, _end;
+            final int eRow = epsilonRow(query[qstart+i-1], _iqual[qstart+i-1]);
+            x = i - bw; beg = beg > x? beg : x; // band start
+            x = i + bw; end = end < x? end : x; // band end
+            for (k = beg, sum = 0.; k <= end; ++k) {
+                final double e = epsilons[eRow + refCodes[k-1]];
+                // set_u(bw, i, k), set_u(bw, i-1, k-1), set_u(bw, i-1, k) and set_u(bw, i, k-1)
+                final int u = fi + (k + 1 - x0) * 3, v11 = fi1 + (k - x1) * 3, v10 = v11 + 3, v01 = u - 3;
+                f[u+0] = e * (m0 * f[v11+0] + m3 * f[v11+1] + m6 * f[v11+2]);
+                f[u+1] = EI * (m1 * f[v10+0] + m4 * f[v10+1]);
+                f[u+2] = m2 * f[v01+0] + m8 * f[v01+2];
+                sum += f[u] + f[u+1] + f[u+2];
+            }
+            // rescale
+            s[i] = sum;
+            _beg = set_u(bw, i, beg); _end = set_u(bw, i, end); _end += 2;
+            for (k = fi + _beg, sum = 1./sum; k <= fi + _end; ++k) f[k] *= sum;
+        }
+        { // f[l_query+1]
+            final int fl = l_query * width;
+            final int x0 = l_query - bw > 0 ? l_query - bw : 0;
+            // only the k whose cells are inside the band contribute, i.e. 3 <= set_u(bw, l_query, k) < bw2*3+3
+            final int beg = x0 > 1 ? x0 : 1, end = l_ref < x0 + bw2 - 1 ? l_ref : x0 + bw2 - 1;
+            double sum;
+            for (k = beg, sum = 0.; k <= end; ++k) {
+                final int u = fl + set_u(bw, l_query, k);
+                sum += f[u+0] * sM + f[u+1] * sI;
+            }
+            s[l_query+1] = sum; // the last scaling factor
+        }
+
+        /*** backward ***/
+        { // b[l_query] (b[l_query+1][0]=1 and thus \tilde{b}[][]=1/s[l_query+1]; this is where s[l_query+1] comes from)
+            final int bl = l_query * width;
+            for (k = 1; k <= l_ref; ++k) {
+                final int u = set_u(bw, l_query, k);
+                if (u < 3 || u >= bw2*3+3) continue;
+                b[bl+u+0] = sM / s[l_query] / s[l_query+1]; b[bl+u+1] = sI / s[l_query] / s[l_query+1];
+            }
+        }
+        // b[l_query-1..1]
+        for (i = l_query - 1; i >= 1; --i) {
+            final int bi = i * width, bi1 = bi + width;
+            final int x0 = i - bw > 0 ? i - bw : 0, x1 = i + 1 - bw > 0 ? i + 1 - bw : 0;
+            int beg = 1, end = l_ref, x, _beg, _end;
+            double y = (i > 1)? 1. : 0.;
+            final int eRow = epsilonRow(query[qstart+i], _iqual[qstart+i]);
+            x = i - bw; beg = beg > x? beg : x;
+            x = i + bw; end = end < x? end : x;
+            for (k = end; k >= beg; --k) {
+                // set_u(bw, i, k), set_u(bw, i+1, k+1), set_u(bw, i+1, k) and set_u(bw, i, k+1)
+                final int u = bi + (k + 1 - x0) * 3, v10 = bi1 + (k + 1 - x1) * 3, v11 = v10 + 3, v01 = u + 3;
+                final double e = (k >= l_ref? 0 : epsilons[eRow + refCodes[k]]) * b[v11];
+                b[u+0] = e * m0 + eiM1 * b[v10+1] + m2 * b[v01+2]; // b[v11] has been folded into e.
+                b[u+1] = e * m3 + eiM4 * b[v10+1];
+                b[u+2] = (e * m6 + m8 * b[v01+2]) * y;
+            }
+            // rescale
+            _beg = set_u(bw, i, beg); _end = set_u(bw, i, end); _end += 2;
+            for (k = bi + _beg, y = 1./s[i]; k <= bi + _end; ++k) b[k] *= y;
+        }
+
+        // BAQ goes on to compute b[0], but it only feeds a sanity value (which should be 1.0) that is never used
+
+        /*** MAP ***/
+        for (i = 1; i <= l_query; ++i) {
+            double sum = 0., max = 0.;
+            final int row = i * width;
+            final int x0 = i - bw > 0 ? i - bw : 0;
+            int beg = 1, end = l_ref, x, max_k = -1;
+            x = i - bw; beg = beg > x? beg : x;
+            x = i + bw; end = end < x? end : x;
+            for (k = beg; k <= end; ++k) {
+                final int u = row + (k + 1 - x0) * 3;
+                double z;
+                sum += (z = f[u+0] * b[u+0]); if (z > max) { max = z; max_k = (k-1)<<2 | 0; }
+                sum += (z = f[u+1] * b[u+1]); if (z > max) { max = z; max_k = (k-1)<<2 | 1; }
+            }
+            max /= sum; sum *= s[i]; // if everything works as is expected, sum == 1.0
+            if (state != null) state[qstart+i-1] = max_k;
+            if (q != null) {
+                k = (int)(-4.343 * Math.log(1. - max) + .499); // = 10*log10(1-max)
+                q[qstart+i-1] = (byte)(k > 100? 99 : (k < minBaseQual ? minBaseQual : k));
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the offset in epsilons of the row for this read base and quality, to which the code of the reference
+     *         base is added
+     */
+    private static int epsilonRow(final byte readBase, final byte qual) {
+        if ( qual < 0 || qual > SAMUtils.MAX_PHRED_SCORE )
+            throw new ReviewedGATKException("BUG: base quality " + qual + " is outside of the range BAQ can handle");
+        return epsilonIndex(qual, 0, baseCode(readBase));
+    }
+}
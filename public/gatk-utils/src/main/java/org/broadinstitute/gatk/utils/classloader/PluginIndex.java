@@ -0,0 +1,578 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.classloader;
+
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * The direct supertypes of every class on a set of class path entries, for finding plugins by type.
+ *
+ * Scanning every class file on the class path (which is what Reflections does) takes seconds.  Instead, the build
+ * runs {@link #main(String[])} over each module, writing the supertypes of every class in the module and in every
+ * jar on its class path to the resource {@link #INDEX_RESOURCE}.  At runtime a class is taken from an index when
+ *
+ * <ul>
+ *     <li>it is in a jar carrying an index (for example a module jar, or a package jar with the module indices
+ *     appended together) that lists it,</li>
+ *     <li>it is in a directory carrying an index that lists it, and the class file is no newer than that index, or</li>
+ *     <li>it is in a jar without an index, but some other index has a section for a jar with the same file name and
+ *     length that lists it.</li>
+ * </ul>
+ *
+ * Everything else, such as classes compiled since the index was written or a jar the build never saw, is read from
+ * its class file, so a missing or stale index only costs time.
+ *
+ * The index is plain text, so that indices can be concatenated when jars are merged:
+ *
+ * <pre>
+ * # comment
+ * @&lt;TAB&gt;name of the jar, or . for the entry holding the index&lt;TAB&gt;length of the jar, or 0
+ * class name[&lt;TAB&gt;direct supertype]*
+ * </pre>
+ */
+public final class PluginIndex {
+    private final static Logger logger = Logger.getLogger(PluginIndex.class);
+
+    /**
+     * Where the index lives within a class path entry
+     */
+    public final static String INDEX_RESOURCE = "META-INF/gatk/plugin-index.txt";
+
+    private final static String SECTION_PREFIX = "@\t";
+    private final static String OWN_SECTION = ".";
+    private final static String CLASS_FILE_SUFFIX = ".class";
+    private final static String OBJECT_CLASS_NAME = Object.class.getName();
+    private final static String[] NO_SUPERTYPES = new String[0];
+
+    /**
+     * The direct subtypes of each type
+     */
+    private final Map<String, Set<String>> subTypes = new HashMap<String, Set<String>>();
+
+    private int indexedClassCount = 0;
+    private int scannedClassCount = 0;
+
+    private PluginIndex() { }
+
+    /**
+     * Finds the supertypes of every class in the class path entries, from their indices when they are up to date
+     * and from the class files otherwise.
+     *
+     * @param urls the class path entries, as for Reflections
+     * @return a non-null index
+     */
+    public static PluginIndex forUrls(final Collection<URL> urls) {
+        final long startTime = System.currentTimeMillis();
+        final PluginIndex pluginIndex = new PluginIndex();
+
+        final List<File> roots = new ArrayList<File>();
+        final List<URL> otherUrls = new ArrayList<URL>();
+        for ( final URL url : urls ) {
+            final File root = toFile(url);
+            if ( root == null )
+                otherUrls.add(url);
+            else if ( root.exists() )
+                roots.add(root);
+        }
+
+        // the indices carried by the entries themselves, which may also describe the other entries
+        final Map<File, IndexFile> ownIndices = new HashMap<File, IndexFile>();
+        final Map<String, Map<String, String[]>> sections = new HashMap<String, Map<String, String[]>>();
+        for ( final File root : roots ) {
+            final IndexFile indexFile = IndexFile.read(root);
+            if ( indexFile != null ) {
+                ownIndices.put(root, indexFile);
+                for ( final Map.Entry<String, Map<String, String[]>> section : indexFile.sections.entrySet() )
+                    if ( ! section.getKey().equals(sectionKey(OWN_SECTION, 0)) )
+                        sections.put(section.getKey(), section.getValue());
+            }
+        }
+
+        for ( final File root : roots ) {
+            final IndexFile ownIndex = ownIndices.get(root);
+            final Map<String, String[]> known;
+            final long indexTimestamp;
+            if ( ownIndex != null ) {
+                // a directory's index only vouches for the directory itself, a jar's for everything merged into it
+                known = root.isDirectory() ? ownIndex.getOwnSection() : ownIndex.classes;
+                indexTimestamp = ownIndex.timestamp;
+            } else {
+                final Map<String, String[]> section = root.isFile() ? sections.get(sectionKey(root.getName(), root.length())) : null;
+                known = section == null ? Collections.<String, String[]>emptyMap() : section;
+                indexTimestamp = Long.MAX_VALUE;
+            }
+
+            try {
+                if ( root.isDirectory() )
+                    pluginIndex.addDirectory(root, "", known, indexTimestamp);
+                else
+                    pluginIndex.addJar(root, known);
+            } catch ( IOException e ) {
+                throw new ReviewedGATKException("Unable to read the classes in " + root, e);
+            }
+        }
+
+        // anything that isn't a local file is left to Reflections
+        if ( ! otherUrls.isEmpty() ) {
+            Reflections.log = null;
+            final Reflections reflections = new Reflections(new ConfigurationBuilder()
+                    .setUrls(otherUrls)
+                    .setScanners(new SubTypesScanner()));
+            for ( final Map.Entry<String, String> subType : reflections.getStore().get(SubTypesScanner.class).entries() )
+                pluginIndex.addSubType(subType.getKey(), subType.getValue());
+        }
+
+        logger.debug(String.format("Found the supertypes of %d classes from indices and %d from class files in %d ms",
+                pluginIndex.indexedClassCount, pluginIndex.scannedClassCount, System.currentTimeMillis() - startTime));
+        return pluginIndex;
+    }
+
+    /**
+     * Gets all subtypes of type, direct or not, that can be loaded.
+     *
+     * @param type the type whose subtypes we want
+     * @return a non-null set of the subtypes, not including type itself
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Set<Class<? extends T>> getSubTypesOf(final Class<T> type) {
+        final Set<String> names = new LinkedHashSet<String>();
+        final Deque<String> pending = new ArrayDeque<String>();
+        pending.add(type.getName());
+        while ( ! pending.isEmpty() ) {
+            final Set<String> direct = subTypes.get(pending.remove());
+            if ( direct != null )
+                for ( final String name : direct )
+                    if ( names.add(name) )
+                        pending.add(name);
+        }
+
+        final Set<Class<? extends T>> classes = new LinkedHashSet<Class<? extends T>>();
+        for ( final String name : names ) {
+            final Class<?> clazz = loadClass(name);
+            if ( clazz != null )
+                classes.add((Class<? extends T>) clazz);
+        }
+        return classes;
+    }
+
+    /**
+     * @return the number of classes whose supertypes came from an index
+     */
+    int getIndexedClassCount() {
+        return indexedClassCount;
+    }
+
+    /**
+     * @return the number of classes whose supertypes were read from their class files
+     */
+    int getScannedClassCount() {
+        return scannedClassCount;
+    }
+
+    /**
+     * Writes the index of a module, run by the build after the classes are compiled.
+     *
+     * @param args the class output directory of the module
+     */
+    public static void main(final String[] args) throws IOException {
+        if ( args.length != 1 )
+            throw new IllegalArgumentException("Usage: PluginIndex <class output directory>");
+
+        final File outputDirectory = new File(args[0]).getAbsoluteFile();
+        if ( ! outputDirectory.isDirectory() )
+            return; // nothing was compiled
+
+        // jars already described by an index further up the class path, usually that of an upstream module, are
+        // found there at runtime as well
+        final List<File> roots = new ArrayList<File>();
+        final Set<String> describedJars = new HashSet<String>();
+        for ( final URL url : JVMUtils.getClasspathURLs() ) {
+            final File root = toFile(url);
+            if ( root == null || ! root.exists() || root.equals(outputDirectory) )
+                continue;
+            roots.add(root);
+            final IndexFile indexFile = IndexFile.read(root);
+            if ( indexFile != null ) {
+                describedJars.add(sectionKey(root.getName(), root.length()));
+                describedJars.addAll(indexFile.sections.keySet());
+            }
+        }
+
+        final List<File> jars = new ArrayList<File>();
+        for ( final File root : roots )
+            if ( root.isFile() && ! describedJars.contains(sectionKey(root.getName(), root.length())) )
+                jars.add(root);
+
+        writeIndex(outputDirectory, jars);
+    }
+
+    /**
+     * Writes the index for a class output directory and the jars it is used with into that directory.
+     *
+     * @param outputDirectory the directory of classes, which will hold the index
+     * @param jars the jars to describe in the index as well
+     * @return the index file
+     */
+    static File writeIndex(final File outputDirectory, final List<File> jars) throws IOException {
+        final File indexFile = new File(outputDirectory, INDEX_RESOURCE);
+        if ( ! indexFile.getParentFile().isDirectory() && ! indexFile.getParentFile().mkdirs() )
+            throw new IOException("Unable to create " + indexFile.getParentFile());
+
+        final File tmpFile = new File(indexFile.getPath() + ".tmp");
+        final PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8")));
+        try {
+            writer.println("# Direct supertypes of every class, see " + PluginIndex.class.getName());
+            writeSection(writer, OWN_SECTION, 0, scanDirectory(outputDirectory, new TreeMap<String, String[]>()));
+            for ( final File jar : jars )
+                writeSection(writer, jar.getName(), jar.length(), scanJar(jar));
+        } finally {
+            writer.close();
+        }
+        if ( writer.checkError() )
+            throw new IOException("Unable to write " + tmpFile);
+        if ( ! tmpFile.renameTo(indexFile) )
+            throw new IOException("Unable to rename " + tmpFile + " to " + indexFile);
+        return indexFile;
+    }
+
+    private static void writeSection(final PrintWriter writer, final String name, final long length, final Map<String, String[]> classes) {
+        writer.println(SECTION_PREFIX + name + "\t" + length);
+        final StringBuilder line = new StringBuilder();
+        for ( final Map.Entry<String, String[]> entry : classes.entrySet() ) {
+            line.setLength(0);
+            line.append(entry.getKey());
+            for ( final String supertype : entry.getValue() )
+                line.append('\t').append(supertype);
+            writer.println(line);
+        }
+    }
+
+    private static Map<String, String[]> scanDirectory(final File directory, final Map<String, String[]> classes) throws IOException {
+        final File[] files = directory.listFiles();
+        if ( files == null )
+            return classes;
+        for ( final File file : files ) {
+            if ( file.isDirectory() )
+                scanDirectory(file, classes);
+            else if ( file.getName().endsWith(CLASS_FILE_SUFFIX) )
+                readClassFile(new FileInputStream(file), classes);
+        }
+        return classes;
+    }
+
+    private static Map<String, String[]> scanJar(final File jar) throws IOException {
+        final Map<String, String[]> classes = new TreeMap<String, String[]>();
+        final ZipFile zipFile = openJar(jar);
+        if ( zipFile == null )
+            return classes;
+        try {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while ( entries.hasMoreElements() ) {
+                final ZipEntry entry = entries.nextElement();
+                if ( ! entry.isDirectory() && entry.getName().endsWith(CLASS_FILE_SUFFIX) )
+                    readClassFile(zipFile.getInputStream(entry), classes);
+            }
+        } finally {
+            zipFile.close();
+        }
+        return classes;
+    }
+
+    private void addDirectory(final File directory, final String packagePrefix, final Map<String, String[]> known, final long indexTimestamp) throws IOException {
+        final File[] files = directory.listFiles();
+        if ( files == null )
+            return;
+        for ( final File file : files ) {
+            final String fileName = file.getName();
+            if ( file.isDirectory() ) {
+                addDirectory(file, packagePrefix + fileName + ".", known, indexTimestamp);
+            } else if ( fileName.endsWith(CLASS_FILE_SUFFIX) ) {
+                final String className = packagePrefix + fileName.substring(0, fileName.length() - CLASS_FILE_SUFFIX.length());
+                final String[] supertypes = known.get(className);
+                if ( supertypes != null && file.lastModified() <= indexTimestamp )
+                    addIndexedClass(className, supertypes);
+                else
+                    addScannedClasses(readClassFile(new FileInputStream(file), new HashMap<String, String[]>(1)));
+            }
+        }
+    }
+
+    private void addJar(final File jar, final Map<String, String[]> known) throws IOException {
+        final ZipFile zipFile = openJar(jar);
+        if ( zipFile == null )
+            return;
+        try {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while ( entries.hasMoreElements() ) {
+                final ZipEntry entry = entries.nextElement();
+                final String entryName = entry.getName();
+                if ( entry.isDirectory() || ! entryName.endsWith(CLASS_FILE_SUFFIX) )
+                    continue;
+                final String className = entryName.substring(0, entryName.length() - CLASS_FILE_SUFFIX.length()).replace('/', '.');
+                final String[] supertypes = known.get(className);
+                if ( supertypes != null )
+                    addIndexedClass(className, supertypes);
+                else
+                    addScannedClasses(readClassFile(zipFile.getInputStream(entry), new HashMap<String, String[]>(1)));
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * @return the jar, or null if the file isn't a jar at all (like the gsalib tarball), which Reflections skips too
+     */
+    private static ZipFile openJar(final File jar) throws IOException {
+        try {
+            return new ZipFile(jar);
+        } catch ( ZipException e ) {
+            logger.debug("Skipping " + jar + ", which is not a jar");
+            return null;
+        }
+    }
+
+    private void addIndexedClass(final String className, final String[] supertypes) {
+        indexedClassCount++;
+        for ( final String supertype : supertypes )
+            addSubType(supertype, className);
+    }
+
+    private void addScannedClasses(final Map<String, String[]> classes) {
+        for ( final Map.Entry<String, String[]> entry : classes.entrySet() ) {
+            scannedClassCount++;
+            for ( final String supertype : entry.getValue() )
+                addSubType(supertype, entry.getKey());
+        }
+    }
+
+    private void addSubType(final String supertype, final String className) {
+        Set<String> direct = subTypes.get(supertype);
+        if ( direct == null ) {
+            direct = new LinkedHashSet<String>();
+            subTypes.put(supertype, direct);
+        }
+        direct.add(className);
+    }
+
+    /**
+     * Reads the name and direct supertypes (other than Object) of a class from its class file.
+     *
+     * Like Reflections, a class file that can't be parsed is skipped.
+     *
+     * @param inputStream the class file, which is closed
+     * @param classes where to put the name and supertypes
+     * @return classes
+     */
+    private static Map<String, String[]> readClassFile(final InputStream inputStream, final Map<String, String[]> classes) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        try {
+            if ( in.readInt() != 0xCAFEBABE )
+                return classes;
+            in.readUnsignedShort(); // minor version
+            in.readUnsignedShort(); // major version
+
+            // the constant pool, of which we only need the class names
+            final int constantPoolCount = in.readUnsignedShort();
+            final String[] utf8 = new String[constantPoolCount];
+            final int[] classNameIndices = new int[constantPoolCount];
+            for ( int i = 1; i < constantPoolCount; i++ ) {
+                final int tag = in.readUnsignedByte();
+                switch ( tag ) {
+                    case 1: utf8[i] = in.readUTF(); break;          // Utf8
+                    case 7: classNameIndices[i] = in.readUnsignedShort(); break; // Class
+                    case 8: case 16: case 19: case 20: in.skipBytes(2); break; // String, MethodType, Module, Package
+                    case 15: in.skipBytes(3); break;                // MethodHandle
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: in.skipBytes(4); break;
+                    case 5: case 6: in.skipBytes(8); i++; break;    // Long and Double take two entries
+                    default: return classes;
+                }
+            }
+
+            in.readUnsignedShort(); // access flags
+            final String className = toClassName(utf8, classNameIndices, in.readUnsignedShort());
+            final String superclassName = toClassName(utf8, classNameIndices, in.readUnsignedShort());
+            final int interfaceCount = in.readUnsignedShort();
+
+            final List<String> supertypes = new ArrayList<String>(interfaceCount + 1);
+            if ( superclassName != null && ! superclassName.equals(OBJECT_CLASS_NAME) )
+                supertypes.add(superclassName);
+            for ( int i = 0; i < interfaceCount; i++ )
+                supertypes.add(toClassName(utf8, classNameIndices, in.readUnsignedShort()));
+            if ( className != null )
+                classes.put(className, supertypes.isEmpty() ? NO_SUPERTYPES : supertypes.toArray(new String[supertypes.size()]));
+        } catch ( EOFException e ) {
+            logger.debug("Skipping truncated class file", e);
+        } finally {
+            in.close();
+        }
+        return classes;
+    }
+
+    private static String toClassName(final String[] utf8, final int[] classNameIndices, final int classIndex) {
+        if ( classIndex <= 0 || classIndex >= classNameIndices.length )
+            return null;
+        final String internalName = utf8[classNameIndices[classIndex]];
+        return internalName == null ? null : internalName.replace('/', '.');
+    }
+
+    /**
+     * Loads a class without initializing it, as Reflections does, returning null if it can't be loaded
+     */
+    private static Class<?> loadClass(final String name) {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        for ( final ClassLoader classLoader : Arrays.asList(contextClassLoader, PluginIndex.class.getClassLoader()) ) {
+            if ( classLoader == null )
+                continue;
+            try {
+                return classLoader.loadClass(name);
+            } catch ( Throwable t ) {
+                // try the next class loader
+            }
+        }
+        return null;
+    }
+
+    private static File toFile(final URL url) {
+        if ( ! "file".equals(url.getProtocol()) )
+            return null;
+        try {
+            return new File(url.toURI());
+        } catch ( URISyntaxException e ) {
+            return null;
+        } catch ( IllegalArgumentException e ) {
+            return null;
+        }
+    }
+
+    private static String sectionKey(final String name, final long length) {
+        return name + "\t" + length;
+    }
+
+    /**
+     * An index resource, as read from a class path entry
+     */
+    private final static class IndexFile {
+        /**
+         * All classes of all sections
+         */
+        private final Map<String, String[]> classes = new HashMap<String, String[]>();
+
+        /**
+         * The classes of each section, by section key
+         */
+        private final Map<String, Map<String, String[]>> sections = new HashMap<String, Map<String, String[]>>();
+
+        /**
+         * When the index was written, for directories, or Long.MAX_VALUE for jars, whose indices are packaged with them
+         */
+        private final long timestamp;
+
+        private IndexFile(final long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return the classes of the class path entry holding the index
+         */
+        private Map<String, String[]> getOwnSection() {
+            final Map<String, String[]> section = sections.get(sectionKey(OWN_SECTION, 0));
+            return section == null ? Collections.<String, String[]>emptyMap() : section;
+        }
+
+        /**
+         * @return the index within root, or null if it doesn't have one
+         */
+        private static IndexFile read(final File root) {
+            try {
+                if ( root.isDirectory() ) {
+                    final File file = new File(root, INDEX_RESOURCE);
+                    if ( ! file.isFile() )
+                        return null;
+                    final IndexFile indexFile = new IndexFile(file.lastModified());
+                    indexFile.parse(new FileInputStream(file));
+                    return indexFile;
+                } else {
+                    final ZipFile zipFile = openJar(root);
+                    if ( zipFile == null )
+                        return null;
+                    try {
+                        final ZipEntry entry = zipFile.getEntry(INDEX_RESOURCE);
+                        if ( entry == null )
+                            return null;
+                        final IndexFile indexFile = new IndexFile(Long.MAX_VALUE);
+                        indexFile.parse(zipFile.getInputStream(entry));
+                        return indexFile;
+                    } finally {
+                        zipFile.close();
+                    }
+                }
+            } catch ( IOException e ) {
+                logger.warn("Ignoring the unreadable plugin index of " + root + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        private void parse(final InputStream inputStream) throws IOException {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            try {
+                Map<String, String[]> section = new HashMap<String, String[]>();
+                String line;
+                while ( (line = reader.readLine()) != null ) {
+                    if ( line.isEmpty() || line.startsWith("#") )
+                        continue;
+                    if ( line.startsWith(SECTION_PREFIX) ) {
+                        final String key = line.substring(SECTION_PREFIX.length());
+                        section = sections.get(key);
+                        if ( section == null ) {
+                            section = new HashMap<String, String[]>();
+                            sections.put(key, section);
+                        }
+                        continue;
+                    }
+                    final String[] fields = line.split("\t");
+                    final String[] supertypes = fields.length == 1 ? NO_SUPERTYPES : Arrays.copyOfRange(fields, 1, fields.length);
+                    classes.put(fields[0], supertypes);
+                    section.put(fields[0], supertypes);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
@@ -30,9 +30,6 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.exceptions.DynamicClassResolutionException;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
-import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
-import org.reflections.util.ConfigurationBuilder;
 
 import java.io.File;
 import java.lang.reflect.Constructor;
@@ -49,14 +46,11 @@ import java.util.*;
  */
 public class PluginManager<PluginType> {
     /**
-     * A reference into our introspection utility.
+     * The supertypes of every class on the class path, for finding plugins.
      */
-    private static final Reflections defaultReflections;
+    private static final PluginIndex defaultPluginIndex;
 
     static {
-        // turn off logging in the reflections library - they talk too much
-        Reflections.log = null;
-
         Set<URL> classPathUrls = new LinkedHashSet<URL>();
 
         URL cwd;
@@ -66,7 +60,7 @@ public class PluginManager<PluginType> {
             throw new RuntimeException(e);
         }
 
-        // NOTE: Reflections also scans directories for classes.
+        // NOTE: Reflections also scans directories for classes, and so does the plugin index.
         // Meanwhile some of the jar MANIFEST.MF Bundle-ClassPath properties contain "."
         // Do NOT let reflections scan the CWD where it often picks up test classes when
         // they weren't explicitly in the classpath, for example the UninstantiableWalker
@@ -74,9 +68,7 @@ public class PluginManager<PluginType> {
             if (!url.equals(cwd))
                 classPathUrls.add(url);
 
-        defaultReflections = new Reflections( new ConfigurationBuilder()
-            .setUrls(classPathUrls)
-            .setScanners(new SubTypesScanner()));
+        defaultPluginIndex = PluginIndex.forUrls(classPathUrls);
     }
 
     /**
@@ -138,19 +130,17 @@ public class PluginManager<PluginType> {
         this.plugins = new ArrayList<Class<? extends PluginType>>();
         this.interfaces = new ArrayList<Class<? extends PluginType>>();
 
-        Reflections reflections;
+        PluginIndex pluginIndex;
         if (classpath == null) {
-            reflections = defaultReflections;
+            pluginIndex = defaultPluginIndex;
         } else {
             addClasspath(classpath);
-            reflections = new Reflections( new ConfigurationBuilder()
-                .setUrls(classpath)
-                .setScanners(new SubTypesScanner()));
+            pluginIndex = PluginIndex.forUrls(classpath);
         }
 
         // Load all classes types filtering them by concrete.
         @SuppressWarnings("unchecked")
-        Set<Class<? extends PluginType>> allTypes = reflections.getSubTypesOf(pluginType);
+        Set<Class<? extends PluginType>> allTypes = pluginIndex.getSubTypesOf(pluginType);
         for( Class<? extends PluginType> type: allTypes ) {
             // The plugin manager does not support anonymous classes; to be a plugin, a class must have a name.
             if(JVMUtils.isAnonymous(type))
@@ -25,6 +25,7 @@
 
 package org.broadinstitute.gatk.utils.contexts;
 
+import org.broadinstitute.gatk.utils.GenomeCoordinate;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.HasGenomeLocation;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
@@ -137,6 +138,11 @@ public class AlignmentContext implements HasGenomeLocation {
     public long getPosition() { return getLocation().getStart(); }
     public GenomeLoc getLocation() { return loc; }
 
+    /**
+     * @return the start of this context as a coordinate packed by {@link GenomeCoordinate}, for cheap comparisons
+     */
+    public long getGenomeCoordinate() { return GenomeCoordinate.getStart(loc); }
+
     public void downsampleToCoverage(int coverage) {
         basePileup = basePileup.getDownsampledPileup(coverage);
         hasPileupBeenDownsampled = true;
@@ -153,30 +153,61 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
 
     private void levelGroups() {
         final int[] groupSizes = new int[groups.size()];
-        int totalSize = 0;
         int currentGroupIndex = 0;
 
         for ( final T group : groups ) {
             groupSizes[currentGroupIndex] = group.size();
-            totalSize += groupSizes[currentGroupIndex];
             currentGroupIndex++;
         }
 
-        if ( totalSize <= targetSize ) {
+        if ( ! levelGroupSizes(groupSizes, groupSizes.length, targetSize, minElementsPerStack) ) {
             return;    // no need to eliminate any items
         }
 
+        // Now we actually go through and reduce each group to its new count as specified in groupSizes
+        currentGroupIndex = 0;
+        for ( final T group : groups ) {
+            downsampleOneGroup(group, groupSizes[currentGroupIndex]);
+            currentGroupIndex++;
+        }
+    }
+
+    /**
+     * Compute the leveled sizes of a series of groups, without touching the groups themselves
+     *
+     * Items are removed one at a time from each group in turn (round-robin) until the total size
+     * across all groups is targetSize, or until no group can lose another item without falling
+     * below minElementsPerStack.  This is the sizing step of the leveling algorithm, exposed so that
+     * callers holding their groups in some other structure (such as a flat array of contiguous groups)
+     * can level them without first regrouping them into Lists.
+     *
+     * @param groupSizes the size of each group, modified in place to hold the number of items to keep
+     * @param nGroups the number of groups described by the first nGroups entries of groupSizes
+     * @param targetSize the desired total number of items across all groups
+     * @param minElementsPerStack no group will be reduced below this size
+     * @return true if any group needs to be reduced, false if the groups already fit within targetSize
+     */
+    public static boolean levelGroupSizes( final int[] groupSizes, final int nGroups, final int targetSize, final int minElementsPerStack ) {
+        int totalSize = 0;
+        for ( int i = 0; i < nGroups; i++ ) {
+            totalSize += groupSizes[i];
+        }
+
+        if ( totalSize <= targetSize ) {
+            return false;
+        }
+
         // We will try to remove exactly this many items, however we will refuse to allow any
         // one group to fall below size 1, and so might end up removing fewer items than this
         int numItemsToRemove = totalSize - targetSize;
 
-        currentGroupIndex = 0;
+        int currentGroupIndex = 0;
         int numConsecutiveUmodifiableGroups = 0;
 
         // Continue until we've either removed all the items we wanted to, or we can't
         // remove any more items without violating the constraint that all groups must
         // be left with at least one item
-        while ( numItemsToRemove > 0 && numConsecutiveUmodifiableGroups < groupSizes.length ) {
+        while ( numItemsToRemove > 0 && numConsecutiveUmodifiableGroups < nGroups ) {
             if ( groupSizes[currentGroupIndex] > minElementsPerStack ) {
                 groupSizes[currentGroupIndex]--;
                 numItemsToRemove--;
@@ -186,15 +217,10 @@ public class LevelingDownsampler<T extends List<E>, E> extends Downsampler<T> {
                 numConsecutiveUmodifiableGroups++;
             }
 
-            currentGroupIndex = (currentGroupIndex + 1) % groupSizes.length;
+            currentGroupIndex = (currentGroupIndex + 1) % nGroups;
         }
 
-        // Now we actually go through and reduce each group to its new count as specified in groupSizes
-        currentGroupIndex = 0;
-        for ( final T group : groups ) {
-            downsampleOneGroup(group, groupSizes[currentGroupIndex]);
-            currentGroupIndex++;
-        }
+        return true;
     }
 
     private void downsampleOneGroup( final T group, final int numItemsToKeep ) {
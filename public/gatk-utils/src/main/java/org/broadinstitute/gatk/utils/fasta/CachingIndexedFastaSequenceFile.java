@@ -41,12 +41,20 @@ import org.broadinstitute.gatk.utils.BaseUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A caching version of the IndexedFastaSequenceFile that avoids going to disk as often as the raw indexer.
  *
- * Thread-safe!  Uses a thread-local cache.
+ * Thread-safe!  All threads share a single cache of fixed-size blocks of the reference, so threads working
+ * on the same part of the genome don't each keep their own copy of its bases.  Blocks are immutable once
+ * loaded, and the cache is split into independently locked stripes so threads rarely contend for it.  While
+ * a thread moves along a contig, the block after the one it's in is read ahead in the background, so that a
+ * traversal along the genome doesn't stall on the reference.  The cache never holds more than twice cacheSize
+ * bases, counting those read ahead.
  *
  * Automatically upper-cases the bases coming in, unless the flag preserveCase is explicitly set.
  * Automatically converts IUPAC bases to Ns, unless the flag preserveIUPAC is explicitly set.
@@ -66,8 +74,17 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     /** The cache size of this CachingIndexedFastaSequenceFile */
     private final long cacheSize;
 
-    /** When we have a cache miss at position X, we load sequence from X - cacheMissBackup */
-    private final long cacheMissBackup;
+    /** The largest block of bases we cache */
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    /** The smallest block of bases we cache */
+    private static final int MIN_BLOCK_SIZE = 1024;
+
+    /** The most stripes we split the cache into */
+    private static final int MAX_STRIPES = 16;
+
+    /** The size in bp of the blocks we cache */
+    private final int blockSize;
 
     /**
      * If true, we will preserve the case of the original base in the genome
@@ -80,25 +97,64 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     private final boolean preserveIUPAC;
 
     // information about checking efficiency
-    long cacheHits = 0;
-    long cacheMisses = 0;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder blocksPrefetched = new LongAdder();
 
-    /** Represents a specific cached sequence, with a specific start and stop, as well as the bases */
-    private static class Cache {
-        long start = -1, stop = -1;
-        ReferenceSequence seq = null;
-    }
+    /**
+     * The blocks of the cache, each a least recently used cache of its share of the blocks.  A block is
+     * found in the stripe given by its hash code.  Blocks are held as futures so that threads wanting a
+     * block being loaded by another thread, or read ahead, wait for it instead of loading it again.
+     */
+    private final BlockStripe[] stripes;
 
     /**
-     * Thread local cache to allow multi-threaded use of this class
+     * The last block each thread asked for, used to decide when to read ahead
      */
-    private ThreadLocal<Cache> cache;
-    {
-        cache = new ThreadLocal<Cache> () {
-            @Override protected Cache initialValue() {
-                return new Cache();
-            }
-        };
+    private final ThreadLocal<BlockKey> lastBlock = new ThreadLocal<>();
+
+    /**
+     * Reads blocks ahead of the threads using this class.  Shared by all instances, as it's rarely busy.
+     */
+    private static ExecutorService prefetchExecutor = null;
+
+    /** Identifies a block: the blockIndex-th block of blockSize bases of a contig */
+    private static final class BlockKey {
+        final int contigIndex;
+        final long blockIndex;
+
+        private BlockKey(final int contigIndex, final long blockIndex) {
+            this.contigIndex = contigIndex;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if ( this == o ) return true;
+            if ( ! (o instanceof BlockKey) ) return false;
+            final BlockKey other = (BlockKey) o;
+            return contigIndex == other.contigIndex && blockIndex == other.blockIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * contigIndex + (int)(blockIndex ^ (blockIndex >>> 32));
+        }
+    }
+
+    /** A least recently used cache of blocks, guarded by its own lock */
+    private static final class BlockStripe extends LinkedHashMap<BlockKey, Future<byte[]>> {
+        private final int maxBlocks;
+
+        private BlockStripe(final int maxBlocks) {
+            super(16, 0.75f, true);
+            this.maxBlocks = maxBlocks;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<BlockKey, Future<byte[]>> eldest) {
+            return size() > maxBlocks;
+        }
     }
 
     /**
@@ -114,7 +170,8 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
         super(fasta, index);
         if ( cacheSize < 0 ) throw new IllegalArgumentException("cacheSize must be > 0");
         this.cacheSize = cacheSize;
-        this.cacheMissBackup = Math.max(cacheSize / 1000, 1);
+        this.blockSize = makeBlockSize(cacheSize);
+        this.stripes = makeStripes(cacheSize, blockSize);
         this.preserveCase = preserveCase;
         this.preserveIUPAC = preserveIUPAC;
     }
@@ -134,7 +191,8 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
         super(fasta);
         if ( cacheSize < 0 ) throw new IllegalArgumentException("cacheSize must be > 0");
         this.cacheSize = cacheSize;
-        this.cacheMissBackup = Math.max(cacheSize / 1000, 1);
+        this.blockSize = makeBlockSize(cacheSize);
+        this.stripes = makeStripes(cacheSize, blockSize);
         this.preserveCase = preserveCase;
         this.preserveIUPAC = preserveIUPAC;
     }
@@ -259,7 +317,7 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * Print the efficiency (hits / queries) to logger with priority
      */
     public void printEfficiency(final Priority priority) {
-        logger.log(priority, String.format("### CachingIndexedFastaReader: hits=%d misses=%d efficiency %.6f%%", cacheHits, cacheMisses, calcEfficiency()));
+        logger.log(priority, String.format("### CachingIndexedFastaReader: hits=%d misses=%d prefetched=%d efficiency %.6f%%", getCacheHits(), getCacheMisses(), getBlocksPrefetched(), calcEfficiency()));
     }
 
     /**
@@ -267,21 +325,29 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * @return
      */
     public double calcEfficiency() {
-        return 100.0 * cacheHits / (cacheMisses + cacheHits * 1.0);
+        final long hits = getCacheHits();
+        return 100.0 * hits / (getCacheMisses() + hits * 1.0);
     }
 
     /**
      * @return the number of cache hits that have occurred
      */
     public long getCacheHits() {
-        return cacheHits;
+        return cacheHits.sum();
     }
 
     /**
-     * @return the number of cache misses that have occurred
+     * @return the number of cache misses that have occurred, including queries that had to wait for a block being read ahead
      */
     public long getCacheMisses() {
-        return cacheMisses;
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return the number of blocks that have been read ahead of the threads using this reader
+     */
+    public long getBlocksPrefetched() {
+        return blocksPrefetched.sum();
     }
 
     /**
@@ -291,6 +357,23 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
         return cacheSize;
     }
 
+    /**
+     * @return the size in bp of the blocks of the reference we cache
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return the most bases the cache can hold at once, never more than twice the cache size
+     */
+    public long getMaxCachedBases() {
+        long maxBlocks = 0;
+        for ( final BlockStripe stripe : stripes )
+            maxBlocks += stripe.maxBlocks;
+        return maxBlocks * blockSize;
+    }
+
     /**
      * Is this CachingIndexedFastaReader keeping the original case of bases in the fasta, or is
      * everything being made upper case?
@@ -322,8 +405,10 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     /**
      * Gets the subsequence of the contig in the range [start,stop]
      *
-     * Uses the sequence cache if possible, or updates the cache to handle the request.  If the range
-     * is larger than the cache itself, just loads the sequence directly, not changing the cache at all
+     * Uses the block cache if possible, loading the blocks that aren't in it.  If the range is larger than
+     * the cache itself, or starts before position 1, just loads the sequence directly, not changing the
+     * cache at all.  The blocks only cover positions 1 and up, so a range starting at 0 is always a miss,
+     * though its bases are the same as they would be through the cache.
      *
      * @param contig Contig whose subsequence to retrieve.
      * @param start inclusive, 1-based start of region.
@@ -334,43 +419,47 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     @Override
     public ReferenceSequence getSubsequenceAt( final String contig, long start, final long stop ) {
         final ReferenceSequence result;
-        final Cache myCache = cache.get();
 
-        if ( (stop - start) >= cacheSize ) {
-            cacheMisses++;
+        if ( (stop - start) >= cacheSize || start < 1 || stop < start ) {
+            cacheMisses.increment();
             result = super.getSubsequenceAt(contig, start, stop);
             if ( ! preserveCase ) StringUtil.toUpperCase(result.getBases());
             if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(result.getBases(), true, start < 1);
         } else {
             // todo -- potential optimization is to check if contig.name == contig, as this in general will be true
-            SAMSequenceRecord contigInfo = super.getSequenceDictionary().getSequence(contig);
+            final SAMSequenceRecord contigInfo = super.getSequenceDictionary().getSequence(contig);
+            if ( contigInfo == null )
+                throw new SAMException("Unable to find entry for contig: " + contig);
 
             if (stop > contigInfo.getSequenceLength())
                 throw new SAMException("Query asks for data past end of contig");
 
-            if ( start < myCache.start || stop > myCache.stop || myCache.seq == null || myCache.seq.getContigIndex() != contigInfo.getSequenceIndex() ) {
-                cacheMisses++;
-                myCache.start = Math.max(start - cacheMissBackup, 0);
-                myCache.stop  = Math.min(start + cacheSize + cacheMissBackup, contigInfo.getSequenceLength());
-                myCache.seq   = super.getSubsequenceAt(contig, myCache.start, myCache.stop);
-
-                // convert all of the bases in the sequence to upper case if we aren't preserving cases
-                if ( ! preserveCase ) StringUtil.toUpperCase(myCache.seq.getBases());
-                if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(myCache.seq.getBases(), true, myCache.start == 0);
-            } else {
-                cacheHits++;
+            // copy the requested bases out of each of the blocks they're in
+            final byte[] bases = new byte[(int)(stop - start + 1)];
+            final long firstBlock = (start - 1) / blockSize;
+            final long lastBlock = (stop - 1) / blockSize;
+            boolean hit = true;
+            for ( long blockIndex = firstBlock; blockIndex <= lastBlock; blockIndex++ ) {
+                final BlockKey key = new BlockKey(contigInfo.getSequenceIndex(), blockIndex);
+                Future<byte[]> block = getCachedBlock(key);
+                hit &= block != null && block.isDone();
+                if ( block == null )
+                    block = loadBlock(key, contigInfo);
+                final byte[] blockBases = getBlockBases(key, block, contigInfo);
+
+                final long blockStart = blockIndex * blockSize + 1;
+                final long copyStart = Math.max(start, blockStart);
+                final long copyStop = Math.min(stop, blockStart + blockBases.length - 1);
+                System.arraycopy(blockBases, (int)(copyStart - blockStart), bases, (int)(copyStart - start), (int)(copyStop - copyStart + 1));
             }
 
-            // at this point we determine where in the cache we want to extract the requested subsequence
-            final int cacheOffsetStart = (int)(start - myCache.start);
-            final int cacheOffsetStop = (int)(stop - start + cacheOffsetStart + 1);
+            if ( hit )
+                cacheHits.increment();
+            else
+                cacheMisses.increment();
 
-            try {
-                result = new ReferenceSequence(myCache.seq.getName(), myCache.seq.getContigIndex(), Arrays.copyOfRange(myCache.seq.getBases(), cacheOffsetStart, cacheOffsetStop));
-            } catch ( ArrayIndexOutOfBoundsException e ) {
-                throw new ReviewedGATKException(String.format("BUG: bad array indexing.  Cache start %d and end %d, request start %d end %d, offset start %d and end %d, base size %d",
-                        myCache.start, myCache.stop, start, stop, cacheOffsetStart, cacheOffsetStop, myCache.seq.getBases().length), e);
-            }
+            readAhead(contigInfo, lastBlock);
+            result = new ReferenceSequence(contigInfo.getSequenceName(), contigInfo.getSequenceIndex(), bases);
         }
 
         // for debugging -- print out our efficiency if requested
@@ -379,4 +468,154 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
 
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return one eighth of cacheSize, kept between MIN_BLOCK_SIZE and MAX_BLOCK_SIZE, but never more than
+     *         cacheSize itself, so that at least two blocks fit in twice cacheSize
+     */
+    private static int makeBlockSize(final long cacheSize) {
+        final long blockSize = Math.max(Math.min(cacheSize / 8, MAX_BLOCK_SIZE), MIN_BLOCK_SIZE);
+        return (int)Math.max(Math.min(blockSize, cacheSize), 1);
+    }
+
+    private static BlockStripe[] makeStripes(final long cacheSize, final int blockSize) {
+        // the whole cache holds at most twice cacheSize, rounded down to whole blocks
+        final long maxBlocks = Math.max(2 * cacheSize / blockSize, 1);
+        final int nStripes = (int)Math.min(maxBlocks, MAX_STRIPES);
+        final BlockStripe[] stripes = new BlockStripe[nStripes];
+        for ( int i = 0; i < nStripes; i++ )
+            stripes[i] = new BlockStripe((int)(maxBlocks / nStripes + (i < maxBlocks % nStripes ? 1 : 0)));
+        return stripes;
+    }
+
+    private BlockStripe getStripe(final BlockKey key) {
+        return stripes[(key.hashCode() & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    /**
+     * @return the block from the cache, which may still be being loaded if it isn't done, or null if it isn't cached
+     */
+    private Future<byte[]> getCachedBlock(final BlockKey key) {
+        final BlockStripe stripe = getStripe(key);
+        synchronized ( stripe ) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Load a block into the cache in this thread, unless another thread has started loading it in the meantime
+     *
+     * @param key the block
+     * @param contigInfo the contig of the block
+     * @return the cached block, which may still be being loaded by another thread if it isn't done
+     */
+    private Future<byte[]> loadBlock(final BlockKey key, final SAMSequenceRecord contigInfo) {
+        final BlockStripe stripe = getStripe(key);
+        final FutureTask<byte[]> newBlock;
+        synchronized ( stripe ) {
+            final Future<byte[]> block = stripe.get(key);
+            if ( block != null )
+                return block;
+            newBlock = new FutureTask<>(new BlockLoader(key, contigInfo));
+            stripe.put(key, newBlock);
+        }
+
+        newBlock.run();
+        return newBlock;
+    }
+
+    /**
+     * Wait for block to be loaded, and get its bases
+     *
+     * If loading block failed, for example if it was read ahead after this reader was closed, it's removed
+     * from the cache and loaded again in this thread, so that any error is thrown here
+     */
+    private byte[] getBlockBases(final BlockKey key, final Future<byte[]> block, final SAMSequenceRecord contigInfo) {
+        try {
+            return block.get();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while waiting for reference bases", e);
+        } catch ( ExecutionException e ) {
+            final BlockStripe stripe = getStripe(key);
+            synchronized ( stripe ) {
+                if ( stripe.get(key) == block )
+                    stripe.remove(key);
+            }
+            return new BlockLoader(key, contigInfo).call();
+        }
+    }
+
+    /**
+     * If this thread is moving along a contig, having asked for this block or the one before it last time,
+     * start loading the next block in the background, unless it's already in the cache or past the end of
+     * the contig
+     *
+     * @param contigInfo the contig of the block
+     * @param blockIndex the last block this thread has asked for
+     */
+    private void readAhead(final SAMSequenceRecord contigInfo, final long blockIndex) {
+        final BlockKey previous = lastBlock.get();
+        final BlockKey current = new BlockKey(contigInfo.getSequenceIndex(), blockIndex);
+        lastBlock.set(current);
+
+        if ( previous == null || previous.contigIndex != current.contigIndex || blockIndex - previous.blockIndex > 1 || blockIndex < previous.blockIndex )
+            return;
+
+        final long nextBlockIndex = blockIndex + 1;
+        if ( nextBlockIndex * blockSize >= contigInfo.getSequenceLength() )
+            return;
+
+        final BlockKey next = new BlockKey(contigInfo.getSequenceIndex(), nextBlockIndex);
+        final BlockStripe stripe = getStripe(next);
+        final FutureTask<byte[]> nextBlock;
+        synchronized ( stripe ) {
+            if ( stripe.containsKey(next) )
+                return;
+            nextBlock = new FutureTask<>(new BlockLoader(next, contigInfo));
+            stripe.put(next, nextBlock);
+        }
+
+        blocksPrefetched.increment();
+        getPrefetchExecutor().execute(nextBlock);
+    }
+
+    private static synchronized ExecutorService getPrefetchExecutor() {
+        if ( prefetchExecutor == null ) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "CachingIndexedFastaSequenceFile prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Reads the bases of a block from the underlying fasta, in the case and IUPAC encoding we've been asked for
+     */
+    private final class BlockLoader implements Callable<byte[]> {
+        private final BlockKey key;
+        private final SAMSequenceRecord contigInfo;
+
+        private BlockLoader(final BlockKey key, final SAMSequenceRecord contigInfo) {
+            this.key = key;
+            this.contigInfo = contigInfo;
+        }
+
+        @Override
+        public byte[] call() {
+            final long blockStart = key.blockIndex * blockSize + 1;
+            final long blockStop = Math.min(blockStart + blockSize - 1, contigInfo.getSequenceLength());
+            final byte[] bases = CachingIndexedFastaSequenceFile.super.getSubsequenceAt(contigInfo.getSequenceName(), blockStart, blockStop).getBases();
+
+            // convert all of the bases in the sequence to upper case if we aren't preserving cases
+            if ( ! preserveCase ) StringUtil.toUpperCase(bases);
+            if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(bases, true, false);
+            return bases;
+        }
+    }
+}
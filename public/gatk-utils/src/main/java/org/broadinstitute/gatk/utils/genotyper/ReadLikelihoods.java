@@ -56,12 +56,22 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
     private GATKSAMRecord[][] readsBySampleIndex;
 
     /**
-     * Indexed per sample, allele and finally read (within sample).
+     * Indexed per sample; each sample likelihoods are kept in a single flat array indexed by allele and then
+     * read (within sample).
      * <p>
-     *     valuesBySampleIndex[s][a][r] == lnLk(R_r | A_a) where R_r comes from Sample s.
+     *     valuesBySampleIndex[s][a * readCapacityBySampleIndex[s] + r] == lnLk(R_r | A_a) where R_r comes from Sample s.
      * </p>
      */
-    private double[][][] valuesBySampleIndex;
+    private double[][] valuesBySampleIndex;
+
+    /**
+     * Stride between consecutive alleles in each sample likelihood array.
+     * <p>
+     *     It is never less than the sample read count, and may be larger so that reads can be removed
+     *     and added back without reallocating the sample likelihood array.
+     * </p>
+     */
+    private int[] readCapacityBySampleIndex;
 
     /**
      * Sample list
@@ -145,7 +155,8 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         readsBySampleIndex = new GATKSAMRecord[sampleCount][];
         readListBySampleIndex = new List[sampleCount];
-        valuesBySampleIndex = new double[sampleCount][][];
+        valuesBySampleIndex = new double[sampleCount][];
+        readCapacityBySampleIndex = new int[sampleCount];
         referenceAlleleIndex = findReferenceAllele(alleles);
         nonRefAlleleIndex = findNonRefAllele(alleles);
 
@@ -173,8 +184,8 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
                 : reads.toArray(new GATKSAMRecord[reads.size()]);
         final int sampleReadCount = readsBySampleIndex[sampleIndex].length;
 
-        final double[][] sampleValues = new double[alleleCount][sampleReadCount];
-        valuesBySampleIndex[sampleIndex] = sampleValues;
+        valuesBySampleIndex[sampleIndex] = new double[alleleCount * sampleReadCount];
+        readCapacityBySampleIndex[sampleIndex] = sampleReadCount;
     }
 
     /**
@@ -185,7 +196,7 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final int sampleCount = samples.sampleCount();
         final int alleleCount = alleles.alleleCount();
 
-        final double[][][] newLikelihoodValues = new double[sampleCount][alleleCount][];
+        final double[][] newLikelihoodValues = new double[sampleCount][];
 
         @SuppressWarnings("unchecked")
         final Object2IntMap<GATKSAMRecord>[] newReadIndexBySampleIndex = new Object2IntMap[sampleCount];
@@ -193,25 +204,25 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         for (int s = 0; s < sampleCount; s++) {
             newReadsBySampleIndex[s] = readsBySampleIndex[s].clone();
-            for (int a = 0; a < alleleCount; a++)
-                newLikelihoodValues[s][a] = valuesBySampleIndex[s][a].clone();
+            newLikelihoodValues[s] = Arrays.copyOf(valuesBySampleIndex[s], alleleCount * readCapacityBySampleIndex[s]);
         }
 
         // Finally we create the new read-likelihood
         return new ReadLikelihoods<>(alleles, samples,
                 newReadsBySampleIndex,
-                newReadIndexBySampleIndex, newLikelihoodValues);
+                newReadIndexBySampleIndex, newLikelihoodValues, readCapacityBySampleIndex.clone());
     }
 
     // Internally used constructor.
     @SuppressWarnings("unchecked")
     private ReadLikelihoods(final AlleleList alleles, final SampleList samples,
                             final GATKSAMRecord[][] readsBySampleIndex, final Object2IntMap<GATKSAMRecord>[] readIndex,
-                            final double[][][] values) {
+                            final double[][] values, final int[] readCapacities) {
         this.samples = samples;
         this.alleles = alleles;
         this.readsBySampleIndex = readsBySampleIndex;
         this.valuesBySampleIndex = values;
+        this.readCapacityBySampleIndex = readCapacities;
         this.readIndexBySampleIndex = readIndex;
         final int sampleCount = samples.sampleCount();
         this.readListBySampleIndex = new List[sampleCount];
@@ -364,43 +375,45 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
             return;
 
         for (int s = 0; s < valuesBySampleIndex.length; s++) {
-            final double[][] sampleValues = valuesBySampleIndex[s];
+            final double[] sampleValues = valuesBySampleIndex[s];
+            final int stride = readCapacityBySampleIndex[s];
             final int readCount = readsBySampleIndex[s].length;
             for (int r = 0; r < readCount; r++)
-                normalizeLikelihoodsPerRead(bestToZero, maximumLikelihoodDifferenceCap, sampleValues, s, r);
+                normalizeLikelihoodsPerRead(bestToZero, maximumLikelihoodDifferenceCap, sampleValues, stride, s, r);
         }
     }
 
     // Does the normalizeLikelihoods job for each read.
     private void normalizeLikelihoodsPerRead(final boolean bestToZero, final double maximumBestAltLikelihoodDifference,
-                                             final double[][] sampleValues, final int sampleIndex, final int readIndex) {
+                                             final double[] sampleValues, final int stride, final int sampleIndex, final int readIndex) {
 
         final BestAllele bestAlternativeAllele = searchBestAllele(sampleIndex,readIndex,false);
 
         final double worstLikelihoodCap = bestAlternativeAllele.likelihood + maximumBestAltLikelihoodDifference;
 
         final double referenceLikelihood = referenceAlleleIndex == -1 ? Double.NEGATIVE_INFINITY :
-                sampleValues[referenceAlleleIndex][readIndex];
+                sampleValues[referenceAlleleIndex * stride + readIndex];
 
 
         final double bestAbsoluteLikelihood = Math.max(bestAlternativeAllele.likelihood,referenceLikelihood);
 
         final int alleleCount = alleles.alleleCount();
+        final int end = alleleCount * stride + readIndex;
         if (bestToZero) {
             if (bestAbsoluteLikelihood == Double.NEGATIVE_INFINITY)
-                for (int a = 0; a < alleleCount; a++)
-                    sampleValues[a][readIndex] = 0;
+                for (int i = readIndex; i < end; i += stride)
+                    sampleValues[i] = 0;
             else if (worstLikelihoodCap != Double.NEGATIVE_INFINITY)
-                for (int a = 0; a < alleleCount; a++)
-                    sampleValues[a][readIndex] = (sampleValues[a][readIndex] < worstLikelihoodCap ? worstLikelihoodCap : sampleValues[a][readIndex]) - bestAbsoluteLikelihood;
+                for (int i = readIndex; i < end; i += stride)
+                    sampleValues[i] = (sampleValues[i] < worstLikelihoodCap ? worstLikelihoodCap : sampleValues[i]) - bestAbsoluteLikelihood;
             else
-                for (int a = 0; a < alleleCount; a++)
-                    sampleValues[a][readIndex] -= bestAbsoluteLikelihood;
+                for (int i = readIndex; i < end; i += stride)
+                    sampleValues[i] -= bestAbsoluteLikelihood;
         } else  // else if (maximumReferenceLikelihoodFall != Double.NEGATIVE_INFINITY ) { //
             // Guarantee to be the case by enclosing code.
-            for (int a = 0; a < alleleCount; a++)
-                if (sampleValues[a][readIndex] < worstLikelihoodCap)
-                    sampleValues[a][readIndex] = worstLikelihoodCap;
+            for (int i = readIndex; i < end; i += stride)
+                if (sampleValues[i] < worstLikelihoodCap)
+                    sampleValues[i] = worstLikelihoodCap;
     }
 
     /**
@@ -457,10 +470,11 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         if (alleleCount == 0 || (alleleCount == 1 && referenceAlleleIndex == 0 && !canBeReference))
             return new BestAllele(sampleIndex,readIndex,-1,Double.NEGATIVE_INFINITY,Double.NEGATIVE_INFINITY);
 
-        final double[][] sampleValues = valuesBySampleIndex[sampleIndex];
+        final double[] sampleValues = valuesBySampleIndex[sampleIndex];
+        final int stride = readCapacityBySampleIndex[sampleIndex];
         int bestAlleleIndex = canBeReference || referenceAlleleIndex != 0 ? 0 : 1;
 
-        double bestLikelihood = sampleValues[bestAlleleIndex][readIndex];
+        double bestLikelihood = sampleValues[bestAlleleIndex * stride + readIndex];
         double secondBestLikelihood = Double.NEGATIVE_INFINITY;
         for (int a = bestAlleleIndex + 1; a < alleleCount; a++) {
             if (!canBeReference && referenceAlleleIndex == a)
@@ -469,7 +483,7 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
                 continue;
             if (allelesToConsider.alleleIndex(alleles.alleleAt(a)) < 0)
                 continue;
-            final double candidateLikelihood = sampleValues[a][readIndex];
+            final double candidateLikelihood = sampleValues[a * stride + readIndex];
             if (candidateLikelihood > bestLikelihood) {
                 bestAlleleIndex = a;
                 secondBestLikelihood = bestLikelihood;
@@ -555,14 +569,17 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         final int sampleCount = samples.sampleCount();
         for (int s = 0; s < sampleCount; s++) {
-            final int sampleReadCount = readsBySampleIndex[s].length;
-            final double[][] newValuesBySampleIndex = Arrays.copyOf(valuesBySampleIndex[s], newAlleleCount);
-            for (int a = oldAlleleCount; a < newAlleleCount; a++) {
-                newValuesBySampleIndex[a] = new double[sampleReadCount];
+            final int stride = readCapacityBySampleIndex[s];
+            final double[] sampleValues = valuesBySampleIndex[s];
+            // rows left behind by dropped alleles are reused when available, so they must always be overwritten.
+            if (sampleValues.length >= newAlleleCount * stride)
+                Arrays.fill(sampleValues, oldAlleleCount * stride, newAlleleCount * stride, defaultLikelihood);
+            else {
+                final double[] newSampleValues = Arrays.copyOf(sampleValues, newAlleleCount * stride);
                 if (defaultLikelihood != 0.0)
-                    Arrays.fill(newValuesBySampleIndex[a],defaultLikelihood);
+                    Arrays.fill(newSampleValues, oldAlleleCount * stride, newAlleleCount * stride, defaultLikelihood);
+                valuesBySampleIndex[s] = newSampleValues;
             }
-            valuesBySampleIndex[s] = newValuesBySampleIndex;
         }
 
         if (referenceIndex != -1)
@@ -607,13 +624,15 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
             newAlleleIndices[nextIndex] = i;
             newAlleles[nextIndex++] = alleles.alleleAt(i);
         }
+        // retained alleles are shifted down in place; as newAlleleIndices[j] >= j the copies never overlap a row still to be read.
         for (int i = 0; i < samples.sampleCount(); i++) {
-            final double[][] oldSampleValues = valuesBySampleIndex[i];
-            final double[][] newSampleValues = new double[newAlleles.length][];
+            final double[] sampleValues = valuesBySampleIndex[i];
+            final int stride = readCapacityBySampleIndex[i];
+            final int sampleReadCount = readsBySampleIndex[i].length;
             for (int j = 0; j < newAlleles.length; j++) {
-                newSampleValues[j] = oldSampleValues[newAlleleIndices[j]];
+                if (newAlleleIndices[j] != j)
+                    System.arraycopy(sampleValues, newAlleleIndices[j] * stride, sampleValues, j * stride, sampleReadCount);
             }
-            valuesBySampleIndex[i] = newSampleValues;
         }
         alleleList = Collections.unmodifiableList(Arrays.asList(newAlleles));
         alleles = new IndexedAlleleList<>(alleleList);
@@ -769,37 +788,7 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
      *  can have zero old alleles mapping nor two new alleles can make reference to the same old allele.
      */
     public <B extends Allele> ReadLikelihoods<B> marginalize(final Map<B, List<A>> newToOldAlleleMap) {
-
-        if (newToOldAlleleMap == null)
-            throw new IllegalArgumentException("the input allele mapping cannot be null");
-
-        @SuppressWarnings("unchecked")
-        final B[] newAlleles = newToOldAlleleMap.keySet().toArray((B[]) new Allele[newToOldAlleleMap.size()]);
-        final int oldAlleleCount = alleles.alleleCount();
-        final int newAlleleCount = newAlleles.length;
-
-        // we get the index correspondence between new old -> new allele, -1 entries mean that the old
-        // allele does not map to any new; supported but typically not the case.
-        final int[] oldToNewAlleleIndexMap = oldToNewAlleleIndexMap(newToOldAlleleMap, newAlleles, oldAlleleCount, newAlleleCount);
-
-        // We calculate the marginal likelihoods.
-
-        final double[][][] newLikelihoodValues = marginalLikelihoods(oldAlleleCount, newAlleleCount, oldToNewAlleleIndexMap, null);
-
-        final int sampleCount = samples.sampleCount();
-
-        @SuppressWarnings("unchecked")
-        final Object2IntMap<GATKSAMRecord>[] newReadIndexBySampleIndex = new Object2IntMap[sampleCount];
-        final GATKSAMRecord[][] newReadsBySampleIndex = new GATKSAMRecord[sampleCount][];
-
-        for (int s = 0; s < sampleCount; s++) {
-            newReadsBySampleIndex[s] = readsBySampleIndex[s].clone();
-        }
-
-        // Finally we create the new read-likelihood
-        return new ReadLikelihoods<>(new IndexedAlleleList(newAlleles), samples,
-                newReadsBySampleIndex,
-                newReadIndexBySampleIndex, newLikelihoodValues);
+        return marginalizeReads(newToOldAlleleMap, null);
     }
 
 
@@ -820,9 +809,11 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
      *  can have zero old alleles mapping nor two new alleles can make reference to the same old allele.
      */
     public <B extends Allele> ReadLikelihoods<B> marginalize(final Map<B, List<A>> newToOldAlleleMap, final GenomeLoc overlap) {
+        return marginalizeReads(newToOldAlleleMap, overlap);
+    }
 
-        if (overlap == null)
-            return marginalize(newToOldAlleleMap);
+    // Does the marginalize job; if overlap is null all reads are retained.
+    private <B extends Allele> ReadLikelihoods<B> marginalizeReads(final Map<B, List<A>> newToOldAlleleMap, final GenomeLoc overlap) {
 
         if (newToOldAlleleMap == null)
             throw new IllegalArgumentException("the input allele mapping cannot be null");
@@ -836,57 +827,52 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         // allele does not map to any new; supported but typically not the case.
         final int[] oldToNewAlleleIndexMap = oldToNewAlleleIndexMap(newToOldAlleleMap, newAlleles, oldAlleleCount, newAlleleCount);
 
-        final int[][] readsToKeep = overlappingReadIndicesBySampleIndex(overlap);
-        // We calculate the marginal likelihoods.
-
-        final double[][][] newLikelihoodValues = marginalLikelihoods(oldAlleleCount, newAlleleCount, oldToNewAlleleIndexMap, readsToKeep);
-
         final int sampleCount = samples.sampleCount();
 
         @SuppressWarnings("unchecked")
         final Object2IntMap<GATKSAMRecord>[] newReadIndexBySampleIndex = new Object2IntMap[sampleCount];
         final GATKSAMRecord[][] newReadsBySampleIndex = new GATKSAMRecord[sampleCount][];
+        final double[][] newLikelihoodValues = new double[sampleCount][];
+        final int[] newReadCapacities = new int[sampleCount];
 
+        // the buffer is reused across samples as each sample read indices are consumed before moving on to the next.
+        final IntArrayList sampleReadsToKeep = overlap == null ? null : SCRATCH.get().readIndices;
         for (int s = 0; s < sampleCount; s++) {
-            final int[] sampleReadsToKeep = readsToKeep[s];
             final GATKSAMRecord[] oldSampleReads = readsBySampleIndex[s];
             final int oldSampleReadCount = oldSampleReads.length;
-            final int newSampleReadCount = sampleReadsToKeep.length;
+            if (sampleReadsToKeep != null)
+                overlappingReadIndices(s, overlap, sampleReadsToKeep);
+            final int newSampleReadCount = sampleReadsToKeep == null ? oldSampleReadCount : sampleReadsToKeep.size();
             if (newSampleReadCount == oldSampleReadCount) {
                 newReadsBySampleIndex[s] = oldSampleReads.clone();
+                newLikelihoodValues[s] = marginalLikelihoods(s, oldAlleleCount, newAlleleCount, oldToNewAlleleIndexMap, null);
             } else {
                 newReadsBySampleIndex[s] = new GATKSAMRecord[newSampleReadCount];
                 for (int i = 0; i < newSampleReadCount; i++)
-                    newReadsBySampleIndex[s][i] = oldSampleReads[sampleReadsToKeep[i]];
+                    newReadsBySampleIndex[s][i] = oldSampleReads[sampleReadsToKeep.getInt(i)];
+                newLikelihoodValues[s] = marginalLikelihoods(s, oldAlleleCount, newAlleleCount, oldToNewAlleleIndexMap, sampleReadsToKeep);
             }
+            newReadCapacities[s] = newSampleReadCount;
         }
 
         // Finally we create the new read-likelihood
         return new ReadLikelihoods<>(new IndexedAlleleList(newAlleles), samples,
                 newReadsBySampleIndex,
-                newReadIndexBySampleIndex, newLikelihoodValues);
+                newReadIndexBySampleIndex, newLikelihoodValues, newReadCapacities);
     }
 
-    private int[][] overlappingReadIndicesBySampleIndex(final GenomeLoc overlap) {
-        if (overlap == null)
-            return null;
-        final int sampleCount = samples.sampleCount();
-        final int[][] result = new int[sampleCount][];
-        final IntArrayList buffer = new IntArrayList(200);
+    // Fills the buffer with the indices of the reads of a sample that overlap a location (with unclipping).
+    private void overlappingReadIndices(final int sampleIndex, final GenomeLoc overlap, final IntArrayList buffer) {
+        buffer.clear();
         final int referenceIndex = overlap.getContigIndex();
         final int overlapStart = overlap.getStart();
         final int overlapEnd = overlap.getStop();
-        for (int s = 0; s < sampleCount; s++) {
-            buffer.clear();
-            final GATKSAMRecord[] sampleReads = readsBySampleIndex[s];
-            final int sampleReadCount = sampleReads.length;
-            buffer.ensureCapacity(sampleReadCount);
-            for (int r = 0; r < sampleReadCount; r++)
-                if (unclippedReadOverlapsRegion(sampleReads[r], referenceIndex, overlapStart, overlapEnd))
-                    buffer.add(r);
-            result[s] = buffer.toIntArray();
-        }
-        return result;
+        final GATKSAMRecord[] sampleReads = readsBySampleIndex[sampleIndex];
+        final int sampleReadCount = sampleReads.length;
+        buffer.ensureCapacity(sampleReadCount);
+        for (int r = 0; r < sampleReadCount; r++)
+            if (unclippedReadOverlapsRegion(sampleReads[r], referenceIndex, overlapStart, overlapEnd))
+                buffer.add(r);
     }
 
     public static boolean unclippedReadOverlapsRegion(final GATKSAMRecord read, final GenomeLoc region) {
@@ -907,32 +893,28 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         return readEnd >= start;
     }
 
-    // Calculate the marginal likelihoods considering the old -> new allele index mapping.
-    private double[][][] marginalLikelihoods(final int oldAlleleCount, final int newAlleleCount, final int[] oldToNewAlleleIndexMap, final int[][] readsToKeep) {
-
-        final int sampleCount = samples.sampleCount();
-        final double[][][] result = new double[sampleCount][][];
-
-        for (int s = 0; s < sampleCount; s++) {
-            final int sampleReadCount = readsBySampleIndex[s].length;
-            final double[][] oldSampleValues = valuesBySampleIndex[s];
-            final int[] sampleReadToKeep = readsToKeep == null || readsToKeep[s].length == sampleReadCount ? null : readsToKeep[s];
-            final int newSampleReadCount = sampleReadToKeep == null ? sampleReadCount : sampleReadToKeep.length;
-            final double[][] newSampleValues = result[s] = new double[newAlleleCount][newSampleReadCount];
-            // We initiate all likelihoods to -Inf.
-            for (int a = 0; a < newAlleleCount; a++)
-                Arrays.fill(newSampleValues[a], Double.NEGATIVE_INFINITY);
-            // For each old allele and read we update the new table keeping the maximum likelihood.
+    // Calculate the marginal likelihoods of a sample considering the old -> new allele index mapping.
+    // If readsToKeep is null all reads are retained.
+    private double[] marginalLikelihoods(final int sampleIndex, final int oldAlleleCount, final int newAlleleCount,
+                                         final int[] oldToNewAlleleIndexMap, final IntArrayList readsToKeep) {
+
+        final double[] oldSampleValues = valuesBySampleIndex[sampleIndex];
+        final int oldStride = readCapacityBySampleIndex[sampleIndex];
+        final int newSampleReadCount = readsToKeep == null ? readsBySampleIndex[sampleIndex].length : readsToKeep.size();
+        final double[] result = new double[newAlleleCount * newSampleReadCount];
+        // We initiate all likelihoods to -Inf.
+        Arrays.fill(result, Double.NEGATIVE_INFINITY);
+        // For each old allele and read we update the new table keeping the maximum likelihood.
+        for (int a = 0; a < oldAlleleCount; a++) {
+            final int newAlleleIndex = oldToNewAlleleIndexMap[a];
+            if (newAlleleIndex == -1)
+                continue;
+            final int oldOffset = a * oldStride;
+            final int newOffset = newAlleleIndex * newSampleReadCount;
             for (int r = 0; r < newSampleReadCount; r++) {
-                for (int a = 0; a < oldAlleleCount; a++) {
-                    final int oldReadIndex = newSampleReadCount == sampleReadCount ? r : sampleReadToKeep[r];
-                    final int newAlleleIndex = oldToNewAlleleIndexMap[a];
-                    if (newAlleleIndex == -1)
-                        continue;
-                    final double likelihood = oldSampleValues[a][oldReadIndex];
-                    if (likelihood > newSampleValues[newAlleleIndex][r])
-                        newSampleValues[newAlleleIndex][r] = likelihood;
-                }
+                final double likelihood = oldSampleValues[oldOffset + (readsToKeep == null ? r : readsToKeep.getInt(r))];
+                if (likelihood > result[newOffset + r])
+                    result[newOffset + r] = likelihood;
             }
         }
         return result;
@@ -1030,7 +1012,8 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final int locEnd = location.getStop();
 
         final int alleleCount = alleles.alleleCount();
-        final IntArrayList removeIndices = new IntArrayList(10);
+        final IntArrayList removeIndices = SCRATCH.get().readIndices;
+        removeIndices.clear();
         for (int s = 0; s < sampleCount; s++) {
             final GATKSAMRecord[] sampleReads = readsBySampleIndex[s];
             final int sampleReadCount = sampleReads.length;
@@ -1064,7 +1047,8 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final int sampleCount = samples.sampleCount();
 
         final int alleleCount = alleles.alleleCount();
-        final IntArrayList removeIndices = new IntArrayList(10);
+        final IntArrayList removeIndices = SCRATCH.get().readIndices;
+        removeIndices.clear();
         for (int s = 0; s < sampleCount; s++) {
             final GATKSAMRecord[] sampleReads = readsBySampleIndex[s];
             final int sampleReadCount = sampleReads.length;
@@ -1085,9 +1069,10 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final double log10MaxLikelihoodForTrueAllele = maxErrorsForRead * log10QualPerBase;
 
         final int alleleCount = alleles.alleleCount();
-        final double[][] sampleValues = valuesBySampleIndex[sampleIndex];
+        final double[] sampleValues = valuesBySampleIndex[sampleIndex];
+        final int stride = readCapacityBySampleIndex[sampleIndex];
         for (int a = 0; a < alleleCount; a++)
-            if (sampleValues[a][readIndex] >= log10MaxLikelihoodForTrueAllele)
+            if (sampleValues[a * stride + readIndex] >= log10MaxLikelihoodForTrueAllele)
                 return false;
         return true;
     }
@@ -1126,15 +1111,26 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         }
     }
 
-    // Extends the likelihood arrays-matrices.
+    // Extends the likelihood arrays-matrices; the existing array is reused if its read capacity is large enough.
     private void extendsLikelihoodArrays(double initialLikelihood, int sampleIndex, int sampleReadCount, int newSampleReadCount) {
-        final double[][] sampleValues = valuesBySampleIndex[sampleIndex];
         final int alleleCount = alleles.alleleCount();
-        for (int a = 0; a < alleleCount; a++)
-            sampleValues[a] = Arrays.copyOf(sampleValues[a], newSampleReadCount);
-        if (initialLikelihood != 0.0) // the default array new value.
+        final int stride = readCapacityBySampleIndex[sampleIndex];
+        if (newSampleReadCount <= stride) {
+            // slots past the read count may hold likelihoods of removed reads, so they must always be overwritten.
+            final double[] sampleValues = valuesBySampleIndex[sampleIndex];
             for (int a = 0; a < alleleCount; a++)
-                Arrays.fill(sampleValues[a],sampleReadCount,newSampleReadCount,initialLikelihood);
+                Arrays.fill(sampleValues, a * stride + sampleReadCount, a * stride + newSampleReadCount, initialLikelihood);
+        } else {
+            final double[] oldSampleValues = valuesBySampleIndex[sampleIndex];
+            final double[] newSampleValues = new double[alleleCount * newSampleReadCount];
+            for (int a = 0; a < alleleCount; a++) {
+                System.arraycopy(oldSampleValues, a * stride, newSampleValues, a * newSampleReadCount, sampleReadCount);
+                if (initialLikelihood != 0.0) // the default array new value.
+                    Arrays.fill(newSampleValues, a * newSampleReadCount + sampleReadCount, (a + 1) * newSampleReadCount, initialLikelihood);
+            }
+            valuesBySampleIndex[sampleIndex] = newSampleValues;
+            readCapacityBySampleIndex[sampleIndex] = newSampleReadCount;
+        }
     }
 
     // Append the new read reference into the structure per-sample.
@@ -1206,16 +1202,17 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final int nonRefAlleleIndex = alleleIndex((A) GATKVCFConstants.NON_REF_SYMBOLIC_ALLELE);
         final int concreteAlleleCount = nonRefAlleleIndex < 0 ? alleleCount : alleleCount - 1;
         // likelihood buffer reused across reads:
-        final double[] qualifiedAlleleLikelihoods = new double[concreteAlleleCount];
+        final double[] qualifiedAlleleLikelihoods = SCRATCH.get().alleleLikelihoods(concreteAlleleCount);
         final Median medianCalculator = new Median();
         for (int s = 0; s < samples.sampleCount(); s++) {
-            final double[][] sampleValues = valuesBySampleIndex[s];
-            final int readCount = sampleValues[0].length;
+            final double[] sampleValues = valuesBySampleIndex[s];
+            final int stride = readCapacityBySampleIndex[s];
+            final int readCount = readsBySampleIndex[s].length;
             for (int r = 0; r < readCount; r++) {
                 final BestAllele bestAllele = searchBestAllele(s, r, true);
                 int numberOfQualifiedAlleleLikelihoods = 0;
                 for (int i = 0; i < alleleCount; i++) {
-                    final double alleleLikelihood = sampleValues[i][r];
+                    final double alleleLikelihood = sampleValues[i * stride + r];
                     if (i != nonRefAlleleIndex && alleleLikelihood < bestAllele.likelihood
                             && !Double.isNaN(alleleLikelihood) && allelesToConsider.alleleIndex(alleles.alleleAt(i)) != -1) {
                         qualifiedAlleleLikelihoods[numberOfQualifiedAlleleLikelihoods++] = alleleLikelihood;
@@ -1226,7 +1223,7 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
                 // so the read is not informative at all given the existing alleles. Unless there is only one (or zero) concrete
                 // alleles with give the same (the best) likelihood to the NON-REF. When there is only one (or zero) concrete
                 // alleles we set the NON-REF likelihood to NaN.
-                sampleValues[nonRefAlleleIndex][r] = !Double.isNaN(nonRefLikelihood) ? nonRefLikelihood
+                sampleValues[nonRefAlleleIndex * stride + r] = !Double.isNaN(nonRefLikelihood) ? nonRefLikelihood
                         : concreteAlleleCount <= 1 ? Double.NaN : bestAllele.likelihood;
             }
         }
@@ -1243,7 +1240,8 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
     public void contaminationDownsampling(final Map<String, Double> perSampleDownsamplingFraction) {
 
         final int sampleCount = samples.sampleCount();
-        final IntArrayList readsToRemove = new IntArrayList(10); // blind estimate, can be improved?
+        final IntArrayList readsToRemove = SCRATCH.get().readIndices;
+        readsToRemove.clear();
         final int alleleCount = alleles.alleleCount();
         for (int s = 0; s < sampleCount; s++) {
             final String sample = samples.sampleAt(s);
@@ -1481,28 +1479,35 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         if (indexByRead != null)
             for (int i = 0; i < removeCount; i++)
                 indexByRead.remove(sampleReads[indexToRemove.getInt(i)]);
-        final boolean[] removeIndex = new boolean[sampleReadCount];
-        int firstDeleted = indexToRemove.get(0);
+        final boolean[] removeIndex = SCRATCH.get().readMask(sampleReadCount);
+        int firstDeleted = indexToRemove.getInt(0);
         for (int i = 0; i < removeCount; i++)
-            removeIndex[indexToRemove.get(i)] = true;
+            removeIndex[indexToRemove.getInt(i)] = true;
 
-        final int newSampleReadCount = sampleReadCount - removeCount;
+        skimSampleReads(sampleIndex, removeIndex, firstDeleted, sampleReadCount - removeCount, alleleCount);
+    }
 
+    // Skims out the reads flagged for removal; their likelihoods are compacted in place within each allele row.
+    private void skimSampleReads(final int sampleIndex, final boolean[] removeIndex, final int firstDeleted,
+                                 final int newSampleReadCount, final int alleleCount) {
         // Now we skim out the removed reads from the read array.
         final GATKSAMRecord[] oldSampleReads = readsBySampleIndex[sampleIndex];
+        final int oldSampleReadCount = oldSampleReads.length;
         final GATKSAMRecord[] newSampleReads = new GATKSAMRecord[newSampleReadCount];
 
         System.arraycopy(oldSampleReads,0,newSampleReads,0,firstDeleted);
         Utils.skimArray(oldSampleReads,firstDeleted, newSampleReads, firstDeleted, removeIndex, firstDeleted);
 
         // Then we skim out the likelihoods of the removed reads.
-        final double[][] oldSampleValues = valuesBySampleIndex[sampleIndex];
-        final double[][] newSampleValues = new double[alleleCount][newSampleReadCount];
+        final double[] sampleValues = valuesBySampleIndex[sampleIndex];
+        final int stride = readCapacityBySampleIndex[sampleIndex];
         for (int a = 0; a < alleleCount; a++) {
-            System.arraycopy(oldSampleValues[a],0,newSampleValues[a],0,firstDeleted);
-            Utils.skimArray(oldSampleValues[a], firstDeleted, newSampleValues[a], firstDeleted, removeIndex, firstDeleted);
+            final int offset = a * stride;
+            int nextIndex = offset + firstDeleted;
+            for (int r = firstDeleted; r < oldSampleReadCount; r++)
+                if (!removeIndex[r])
+                    sampleValues[nextIndex++] = sampleValues[offset + r];
         }
-        valuesBySampleIndex[sampleIndex] = newSampleValues;
         readsBySampleIndex[sampleIndex] = newSampleReads;
         readListBySampleIndex[sampleIndex] = null; // reset the unmodifiable list.
     }
@@ -1515,7 +1520,7 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         final Object2IntMap<GATKSAMRecord> indexByRead = readIndexBySampleIndex(sampleIndex);
         // Count how many we are going to remove, which ones (indexes) and remove entry from the read-index map.
-        final boolean[] removeIndex = new boolean[sampleReadCount];
+        final boolean[] removeIndex = SCRATCH.get().readMask(sampleReadCount);
         int removeCount = 0; // captures the number of deletions.
         int firstDeleted = sampleReadCount;    // captures the first position that was deleted.
 
@@ -1538,29 +1543,13 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
             return;
 
         final int newSampleReadCount = sampleReadCount - removeCount;
-
-        // Now we skim out the removed reads from the read array.
-        final GATKSAMRecord[] oldSampleReads = readsBySampleIndex[sampleIndex];
-        final GATKSAMRecord[] newSampleReads = new GATKSAMRecord[newSampleReadCount];
-
-        System.arraycopy(oldSampleReads,0,newSampleReads,0,firstDeleted);
-        Utils.skimArray(oldSampleReads,firstDeleted, newSampleReads, firstDeleted, removeIndex, firstDeleted);
+        skimSampleReads(sampleIndex, removeIndex, firstDeleted, newSampleReadCount, alleleCount);
 
         // Update the indices for the extant reads from the first deletion onwards.
+        final GATKSAMRecord[] newSampleReads = readsBySampleIndex[sampleIndex];
         for (int r = firstDeleted; r < newSampleReadCount; r++) {
             indexByRead.put(newSampleReads[r], r);
         }
-
-        // Then we skim out the likelihoods of the removed reads.
-        final double[][] oldSampleValues = valuesBySampleIndex[sampleIndex];
-        final double[][] newSampleValues = new double[alleleCount][newSampleReadCount];
-        for (int a = 0; a < alleleCount; a++) {
-            System.arraycopy(oldSampleValues[a],0,newSampleValues[a],0,firstDeleted);
-            Utils.skimArray(oldSampleValues[a], firstDeleted, newSampleValues[a], firstDeleted, removeIndex, firstDeleted);
-        }
-        valuesBySampleIndex[sampleIndex] = newSampleValues;
-        readsBySampleIndex[sampleIndex] = newSampleReads;
-        readListBySampleIndex[sampleIndex] = null; // reset the unmodifiable list.
     }
 
     private Object2IntMap<GATKSAMRecord> readIndexBySampleIndex(final int sampleIndex) {
@@ -1604,11 +1593,12 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
         final int alleleCount = alleles.alleleCount();
         final GATKSAMRecord[] sampleReads = readsBySampleIndex[sampleIndex];
         final int sampleReadCount = sampleReads.length;
+        final double[] sampleValues = valuesBySampleIndex[sampleIndex];
+        final int stride = readCapacityBySampleIndex[sampleIndex];
         for (int a = 0; a < alleleCount; a++) {
             final A allele = alleles.alleleAt(a);
-            final double[] readLikelihoods = valuesBySampleIndex[sampleIndex][a];
             for (int r = 0; r < sampleReadCount; r++)
-                result.add(sampleReads[r], allele, readLikelihoods[r]);
+                result.add(sampleReads[r], allele, sampleValues[a * stride + r]);
         }
         return result;
     }
@@ -1636,12 +1626,21 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         @Override
         public void set(final int alleleIndex, final int readIndex, final double value) {
-            valuesBySampleIndex[sampleIndex][alleleIndex][readIndex] = value;
+            valuesBySampleIndex[sampleIndex][valueIndex(alleleIndex, readIndex)] = value;
         }
 
         @Override
         public double get(final int alleleIndex, final int readIndex) {
-            return valuesBySampleIndex[sampleIndex][alleleIndex][readIndex];
+            return valuesBySampleIndex[sampleIndex][valueIndex(alleleIndex, readIndex)];
+        }
+
+        // The flat array may have spare allele rows and read slots so the indices are checked explicitly.
+        private int valueIndex(final int alleleIndex, final int readIndex) {
+            if (alleleIndex < 0 || alleleIndex >= alleles.alleleCount())
+                throw new IllegalArgumentException("invalid allele index: " + alleleIndex);
+            if (readIndex < 0 || readIndex >= readsBySampleIndex[sampleIndex].length)
+                throw new IllegalArgumentException("invalid read index: " + readIndex);
+            return alleleIndex * readCapacityBySampleIndex[sampleIndex] + readIndex;
         }
 
         @Override
@@ -1681,7 +1680,38 @@ public class ReadLikelihoods<A extends Allele> implements SampleList, AlleleList
 
         @Override
         public void copyAlleleLikelihoods(final int alleleIndex, final double[] dest, final int offset) {
-            System.arraycopy(valuesBySampleIndex[sampleIndex][alleleIndex],0,dest,offset,readCount());
+            System.arraycopy(valuesBySampleIndex[sampleIndex],alleleIndex * readCapacityBySampleIndex[sampleIndex],dest,offset,readCount());
+        }
+    }
+
+    /**
+     * Per-thread scratch buffers for operations that only need temporary storage.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final class Scratch {
+        private final IntArrayList readIndices = new IntArrayList(200);
+        private boolean[] readMask = new boolean[0];
+        private double[] alleleLikelihoods = new double[0];
+
+        // Returns a mask of at least the requested size whose first size positions are false.
+        private boolean[] readMask(final int size) {
+            if (readMask.length < size)
+                readMask = new boolean[size];
+            else
+                Arrays.fill(readMask, 0, size, false);
+            return readMask;
+        }
+
+        private double[] alleleLikelihoods(final int size) {
+            if (alleleLikelihoods.length < size)
+                alleleLikelihoods = new double[size];
+            return alleleLikelihoods;
         }
     }
 
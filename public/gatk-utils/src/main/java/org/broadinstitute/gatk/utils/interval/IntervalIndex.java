@@ -0,0 +1,575 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.interval;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable, primitive index over a collection of intervals, partitioned by contig.
+ *
+ * <p>Each interval is stored as a single long with the start in the high 32 bits and the stop in the low 32 bits,
+ * so that the natural ordering of the longs within a contig is the same as the ordering of the equivalent
+ * GenomeLocs.  The intervals of each contig occupy a contiguous, sorted slice of one array, and each slice is
+ * laid out as an implicit augmented interval tree (the in-order layout of a complete binary tree, with the maximum
+ * stop of every subtree stored alongside), so overlap queries cost O(log n + k) even when the intervals themselves
+ * overlap each other.  The maximum stops are only computed on the first overlap query, as indices that are only
+ * used for set operations never need them.</p>
+ *
+ * <p>Set operations (merging, union, intersection and subtraction) stream over the sorted slices and produce new
+ * indices without creating any GenomeLocs.  GenomeLocs are only created when the caller asks for them via
+ * {@link #toGenomeLocs()} or {@link #getGenomeLoc(int)}.</p>
+ *
+ * <p>The unmapped GenomeLoc cannot be indexed; see {@link #canIndex(Collection)}.</p>
+ */
+public final class IntervalIndex {
+    /**
+     * Subtrees at or below this level are scanned linearly rather than descended into.
+     */
+    private static final int LINEAR_SCAN_LEVEL = 3;
+
+    private final GenomeLocParser genomeLocParser;
+
+    /**
+     * Intervals of contig c occupy [contigOffsets[c], contigOffsets[c + 1]) of coordinates
+     */
+    private final int[] contigOffsets;
+
+    /**
+     * start << 32 | stop for every interval, sorted within each contig
+     */
+    private final long[] coordinates;
+
+    private final int nContigs;
+
+    /**
+     * the maximum stop of the subtree rooted at each interval; null until rootLevels is set
+     */
+    private int[] maxStops = null;
+
+    /**
+     * the level of the root of the tree of each contig, or -1 if the contig has no intervals; null until the first
+     * overlap query.  Set after maxStops, so a thread that sees it also sees maxStops.
+     */
+    private volatile int[] rootLevels = null;
+
+    private IntervalIndex(final GenomeLocParser genomeLocParser, final int[] contigOffsets, final long[] coordinates) {
+        this.genomeLocParser = genomeLocParser;
+        this.contigOffsets = contigOffsets;
+        this.coordinates = coordinates;
+        this.nContigs = contigOffsets.length - 1;
+    }
+
+    /**
+     * Can every loc in locs be held by an IntervalIndex?
+     *
+     * @param locs the locs to test
+     * @return true if none of the locs is unmapped
+     */
+    public static boolean canIndex(final Collection<GenomeLoc> locs) {
+        for ( final GenomeLoc loc : locs ) {
+            if ( GenomeLoc.isUnmapped(loc) || loc.getContigIndex() < 0 )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Create an index over the given locs, which can be in any order and can overlap each other.
+     *
+     * @param genomeLocParser the parser that created the locs, used to turn intervals back into GenomeLocs
+     * @param locs the locs to index; none of them may be unmapped
+     * @return a non-null index
+     */
+    public static IntervalIndex create(final GenomeLocParser genomeLocParser, final Collection<GenomeLoc> locs) {
+        if ( genomeLocParser == null ) throw new IllegalArgumentException("genomeLocParser cannot be null");
+        if ( locs == null ) throw new IllegalArgumentException("locs cannot be null");
+
+        final int nContigs = genomeLocParser.getContigs().size();
+        final int[] contigOffsets = new int[nContigs + 1];
+        for ( final GenomeLoc loc : locs ) {
+            if ( GenomeLoc.isUnmapped(loc) || loc.getContigIndex() < 0 || loc.getContigIndex() >= nContigs )
+                throw new IllegalArgumentException("Cannot index the interval " + loc);
+            contigOffsets[loc.getContigIndex() + 1]++;
+        }
+        for ( int contig = 0; contig < nContigs; contig++ )
+            contigOffsets[contig + 1] += contigOffsets[contig];
+
+        final int[] next = Arrays.copyOf(contigOffsets, nContigs);
+        final long[] coordinates = new long[locs.size()];
+        for ( final GenomeLoc loc : locs )
+            coordinates[next[loc.getContigIndex()]++] = encode(loc.getStart(), loc.getStop());
+        sortContigs(contigOffsets, coordinates);
+
+        return new IntervalIndex(genomeLocParser, contigOffsets, coordinates);
+    }
+
+    /**
+     * @return the parser used to create GenomeLocs from this index
+     */
+    public GenomeLocParser getGenomeLocParser() {
+        return genomeLocParser;
+    }
+
+    /**
+     * @return the number of intervals in this index
+     */
+    public int size() {
+        return coordinates.length;
+    }
+
+    public boolean isEmpty() {
+        return coordinates.length == 0;
+    }
+
+    /**
+     * @param contigIndex the index of a contig in the sequence dictionary
+     * @return the number of intervals on that contig
+     */
+    public int size(final int contigIndex) {
+        return contigOffsets[contigIndex + 1] - contigOffsets[contigIndex];
+    }
+
+    /**
+     * @param i the index of an interval, between 0 and size() - 1
+     * @return the contig index of the i-th interval
+     */
+    public int getContigIndex(final int i) {
+        // the last contig whose first interval is at or before i
+        int low = 0, high = contigOffsets.length - 2;
+        while ( low < high ) {
+            final int mid = (low + high + 1) >>> 1;
+            if ( contigOffsets[mid] <= i )
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    public int getStart(final int i) {
+        return start(coordinates[i]);
+    }
+
+    public int getStop(final int i) {
+        return stop(coordinates[i]);
+    }
+
+    /**
+     * @param i the index of an interval, between 0 and size() - 1
+     * @return a newly created GenomeLoc for the i-th interval
+     */
+    public GenomeLoc getGenomeLoc(final int i) {
+        return createGenomeLoc(getContigIndex(i), coordinates[i]);
+    }
+
+    /**
+     * @return all of the intervals in this index, in GenomeLoc order
+     */
+    public List<GenomeLoc> toGenomeLocs() {
+        final List<GenomeLoc> locs = new ArrayList<>(coordinates.length);
+        for ( int contig = 0; contig < nContigs; contig++ ) {
+            for ( int i = contigOffsets[contig]; i < contigOffsets[contig + 1]; i++ )
+                locs.add(createGenomeLoc(contig, coordinates[i]));
+        }
+        return locs;
+    }
+
+    /**
+     * @return the number of bases covered by the intervals, counting bases covered by more than one interval repeatedly
+     */
+    public long coveredSize() {
+        long size = 0;
+        for ( final long interval : coordinates )
+            size += stop(interval) - start(interval) + 1;
+        return size;
+    }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // overlap queries
+    //
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * Does any interval in this index overlap loc?
+     *
+     * @param loc the query location
+     * @return true if any interval shares at least one base with loc
+     */
+    public boolean overlaps(final GenomeLoc loc) {
+        return overlaps(loc.getContigIndex(), loc.getStart(), loc.getStop());
+    }
+
+    /**
+     * Does any interval in this index overlap contigIndex:start-stop?
+     */
+    public boolean overlaps(final int contigIndex, final int start, final int stop) {
+        return ! visitOverlapping(contigIndex, start, stop, i -> false);
+    }
+
+    /**
+     * @return the number of intervals in this index that overlap contigIndex:start-stop
+     */
+    public int countOverlapping(final int contigIndex, final int start, final int stop) {
+        final int[] count = new int[1];
+        forEachOverlapping(contigIndex, start, stop, i -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * @param loc the query location
+     * @return a newly created GenomeLoc for each interval overlapping loc, in GenomeLoc order
+     */
+    public List<GenomeLoc> getOverlapping(final GenomeLoc loc) {
+        final List<GenomeLoc> overlapping = new ArrayList<>();
+        final int contig = loc.getContigIndex();
+        forEachOverlapping(contig, loc.getStart(), loc.getStop(), i -> overlapping.add(createGenomeLoc(contig, coordinates[i])));
+        return overlapping;
+    }
+
+    /**
+     * Visit every interval overlapping contigIndex:start-stop, in order
+     *
+     * @param contigIndex the contig of the query
+     * @param start the first base of the query
+     * @param stop the last base of the query
+     * @param action called with the index of each overlapping interval, suitable for {@link #getStart(int)} etc.
+     */
+    public void forEachOverlapping(final int contigIndex, final int start, final int stop, final IntConsumer action) {
+        visitOverlapping(contigIndex, start, stop, i -> { action.accept(i); return true; });
+    }
+
+    /**
+     * Walk the tree of contigIndex in order, calling visitor on each interval overlapping start-stop
+     *
+     * @param visitor returns false to stop the walk
+     * @return false if the walk was stopped by the visitor, true otherwise
+     */
+    private boolean visitOverlapping(final int contigIndex, final int start, final int stop, final IntPredicate visitor) {
+        if ( contigIndex < 0 || contigIndex >= nContigs || contigOffsets[contigIndex] == contigOffsets[contigIndex + 1] )
+            return true;
+
+        final int[] rootLevels = getRootLevels();
+
+        final int offset = contigOffsets[contigIndex];
+        final int n = contigOffsets[contigIndex + 1] - offset;
+
+        // each stack entry is x << 32 | level << 1 | leftDone, where x is the in-order position of a tree node
+        final long[] stack = new long[64];
+        int top = 0;
+        final int rootLevel = rootLevels[contigIndex];
+        stack[top++] = node((1 << rootLevel) - 1, rootLevel, false);
+        while ( top > 0 ) {
+            final long entry = stack[--top];
+            final int x = (int) (entry >>> 32);
+            final int level = ((int) entry) >>> 1;
+
+            if ( level <= LINEAR_SCAN_LEVEL ) {
+                // scan the whole (small) subtree in order
+                final int first = x >> level << level;
+                final int last = Math.min(first + (1 << (level + 1)) - 1, n);
+                for ( int i = offset + first; i < offset + last && start(coordinates[i]) <= stop; i++ ) {
+                    if ( stop(coordinates[i]) >= start && ! visitor.test(i) )
+                        return false;
+                }
+            } else if ( (entry & 1) == 0 ) {
+                // come back to this node once its left subtree has been visited
+                final int left = x - (1 << (level - 1));
+                stack[top++] = node(x, level, true);
+                if ( left >= n || maxStops[offset + left] >= start )
+                    stack[top++] = node(left, level - 1, false);
+            } else if ( x < n && start(coordinates[offset + x]) <= stop ) {
+                if ( stop(coordinates[offset + x]) >= start && ! visitor.test(offset + x) )
+                    return false;
+                stack[top++] = node(x + (1 << (level - 1)), level - 1, false);
+            }
+        }
+        return true;
+    }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // set operations
+    //
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * Merge the overlapping (and, if requested, abutting) intervals of this index, exactly as
+     * {@link IntervalUtils#mergeIntervalLocations(List, IntervalMergingRule)} does for a sorted list of GenomeLocs.
+     *
+     * @param rule the merging rule; null means ALL
+     * @return a new index of disjoint intervals
+     */
+    public IntervalIndex merge(final IntervalMergingRule rule) {
+        final boolean mergeAbutting = rule == null || rule == IntervalMergingRule.ALL;
+        final Builder builder = new Builder(nContigs, coordinates.length);
+        for ( int contig = 0; contig < nContigs; contig++ ) {
+            final int end = contigOffsets[contig + 1];
+            int i = contigOffsets[contig];
+            while ( i < end ) {
+                final int start = start(coordinates[i]);
+                int stop = stop(coordinates[i]);
+                for ( i++; i < end; i++ ) {
+                    final int nextStart = start(coordinates[i]);
+                    if ( nextStart > stop + 1 || (nextStart == stop + 1 && ! mergeAbutting) )
+                        break;
+                    stop = Math.max(stop, stop(coordinates[i]));
+                }
+                builder.add(contig, start, stop);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param other another index over the same sequence dictionary
+     * @return a new index holding the intervals of both this and other, without merging any of them
+     */
+    public IntervalIndex union(final IntervalIndex other) {
+        checkCompatible(other);
+        final Builder builder = new Builder(nContigs, coordinates.length + other.coordinates.length);
+        for ( int contig = 0; contig < nContigs; contig++ ) {
+            int i = contigOffsets[contig], j = other.contigOffsets[contig];
+            final int iEnd = contigOffsets[contig + 1], jEnd = other.contigOffsets[contig + 1];
+            while ( i < iEnd || j < jEnd ) {
+                if ( j == jEnd || (i < iEnd && coordinates[i] <= other.coordinates[j]) )
+                    builder.add(contig, coordinates[i++]);
+                else
+                    builder.add(contig, other.coordinates[j++]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Intersect the intervals of this index with those of other, walking both in order as
+     * {@link IntervalUtils#mergeListsBySetOperator(List, List, IntervalSetRule)} does: every pair of overlapping
+     * intervals met along the way contributes its intersection, and the interval that ends first is then passed.
+     *
+     * @param other another index over the same sequence dictionary
+     * @return a new index of the intersections, which may itself be empty
+     */
+    public IntervalIndex intersect(final IntervalIndex other) {
+        checkCompatible(other);
+        final Builder builder = new Builder(nContigs, Math.max(coordinates.length, other.coordinates.length));
+        for ( int contig = 0; contig < nContigs; contig++ ) {
+            int i = contigOffsets[contig], j = other.contigOffsets[contig];
+            final int iEnd = contigOffsets[contig + 1], jEnd = other.contigOffsets[contig + 1];
+            while ( i < iEnd && j < jEnd ) {
+                final long mine = coordinates[i], theirs = other.coordinates[j];
+                if ( stop(theirs) < start(mine) )
+                    j++;
+                else if ( stop(mine) < start(theirs) )
+                    i++;
+                else {
+                    builder.add(contig, Math.max(start(mine), start(theirs)), Math.min(stop(mine), stop(theirs)));
+                    if ( stop(mine) < stop(theirs) ) i++;
+                    else j++;
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Remove every base covered by other from the intervals of this index.  Each interval of this index is
+     * replaced by the pieces of it that remain, so intervals that abut in this index are never joined.
+     *
+     * @param other another index over the same sequence dictionary
+     * @return a new index of what remains
+     */
+    public IntervalIndex subtract(final IntervalIndex other) {
+        checkCompatible(other);
+        final IntervalIndex toRemove = other.merge(IntervalMergingRule.OVERLAPPING_ONLY);
+        final Builder builder = new Builder(nContigs, coordinates.length);
+        for ( int contig = 0; contig < nContigs; contig++ ) {
+            int j = toRemove.contigOffsets[contig];
+            final int jEnd = toRemove.contigOffsets[contig + 1];
+            for ( int i = contigOffsets[contig]; i < contigOffsets[contig + 1]; i++ ) {
+                int start = start(coordinates[i]);
+                final int stop = stop(coordinates[i]);
+
+                // removed intervals ending before this one starts can't affect any later interval either
+                while ( j < jEnd && stop(toRemove.coordinates[j]) < start )
+                    j++;
+
+                for ( int k = j; k < jEnd && start <= stop && start(toRemove.coordinates[k]) <= stop; k++ ) {
+                    final int removedStart = start(toRemove.coordinates[k]);
+                    if ( removedStart > start )
+                        builder.add(contig, start, removedStart - 1);
+                    start = Math.max(start, stop(toRemove.coordinates[k]) + 1);
+                }
+                if ( start <= stop )
+                    builder.add(contig, start, stop);
+            }
+        }
+        return builder.build();
+    }
+
+    private void checkCompatible(final IntervalIndex other) {
+        if ( other.nContigs != nContigs )
+            throw new IllegalArgumentException("Cannot combine interval indices over sequence dictionaries with different numbers of contigs");
+    }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // implementation
+    //
+    // -------------------------------------------------------------------------------------
+
+    private static long encode(final int start, final int stop) {
+        return ((long) start << 32) | (stop & 0xFFFFFFFFL);
+    }
+
+    private static int start(final long interval) {
+        return (int) (interval >> 32);
+    }
+
+    private static int stop(final long interval) {
+        return (int) interval;
+    }
+
+    private static long node(final int x, final int level, final boolean leftDone) {
+        return ((long) x << 32) | (level << 1) | (leftDone ? 1 : 0);
+    }
+
+    private GenomeLoc createGenomeLoc(final int contig, final long interval) {
+        final SAMSequenceDictionary dictionary = genomeLocParser.getContigs();
+        return genomeLocParser.createGenomeLoc(dictionary.getSequence(contig).getSequenceName(), contig, start(interval), stop(interval));
+    }
+
+    private static void sortContigs(final int[] contigOffsets, final long[] coordinates) {
+        for ( int contig = 0; contig < contigOffsets.length - 1; contig++ ) {
+            final int from = contigOffsets[contig], to = contigOffsets[contig + 1];
+            for ( int i = from + 1; i < to; i++ ) {
+                if ( coordinates[i] < coordinates[i - 1] ) {
+                    Arrays.sort(coordinates, from, to);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the level of the root of the tree of each contig, building the trees on the first call
+     */
+    private int[] getRootLevels() {
+        int[] levels = rootLevels;
+        if ( levels == null ) {
+            synchronized ( this ) {
+                levels = rootLevels;
+                if ( levels == null ) {
+                    final int[] stops = new int[coordinates.length];
+                    levels = new int[nContigs];
+                    for ( int contig = 0; contig < nContigs; contig++ )
+                        levels[contig] = buildAugmentedTree(stops, contigOffsets[contig], contigOffsets[contig + 1] - contigOffsets[contig]);
+                    maxStops = stops;
+                    rootLevels = levels;
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Compute the maxStops of the implicit tree over the n intervals starting at offset.  Leaves are the even
+     * positions, and the nodes at level k are the positions whose lowest k bits are all set.
+     *
+     * @param maxStops the array to fill in
+     * @return the level of the root of the tree, or -1 if n == 0
+     */
+    private int buildAugmentedTree(final int[] maxStops, final int offset, final int n) {
+        if ( n == 0 )
+            return -1;
+
+        // the rightmost node at the current level, and the max stop of its subtree
+        int lastNode = 0;
+        int lastMaxStop = 0;
+        for ( int i = 0; i < n; i += 2 ) {
+            lastNode = i;
+            lastMaxStop = maxStops[offset + i] = stop(coordinates[offset + i]);
+        }
+
+        int level;
+        for ( level = 1; (1L << level) <= n; level++ ) {
+            final int half = 1 << (level - 1);
+            for ( int i = (half << 1) - 1; i < n; i += half << 2 ) {
+                final int leftMaxStop = maxStops[offset + i - half];
+                final int rightMaxStop = i + half < n ? maxStops[offset + i + half] : lastMaxStop;
+                maxStops[offset + i] = Math.max(stop(coordinates[offset + i]), Math.max(leftMaxStop, rightMaxStop));
+            }
+            // move up to the parent of the last node, which may lie beyond the end of the array
+            lastNode = ((lastNode >> level) & 1) != 0 ? lastNode - half : lastNode + half;
+            if ( lastNode < n && maxStops[offset + lastNode] > lastMaxStop )
+                lastMaxStop = maxStops[offset + lastNode];
+        }
+        return level - 1;
+    }
+
+    /**
+     * Accumulates intervals contig by contig, in contig order, into a new index
+     */
+    private final class Builder {
+        private final int[] contigOffsets;
+        private long[] coordinates;
+        private int size = 0;
+        private int currentContig = 0;
+
+        private Builder(final int nContigs, final int expectedSize) {
+            contigOffsets = new int[nContigs + 1];
+            coordinates = new long[Math.max(expectedSize, 16)];
+        }
+
+        private void add(final int contig, final int start, final int stop) {
+            add(contig, encode(start, stop));
+        }
+
+        private void add(final int contig, final long interval) {
+            while ( currentContig < contig )
+                contigOffsets[++currentContig] = size;
+            if ( size == coordinates.length )
+                coordinates = Arrays.copyOf(coordinates, size * 2);
+            coordinates[size++] = interval;
+        }
+
+        private IntervalIndex build() {
+            while ( currentContig < contigOffsets.length - 1 )
+                contigOffsets[++currentContig] = size;
+            final long[] built = Arrays.copyOf(coordinates, size);
+            sortContigs(contigOffsets, built);
+            return new IntervalIndex(genomeLocParser, contigOffsets, built);
+        }
+    }
+}
@@ -212,7 +212,9 @@ public class IntervalUtils {
             return Collections.unmodifiableList(retList);
         }
 
-        // else we're INTERSECTION, create two indexes into the lists
+        // else we're INTERSECTION, create two indexes into the lists, which must be cheap to get() from
+        if ( ! (setOne instanceof RandomAccess) ) setOne = new ArrayList<GenomeLoc>(setOne);
+        if ( ! (setTwo instanceof RandomAccess) ) setTwo = new ArrayList<GenomeLoc>(setTwo);
         int iOne = 0;
         int iTwo = 0;
 
@@ -250,6 +252,9 @@ public class IntervalUtils {
      * @return A sorted, merged version of the intervals passed in.
      */
     public static GenomeLocSortedSet sortAndMergeIntervals(GenomeLocParser parser, List<GenomeLoc> intervals, IntervalMergingRule mergingRule) {
+        if ( IntervalIndex.canIndex(intervals) )
+            return GenomeLocSortedSet.createSetFromIndex(IntervalIndex.create(parser, intervals).merge(mergingRule));
+
         // Make a copy of the (potentially unmodifiable) list to be sorted
         intervals = new ArrayList<GenomeLoc>(intervals);
         // sort raw interval list
@@ -667,7 +672,8 @@ public class IntervalUtils {
             final List<IntervalBinding<Feature>> intervalBindings,
             final IntervalSetRule rule, final IntervalMergingRule intervalMergingRule, final int padding,
             final GenomeLocParser genomeLocParser) {
-        List<GenomeLoc> allIntervals = new ArrayList<GenomeLoc>();
+        final List<List<GenomeLoc>> intervalLists = new ArrayList<List<GenomeLoc>>(intervalBindings.size());
+        boolean canIndex = true;
         for ( IntervalBinding intervalBinding : intervalBindings) {
             @SuppressWarnings("unchecked")
             List<GenomeLoc> intervals = intervalBinding.getIntervals(genomeLocParser);
@@ -680,10 +686,42 @@ public class IntervalUtils {
                 intervals = getIntervalsWithFlanks(genomeLocParser, intervals, padding);
             }
 
-            allIntervals = mergeListsBySetOperator(intervals, allIntervals, rule);
+            intervalLists.add(intervals);
+            canIndex &= IntervalIndex.canIndex(intervals);
+        }
+
+        // the unmapped interval can't be indexed, so fall back to combining the lists themselves
+        if ( ! canIndex ) {
+            List<GenomeLoc> allIntervals = new ArrayList<GenomeLoc>();
+            for ( final List<GenomeLoc> intervals : intervalLists )
+                allIntervals = mergeListsBySetOperator(intervals, allIntervals, rule);
+            return sortAndMergeIntervals(genomeLocParser, allIntervals, intervalMergingRule);
         }
 
-        return sortAndMergeIntervals(genomeLocParser, allIntervals, intervalMergingRule);
+        IntervalIndex allIntervals = IntervalIndex.create(genomeLocParser, Collections.<GenomeLoc>emptyList());
+        for ( final List<GenomeLoc> intervals : intervalLists )
+            allIntervals = mergeIndicesBySetOperator(IntervalIndex.create(genomeLocParser, intervals), allIntervals, rule);
+
+        return GenomeLocSortedSet.createSetFromIndex(allIntervals.merge(intervalMergingRule));
+    }
+
+    /**
+     * The equivalent of {@link #mergeListsBySetOperator(List, List, IntervalSetRule)} for interval indices
+     */
+    private static IntervalIndex mergeIndicesBySetOperator(final IntervalIndex setOne, final IntervalIndex setTwo, final IntervalSetRule rule) {
+        // shortcut, if either set is zero, return the other set
+        if ( setOne.isEmpty() )
+            return setTwo;
+        if ( setTwo.isEmpty() )
+            return setOne;
+
+        if ( rule == null || rule == IntervalSetRule.UNION )
+            return setOne.union(setTwo);
+
+        final IntervalIndex intersection = setOne.intersect(setTwo);
+        if ( intersection.isEmpty() )
+            throw new UserException.BadInput("The INTERSECTION of your -L options produced no intervals.");
+        return intersection;
     }
 
     private final static class SplitLocusRecursive {
@@ -31,6 +31,7 @@ import com.google.java.contract.Requires;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
+import org.broadinstitute.gatk.utils.GenomeCoordinate;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
@@ -171,6 +172,14 @@ public class AlignmentStateMachine {
         return read.getAlignmentStart() + getGenomeOffset();
     }
 
+    /**
+     * Gets #getGenomePosition on the read's contig as a coordinate packed by {@link GenomeCoordinate}
+     * @return the packed coordinate of the current state, which requires no allocation
+     */
+    public long getGenomeCoordinate() {
+        return GenomeCoordinate.encode(read.getReferenceIndex(), getGenomePosition());
+    }
+
     /**
      * Gets #getGenomePosition but as a 1 bp GenomeLoc
      * @param genomeLocParser the parser to use to create the genome loc
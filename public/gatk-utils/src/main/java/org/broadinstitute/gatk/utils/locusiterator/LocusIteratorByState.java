@@ -35,6 +35,7 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.downsampling.DownsampleType;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecordIterator;
+import org.broadinstitute.gatk.utils.GenomeCoordinate;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.downsampling.DownsamplingMethod;
@@ -114,6 +115,14 @@ public final class LocusIteratorByState extends LocusIterator {
      */
     private AlignmentContext nextAlignmentContext;
 
+    /**
+     * Scratch space holding the pileup elements of a single sample while they are collected at the current locus.
+     *
+     * Pileups escape to the caller, so their element lists can't be reused, but collecting into this
+     * buffer (which only grows) lets us allocate each per sample element list at exactly the right size.
+     */
+    private PileupElement[] pileupElementBuffer = new PileupElement[0];
+
     // -----------------------------------------------------------------------------------------------------------------
     //
     // constructors and other basic operations
@@ -210,15 +219,16 @@ public final class LocusIteratorByState extends LocusIterator {
     }
 
     /**
-     * Get the current location (i.e., the bp of the center of the pileup) of the pileup, or null if not anywhere yet
+     * Get the current location (i.e., the bp of the center of the pileup) of the pileup as a packed coordinate,
+     * so that no GenomeLoc is created for positions where nothing piles up
      *
      * Assumes that read states is updated to reflect the current pileup position, but not advanced to the
      * next location.
      *
-     * @return the location of the current pileup, or null if we're after all reads
+     * @return the packed coordinate of the current pileup, or GenomeCoordinate.NO_COORDINATE if we're after all reads
      */
-    private GenomeLoc getLocation() {
-        return readStates.isEmpty() ? null : readStates.getFirst().getLocation(genomeLocParser);
+    private long getCoordinate() {
+        return readStates.isEmpty() ? GenomeCoordinate.NO_COORDINATE : readStates.getFirst().getGenomeCoordinate();
     }
 
     // -----------------------------------------------------------------------------------------------------------------
@@ -294,39 +304,55 @@ public final class LocusIteratorByState extends LocusIterator {
         while (nextAlignmentContext == null && readStates.hasNext()) {
             readStates.collectPendingReads();
 
-            final GenomeLoc location = getLocation();
-            final Map<String, ReadBackedPileupImpl> fullPileup = new HashMap<String, ReadBackedPileupImpl>();
-
-            for (final Map.Entry<String, PerSampleReadStateManager> sampleStatePair : readStates ) {
-                final String sample = sampleStatePair.getKey();
-                final PerSampleReadStateManager readState = sampleStatePair.getValue();
-                final Iterator<AlignmentStateMachine> iterator = readState.iterator();
-                final List<PileupElement> pile = new ArrayList<PileupElement>(readState.size());
-
-                while (iterator.hasNext()) {
+            // only create the GenomeLoc of this position if something actually piles up here
+            final long coordinate = getCoordinate();
+            final int position = GenomeCoordinate.getPosition(coordinate);
+            GenomeLoc location = null;
+            Map<String, ReadBackedPileupImpl> fullPileup = null;
+
+            for ( int sampleIndex = 0; sampleIndex < readStates.getNSamples(); sampleIndex++ ) {
+                final PerSampleReadStateManager readState = readStates.getReadStatesForSample(sampleIndex);
+                final int nStates = readState.size();
+                if ( nStates == 0 )
+                    continue;
+                if ( pileupElementBuffer.length < nStates )
+                    pileupElementBuffer = new PileupElement[Math.max(nStates, 2 * pileupElementBuffer.length)];
+                int pileSize = 0;
+
+                for ( int stateIndex = 0; stateIndex < nStates; stateIndex++ ) {
                     // state object with the read/offset information
-                    final AlignmentStateMachine state = iterator.next();
+                    final AlignmentStateMachine state = readState.get(stateIndex);
                     final GATKSAMRecord read = state.getRead();
                     final CigarOperator op = state.getCigarOperator();
 
                     if (op == CigarOperator.N) // N's are never added to any pileup
                         continue;
 
-                    if (!dontIncludeReadInPileup(read, location.getStart())) {
+                    if (!dontIncludeReadInPileup(read, position)) {
                         if ( ! includeReadsWithDeletionAtLoci && op == CigarOperator.D ) {
                             continue;
                         }
 
-                        pile.add(state.makePileupElement());
+                        pileupElementBuffer[pileSize++] = state.makePileupElement();
                     }
                 }
 
-                if (! pile.isEmpty() ) // if this pileup added at least one base, add it to the full pileup
-                    fullPileup.put(sample, new ReadBackedPileupImpl(location, pile));
+                if ( pileSize > 0 ) { // if this pileup added at least one base, add it to the full pileup
+                    final List<PileupElement> pile = new ArrayList<PileupElement>(pileSize);
+                    for ( int i = 0; i < pileSize; i++ ) {
+                        pile.add(pileupElementBuffer[i]);
+                        pileupElementBuffer[i] = null;
+                    }
+                    if ( fullPileup == null ) {
+                        fullPileup = new HashMap<String, ReadBackedPileupImpl>();
+                        location = genomeLocParser.createGenomeLoc(coordinate);
+                    }
+                    fullPileup.put(readStates.getSample(sampleIndex), new ReadBackedPileupImpl(location, pile));
+                }
             }
 
             readStates.updateReadStates(); // critical - must be called after we get the current state offsets and location
-            if (!fullPileup.isEmpty()) // if we got reads with non-D/N over the current position, we are done
+            if (fullPileup != null) // if we got reads with non-D/N over the current position, we are done
                 nextAlignmentContext = new AlignmentContext(location, new ReadBackedPileupImpl(location, fullPileup), false);
         }
     }
@@ -30,16 +30,18 @@ import com.google.java.contract.Invariant;
 import com.google.java.contract.Requires;
 import htsjdk.samtools.CigarOperator;
 import org.apache.log4j.Logger;
-import org.broadinstitute.gatk.utils.downsampling.Downsampler;
+import org.broadinstitute.gatk.utils.MathUtils;
 import org.broadinstitute.gatk.utils.downsampling.LevelingDownsampler;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 /**
  * ReadStateManager for a single sample
  *
+ * The alignment state machines are held in a flat array ordered by alignment start, which is
+ * compacted in place as reads fall off the current position and leveled in place when
+ * downsampling, so that advancing from one locus to the next doesn't allocate.
+ *
  * User: depristo
  * Date: 1/13/13
  * Time: 12:28 PM
@@ -47,6 +49,7 @@ import java.util.List;
 @Invariant({
         "readStartsAreWellOrdered()",
         "! isDownsampling() || downsamplingTarget > 0",
+        "nReadStates >= 0",
         "nSites >= 0",
         "nSitesNeedingDownsampling >= 0",
         "nSitesNeedingDownsampling <= nSites"
@@ -54,18 +57,32 @@ import java.util.List;
 final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine> {
     private final static Logger logger = Logger.getLogger(ReadStateManager.class);
     private final static boolean CAPTURE_DOWNSAMPLING_STATS = false;
+    private final static int INITIAL_CAPACITY = 64;
 
     /**
-     * A list (potentially empty) of alignment state machines.
+     * An array (potentially empty) of alignment state machines, of which only the first nReadStates are in use.
      *
      * The state machines must be ordered by the alignment start of their underlying reads, with the
      * lowest alignment starts on the left, and the largest on the right
      */
-    private LinkedList<AlignmentStateMachine> readStatesByAlignmentStart = new LinkedList<AlignmentStateMachine>();
+    private AlignmentStateMachine[] readStatesByAlignmentStart = new AlignmentStateMachine[INITIAL_CAPACITY];
+
+    /**
+     * The number of state machines in readStatesByAlignmentStart
+     */
+    private int nReadStates = 0;
 
-    private final Downsampler<LinkedList<AlignmentStateMachine>> levelingDownsampler;
+    private final boolean performDownsampling;
     private final int downsamplingTarget;
 
+    /**
+     * Scratch space for leveling: the original size of each group of states sharing an alignment start,
+     * the number of states to keep from each group, and which states of a group have been selected
+     */
+    private int[] groupSizes = new int[INITIAL_CAPACITY];
+    private int[] keptGroupSizes = new int[INITIAL_CAPACITY];
+    private final BitSet itemsToKeep = new BitSet();
+
     /**
      * The number of sites where downsampling has been invoked
      */
@@ -81,50 +98,8 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @param LIBSDownsamplingInfo the downsampling params we want to use
      */
     public PerSampleReadStateManager(final LIBSDownsamplingInfo LIBSDownsamplingInfo) {
-        this.downsamplingTarget = LIBSDownsamplingInfo.isPerformDownsampling() ? LIBSDownsamplingInfo.getToCoverage() : -1;
-        this.levelingDownsampler = LIBSDownsamplingInfo.isPerformDownsampling()
-                ? new LevelingDownsampler<LinkedList<AlignmentStateMachine>, AlignmentStateMachine>(LIBSDownsamplingInfo.getToCoverage())
-                : null;
-    }
-
-    /**
-     * Group the underlying readStatesByAlignmentStart into a list of list of alignment state machines,
-     * where each list contains machines with a unique genome site.  The outer list is ordered
-     * by alignment start.
-     *
-     * For example, if the flat list has alignment starts [10, 10, 11, 12, 12, 13] then
-     * the resulting grouping will be [[10, 10], [11], [12, 12], [13]].
-     *
-     * @return a non-null list of lists
-     */
-    @Ensures("result != null")
-    private List<LinkedList<AlignmentStateMachine>> groupByAlignmentStart() {
-        final LinkedList<LinkedList<AlignmentStateMachine>> grouped = new LinkedList<LinkedList<AlignmentStateMachine>>();
-
-        AlignmentStateMachine last = null;
-        for ( final AlignmentStateMachine stateMachine : readStatesByAlignmentStart ) {
-            if ( last == null || stateMachine.getGenomeOffset() != last.getGenomeOffset() ) {
-                // we've advanced to a place where the state machine has a different state,
-                // so start a new list
-                grouped.add(new LinkedList<AlignmentStateMachine>());
-                last = stateMachine;
-            }
-            grouped.getLast().add(stateMachine);
-        }
-
-        return grouped;
-    }
-
-    /**
-     * Flattens the grouped list of list of alignment state machines into a single list in order
-     * @return a non-null list contains the state machines
-     */
-    @Ensures("result != null")
-    private LinkedList<AlignmentStateMachine> flattenByAlignmentStart(final List<LinkedList<AlignmentStateMachine>> grouped) {
-        final LinkedList<AlignmentStateMachine> flat = new LinkedList<AlignmentStateMachine>();
-        for ( final List<AlignmentStateMachine> l : grouped )
-            flat.addAll(l);
-        return flat;
+        this.performDownsampling = LIBSDownsamplingInfo.isPerformDownsampling();
+        this.downsamplingTarget = performDownsampling ? LIBSDownsamplingInfo.getToCoverage() : -1;
     }
 
     /**
@@ -133,44 +108,113 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     private boolean readStartsAreWellOrdered() {
         int lastStart = -1;
-        for ( final AlignmentStateMachine machine : readStatesByAlignmentStart ) {
-            if ( lastStart > machine.getRead().getAlignmentStart() )
+        for ( int i = 0; i < nReadStates; i++ ) {
+            final int start = readStatesByAlignmentStart[i].getRead().getAlignmentStart();
+            if ( lastStart > start )
                 return false;
-            lastStart = machine.getRead().getAlignmentStart();
+            lastStart = start;
         }
         return true;
     }
 
     /**
-     * Assumes it can just keep the states linked lists without making a copy
+     * Adds the states to the end of this manager, potentially downsampling all of the states afterwards
+     *
+     * The states list itself isn't retained, so callers are free to reuse it
+     *
      * @param states the new states to add to this manager
      * @return The change in the number of states, after including states and potentially downsampling.  Note
      * that this return result might be negative, if downsampling is enabled, as we might drop
      * more sites than have been added by the downsampler
      */
     @Requires("states != null")
-    public int addStatesAtNextAlignmentStart(final LinkedList<AlignmentStateMachine> states) {
+    public int addStatesAtNextAlignmentStart(final List<AlignmentStateMachine> states) {
         if ( states.isEmpty() ) {
             return 0;
         }
 
-        readStatesByAlignmentStart.addAll(states);
+        ensureCapacity(nReadStates + states.size());
+        for ( final AlignmentStateMachine state : states )
+            readStatesByAlignmentStart[nReadStates++] = state;
         int nStatesAdded = states.size();
 
-        if ( isDownsampling() && readStatesByAlignmentStart.size() > downsamplingTarget ) {
+        if ( isDownsampling() && nReadStates > downsamplingTarget ) {
             // only go into the downsampling branch if we are downsampling and the coverage > the target
             captureDownsamplingStats();
-            levelingDownsampler.submit(groupByAlignmentStart());
-            levelingDownsampler.signalEndOfInput();
+            nStatesAdded -= levelReadStates();
+        }
+
+        return nStatesAdded;
+    }
 
-            nStatesAdded -= levelingDownsampler.getNumberOfDiscardedItems();
+    /**
+     * Grow readStatesByAlignmentStart so that it can hold at least minCapacity states
+     * @param minCapacity the number of states we need to hold
+     */
+    private void ensureCapacity(final int minCapacity) {
+        if ( minCapacity > readStatesByAlignmentStart.length )
+            readStatesByAlignmentStart = Arrays.copyOf(readStatesByAlignmentStart, Math.max(minCapacity, 2 * readStatesByAlignmentStart.length));
+    }
 
-            // use returned List directly rather than make a copy, for efficiency's sake
-            readStatesByAlignmentStart = flattenByAlignmentStart(levelingDownsampler.consumeFinalizedItems());
-            levelingDownsampler.resetStats();
+    /**
+     * Level the states in place, as the LevelingDownsampler would do to the states grouped by their genome offset
+     *
+     * Each run of states with the same genome offset (ie, the same alignment start) is a group.  The groups
+     * are sized exactly as LevelingDownsampler would size them and the surviving states in each group are
+     * chosen with the same random draws, so the result is identical to regrouping the states into lists,
+     * leveling them, and flattening them again, but without any of the intermediate lists.
+     *
+     * @return the number of states removed
+     */
+    @Requires("isDownsampling()")
+    @Ensures("result >= 0")
+    private int levelReadStates() {
+        if ( groupSizes.length < nReadStates ) {
+            groupSizes = new int[readStatesByAlignmentStart.length];
+            keptGroupSizes = new int[readStatesByAlignmentStart.length];
         }
 
-        return nStatesAdded;
+        int nGroups = 0;
+        int groupOffset = 0;
+        for ( int i = 0; i < nReadStates; i++ ) {
+            final int genomeOffset = readStatesByAlignmentStart[i].getGenomeOffset();
+            if ( i == 0 || genomeOffset != groupOffset ) {
+                // we've advanced to a place where the state machine has a different state, so start a new group
+                groupSizes[nGroups++] = 0;
+                groupOffset = genomeOffset;
+            }
+            groupSizes[nGroups - 1]++;
+        }
+
+        System.arraycopy(groupSizes, 0, keptGroupSizes, 0, nGroups);
+        if ( ! LevelingDownsampler.levelGroupSizes(keptGroupSizes, nGroups, downsamplingTarget, 1) )
+            return 0;
+
+        int readIndex = 0;
+        int writeIndex = 0;
+        for ( int group = 0; group < nGroups; group++ ) {
+            final int groupSize = groupSizes[group];
+            final int numItemsToKeep = keptGroupSizes[group];
+
+            if ( numItemsToKeep >= groupSize ) {
+                if ( writeIndex != readIndex )
+                    System.arraycopy(readStatesByAlignmentStart, readIndex, readStatesByAlignmentStart, writeIndex, groupSize);
+                writeIndex += groupSize;
+            } else {
+                itemsToKeep.clear();
+                for ( final int selectedIndex : MathUtils.sampleIndicesWithoutReplacement(groupSize, numItemsToKeep) )
+                    itemsToKeep.set(selectedIndex);
+                for ( int i = itemsToKeep.nextSetBit(0); i >= 0; i = itemsToKeep.nextSetBit(i + 1) )
+                    readStatesByAlignmentStart[writeIndex++] = readStatesByAlignmentStart[readIndex + i];
+            }
+
+            readIndex += groupSize;
+        }
+
+        final int nRemoved = nReadStates - writeIndex;
+        Arrays.fill(readStatesByAlignmentStart, writeIndex, nReadStates, null);
+        nReadStates = writeIndex;
+        return nRemoved;
     }
 
     /**
@@ -178,7 +222,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return true if we are downsampling, false otherwise
      */
     private boolean isDownsampling() {
-        return levelingDownsampler != null;
+        return performDownsampling;
     }
 
     /**
@@ -186,7 +230,18 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return a potentially null AlignmentStateMachine
      */
     public AlignmentStateMachine getFirst() {
-        return isEmpty() ? null : readStatesByAlignmentStart.getFirst();
+        return isEmpty() ? null : readStatesByAlignmentStart[0];
+    }
+
+    /**
+     * Get the alignment state machine at index in alignment start order
+     * @param index the index of the state we want, from 0 to size() - 1
+     * @return a non-null AlignmentStateMachine
+     */
+    @Requires({"index >= 0", "index < size()"})
+    @Ensures("result != null")
+    public AlignmentStateMachine get(final int index) {
+        return readStatesByAlignmentStart[index];
     }
 
     /**
@@ -215,7 +270,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return true if there's at least one alignment, false otherwise
      */
     public boolean isEmpty() {
-        return readStatesByAlignmentStart.isEmpty();
+        return nReadStates == 0;
     }
 
     /**
@@ -224,7 +279,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     @Ensures("result >= 0")
     public int size() {
-        return readStatesByAlignmentStart.size();
+        return nReadStates;
     }
 
     /**
@@ -233,29 +288,57 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return the number of states we're removed after advancing
      */
     public int updateReadStates() {
-        int nRemoved = 0;
-        final Iterator<AlignmentStateMachine> it = iterator();
-        while (it.hasNext()) {
-            final AlignmentStateMachine state = it.next();
+        int writeIndex = 0;
+        for ( int i = 0; i < nReadStates; i++ ) {
+            final AlignmentStateMachine state = readStatesByAlignmentStart[i];
             final CigarOperator op = state.stepForwardOnGenome();
-            if (op == null) {
-                // we discard the read only when we are past its end AND indel at the end of the read (if any) was
-                // already processed. Keeping the read state that returned null upon stepForwardOnGenome() is safe
-                // as the next call to stepForwardOnGenome() will return null again AND will clear hadIndel() flag.
-                it.remove();                                                // we've stepped off the end of the object
-                nRemoved++;
-            }
+            // we discard the read only when we are past its end AND indel at the end of the read (if any) was
+            // already processed. Keeping the read state that returned null upon stepForwardOnGenome() is safe
+            // as the next call to stepForwardOnGenome() will return null again AND will clear hadIndel() flag.
+            if ( op != null )
+                readStatesByAlignmentStart[writeIndex++] = state;
         }
 
+        final int nRemoved = nReadStates - writeIndex;
+        Arrays.fill(readStatesByAlignmentStart, writeIndex, nReadStates, null);
+        nReadStates = writeIndex;
         return nRemoved;
     }
 
     /**
      * Iterate over the AlignmentStateMachine in this manager in alignment start order.
+     *
+     * The iterator supports remove(), but as that shifts the remaining states down it is
+     * meant for testing rather than for use while traversing.
+     *
      * @return a valid iterator
      */
     @Ensures("result != null")
     public Iterator<AlignmentStateMachine> iterator() {
-        return readStatesByAlignmentStart.iterator();
+        return new Iterator<AlignmentStateMachine>() {
+            private int nextIndex = 0;
+            private boolean canRemove = false;
+
+            @Override
+            public boolean hasNext() {
+                return nextIndex < nReadStates;
+            }
+
+            @Override
+            public AlignmentStateMachine next() {
+                if ( ! hasNext() ) throw new NoSuchElementException();
+                canRemove = true;
+                return readStatesByAlignmentStart[nextIndex++];
+            }
+
+            @Override
+            public void remove() {
+                if ( ! canRemove ) throw new IllegalStateException("next() must be called before remove()");
+                canRemove = false;
+                nextIndex--;
+                System.arraycopy(readStatesByAlignmentStart, nextIndex + 1, readStatesByAlignmentStart, nextIndex, nReadStates - nextIndex - 1);
+                readStatesByAlignmentStart[--nReadStates] = null;
+            }
+        };
     }
 }
@@ -46,18 +46,24 @@ import java.util.*;
  * Date: 1/5/13
  * Time: 2:02 PM
  */
-final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleReadStateManager>> {
+final class ReadStateManager {
+    /**
+     * The unique samples, in the order they were provided.  The index of a sample in this list is
+     * the index used for the sample throughout this manager.
+     */
     private final List<String> samples;
     private final PeekableIterator<GATKSAMRecord> iterator;
     private final SamplePartitioner<GATKSAMRecord> samplePartitioner;
 
     /**
-     * A mapping from sample name -> the per sample read state manager that manages
-     *
-     * IT IS CRITICAL THAT THIS BE A LINKED HASH MAP, SO THAT THE ITERATION OF THE MAP OCCURS IN THE SAME
-     * ORDER AS THE ORIGINL SAMPLES
+     * The per sample read state managers, indexed by sample index
+     */
+    private final PerSampleReadStateManager[] readStatesBySample;
+
+    /**
+     * Reusable buffer of the new read states for a single sample at the current alignment start
      */
-    private final Map<String, PerSampleReadStateManager> readStatesBySample = new LinkedHashMap<String, PerSampleReadStateManager>();
+    private final List<AlignmentStateMachine> newReadStates = new ArrayList<AlignmentStateMachine>();
 
     private LinkedList<GATKSAMRecord> submittedReads;
     private final boolean keepSubmittedReads;
@@ -68,31 +74,52 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
                             final List<String> samples,
                             final LIBSDownsamplingInfo LIBSDownsamplingInfo,
                             final boolean keepSubmittedReads) {
-        this.samples = samples;
+        this.samples = new ArrayList<String>(new LinkedHashSet<String>(samples));
         this.iterator = new PeekableIterator<GATKSAMRecord>(source);
 
         this.keepSubmittedReads = keepSubmittedReads;
         this.submittedReads = new LinkedList<GATKSAMRecord>();
 
-        for (final String sample : samples) {
-            // because this is a linked hash map the order of iteration will be in sample order
-            readStatesBySample.put(sample, new PerSampleReadStateManager(LIBSDownsamplingInfo));
-        }
+        readStatesBySample = new PerSampleReadStateManager[this.samples.size()];
+        for ( int i = 0; i < readStatesBySample.length; i++ )
+            readStatesBySample[i] = new PerSampleReadStateManager(LIBSDownsamplingInfo);
+
+        samplePartitioner = new SamplePartitioner<GATKSAMRecord>(LIBSDownsamplingInfo, this.samples);
+    }
 
-        samplePartitioner = new SamplePartitioner<GATKSAMRecord>(LIBSDownsamplingInfo, samples);
+    /**
+     * Get the number of unique samples in this read state manager
+     * @return the number of samples, which are indexed from 0 to getNSamples() - 1
+     */
+    @Ensures("result >= 0")
+    public int getNSamples() {
+        return readStatesBySample.length;
     }
 
     /**
-     * Returns a iterator over all the sample -> per-sample read state managers with each sample in this read state manager.
+     * Get the name of the sample with sampleIndex
      *
-     * The order of iteration is the same as the order of the samples provided upon construction to this
-     * ReadStateManager.
+     * Samples are indexed in the order they were provided upon construction to this ReadStateManager,
+     * with duplicates removed.
      *
-     * @return Iterator over sample + per sample read state manager pairs for this read state manager.
+     * @param sampleIndex the index of the sample
+     * @return the sample name, which may be null for reads without read groups
      */
-    @Override
-    public Iterator<Map.Entry<String, PerSampleReadStateManager>> iterator() {
-        return readStatesBySample.entrySet().iterator();
+    @Requires({"sampleIndex >= 0", "sampleIndex < getNSamples()"})
+    public String getSample(final int sampleIndex) {
+        return samples.get(sampleIndex);
+    }
+
+    /**
+     * Get the per sample read state manager for the sample with sampleIndex
+     *
+     * @param sampleIndex the index of the sample
+     * @return a non-null per sample read state manager
+     */
+    @Requires({"sampleIndex >= 0", "sampleIndex < getNSamples()"})
+    @Ensures("result != null")
+    public PerSampleReadStateManager getReadStatesForSample(final int sampleIndex) {
+        return readStatesBySample[sampleIndex];
     }
 
     public boolean isEmpty() {
@@ -108,18 +135,8 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
         return totalReadStates;
     }
 
-    /**
-     * Retrieves the total number of reads in the manager in the given sample.
-     *
-     * @param sample The sample.
-     * @return Total number of reads in the given sample.
-     */
-    public int size(final String sample) {
-        return readStatesBySample.get(sample).size();
-    }
-
     public AlignmentStateMachine getFirst() {
-        for ( final PerSampleReadStateManager manager : readStatesBySample.values() ) {
+        for ( final PerSampleReadStateManager manager : readStatesBySample ) {
             if ( ! manager.isEmpty() )
                 return manager.getFirst();
         }
@@ -135,7 +152,7 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
      * of the next pileup.
      */
     public void updateReadStates() {
-        for (final PerSampleReadStateManager perSampleReadStateManager : readStatesBySample.values() ) {
+        for (final PerSampleReadStateManager perSampleReadStateManager : readStatesBySample ) {
             totalReadStates -= perSampleReadStateManager.updateReadStates();
         }
     }
@@ -182,8 +199,8 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
 
         samplePartitioner.doneSubmittingReads();
 
-        for (final String sample : samples) {
-            final Collection<GATKSAMRecord> newReads = samplePartitioner.getReadsForSample(sample);
+        for ( int sampleIndex = 0; sampleIndex < readStatesBySample.length; sampleIndex++ ) {
+            final Collection<GATKSAMRecord> newReads = samplePartitioner.getReadsForSample(sampleIndex);
 
             // if we're keeping reads, take the (potentially downsampled) list of new reads for this sample
             // and add to the list of reads.  Note this may reorder the list of reads someone (it groups them
@@ -192,8 +209,7 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
             if ( keepSubmittedReads )
                 submittedReads.addAll(newReads);
 
-            final PerSampleReadStateManager statesBySample = readStatesBySample.get(sample);
-            addReadsToSample(statesBySample, newReads);
+            addReadsToSample(readStatesBySample[sampleIndex], newReads);
         }
 
         samplePartitioner.reset();
@@ -275,8 +291,7 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
         if (reads.isEmpty())
             return;
 
-        final LinkedList<AlignmentStateMachine> newReadStates = new LinkedList<AlignmentStateMachine>();
-
+        newReadStates.clear();
         for (final GATKSAMRecord read : reads) {
             final AlignmentStateMachine state = new AlignmentStateMachine(read);
             if ( state.stepForwardOnGenome() != null ) // todo -- should be an assertion not a skip
@@ -38,13 +38,27 @@ import java.util.*;
  * Divides reads by sample and (if requested) does a preliminary downsampling pass
  * with a ReservoirDownsampler.
  *
- * Note: stores reads by sample ID string, not by sample object
+ * Note: stores reads by sample index, the position of the sample in the list of samples
+ * provided at construction, not by sample object
  */
 class SamplePartitioner<T extends SAMRecord> {
     /**
-     * Map from sample name (as a string) to a downsampler of reads for that sample
+     * Map from sample name (as a string) to the index of that sample
      */
-    final private Map<String, Downsampler<T>> readsBySample;
+    final private Map<String, Integer> sampleIndices;
+
+    /**
+     * A downsampler of reads for each sample, indexed by sample index
+     */
+    final private Downsampler<T>[] readsBySample;
+
+    /**
+     * Has any read been submitted for each sample, indexed by sample index, in the current cycle?
+     *
+     * Only these samples need to be finalized and reset, which matters when there are many samples
+     * but only a few of them have reads starting at any given position.
+     */
+    final private boolean[] hasSubmittedReads;
 
     /**
      * Are we in a state where we're done submitting reads and have semi-finalized the
@@ -59,7 +73,7 @@ class SamplePartitioner<T extends SAMRecord> {
      *
      * Note that samples must be comprehensive, in that all reads every submitted to this
      * partitioner must come from one of the samples provided here.  If not, submitRead
-     * will throw an exception.  Duplicates in the list of samples will be ignored
+     * will throw an exception.  The list of samples must not contain duplicates
      *
      * @param LIBSDownsamplingInfo do we want to downsample, and if so to what coverage?
      * @param samples the complete list of samples we're going to partition reads into. Can be
@@ -68,15 +82,20 @@ class SamplePartitioner<T extends SAMRecord> {
      */
     @Ensures({
             "readsBySample != null",
-            "readsBySample.size() == new HashSet(samples).size()"
+            "readsBySample.length == samples.size()"
     })
+    @SuppressWarnings("unchecked")
     public SamplePartitioner(final LIBSDownsamplingInfo LIBSDownsamplingInfo, final List<String> samples) {
         if ( LIBSDownsamplingInfo == null ) throw new IllegalArgumentException("LIBSDownsamplingInfo cannot be null");
         if ( samples == null ) throw new IllegalArgumentException("samples must be a non-null list");
 
-        readsBySample = new LinkedHashMap<String, Downsampler<T>>(samples.size());
-        for ( final String sample : samples ) {
-            readsBySample.put(sample, createDownsampler(LIBSDownsamplingInfo));
+        sampleIndices = new HashMap<String, Integer>(samples.size());
+        readsBySample = new Downsampler[samples.size()];
+        hasSubmittedReads = new boolean[samples.size()];
+        for ( int i = 0; i < samples.size(); i++ ) {
+            if ( sampleIndices.put(samples.get(i), i) != null )
+                throw new IllegalArgumentException("Duplicate sample " + samples.get(i) + " in samples " + samples);
+            readsBySample[i] = createDownsampler(LIBSDownsamplingInfo);
         }
     }
 
@@ -109,12 +128,13 @@ class SamplePartitioner<T extends SAMRecord> {
     @Ensures("doneSubmittingReads == false")
     public void submitRead(final T read) {
         final String sampleName = read.getReadGroup() != null ? read.getReadGroup().getSample() : null;
-        final Downsampler<T> downsampler = readsBySample.get(sampleName);
-        if ( downsampler == null )
+        final Integer sampleIndex = sampleIndices.get(sampleName);
+        if ( sampleIndex == null )
             throw new IllegalStateException("Offered read with sample name " + sampleName + " to SamplePartitioner " +
                     "but this sample wasn't provided as one of possible samples at construction");
 
-        downsampler.submit(read);
+        readsBySample[sampleIndex].submit(read);
+        hasSubmittedReads[sampleIndex] = true;
         doneSubmittingReads = false;
     }
 
@@ -127,8 +147,9 @@ class SamplePartitioner<T extends SAMRecord> {
      */
     @Ensures("doneSubmittingReads == true")
     public void doneSubmittingReads() {
-        for ( final Downsampler<T> downsampler : readsBySample.values() ) {
-            downsampler.signalEndOfInput();
+        for ( int i = 0; i < readsBySample.length; i++ ) {
+            if ( hasSubmittedReads[i] )
+                readsBySample[i].signalEndOfInput();
         }
         doneSubmittingReads = true;
     }
@@ -144,17 +165,17 @@ class SamplePartitioner<T extends SAMRecord> {
      * Note that this function can only be called once per cycle, as underlying
      * collection of reads is cleared.
      *
-     * @param sampleName the sample we want reads for, must be present in the original samples
+     * @param sampleIndex the index of the sample we want reads for in the original samples
      * @return a non-null collection of reads for sample in this cycle
      */
     @Ensures("result != null")
-    public Collection<T> getReadsForSample(final String sampleName) {
+    public Collection<T> getReadsForSample(final int sampleIndex) {
         if ( ! doneSubmittingReads ) throw new IllegalStateException("getReadsForSample called before doneSubmittingReads was called");
+        if ( sampleIndex < 0 || sampleIndex >= readsBySample.length ) throw new NoSuchElementException("Sample index " + sampleIndex + " not found");
 
-        final Downsampler<T> downsampler = readsBySample.get(sampleName);
-        if ( downsampler == null ) throw new NoSuchElementException("Sample name not found");
-
-        return downsampler.consumeFinalizedItems();
+        return hasSubmittedReads[sampleIndex]
+                ? readsBySample[sampleIndex].consumeFinalizedItems()
+                : Collections.<T>emptyList();
     }
 
     /**
@@ -163,9 +184,12 @@ class SamplePartitioner<T extends SAMRecord> {
      */
     @Ensures("doneSubmittingReads == false")
     public void reset() {
-        for ( final Downsampler<T> downsampler : readsBySample.values() ) {
-            downsampler.clearItems();
-            downsampler.resetStats();
+        for ( int i = 0; i < readsBySample.length; i++ ) {
+            if ( hasSubmittedReads[i] ) {
+                readsBySample[i].clearItems();
+                readsBySample[i].resetStats();
+                hasSubmittedReads[i] = false;
+            }
         }
         doneSubmittingReads = false;
     }
@@ -27,8 +27,9 @@ package org.broadinstitute.gatk.utils.nanoScheduler;
 
 import org.apache.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.concurrent.CountDownLatch;
+import java.util.List;
 
 /**
  * Helper class that allows multiple threads to reads input values from
@@ -61,6 +62,7 @@ class InputProducer<InputType> {
 
     int nRead = 0;
     int inputID = -1;
+    int batchID = -1;
 
     public InputProducer(final Iterator<InputType> inputReader) {
         if ( inputReader == null ) throw new IllegalArgumentException("inputReader cannot be null");
@@ -167,6 +169,84 @@ class InputProducer<InputType> {
         }
     }
 
+    /**
+     * Get the next batch of up to maxBatchSize values from the underlying iterator
+     *
+     * Reads as many values as are available, up to maxBatchSize, while holding the lock on this
+     * producer only once.  Batches are numbered 0, 1, 2, ... in the order they are read, so the
+     * results of mapping them can be put back into input order.  Once the underlying iterator is
+     * exhausted returns null, and keeps returning null however many times it is called.
+     *
+     * A single producer should be used either through next() or through nextBatch(), not both.
+     *
+     * @param maxBatchSize the maximum number of values to put in the batch, must be >= 1
+     * @return the next non-empty batch of values, or null if the iterator is exhausted
+     */
+    public synchronized InputBatch nextBatch(final int maxBatchSize) {
+        if ( maxBatchSize < 1 ) throw new IllegalArgumentException("maxBatchSize must be >= 1, got " + maxBatchSize);
+        if ( readLastValue )
+            return null;
+
+        final int firstInputID = inputID + 1;
+        final List<InputType> values = new ArrayList<InputType>(maxBatchSize);
+        while ( values.size() < maxBatchSize ) {
+            final InputType value = readNextItem();
+            if ( value == null )
+                break;
+            inputID++;
+            values.add(value);
+        }
+
+        return values.isEmpty() ? null : new InputBatch(++batchID, firstInputID, values);
+    }
+
+    /**
+     * A batch of consecutive values read from the input stream
+     *
+     * The batch ID increments from 0 with each batch, while the first input ID is the
+     * index in the input stream of the first value in the batch.
+     */
+    class InputBatch {
+        final int id;
+        final int firstInputID;
+        final List<InputType> values;
+
+        private InputBatch(final int id, final int firstInputID, final List<InputType> values) {
+            if ( id < 0 ) throw new IllegalArgumentException("id must be >= 0");
+            this.id = id;
+            this.firstInputID = firstInputID;
+            this.values = values;
+        }
+
+        /**
+         * @return the ID of this batch, >= 0
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return the index in the input stream of the first value in this batch
+         */
+        public int getFirstInputID() {
+            return firstInputID;
+        }
+
+        /**
+         * @return the values in this batch, in input order
+         */
+        public List<InputType> getValues() {
+            return values;
+        }
+
+        /**
+         * @return the number of values in this batch
+         */
+        public int size() {
+            return values.size();
+        }
+    }
+
     /**
      * Helper class that contains a read value suitable for EOF marking in a BlockingQueue
      *
@@ -0,0 +1,128 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.nanoScheduler;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free ring of the results of mapping batches of inputs, indexed by batch ID
+ *
+ * Map threads put the results of each batch into the slot for its batch ID, in any order,
+ * and a single reducer at a time takes them back out in batch ID order.  Unlike MapResultsQueue
+ * no lock is taken to put or take a result: each slot is an element of an AtomicReferenceArray,
+ * and the ID of the next batch to take is published through a volatile field.
+ *
+ * The ring holds at most capacity batches that haven't been taken yet.  A map thread must check
+ * hasCapacityFor(batchID) before putting its batch, and if there's no room wait for the reducer
+ * to take the earlier batches.  The batch with the smallest outstanding ID always has room, so
+ * some thread can always make progress.
+ *
+ * Like MapResultsQueue, assumes that the ID of the first batch is 0.
+ */
+class MapResultsRing<MapType> {
+    /**
+     * The results of each batch, at index batchID & mask
+     */
+    private final AtomicReferenceArray<List<MapType>> slots;
+    private final int mask;
+
+    /**
+     * The ID of the next batch to take.  Only changed by the (single) reducer in take()
+     */
+    private volatile int nextBatchID = 0;
+
+    /**
+     * Create a new ring
+     *
+     * @param minCapacity the minimum number of batches that can be held at once, rounded up to a power of 2
+     */
+    public MapResultsRing(final int minCapacity) {
+        if ( minCapacity < 1 ) throw new IllegalArgumentException("minCapacity must be >= 1, got " + minCapacity);
+        final int capacity = Integer.highestOneBit(minCapacity) == minCapacity ? minCapacity : Integer.highestOneBit(minCapacity) << 1;
+        this.slots = new AtomicReferenceArray<List<MapType>>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the number of batches this ring can hold at once
+     */
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * Is there room in the ring right now to put the results of batchID?
+     *
+     * @param batchID the ID of the batch
+     * @return true if put(batchID, ...) can be called
+     */
+    public boolean hasCapacityFor(final int batchID) {
+        return batchID - nextBatchID < slots.length();
+    }
+
+    /**
+     * Put the results of mapping the batch batchID into this ring
+     *
+     * @param batchID the ID of the batch, for which hasCapacityFor must be true
+     * @param results the non-null map results for the batch, in input order
+     */
+    public void put(final int batchID, final List<MapType> results) {
+        if ( results == null ) throw new IllegalArgumentException("results cannot be null");
+        if ( batchID < nextBatchID ) throw new IllegalArgumentException("Batch " + batchID + " has already been taken");
+        if ( ! hasCapacityFor(batchID) ) throw new IllegalStateException("No room in the ring for batch " + batchID + " while waiting to take batch " + nextBatchID);
+
+        if ( ! slots.compareAndSet(batchID & mask, null, results) )
+            throw new IllegalStateException("Results for batch " + batchID + " have already been put into the ring");
+    }
+
+    /**
+     * Are the results of the next batch, in batch ID order, available to take?
+     *
+     * @return true if take() can be called
+     */
+    public boolean nextValueIsAvailable() {
+        return slots.get(nextBatchID & mask) != null;
+    }
+
+    /**
+     * Take the results of the next batch, in batch ID order, out of the ring
+     *
+     * Can only be called when nextValueIsAvailable is true, and by only one thread at a time
+     *
+     * @return the non-null map results of the next batch
+     */
+    public List<MapType> take() {
+        final int index = nextBatchID & mask;
+        final List<MapType> results = slots.get(index);
+        if ( results == null ) throw new IllegalStateException("Results for batch " + nextBatchID + " aren't available yet");
+
+        // clear the slot before advancing, so that any thread that sees the new nextBatchID sees the empty slot
+        slots.set(index, null);
+        nextBatchID++;
+        return results;
+    }
+}
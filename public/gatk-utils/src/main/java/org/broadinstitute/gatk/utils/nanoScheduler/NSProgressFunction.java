@@ -34,4 +34,15 @@ package org.broadinstitute.gatk.utils.nanoScheduler;
  */
 public interface NSProgressFunction<InputType> {
     public void progress(final InputType lastMapInput);
+
+    /**
+     * Called along with progress when the NanoScheduler is running in adaptive batching mode
+     *
+     * @param lastBatchSize the number of inputs in the batch containing lastMapInput
+     * @param totalStallTimeNanos the total time so far that map threads have spent waiting, with their batch
+     *                            already mapped, for the results of earlier batches to be reduced
+     */
+    public default void batchProgress(final int lastBatchSize, final long totalStallTimeNanos) {
+        // most progress functions only care about progress through the input
+    }
 }
@@ -31,9 +31,13 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.MultiThreadedErrorTracker;
 import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Framework for very fine grained MapReduce parallelism
@@ -61,6 +65,12 @@ import java.util.concurrent.*;
  * thread is put to work by execute to help with the processing of the data.  So in reality the
  * nanoScheduler only spawn nThreads - 1 additional workers (if this is > 1).
  *
+ * With adaptive batching enabled, numberOfMapElementsToProcessTogether is chosen on the fly instead: the
+ * map threads take inputs in batches sized so that mapping a batch takes about TARGET_BATCH_NANOS, based
+ * on the measured cost of map so far, up to bufferSize inputs.  The results of each batch are handed to
+ * the reducer through a lock-free ring indexed by batch number, so cheap map functions pay the costs of
+ * scheduling once per batch rather than once per input.
+ *
  * User: depristo
  * Date: 8/24/12
  * Time: 9:47 AM
@@ -70,6 +80,18 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
     private final static boolean ALLOW_SINGLE_THREAD_FASTPATH = true;
     protected final static int UPDATE_PROGRESS_FREQ = 100;
 
+    /**
+     * With adaptive batching, how long (in nanoseconds) we'd like mapping a single batch to take.  Long
+     * enough that the cost of taking a batch and publishing its results is negligible, short enough that
+     * the work still spreads evenly across the threads
+     */
+    protected final static long TARGET_BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * With adaptive batching, how long a map thread waiting for room to publish its batch sleeps between checks
+     */
+    private final static long STALL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
     /**
      * Currently not used, but kept because it's conceptual reasonable to have a buffer
      */
@@ -82,10 +104,17 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
 
     final ExecutorService masterExecutor;
     final ExecutorService mapExecutor;
+
+    /**
+     * True if mapExecutor is shared with other clients, so it's neither ours to shut down nor exclusively
+     * ours to fill with blocking jobs
+     */
+    final boolean usingSharedExecutor;
     final MultiThreadedErrorTracker errorTracker = new MultiThreadedErrorTracker();
 
     boolean shutdown = false;
     boolean debug = false;
+    boolean adaptiveBatching = false;
     private NSProgressFunction<InputType> progressFunction = null;
 
     /**
@@ -98,15 +127,39 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         this(nThreads*100, nThreads);
     }
 
+    /**
+     * Create a new nanoscheduler that runs its map jobs on sharedExecutor rather than on threads of its own
+     *
+     * The executor is typically shared by all of the nanoschedulers in the engine, so that the total
+     * number of threads doing work is bounded by the executor rather than by the number of nanoschedulers.
+     * nThreads is then the number of map jobs this nanoscheduler runs in parallel, including the thread
+     * calling execute, which always works on one of them.  The shared executor is not shut down by shutdown().
+     *
+     * @param nThreads the maximum number of map jobs to run in parallel, including the thread calling execute
+     * @param sharedExecutor the executor to run the other map jobs on
+     */
+    public NanoScheduler(final int nThreads, final ExecutorService sharedExecutor) {
+        this(nThreads*100, nThreads, sharedExecutor);
+    }
+
     protected NanoScheduler(final int bufferSize, final int nThreads) {
+        this(bufferSize, nThreads, null);
+    }
+
+    protected NanoScheduler(final int bufferSize, final int nThreads, final ExecutorService sharedExecutor) {
         if ( bufferSize < 1 ) throw new IllegalArgumentException("bufferSize must be >= 1, got " + bufferSize);
         if ( nThreads < 1 ) throw new IllegalArgumentException("nThreads must be >= 1, got " + nThreads);
+        if ( sharedExecutor != null && sharedExecutor.isShutdown() ) throw new IllegalArgumentException("sharedExecutor is already shut down");
 
         this.bufferSize = bufferSize;
         this.nThreads = nThreads;
+        this.usingSharedExecutor = sharedExecutor != null;
 
         if ( nThreads == 1 ) {
             this.mapExecutor = this.masterExecutor = null;
+        } else if ( usingSharedExecutor ) {
+            this.masterExecutor = null;
+            this.mapExecutor = sharedExecutor;
         } else {
             this.masterExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("NS-master-thread-%d"));
             this.mapExecutor = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("NS-map-thread-%d"));
@@ -137,7 +190,7 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
      * After this call, execute cannot be invoked without throwing an error
      */
     public void shutdown() {
-        if ( nThreads > 1 ) {
+        if ( nThreads > 1 && ! usingSharedExecutor ) {
             shutdownExecutor("mapExecutor", mapExecutor);
             shutdownExecutor("masterExecutor", masterExecutor);
         }
@@ -170,6 +223,13 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         return shutdown;
     }
 
+    /**
+     * @return true if this nanoScheduler runs its map jobs on an executor shared with other clients
+     */
+    public boolean isUsingSharedExecutor() {
+        return usingSharedExecutor;
+    }
+
     /**
      * @return are we displaying verbose debugging information about the scheduling?
      */
@@ -198,6 +258,25 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         this.debug = debug;
     }
 
+    /**
+     * @return are we grouping inputs into adaptively sized batches for the map threads?
+     */
+    public boolean isAdaptiveBatching() {
+        return adaptiveBatching;
+    }
+
+    /**
+     * Turn on/off adaptive batching of inputs
+     *
+     * Has no effect when running with a single thread, as inputs are then mapped and reduced directly
+     * by the calling thread.
+     *
+     * @param adaptiveBatching true if map threads should take inputs in batches sized by the measured cost of map
+     */
+    public void setAdaptiveBatching(final boolean adaptiveBatching) {
+        this.adaptiveBatching = adaptiveBatching;
+    }
+
     /**
      * Set the progress callback function to progressFunction
      *
@@ -293,6 +372,24 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
             progressFunction.progress(input);
     }
 
+    /**
+     * Maybe update the progress meter after mapping a batch, if the batch contained an input whose
+     * counter would have triggered an update in updateProgress
+     *
+     * @param batch the batch we just mapped
+     * @param totalStallTimeNanos the total stall time of the map threads so far
+     */
+    private void updateBatchProgress(final InputProducer<InputType>.InputBatch batch, final long totalStallTimeNanos) {
+        if ( progressFunction != null ) {
+            final int first = batch.getFirstInputID();
+            final int last = first + batch.size() - 1;
+            if ( first % UPDATE_PROGRESS_FREQ == 0 || first / UPDATE_PROGRESS_FREQ != last / UPDATE_PROGRESS_FREQ ) {
+                progressFunction.progress(batch.getValues().get(batch.size() - 1));
+                progressFunction.batchProgress(batch.size(), totalStallTimeNanos);
+            }
+        }
+    }
+
     /**
      * Efficient parallel version of Map/Reduce
      *
@@ -307,6 +404,9 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
 
         // start up the master job
         final MasterJob masterJob = new MasterJob(inputReader, map, initialValue, reduce);
+        if ( usingSharedExecutor )
+            return executeOnSharedExecutor(masterJob);
+
         final Future<ReduceType> reduceResult = masterExecutor.submit(masterJob);
 
         while ( true ) {
@@ -362,6 +462,63 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         }
     }
 
+    /**
+     * Version of executeMultiThreaded for a shared executor
+     *
+     * Submits nThreads - 1 map jobs to the shared executor and runs the last one in the calling thread, so
+     * that this run makes progress even if every thread of the executor is busy with other work.  Once our
+     * own map job is done any submitted jobs that haven't started yet are withdrawn, as there's no input
+     * left for them, so we never wait for the executor to get around to them.  On error the running jobs
+     * are interrupted, but the executor itself is left alone since it isn't ours.
+     *
+     * @param masterJob the master job holding the state of this run
+     * @return the reduce result of this map/reduce job
+     */
+    @Requires("masterJob != null")
+    private ReduceType executeOnSharedExecutor(final MasterJob masterJob) {
+        final List<WithdrawableMapJob> submittedJobs = new ArrayList<WithdrawableMapJob>(nThreads - 1);
+        final List<Future<?>> submittedFutures = new ArrayList<Future<?>>(nThreads - 1);
+        try {
+            for ( int i = 1; i < nThreads; i++ ) {
+                final WithdrawableMapJob job = new WithdrawableMapJob(masterJob.makeMapJob(), masterJob.runningMapJobs);
+                submittedFutures.add(mapExecutor.submit(job));
+                submittedJobs.add(job);
+            }
+        } catch (RejectedExecutionException ex) {
+            // the executor can't take any more jobs, so don't wait for ones that will never run
+            for ( int i = submittedJobs.size() + 1; i < nThreads; i++ )
+                masterJob.runningMapJobs.countDown();
+        }
+
+        masterJob.makeMapJob().run();
+
+        for ( int i = 0; i < submittedJobs.size(); i++ ) {
+            if ( submittedJobs.get(i).withdraw() )
+                submittedFutures.get(i).cancel(false); // just to get it out of the executor's queue
+        }
+
+        try {
+            while ( ! masterJob.runningMapJobs.await(100, TimeUnit.MILLISECONDS) ) {
+                if ( errorTracker.hasAnErrorOccurred() )
+                    break;
+            }
+        } catch (final InterruptedException ex) {
+            errorTracker.notifyOfError(ex);
+        }
+
+        if ( errorTracker.hasAnErrorOccurred() ) {
+            for ( final Future<?> future : submittedFutures )
+                future.cancel(true);
+            errorTracker.throwErrorIfPending();
+        }
+
+        final ReduceType result = masterJob.finishReducing();
+
+        // in case an error occurred in the reduce
+        errorTracker.throwErrorIfPending();
+        return result;
+    }
+
     /**
      * MasterJob has the task to enqueue Map jobs and wait for the final reduce
      *
@@ -369,41 +526,57 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
      * in the input, map, or reduce jobs without deadlocking.
      *
      * The result of this callable is the final reduce value for the input / map / reduce jobs
+     *
+     * With a shared executor there's no master thread: the caller creates the MasterJob, runs the
+     * map jobs from makeMapJob() itself (see executeOnSharedExecutor), and then calls finishReducing()
      */
     private class MasterJob implements Callable<ReduceType> {
-        final Iterator<InputType> inputReader;
-        final NSMapFunction<InputType, MapType> map;
         final ReduceType initialValue;
-        final NSReduceFunction<MapType, ReduceType> reduce;
+        final NSMapFunction<InputType, MapType> map;
+        final InputProducer<InputType> inputProducer;
+        final Reducer<MapType, ReduceType> reducer;
+        final CountDownLatch runningMapJobs = new CountDownLatch(nThreads);
+
+        // used without adaptive batching, to store results of map jobs
+        final MapResultsQueue<MapType> mapResultQueue;
+
+        // used with adaptive batching
+        final MapResultsRing<MapType> mapResultsRing;
+        final AdaptiveBatchSizer batchSizer;
+        final AtomicLong totalStallTimeNanos;
 
         private MasterJob(Iterator<InputType> inputReader, NSMapFunction<InputType, MapType> map, ReduceType initialValue, NSReduceFunction<MapType, ReduceType> reduce) {
-            this.inputReader = inputReader;
             this.map = map;
             this.initialValue = initialValue;
-            this.reduce = reduce;
+            this.inputProducer = new InputProducer<InputType>(inputReader);
+            this.reducer = new Reducer<MapType, ReduceType>(reduce, errorTracker, initialValue);
+
+            if ( adaptiveBatching ) {
+                // there can't be more than nThreads batches being mapped at once, so this leaves room for each
+                // thread to get a few batches ahead of a slow one before it has to wait
+                this.mapResultQueue = null;
+                this.mapResultsRing = new MapResultsRing<MapType>(4 * nThreads);
+                this.batchSizer = new AdaptiveBatchSizer(bufferSize);
+                this.totalStallTimeNanos = new AtomicLong(0);
+            } else {
+                this.mapResultQueue = new MapResultsQueue<MapType>();
+                this.mapResultsRing = null;
+                this.batchSizer = null;
+                this.totalStallTimeNanos = null;
+            }
         }
 
         @Override
         public ReduceType call() {
-            // Create the input producer and start it running
-            final InputProducer<InputType> inputProducer = new InputProducer<InputType>(inputReader);
-
-            // create the MapResultsQueue to store results of map jobs.
-            final MapResultsQueue<MapType> mapResultQueue = new MapResultsQueue<MapType>();
-
-            // create the reducer we'll use for this nano scheduling run
-            final Reducer<MapType, ReduceType> reducer = new Reducer<MapType, ReduceType>(reduce, errorTracker, initialValue);
-
-            final CountDownLatch runningMapJobs = new CountDownLatch(nThreads);
-
             try {
                 // create and submit the info needed by the read/map/reduce threads to do their work
                 for ( int i = 0; i < nThreads; i++ ) {
-                    mapExecutor.submit(new ReadMapReduceJob(inputProducer, mapResultQueue, runningMapJobs, map, reducer));
+                    mapExecutor.submit(makeMapJob());
                 }
 
                 // wait for all of the input and map threads to finish
-                return waitForCompletion(mapResultQueue, runningMapJobs, reducer);
+                runningMapJobs.await();
+                return finishReducing();
             } catch (Throwable ex) {
                 errorTracker.notifyOfError(ex);
                 return initialValue;
@@ -411,24 +584,65 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         }
 
         /**
-         * Wait until the input thread and all map threads have completed running, and return the final reduce result
+         * @return a new map job for this run, which counts down runningMapJobs when it finishes
          */
-        private ReduceType waitForCompletion(final MapResultsQueue<MapType> mapResultsQueue,
-                                             final CountDownLatch runningMapJobs,
-                                             final Reducer<MapType, ReduceType> reducer) throws InterruptedException {
-            // wait for all the map threads to finish by waiting on the runningMapJobs latch
-            runningMapJobs.await();
+        private Runnable makeMapJob() {
+            if ( adaptiveBatching )
+                return new BatchedReadMapReduceJob(inputProducer, mapResultsRing, batchSizer, totalStallTimeNanos, runningMapJobs, map, reducer);
+            else
+                return new ReadMapReduceJob(inputProducer, mapResultQueue, runningMapJobs, map, reducer);
+        }
 
+        /**
+         * Reduce whatever the map jobs have left behind and return the final reduce result
+         *
+         * Must only be called once all of the map jobs have finished
+         */
+        private ReduceType finishReducing() {
             // do a final reduce here.  This is critically important because the InputMapReduce jobs
             // no longer block on reducing, so it's possible for all the threads to end with a few
             // reduce jobs on the queue still to do.  This call ensures that we reduce everything
-            reducer.reduceAsMuchAsPossible(mapResultsQueue, true);
+            if ( adaptiveBatching ) {
+                reducer.reduceBatchesAsMuchAsPossible(mapResultsRing, true);
+                debugPrint("Adaptive batching: %d batches, mean batch size %.1f, total stall time %.3f sec",
+                        batchSizer.getNBatches(), batchSizer.getMeanBatchSize(), totalStallTimeNanos.get() / 1e9);
+            } else {
+                reducer.reduceAsMuchAsPossible(mapResultQueue, true);
+            }
 
-            // wait until we have a final reduce result
-            final ReduceType finalSum = reducer.getReduceResult();
+            return reducer.getReduceResult();
+        }
+    }
+
+    /**
+     * A map job submitted to a shared executor, which can be withdrawn by the submitter if it hasn't started yet
+     */
+    private static class WithdrawableMapJob implements Runnable {
+        final Runnable mapJob;
+        final CountDownLatch runningMapJobs;
+        final AtomicBoolean claimed = new AtomicBoolean(false);
 
-            // everything is finally shutdown, return the final reduce value
-            return finalSum;
+        private WithdrawableMapJob(final Runnable mapJob, final CountDownLatch runningMapJobs) {
+            this.mapJob = mapJob;
+            this.runningMapJobs = runningMapJobs;
+        }
+
+        @Override
+        public void run() {
+            if ( claimed.compareAndSet(false, true) )
+                mapJob.run();
+        }
+
+        /**
+         * Make sure this job never runs, if it hasn't started already, counting it down as finished
+         *
+         * @return true if the job was withdrawn, false if it had already started
+         */
+        boolean withdraw() {
+            if ( ! claimed.compareAndSet(false, true) )
+                return false;
+            runningMapJobs.countDown();
+            return true;
         }
     }
 
@@ -482,6 +696,10 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
                     } else {
                         done = true;
                     }
+
+                    // a shared executor isn't shut down on error, so stop on our own once someone else has failed
+                    if ( usingSharedExecutor && errorTracker.hasAnErrorOccurred() )
+                        done = true;
                 }
             } catch (Throwable ex) {
                 errorTracker.notifyOfError(ex);
@@ -491,4 +709,160 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Map job for adaptive batching: repeatedly takes a batch of inputs, maps them, and publishes the
+     * results into the ring, reducing as much as possible (without blocking) after each batch
+     */
+    private class BatchedReadMapReduceJob implements Runnable {
+        final InputProducer<InputType> inputProducer;
+        final MapResultsRing<MapType> mapResultsRing;
+        final AdaptiveBatchSizer batchSizer;
+        final AtomicLong totalStallTimeNanos;
+        final NSMapFunction<InputType, MapType> map;
+        final Reducer<MapType, ReduceType> reducer;
+        final CountDownLatch runningMapJobs;
+
+        private BatchedReadMapReduceJob(final InputProducer<InputType> inputProducer,
+                                        final MapResultsRing<MapType> mapResultsRing,
+                                        final AdaptiveBatchSizer batchSizer,
+                                        final AtomicLong totalStallTimeNanos,
+                                        final CountDownLatch runningMapJobs,
+                                        final NSMapFunction<InputType, MapType> map,
+                                        final Reducer<MapType, ReduceType> reducer) {
+            this.inputProducer = inputProducer;
+            this.mapResultsRing = mapResultsRing;
+            this.batchSizer = batchSizer;
+            this.totalStallTimeNanos = totalStallTimeNanos;
+            this.runningMapJobs = runningMapJobs;
+            this.map = map;
+            this.reducer = reducer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputProducer<InputType>.InputBatch batch;
+                while ( (batch = inputProducer.nextBatch(batchSizer.nextBatchSize())) != null ) {
+                    // map the whole batch, timing it to size the next ones
+                    final long startTime = System.nanoTime();
+                    final List<MapType> results = new ArrayList<MapType>(batch.size());
+                    for ( final InputType input : batch.getValues() )
+                        results.add(map.apply(input));
+                    batchSizer.update(batch.size(), System.nanoTime() - startTime);
+
+                    if ( ! waitForRoomInRing(batch.getId()) )
+                        return;
+
+                    mapResultsRing.put(batch.getId(), results);
+
+                    // reduce as much as possible, without blocking, if another thread is already doing reduces
+                    reducer.reduceBatchesAsMuchAsPossible(mapResultsRing, false);
+
+                    updateBatchProgress(batch, totalStallTimeNanos.get());
+
+                    // a shared executor isn't shut down on error, so stop on our own once someone else has failed
+                    if ( usingSharedExecutor && errorTracker.hasAnErrorOccurred() )
+                        return;
+                }
+            } catch (Throwable ex) {
+                errorTracker.notifyOfError(ex);
+            } finally {
+                // we finished a map job, release the job queue semaphore
+                runningMapJobs.countDown();
+            }
+        }
+
+        /**
+         * Wait until there's room in the ring for the results of batchID, helping to reduce while we wait
+         *
+         * @param batchID the ID of the batch we want to put into the ring
+         * @return true if there's room, false if we gave up because an error occurred in some other thread
+         */
+        private boolean waitForRoomInRing(final int batchID) {
+            if ( mapResultsRing.hasCapacityFor(batchID) )
+                return true;
+
+            final long stallStart = System.nanoTime();
+            try {
+                while ( ! mapResultsRing.hasCapacityFor(batchID) ) {
+                    if ( errorTracker.hasAnErrorOccurred() || Thread.currentThread().isInterrupted() )
+                        return false;
+
+                    reducer.reduceBatchesAsMuchAsPossible(mapResultsRing, false);
+                    if ( ! mapResultsRing.hasCapacityFor(batchID) )
+                        LockSupport.parkNanos(STALL_PARK_NANOS);
+                }
+                return true;
+            } finally {
+                totalStallTimeNanos.addAndGet(System.nanoTime() - stallStart);
+            }
+        }
+    }
+
+    /**
+     * Chooses the size of the next batch of inputs from the measured cost of map
+     *
+     * Keeps an exponentially weighted moving average of the time it takes to map one input, and sizes
+     * batches so that mapping one takes about TARGET_BATCH_NANOS.  The first batch has a single input,
+     * so that expensive map functions are spread across the threads from the start.  Updates from
+     * different threads may race with each other, which at worst loses one measurement.
+     */
+    static class AdaptiveBatchSizer {
+        private final static double NEW_MEASUREMENT_WEIGHT = 0.2;
+
+        private final int maxBatchSize;
+        private volatile double nanosPerInput = -1.0;
+        private final AtomicLong nBatches = new AtomicLong(0);
+        private final AtomicLong nInputs = new AtomicLong(0);
+
+        AdaptiveBatchSizer(final int maxBatchSize) {
+            if ( maxBatchSize < 1 ) throw new IllegalArgumentException("maxBatchSize must be >= 1, got " + maxBatchSize);
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        /**
+         * @return the number of inputs to put into the next batch, between 1 and maxBatchSize
+         */
+        @Ensures({"result >= 1", "result <= maxBatchSize"})
+        int nextBatchSize() {
+            final double cost = nanosPerInput;
+            if ( cost < 0 )
+                return 1; // we haven't measured anything yet
+            else if ( cost * maxBatchSize <= TARGET_BATCH_NANOS )
+                return maxBatchSize;
+            else
+                return Math.max((int)(TARGET_BATCH_NANOS / cost), 1);
+        }
+
+        /**
+         * Record that mapping a batch of batchSize inputs took elapsedNanos
+         *
+         * @param batchSize the number of inputs in the batch
+         * @param elapsedNanos the time it took to map all of them
+         */
+        @Requires("batchSize > 0")
+        void update(final int batchSize, final long elapsedNanos) {
+            final double cost = Math.max(elapsedNanos, 0) / (double)batchSize;
+            final double previous = nanosPerInput;
+            nanosPerInput = previous < 0 ? cost : (1 - NEW_MEASUREMENT_WEIGHT) * previous + NEW_MEASUREMENT_WEIGHT * cost;
+            nBatches.incrementAndGet();
+            nInputs.addAndGet(batchSize);
+        }
+
+        /**
+         * @return the number of batches mapped so far
+         */
+        long getNBatches() {
+            return nBatches.get();
+        }
+
+        /**
+         * @return the mean number of inputs per batch so far, or 0 if no batches have been mapped
+         */
+        double getMeanBatchSize() {
+            final long n = nBatches.get();
+            return n == 0 ? 0.0 : nInputs.get() / (double)n;
+        }
+    }
+}
@@ -129,6 +129,49 @@ class Reducer<MapType, ReduceType> {
         return nReducesNow;
     }
 
+    /**
+     * Reduce as much data as possible in the batched mapResultsRing, returning the number of reduce calls completed
+     *
+     * Works like reduceAsMuchAsPossible, but takes whole batches of map results out of the ring in batch ID
+     * order.  Because putting into the ring doesn't take any lock, a batch can arrive just after the thread
+     * holding the reduce lock found its slot empty but before that thread released the lock.  So after releasing
+     * the lock we check the ring again, and go back for the lock if the next batch has become available, so
+     * that no batch is left in the ring without some thread going on to reduce it.
+     *
+     * @param mapResultsRing a ring of batches of map results
+     * @param waitForLock if true, block until the reduce lock is available, otherwise return immediately without
+     *                    reducing anything if another thread is reducing
+     * @return the number of reduces run, from 0 >
+     */
+    @Ensures("result >= 0")
+    public int reduceBatchesAsMuchAsPossible(final MapResultsRing<MapType> mapResultsRing, final boolean waitForLock) {
+        if ( mapResultsRing == null ) throw new IllegalArgumentException("mapResultsRing cannot be null");
+        int nReducesNow = 0;
+
+        do {
+            if ( ! acquireReduceLock(waitForLock) )
+                break;
+
+            try {
+                while ( mapResultsRing.nextValueIsAvailable() ) {
+                    for ( final MapType value : mapResultsRing.take() ) {
+                        nReducesNow++;
+
+                        // apply reduce, keeping track of sum
+                        sum = reduce.apply(value, sum);
+                    }
+                }
+            } catch (Exception ex) {
+                errorTracker.notifyOfError(ex);
+                break;
+            } finally {
+                releaseReduceLock();
+            }
+        } while ( mapResultsRing.nextValueIsAvailable() );
+
+        return nReducesNow;
+    }
+
     /**
      * Acquire the reduce lock, either returning immediately if not possible or blocking until the lock is available
      *
@@ -0,0 +1,580 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.MathUtils;
+import org.broadinstitute.gatk.utils.QualityUtils;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.broadinstitute.gatk.utils.pairhmm.PairHMMModel.*;
+
+/**
+ * Pure-Java logless PairHMM that evaluates many read x haplotype pairs at once.
+ *
+ * <p>
+ *     Pairs queued through {@link #batchAdd} are sorted by read and haplotype length and evaluated in groups of
+ *     {@link #getLaneCount()} "lanes". The match, insertion and deletion rows of all the pairs in a group are stored
+ *     interleaved (cell {@code j} of lane {@code l} lives at {@code j * laneCount + l}), so the innermost loop walks
+ *     across lanes over contiguous memory with no loop-carried dependency; this is the loop shape HotSpot's superword
+ *     pass can turn into SIMD instructions without any native code.
+ * </p>
+ *
+ * <p>
+ *     As in the native vectorized implementations, each pair is first computed in single precision scaled by
+ *     {@link #FLOAT_INITIAL_CONDITION}. Pairs whose final probability falls below {@link #MIN_ACCEPTED_FLOAT} are
+ *     considered to have underflowed and are recomputed in double precision scaled by {@link #DOUBLE_INITIAL_CONDITION}.
+ * </p>
+ *
+ * <p>
+ *     Like every other PairHMM, instances are not thread-safe; use one per thread.
+ * </p>
+ */
+public final class BatchLoglessPairHMM extends PairHMM implements BatchPairHMM {
+
+    /**
+     * Number of pairs interleaved by default in each group.
+     */
+    public static final int DEFAULT_LANE_COUNT = 16;
+
+    /**
+     * Scaling factor applied to the initial conditions of the single precision computation.
+     */
+    static final float FLOAT_INITIAL_CONDITION = (float) Math.pow(2, 120);
+
+    /**
+     * Scaling factor applied to the initial conditions of the double precision computation.
+     */
+    static final double DOUBLE_INITIAL_CONDITION = Math.pow(2, 1020);
+
+    /**
+     * Smallest scaled single precision result that we trust; anything below is recomputed in double precision.
+     */
+    static final float MIN_ACCEPTED_FLOAT = 1e-28f;
+
+    /**
+     * Single precision cells below this value are flushed to zero.
+     *
+     * <p>
+     *     Java cannot enable the flush-to-zero mode that the native implementations rely on, and arithmetic on
+     *     denormal floats is an order of magnitude slower than on normal ones. Cells this small relative to
+     *     {@link #FLOAT_INITIAL_CONDITION} cannot affect the result, and flushing them early enough keeps their products
+     *     with even very small transition probabilities away from the denormal range.
+     * </p>
+     */
+    static final float FLOAT_FLUSH_THRESHOLD = 1e-30f;
+
+    private static final double LOG10_FLOAT_INITIAL_CONDITION = Math.log10(FLOAT_INITIAL_CONDITION);
+    private static final double LOG10_DOUBLE_INITIAL_CONDITION = Math.log10(DOUBLE_INITIAL_CONDITION);
+
+    /**
+     * Sorts pairs so that those in the same group have similar dimensions and little padding is wasted.
+     */
+    private static final Comparator<HMMPair> PAIR_DIMENSION_COMPARATOR = new Comparator<HMMPair>() {
+        @Override
+        public int compare(final HMMPair p1, final HMMPair p2) {
+            final int readCmp = Integer.compare(p1.read.length, p2.read.length);
+            return readCmp != 0 ? readCmp : Integer.compare(p1.haplotypeBases.length, p2.haplotypeBases.length);
+        }
+    };
+
+    private final int laneCount;
+
+    /**
+     * Pairs queued since the last call to {@link #batchGetResult}, in insertion order.
+     */
+    private final List<HMMPair> pendingPairs = new ArrayList<>();
+
+    // per-lane row constants, reused across groups
+    private final byte[] laneReadBase;
+    private final float[] fPriorMatch, fPriorMismatch, fMatchToMatch, fIndelToMatch, fMatchToInsertion, fInsertionToInsertion, fMatchToDeletion, fDeletionToDeletion;
+    private final double[] dPriorMatch, dPriorMismatch, dMatchToMatch, dIndelToMatch, dMatchToInsertion, dInsertionToInsertion, dMatchToDeletion, dDeletionToDeletion;
+
+    // interleaved haplotype bases and state rows, grown on demand
+    private byte[] interleavedHaplotypes = new byte[0];
+    private float[] fPrevM = new float[0], fPrevI = new float[0], fPrevD = new float[0];
+    private float[] fCurM = new float[0], fCurI = new float[0], fCurD = new float[0];
+    private double[] dPrevM = new double[0], dPrevI = new double[0], dPrevD = new double[0];
+    private double[] dCurM = new double[0], dCurI = new double[0], dCurD = new double[0];
+
+    private long pairsComputed = 0;
+    private long doublePrecisionRecomputations = 0;
+
+    /**
+     * Create an uninitialized PairHMM that interleaves {@link #DEFAULT_LANE_COUNT} pairs at a time.
+     */
+    public BatchLoglessPairHMM() {
+        this(DEFAULT_LANE_COUNT);
+    }
+
+    /**
+     * Create an uninitialized PairHMM that interleaves a given number of pairs at a time.
+     *
+     * @param laneCount number of read x haplotype pairs computed together; must be greater than 0.
+     * @throws IllegalArgumentException if {@code laneCount} is less than 1.
+     */
+    public BatchLoglessPairHMM(final int laneCount) {
+        if (laneCount < 1) throw new IllegalArgumentException("the lane count must be at least 1 but got " + laneCount);
+        this.laneCount = laneCount;
+        laneReadBase = new byte[laneCount];
+        fPriorMatch = new float[laneCount];
+        fPriorMismatch = new float[laneCount];
+        fMatchToMatch = new float[laneCount];
+        fIndelToMatch = new float[laneCount];
+        fMatchToInsertion = new float[laneCount];
+        fInsertionToInsertion = new float[laneCount];
+        fMatchToDeletion = new float[laneCount];
+        fDeletionToDeletion = new float[laneCount];
+        dPriorMatch = new double[laneCount];
+        dPriorMismatch = new double[laneCount];
+        dMatchToMatch = new double[laneCount];
+        dIndelToMatch = new double[laneCount];
+        dMatchToInsertion = new double[laneCount];
+        dInsertionToInsertion = new double[laneCount];
+        dMatchToDeletion = new double[laneCount];
+        dDeletionToDeletion = new double[laneCount];
+    }
+
+    /**
+     * Returns the number of pairs that are computed together.
+     * @return greater than 0.
+     */
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * Returns the total number of read x haplotype pairs computed by this instance.
+     * @return 0 or greater.
+     */
+    public long getPairsComputed() {
+        return pairsComputed;
+    }
+
+    /**
+     * Returns how many of the computed pairs underflowed in single precision and had to be recomputed in double precision.
+     * @return 0 or greater.
+     */
+    public long getDoublePrecisionRecomputations() {
+        return doublePrecisionRecomputations;
+    }
+
+    /**
+     * Queues the likelihood calculation of a read against each of the haplotypes provided.
+     *
+     * <p>
+     *     Results are returned by the next call to {@link #batchGetResult} following the order in which
+     *     pairs were added: read by read, and within each read, haplotype by haplotype.
+     * </p>
+     *
+     * @throws IllegalArgumentException if any of the arrays is {@code null} or the quality arrays length does not
+     *  match the read length.
+     */
+    @Override
+    public void batchAdd(final List<Haplotype> haplotypes,
+                         final byte[] readBases,
+                         final byte[] readQuals,
+                         final byte[] insertionGOP,
+                         final byte[] deletionGOP,
+                         final byte[] overallGCP) {
+        if (haplotypes == null) throw new IllegalArgumentException("haplotypes cannot be null");
+        final HMMRead read = new HMMRead(readBases, readQuals, insertionGOP, deletionGOP, overallGCP, doNotUseTristateCorrection);
+        for (final Haplotype haplotype : haplotypes) {
+            final byte[] haplotypeBases = haplotype.getBases();
+            if (haplotypeBases == null || haplotypeBases.length == 0) throw new IllegalArgumentException("haplotype bases cannot be null or empty");
+            pendingPairs.add(new HMMPair(read, haplotypeBases, pendingPairs.size()));
+        }
+    }
+
+    /**
+     * Computes all pairs queued since the last call and returns their log10 likelihoods.
+     *
+     * @return never {@code null}; an array with one entry per queued pair, in the order in which they were added.
+     */
+    @Override
+    public double[] batchGetResult() {
+        final double[] result = new double[pendingPairs.size()];
+        if (pendingPairs.isEmpty())
+            return result;
+
+        final List<HMMPair> sorted = new ArrayList<>(pendingPairs);
+        pendingPairs.clear();
+        Collections.sort(sorted, PAIR_DIMENSION_COMPARATOR);
+
+        final List<HMMPair> underflowed = new ArrayList<>();
+        for (int from = 0; from < sorted.size(); from += laneCount)
+            computeFloatGroup(sorted, from, Math.min(sorted.size(), from + laneCount), result, underflowed);
+
+        for (int from = 0; from < underflowed.size(); from += laneCount)
+            computeDoubleGroup(underflowed, from, Math.min(underflowed.size(), from + laneCount), result);
+
+        pairsComputed += sorted.size();
+        doublePrecisionRecomputations += underflowed.size();
+
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] > 0.0)
+                throw new IllegalStateException("PairHMM Log Probability cannot be greater than 0: " + result[i]);
+            else if (!MathUtils.goodLog10Probability(result[i]))
+                throw new IllegalStateException("Invalid Log Probability: " + result[i]);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>All reads are queued in a single batch so that groups are as full as possible.</p>
+     */
+    @Override
+    public void computeLikelihoods(final ReadLikelihoods.Matrix<Haplotype> likelihoods,
+                                   final List<GATKSAMRecord> processedReads,
+                                   final Map<GATKSAMRecord,byte[]> gcp) {
+        if (processedReads.isEmpty())
+            return;
+        if (doProfiling)
+            startTime = System.nanoTime();
+
+        final List<Haplotype> alleles = likelihoods.alleles();
+        final int alleleCount = alleles.size();
+        for (final GATKSAMRecord read : processedReads)
+            batchAdd(alleles, read.getReadBases(), read.getBaseQualities(), read.getBaseInsertionQualities(),
+                    read.getBaseDeletionQualities(), gcp.get(read));
+
+        mLikelihoodArray = batchGetResult();
+        final int readCount = processedReads.size();
+        for (int r = 0, idx = 0; r < readCount; r++)
+            for (int a = 0; a < alleleCount; a++)
+                likelihoods.set(a, r, mLikelihoodArray[idx++]);
+
+        if (doProfiling) {
+            threadLocalPairHMMComputeTimeDiff = (System.nanoTime() - startTime);
+            pairHMMComputeTime += threadLocalPairHMMComputeTimeDiff;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Computes the single pair as a one-lane batch; haplotype caching indices are ignored.</p>
+     */
+    @Override
+    protected double subComputeReadLikelihoodGivenHaplotypeLog10(final byte[] haplotypeBases,
+                                                                 final byte[] readBases,
+                                                                 final byte[] readQuals,
+                                                                 final byte[] insertionGOP,
+                                                                 final byte[] deletionGOP,
+                                                                 final byte[] overallGCP,
+                                                                 final int hapStartIndex,
+                                                                 final boolean recacheReadValues,
+                                                                 final int nextHapStartIndex) {
+        final HMMRead read = new HMMRead(readBases, readQuals, insertionGOP, deletionGOP, overallGCP, doNotUseTristateCorrection);
+        final List<HMMPair> pairs = Collections.singletonList(new HMMPair(read, haplotypeBases, 0));
+        final double[] result = new double[1];
+        final List<HMMPair> underflowed = new ArrayList<>(1);
+        computeFloatGroup(pairs, 0, 1, result, underflowed);
+        if (!underflowed.isEmpty()) {
+            computeDoubleGroup(underflowed, 0, 1, result);
+            doublePrecisionRecomputations++;
+        }
+        pairsComputed++;
+        return result[0];
+    }
+
+    /**
+     * Computes a group of pairs in single precision.
+     *
+     * @param pairs the pairs to compute.
+     * @param from first pair of the group (inclusive).
+     * @param to last pair of the group (exclusive); at most {@link #laneCount} pairs after {@code from}.
+     * @param result where to store the log10 likelihoods, indexed by {@link HMMPair#resultIndex}.
+     * @param underflowed collects the pairs whose single precision result cannot be trusted.
+     */
+    private void computeFloatGroup(final List<HMMPair> pairs, final int from, final int to, final double[] result, final List<HMMPair> underflowed) {
+        final int lanes = to - from;
+        final int maxReadLength = maxReadLength(pairs, from, to);
+        final int maxHaplotypeLength = interleaveHaplotypes(pairs, from, to);
+        final int rowSize = (maxHaplotypeLength + 1) * lanes;
+        if (fCurM.length < rowSize) {
+            fPrevM = new float[rowSize]; fPrevI = new float[rowSize]; fPrevD = new float[rowSize];
+            fCurM = new float[rowSize]; fCurI = new float[rowSize]; fCurD = new float[rowSize];
+        }
+
+        // first row: free deletions at the beginning of the haplotype
+        Arrays.fill(fPrevM, 0, rowSize, 0f);
+        Arrays.fill(fPrevI, 0, rowSize, 0f);
+        for (int l = 0; l < lanes; l++) {
+            final float initialValue = FLOAT_INITIAL_CONDITION / pairs.get(from + l).haplotypeBases.length;
+            for (int j = 0; j <= maxHaplotypeLength; j++)
+                fPrevD[j * lanes + l] = initialValue;
+        }
+
+        for (int i = 1; i <= maxReadLength; i++) {
+            loadFloatRowConstants(pairs, from, lanes, i);
+            Arrays.fill(fCurM, 0, lanes, 0f);
+            Arrays.fill(fCurI, 0, lanes, 0f);
+            Arrays.fill(fCurD, 0, lanes, 0f);
+
+            for (int j = 1; j <= maxHaplotypeLength; j++) {
+                final int cell = j * lanes;
+                final int diagonal = cell - lanes;
+                for (int l = 0; l < lanes; l++) {
+                    final byte x = laneReadBase[l];
+                    final byte y = interleavedHaplotypes[diagonal + l];
+                    final float prior = (x == y || x == 'N' || y == 'N') ? fPriorMatch[l] : fPriorMismatch[l];
+                    final float m = prior * (fPrevM[diagonal + l] * fMatchToMatch[l]
+                            + fPrevI[diagonal + l] * fIndelToMatch[l]
+                            + fPrevD[diagonal + l] * fIndelToMatch[l]);
+                    final float ins = fPrevM[cell + l] * fMatchToInsertion[l] + fPrevI[cell + l] * fInsertionToInsertion[l];
+                    final float del = fCurM[diagonal + l] * fMatchToDeletion[l] + fCurD[diagonal + l] * fDeletionToDeletion[l];
+                    fCurM[cell + l] = m < FLOAT_FLUSH_THRESHOLD ? 0f : m;
+                    fCurI[cell + l] = ins < FLOAT_FLUSH_THRESHOLD ? 0f : ins;
+                    fCurD[cell + l] = del < FLOAT_FLUSH_THRESHOLD ? 0f : del;
+                }
+            }
+
+            for (int l = 0; l < lanes; l++) {
+                final HMMPair pair = pairs.get(from + l);
+                if (pair.read.length != i)
+                    continue;
+                float sum = 0f;
+                for (int j = 1; j <= pair.haplotypeBases.length; j++)
+                    sum += fCurM[j * lanes + l] + fCurI[j * lanes + l];
+                if (sum < MIN_ACCEPTED_FLOAT)
+                    underflowed.add(pair);
+                else
+                    result[pair.resultIndex] = Math.log10(sum) - LOG10_FLOAT_INITIAL_CONDITION;
+            }
+
+            final float[] m = fPrevM, ins = fPrevI, del = fPrevD;
+            fPrevM = fCurM; fPrevI = fCurI; fPrevD = fCurD;
+            fCurM = m; fCurI = ins; fCurD = del;
+        }
+    }
+
+    /**
+     * Computes a group of pairs in double precision.
+     *
+     * @param pairs the pairs to compute.
+     * @param from first pair of the group (inclusive).
+     * @param to last pair of the group (exclusive); at most {@link #laneCount} pairs after {@code from}.
+     * @param result where to store the log10 likelihoods, indexed by {@link HMMPair#resultIndex}.
+     */
+    private void computeDoubleGroup(final List<HMMPair> pairs, final int from, final int to, final double[] result) {
+        final int lanes = to - from;
+        final int maxReadLength = maxReadLength(pairs, from, to);
+        final int maxHaplotypeLength = interleaveHaplotypes(pairs, from, to);
+        final int rowSize = (maxHaplotypeLength + 1) * lanes;
+        if (dCurM.length < rowSize) {
+            dPrevM = new double[rowSize]; dPrevI = new double[rowSize]; dPrevD = new double[rowSize];
+            dCurM = new double[rowSize]; dCurI = new double[rowSize]; dCurD = new double[rowSize];
+        }
+
+        Arrays.fill(dPrevM, 0, rowSize, 0.0);
+        Arrays.fill(dPrevI, 0, rowSize, 0.0);
+        for (int l = 0; l < lanes; l++) {
+            final double initialValue = DOUBLE_INITIAL_CONDITION / pairs.get(from + l).haplotypeBases.length;
+            for (int j = 0; j <= maxHaplotypeLength; j++)
+                dPrevD[j * lanes + l] = initialValue;
+        }
+
+        for (int i = 1; i <= maxReadLength; i++) {
+            loadDoubleRowConstants(pairs, from, lanes, i);
+            Arrays.fill(dCurM, 0, lanes, 0.0);
+            Arrays.fill(dCurI, 0, lanes, 0.0);
+            Arrays.fill(dCurD, 0, lanes, 0.0);
+
+            for (int j = 1; j <= maxHaplotypeLength; j++) {
+                final int cell = j * lanes;
+                final int diagonal = cell - lanes;
+                for (int l = 0; l < lanes; l++) {
+                    final byte x = laneReadBase[l];
+                    final byte y = interleavedHaplotypes[diagonal + l];
+                    final double prior = (x == y || x == 'N' || y == 'N') ? dPriorMatch[l] : dPriorMismatch[l];
+                    dCurM[cell + l] = prior * (dPrevM[diagonal + l] * dMatchToMatch[l]
+                            + dPrevI[diagonal + l] * dIndelToMatch[l]
+                            + dPrevD[diagonal + l] * dIndelToMatch[l]);
+                    dCurI[cell + l] = dPrevM[cell + l] * dMatchToInsertion[l] + dPrevI[cell + l] * dInsertionToInsertion[l];
+                    dCurD[cell + l] = dCurM[diagonal + l] * dMatchToDeletion[l] + dCurD[diagonal + l] * dDeletionToDeletion[l];
+                }
+            }
+
+            for (int l = 0; l < lanes; l++) {
+                final HMMPair pair = pairs.get(from + l);
+                if (pair.read.length != i)
+                    continue;
+                double sum = 0.0;
+                for (int j = 1; j <= pair.haplotypeBases.length; j++)
+                    sum += dCurM[j * lanes + l] + dCurI[j * lanes + l];
+                result[pair.resultIndex] = Math.log10(sum) - LOG10_DOUBLE_INITIAL_CONDITION;
+            }
+
+            final double[] m = dPrevM, ins = dPrevI, del = dPrevD;
+            dPrevM = dCurM; dPrevI = dCurI; dPrevD = dCurD;
+            dCurM = m; dCurI = ins; dCurD = del;
+        }
+    }
+
+    /**
+     * Returns the length of the longest read in a group.
+     */
+    private static int maxReadLength(final List<HMMPair> pairs, final int from, final int to) {
+        int maxReadLength = 0;
+        for (int p = from; p < to; p++)
+            maxReadLength = Math.max(maxReadLength, pairs.get(p).read.length);
+        return maxReadLength;
+    }
+
+    /**
+     * Lays out the haplotype bases of a group interleaved by lane, padding shorter haplotypes with zeros.
+     *
+     * @return the length of the longest haplotype in the group.
+     */
+    private int interleaveHaplotypes(final List<HMMPair> pairs, final int from, final int to) {
+        final int lanes = to - from;
+        int maxHaplotypeLength = 0;
+        for (int l = 0; l < lanes; l++)
+            maxHaplotypeLength = Math.max(maxHaplotypeLength, pairs.get(from + l).haplotypeBases.length);
+        final int size = maxHaplotypeLength * lanes;
+        if (interleavedHaplotypes.length < size)
+            interleavedHaplotypes = new byte[size];
+        else
+            Arrays.fill(interleavedHaplotypes, 0, size, (byte) 0);
+        for (int l = 0; l < lanes; l++) {
+            final byte[] haplotypeBases = pairs.get(from + l).haplotypeBases;
+            for (int j = 0; j < haplotypeBases.length; j++)
+                interleavedHaplotypes[j * lanes + l] = haplotypeBases[j];
+        }
+        return maxHaplotypeLength;
+    }
+
+    /**
+     * Loads the per-lane priors and transitions for row {@code i}; lanes whose read is shorter get all zeros so that
+     * their padding cells stay at 0 rather than overflowing.
+     */
+    private void loadFloatRowConstants(final List<HMMPair> pairs, final int from, final int lanes, final int i) {
+        for (int l = 0; l < lanes; l++) {
+            final HMMRead read = pairs.get(from + l).read;
+            if (i > read.length) {
+                laneReadBase[l] = 0;
+                fPriorMatch[l] = fPriorMismatch[l] = 0f;
+                fMatchToMatch[l] = fIndelToMatch[l] = fMatchToInsertion[l] = fInsertionToInsertion[l] = fMatchToDeletion[l] = fDeletionToDeletion[l] = 0f;
+            } else {
+                final int offset = i * TRANS_PROB_ARRAY_LENGTH;
+                laneReadBase[l] = read.bases[i - 1];
+                fPriorMatch[l] = (float) read.priorMatch[i];
+                fPriorMismatch[l] = (float) read.priorMismatch[i];
+                fMatchToMatch[l] = (float) read.transitions[offset + matchToMatch];
+                fIndelToMatch[l] = (float) read.transitions[offset + indelToMatch];
+                fMatchToInsertion[l] = (float) read.transitions[offset + matchToInsertion];
+                fInsertionToInsertion[l] = (float) read.transitions[offset + insertionToInsertion];
+                fMatchToDeletion[l] = (float) read.transitions[offset + matchToDeletion];
+                fDeletionToDeletion[l] = (float) read.transitions[offset + deletionToDeletion];
+            }
+        }
+    }
+
+    /**
+     * Double precision counterpart of {@link #loadFloatRowConstants}.
+     */
+    private void loadDoubleRowConstants(final List<HMMPair> pairs, final int from, final int lanes, final int i) {
+        for (int l = 0; l < lanes; l++) {
+            final HMMRead read = pairs.get(from + l).read;
+            if (i > read.length) {
+                laneReadBase[l] = 0;
+                dPriorMatch[l] = dPriorMismatch[l] = 0.0;
+                dMatchToMatch[l] = dIndelToMatch[l] = dMatchToInsertion[l] = dInsertionToInsertion[l] = dMatchToDeletion[l] = dDeletionToDeletion[l] = 0.0;
+            } else {
+                final int offset = i * TRANS_PROB_ARRAY_LENGTH;
+                laneReadBase[l] = read.bases[i - 1];
+                dPriorMatch[l] = read.priorMatch[i];
+                dPriorMismatch[l] = read.priorMismatch[i];
+                dMatchToMatch[l] = read.transitions[offset + matchToMatch];
+                dIndelToMatch[l] = read.transitions[offset + indelToMatch];
+                dMatchToInsertion[l] = read.transitions[offset + matchToInsertion];
+                dInsertionToInsertion[l] = read.transitions[offset + insertionToInsertion];
+                dMatchToDeletion[l] = read.transitions[offset + matchToDeletion];
+                dDeletionToDeletion[l] = read.transitions[offset + deletionToDeletion];
+            }
+        }
+    }
+
+    /**
+     * Read-dependent constants shared by all the pairs of a read, 1-based by read position like the HMM rows.
+     */
+    private static final class HMMRead {
+        private final byte[] bases;
+        private final int length;
+        private final double[] priorMatch;
+        private final double[] priorMismatch;
+        private final double[] transitions;
+
+        private HMMRead(final byte[] bases, final byte[] quals, final byte[] insertionGOP, final byte[] deletionGOP,
+                        final byte[] overallGCP, final boolean doNotUseTristateCorrection) {
+            if (bases == null || bases.length == 0) throw new IllegalArgumentException("readBases cannot be null or empty");
+            if (quals == null || quals.length != bases.length) throw new IllegalArgumentException("Read bases and read quals aren't the same size");
+            if (insertionGOP == null || insertionGOP.length != bases.length) throw new IllegalArgumentException("Read bases and read insertion quals aren't the same size");
+            if (deletionGOP == null || deletionGOP.length != bases.length) throw new IllegalArgumentException("Read bases and read deletion quals aren't the same size");
+            if (overallGCP == null || overallGCP.length != bases.length) throw new IllegalArgumentException("Read bases and overall GCP aren't the same size");
+
+            this.bases = bases;
+            length = bases.length;
+            priorMatch = new double[length + 1];
+            priorMismatch = new double[length + 1];
+            transitions = new double[(length + 1) * TRANS_PROB_ARRAY_LENGTH];
+
+            final double[] siteTransitions = new double[TRANS_PROB_ARRAY_LENGTH];
+            for (int i = 0; i < length; i++) {
+                priorMatch[i + 1] = QualityUtils.qualToProb(quals[i]);
+                priorMismatch[i + 1] = QualityUtils.qualToErrorProb(quals[i]) / (doNotUseTristateCorrection ? 1.0 : 3.0);
+                qualToTransProbs(siteTransitions, insertionGOP[i], deletionGOP[i], overallGCP[i]);
+                System.arraycopy(siteTransitions, 0, transitions, (i + 1) * TRANS_PROB_ARRAY_LENGTH, TRANS_PROB_ARRAY_LENGTH);
+            }
+        }
+    }
+
+    /**
+     * A read x haplotype pair waiting to be computed.
+     */
+    private static final class HMMPair {
+        private final HMMRead read;
+        private final byte[] haplotypeBases;
+        private final int resultIndex;
+
+        private HMMPair(final HMMRead read, final byte[] haplotypeBases, final int resultIndex) {
+            this.read = read;
+            this.haplotypeBases = haplotypeBases;
+            this.resultIndex = resultIndex;
+        }
+    }
+}
@@ -71,7 +71,9 @@ public abstract class PairHMM {
         /* Debugging for vector implementation of LOGLESS_CACHING */
         DEBUG_VECTOR_LOGLESS_CACHING,
         /* Logless caching PairHMM that stores computations in 1D arrays instead of matrices, and which proceeds diagonally over the (read x haplotype) intersection matrix */
-        ARRAY_LOGLESS
+        ARRAY_LOGLESS,
+        /* Pure-Java LOGLESS_CACHING that interleaves many read x haplotype pairs (float with double fallback) so the JIT can vectorize it */
+        BATCH_LOGLESS
     }
 
     protected int maxHaplotypeLength, maxReadLength;
@@ -0,0 +1,357 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.smithwaterman;
+
+import htsjdk.samtools.CigarElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pairwise discrete smith-waterman alignment that gives exactly the same results as SWPairwiseAlignment
+ * without allocating its two int[n][m] matrices for every alignment
+ *
+ * Scores are kept for only two rows of the matrix at a time, and each diagonal step score comes from a
+ * per-reference-base profile of the alternate sequence rather than from a comparison per cell.  The back track is
+ * one byte per cell holding the direction taken and whether a vertical and/or horizontal gap was (re)opened there;
+ * the length of a gap step is recovered during the trace by walking back to the cell where the gap was opened,
+ * which is exactly the gap size SWPairwiseAlignment records.  All buffers belong to the calling thread and are
+ * reused across alignments.
+ *
+ * ************************************************************************
+ * ****                    IMPORTANT NOTE:                             ****
+ * ****  This class assumes that all bytes come from UPPERCASED chars! ****
+ * ************************************************************************
+ */
+public final class FastSWPairwiseAlignment extends SWPairwiseAlignment {
+
+    // the back track codes: the step taken into a cell in the low bits, plus the gap opening flags
+    private final static byte STEP_DIAG = 0;
+    private final static byte STEP_RIGHT = 1;
+    private final static byte STEP_DOWN = 2;
+    private final static byte STEP_MASK = 3;
+    private final static byte OPENED_HORIZONTAL_GAP = 4;
+    private final static byte OPENED_VERTICAL_GAP = 8;
+
+    /**
+     * Back tracks larger than this many cells are allocated for the alignment at hand rather than kept by the thread
+     */
+    private final static int MAX_RETAINED_TRACE_SIZE = 16 * 1024 * 1024;
+
+    private final static ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * The per-thread buffers of the alignment
+     */
+    private final static class Workspace {
+        private byte[] trace = new byte[0];
+        private int[] lastRow = new int[0];
+        private int[] curRow = new int[0];
+        private int[] bestGapV = new int[0];
+
+        // the diagonal step score against the alternate of every reference byte, built when first needed
+        private final int[][] profiles = new int[256][];
+        private final int[] profileStamps = new int[256];
+        private int stamp = 0;
+
+        private void ensureCapacity(final int traceSize, final int ncol) {
+            if ( trace.length < traceSize )
+                trace = new byte[Math.max(traceSize, Math.min(2 * trace.length, MAX_RETAINED_TRACE_SIZE))];
+            if ( lastRow.length < ncol ) {
+                final int size = Math.max(ncol, 2 * lastRow.length);
+                lastRow = new int[size];
+                curRow = new int[size];
+                bestGapV = new int[size];
+            }
+        }
+
+        /**
+         * Forget the profiles of the previous alignment
+         */
+        private void newAlignment() {
+            if ( ++stamp == Integer.MAX_VALUE ) {
+                Arrays.fill(profileStamps, 0);
+                stamp = 1;
+            }
+        }
+
+        /**
+         * @return the profile whose j-th element is the score of aligning refBase to alternate[j-1]
+         */
+        private int[] getProfile(final byte refBase, final byte[] alternate, final Parameters parameters) {
+            final int b = refBase & 0xFF;
+            int[] profile = profiles[b];
+            if ( profileStamps[b] != stamp ) {
+                if ( profile == null || profile.length <= alternate.length )
+                    profiles[b] = profile = new int[alternate.length + 1];
+                for ( int j = 1; j <= alternate.length; j++ )
+                    profile[j] = alternate[j-1] == refBase ? parameters.w_match : parameters.w_mismatch;
+                profileStamps[b] = stamp;
+            }
+            return profile;
+        }
+    }
+
+    /**
+     * Create a new SW pairwise aligner
+     *
+     * After creating the object the two sequences are aligned with an internal call to align(seq1, seq2)
+     *
+     * @param seq1 the first sequence we want to align
+     * @param seq2 the second sequence we want to align
+     * @param parameters the SW parameters to use
+     */
+    public FastSWPairwiseAlignment(final byte[] seq1, final byte[] seq2, final Parameters parameters) {
+        super(parameters);
+        align(seq1, seq2);
+    }
+
+    /**
+     * Create a new SW pairwise aligner
+     *
+     * After creating the object the two sequences are aligned with an internal call to align(seq1, seq2)
+     *
+     * @param seq1 the first sequence we want to align
+     * @param seq2 the second sequence we want to align
+     * @param parameters the SW parameters to use
+     * @param strategy   the overhang strategy to use
+     */
+    public FastSWPairwiseAlignment(final byte[] seq1, final byte[] seq2, final SWParameterSet parameters, final OVERHANG_STRATEGY strategy) {
+        super(parameters.parameters);
+        overhang_strategy = strategy;
+        align(seq1, seq2);
+    }
+
+    /**
+     * Create a new SW pairwise aligner
+     *
+     * After creating the object the two sequences are aligned with an internal call to align(seq1, seq2)
+     *
+     * @param seq1 the first sequence we want to align
+     * @param seq2 the second sequence we want to align
+     * @param namedParameters the named parameter set to get our parameters from
+     */
+    public FastSWPairwiseAlignment(final byte[] seq1, final byte[] seq2, final SWParameterSet namedParameters) {
+        this(seq1, seq2, namedParameters.parameters);
+    }
+
+    /**
+     * @see #FastSWPairwiseAlignment(byte[], byte[], SWParameterSet) with original default parameters
+     */
+    public FastSWPairwiseAlignment(final byte[] seq1, final byte[] seq2) {
+        this(seq1, seq2, SWParameterSet.ORIGINAL_DEFAULT);
+    }
+
+    /**
+     * Aligns the alternate sequence to the reference sequence
+     *
+     * @param reference  ref sequence
+     * @param alternate  alt sequence
+     */
+    @Override
+    protected void align(final byte[] reference, final byte[] alternate) {
+        if ( reference == null || reference.length == 0 || alternate == null || alternate.length == 0 )
+            throw new IllegalArgumentException("Non-null, non-empty sequences are required for the Smith-Waterman calculation");
+
+        // the full scoring matrix only exists in the original implementation
+        if ( keepScoringMatrix ) {
+            super.align(reference, alternate);
+            return;
+        }
+
+        final int nrow = reference.length + 1;
+        final int ncol = alternate.length + 1;
+        final int traceSize = nrow * ncol;
+        final Workspace workspace = traceSize > MAX_RETAINED_TRACE_SIZE ? new Workspace() : workspaces.get();
+        workspace.ensureCapacity(traceSize, ncol);
+        workspace.newAlignment();
+
+        final byte[] trace = workspace.trace;
+        final int[] bestGapV = workspace.bestGapV;
+        int[] lastRow = workspace.lastRow, curRow = workspace.curRow;
+
+        final int w_open = parameters.w_open, w_extend = parameters.w_extend;
+        final int MATRIX_MIN_CUTOFF = cutoff ? 0 : (int) -1e8; // never let matrix elements drop below this cutoff
+        final int lowInitValue = Integer.MIN_VALUE/2;
+        final boolean initializeEdges = overhang_strategy == OVERHANG_STRATEGY.INDEL || overhang_strategy == OVERHANG_STRATEGY.LEADING_INDEL;
+
+        // the first row, initialized with gap penalties if we want to keep track of indels at the edges of alignments
+        Arrays.fill(bestGapV, 0, ncol, lowInitValue);
+        curRow[0] = 0;
+        for ( int j = 1; j < ncol; j++ )
+            curRow[j] = initializeEdges ? (j == 1 ? w_open : curRow[j-1] + w_extend) : 0;
+
+        // the best end point on the rightmost column, found as the rows go by
+        int maxScore = Integer.MIN_VALUE;
+        int maxScoreRow = 0;
+
+        for ( int i = 1; i < nrow; i++ ) {
+            final int[] profile = workspace.getProfile(reference[i-1], alternate, parameters);
+            final int[] swap = lastRow; lastRow = curRow; curRow = swap;
+            curRow[0] = initializeEdges ? (i == 1 ? w_open : lastRow[0] + w_extend) : 0;
+
+            final int rowOffset = i * ncol;
+            int bestGapH = lowInitValue;
+            for ( int j = 1; j < ncol; j++ ) {
+                final int step_diag = lastRow[j-1] + profile[j];
+                byte code = STEP_DIAG;
+
+                // the best gap arriving from above, see SWPairwiseAlignment.calculateMatrix
+                int prev_gap = lastRow[j] + w_open;
+                int step_down = bestGapV[j] + w_extend;
+                if ( prev_gap > step_down ) {
+                    step_down = prev_gap;
+                    code |= OPENED_VERTICAL_GAP;
+                }
+                bestGapV[j] = step_down;
+
+                // the best gap arriving from the left
+                prev_gap = curRow[j-1] + w_open;
+                bestGapH += w_extend;
+                if ( prev_gap > bestGapH ) {
+                    bestGapH = prev_gap;
+                    code |= OPENED_HORIZONTAL_GAP;
+                }
+                final int step_right = bestGapH;
+
+                //priority here will be step diagonal, step right, step down
+                if ( step_diag >= step_down && step_diag >= step_right ) {
+                    curRow[j] = Math.max(MATRIX_MIN_CUTOFF, step_diag);
+                } else if ( step_right >= step_down ) {
+                    curRow[j] = Math.max(MATRIX_MIN_CUTOFF, step_right);
+                    code |= STEP_RIGHT;
+                } else {
+                    curRow[j] = Math.max(MATRIX_MIN_CUTOFF, step_down);
+                    code |= STEP_DOWN;
+                }
+                trace[rowOffset + j] = code;
+            }
+
+            if ( curRow[ncol-1] >= maxScore ) {
+                maxScoreRow = i;
+                maxScore = curRow[ncol-1];
+            }
+        }
+
+        // curRow now holds the bottom row of the matrix
+        alignmentResult = calculateCigar(trace, nrow, ncol, maxScoreRow, maxScore, curRow);
+    }
+
+    /**
+     * Calculates the CIGAR for the alignment from the back track, exactly as SWPairwiseAlignment does from its
+     * back track matrix
+     *
+     * @param trace         the back track codes, row-major with ncol cells per row
+     * @param nrow          the number of rows of the matrix
+     * @param ncol          the number of columns of the matrix
+     * @param maxScoreRow   the row of the best score on the rightmost column, the last one in case of ties
+     * @param maxScore      the best score on the rightmost column
+     * @param bottomRow     the scores of the bottom row of the matrix
+     * @return non-null SWPairwiseAlignmentResult object
+     */
+    private SWPairwiseAlignmentResult calculateCigar(final byte[] trace, final int nrow, final int ncol,
+                                                     final int maxScoreRow, final int maxScore, final int[] bottomRow) {
+        // p holds the position we start backtracking from; we will be assembling a cigar in the backwards order
+        int p1, p2;
+
+        final int refLength = nrow-1;
+        final int altLength = ncol-1;
+
+        int segment_length = 0; // length of the segment (continuous matches, insertions or deletions)
+
+        // if we want to consider overhangs as legitimate operators, then just start from the corner of the matrix
+        if ( overhang_strategy == OVERHANG_STRATEGY.INDEL ) {
+            p1 = refLength;
+            p2 = altLength;
+        } else {
+            // the largest score on the rightmost column
+            p1 = maxScoreRow;
+            p2 = altLength;
+
+            // now look for a larger score on the bottom-most row
+            if ( overhang_strategy != OVERHANG_STRATEGY.LEADING_INDEL ) {
+                int maxscore = maxScore;
+                for ( int j = 1; j < ncol; j++ ) {
+                    final int curScore = bottomRow[j];
+                    if ( curScore > maxscore ||
+                            (curScore == maxscore && Math.abs(refLength-j) < Math.abs(p1 - p2) ) ) {
+                        p1 = refLength;
+                        p2 = j;
+                        maxscore = curScore;
+                        segment_length = altLength - j; // end of sequence 2 is overhanging; we will just record it as 'M' segment
+                    }
+                }
+            }
+        }
+        final List<CigarElement> lce = new ArrayList<CigarElement>(5);
+        if ( segment_length > 0 && overhang_strategy == OVERHANG_STRATEGY.SOFTCLIP ) {
+            lce.add(makeElement(State.CLIP, segment_length));
+            segment_length = 0;
+        }
+
+        State state = State.MATCH;
+        do {
+            final int step = trace[p1 * ncol + p2] & STEP_MASK;
+            State new_state;
+            int step_length = 1;
+            if ( step == STEP_DOWN ) {
+                // the gap spans back to (and includes) the cell of this column where it was opened, or to the first row
+                int opened = p1;
+                while ( opened > 1 && (trace[opened * ncol + p2] & OPENED_VERTICAL_GAP) == 0 ) opened--;
+                new_state = State.DELETION;
+                step_length = p1 - opened + 1;
+                p1 -= step_length; // move up
+            } else if ( step == STEP_RIGHT ) {
+                // likewise along this row
+                int opened = p2;
+                while ( opened > 1 && (trace[p1 * ncol + opened] & OPENED_HORIZONTAL_GAP) == 0 ) opened--;
+                new_state = State.INSERTION;
+                step_length = p2 - opened + 1;
+                p2 -= step_length; // move left
+            } else {
+                new_state = State.MATCH;
+                p1--; p2--; // move back along the diag in the sw matrix
+            }
+
+            // now let's see if the state actually changed:
+            if ( new_state == state ) segment_length += step_length;
+            else {
+                // state changed, lets emit previous segment, whatever it was (Insertion Deletion, or (Mis)Match).
+                lce.add(makeElement(state, segment_length));
+                segment_length = step_length;
+                state = new_state;
+            }
+        } while ( p1 > 0 && p2 > 0 );
+
+        return finishCigar(lce, state, segment_length, p1, p2, overhang_strategy);
+    }
+}
@@ -435,6 +435,22 @@ public class SWPairwiseAlignment implements SmithWaterman {
         // next condition is equivalent to  while ( sw[p1][p2] != 0 ) (with modified p1 and/or p2:
         } while ( p1 > 0 && p2 > 0 );
 
+        return finishCigar(lce, state, segment_length, p1, p2, overhang_strategy);
+    }
+
+    /**
+     * Finishes the CIGAR once the back track has reached the first row or column of the matrix
+     *
+     * @param lce                  the cigar elements emitted so far, in backwards order
+     * @param state                the state of the segment we are still keeping
+     * @param segment_length       the length of the segment we are still keeping
+     * @param p1                   the reference position the back track stopped at
+     * @param p2                   the alternate position the back track stopped at
+     * @param overhang_strategy    the strategy to use for dealing with overhangs
+     * @return non-null SWPairwiseAlignmentResult object
+     */
+    protected SWPairwiseAlignmentResult finishCigar(final List<CigarElement> lce, final State state, final int segment_length,
+                                                    final int p1, final int p2, final OVERHANG_STRATEGY overhang_strategy) {
         // post-process the last segment we are still keeping;
         // NOTE: if reads "overhangs" the ref on the left (i.e. if p2>0) we are counting
         // those extra bases sticking out of the ref into the first cigar element if DO_SOFTCLIP is false;
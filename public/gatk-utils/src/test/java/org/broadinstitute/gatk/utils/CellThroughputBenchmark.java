@@ -0,0 +1,80 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils;
+
+import com.google.caliper.SimpleBenchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caliper benchmark base class that reports kernel throughput in cells per second instead of time per rep.
+ *
+ * <p>
+ *     A "cell" is whatever unit of work the benchmarked kernel performs per iteration of its inner loop, e.g. a
+ *     read x haplotype matrix cell for PairHMM or a read x allele entry for ReadLikelihoods. Running caliper with
+ *     {@code --measureMemory} additionally reports the bytes allocated per cell, which tracks the allocation rate
+ *     of the kernel independently of its speed.
+ * </p>
+ */
+public abstract class CellThroughputBenchmark extends SimpleBenchmark {
+
+    /**
+     * Number of cells computed by a single rep of every time method in the benchmark.
+     *
+     * <p>Called only after {@link #setUp()}, so it can depend on the benchmark parameters.</p>
+     *
+     * @return greater than 0.
+     */
+    protected abstract long cellsPerRep();
+
+    @Override
+    public Map<String, Integer> getTimeUnitNames() {
+        final Map<String, Integer> units = new HashMap<String, Integer>();
+        units.put("cells/s", 1);
+        units.put("Kcells/s", 1000);
+        units.put("Mcells/s", 1000000);
+        return units;
+    }
+
+    @Override
+    public double nanosToUnits(final double nanos) {
+        return cellsPerRep() * 1e9 / nanos;
+    }
+
+    @Override
+    public Map<String, Integer> getMemoryUnitNames() {
+        final Map<String, Integer> units = new HashMap<String, Integer>();
+        units.put("B/cell", 1);
+        units.put("KB/cell", 1024);
+        return units;
+    }
+
+    @Override
+    public double bytesToUnits(final long bytes) {
+        return (double) bytes / cellsPerRep();
+    }
+}
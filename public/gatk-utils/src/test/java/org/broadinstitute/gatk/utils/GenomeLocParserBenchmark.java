@@ -27,27 +27,64 @@ package org.broadinstitute.gatk.utils;
 
 import com.google.caliper.Param;
 import com.google.caliper.SimpleBenchmark;
-import htsjdk.samtools.reference.ReferenceSequenceFile;
-import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
-
-import java.io.File;
+import htsjdk.samtools.SAMSequenceDictionary;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
 
 /**
  * Caliper microbenchmark of genome loc parser
  */
 public class GenomeLocParserBenchmark extends SimpleBenchmark {
-    private ReferenceSequenceFile seq;
+    private SAMSequenceDictionary dict;
     private final int ITERATIONS = 1000000;
 
-    @Param({"NEW", "NONE"})
+    @Param({"STANDARD", "NONE"})
     GenomeLocParser.ValidationLevel validationLevel; // set automatically by framework
 
     @Param({"true", "false"})
     boolean useContigIndex; // set automatically by framework
 
     @Override protected void setUp() throws Exception {
-        seq = new CachingIndexedFastaSequenceFile(new File("/Users/depristo/Desktop/broadLocal/localData/human_g1k_v37.fasta"));
+        // a b37-like dictionary, so that contig lookups by name have the realistic number of contigs to search
+        dict = ArtificialSAMUtils.createArtificialSamHeader(84, 1, 250000000).getSequenceDictionary();
+    }
+
+    /**
+     * Walk along a contig one base at a time creating a GenomeLoc per position, as the locus traversals used to do
+     */
+    public void timeSequentialGenomeLocs(int rep) {
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(dict, validationLevel);
+        final String contig = dict.getSequence(1).getSequenceName();
+        long sum = 0;
+        for ( int i = 0; i < rep; i++ ) {
+            for ( int j = 1; j < ITERATIONS; j++ ) {
+                final GenomeLoc loc = useContigIndex
+                        ? genomeLocParser.createGenomeLoc(1, j, j)
+                        : genomeLocParser.createGenomeLoc(contig, j);
+                sum += loc.getStart();
+            }
+        }
+        if ( sum == 0 ) throw new IllegalStateException();
     }
+
+    /**
+     * Walk along a contig one base at a time with packed coordinates, only creating a GenomeLoc every 100 bases
+     */
+    public void timeSequentialCoordinates(int rep) {
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(dict, validationLevel);
+        final String contig = dict.getSequence(1).getSequenceName();
+        long sum = 0;
+        for ( int i = 0; i < rep; i++ ) {
+            long coordinate = useContigIndex ? GenomeCoordinate.encode(1, 1) : GenomeCoordinate.encode(genomeLocParser.getContigIndex(contig), 1);
+            for ( int j = 1; j < ITERATIONS; j++ ) {
+                coordinate = GenomeCoordinate.increment(coordinate, 1);
+                sum += GenomeCoordinate.getPosition(coordinate);
+                if ( j % 100 == 0 )
+                    sum += genomeLocParser.createGenomeLoc(coordinate).getStart();
+            }
+        }
+        if ( sum == 0 ) throw new IllegalStateException();
+    }
+
 //
 //    public void timeSequentialCreationFromGenomeLoc(int rep) {
 //        final GenomeLocParser genomeLocParser = new GenomeLocParser(seq.getSequenceDictionary(), validationLevel);
@@ -581,4 +581,51 @@ public class GenomeLocParserUnitTest extends BaseTest {
         Assert.assertEquals(padded.getStart(), Math.max(input.getStart() - pad, 1));
         Assert.assertEquals(padded.getStop(), Math.min(input.getStop() + pad, contigLength));
     }
+
+    @Test
+    public void testPackedCoordinates() {
+        final SAMSequenceDictionary dict = ArtificialSAMUtils.createArtificialSamHeader(3, 1, 100).getSequenceDictionary();
+        final GenomeLocParser parser = new GenomeLocParser(dict);
+
+        final long coordinate = GenomeCoordinate.encode(parser.getContigIndex("chr2"), 17);
+        Assert.assertEquals(GenomeCoordinate.getContigIndex(coordinate), 1);
+        Assert.assertEquals(GenomeCoordinate.getPosition(coordinate), 17);
+
+        final GenomeLoc loc = parser.createGenomeLoc(coordinate);
+        Assert.assertEquals(loc, parser.createGenomeLoc("chr2", 17));
+        Assert.assertSame(loc.getContig(), dict.getSequence(1).getSequenceName());
+        Assert.assertEquals(GenomeCoordinate.getStart(loc), coordinate);
+        Assert.assertTrue(GenomeCoordinate.isContainedIn(coordinate, parser.createGenomeLoc("chr2", 10, 17)));
+        Assert.assertFalse(GenomeCoordinate.isContainedIn(coordinate, parser.createGenomeLoc("chr3", 10, 17)));
+        Assert.assertEquals(parser.createGenomeLoc(2, 5, 10), parser.createGenomeLoc("chr3", 5, 10));
+
+        // packed coordinates sort like the GenomeLocs they stand for
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        for ( int contig = 0; contig < 3; contig++ )
+            for ( final int position : Arrays.asList(1, 2, 50, 100) )
+                locs.add(parser.createGenomeLoc(contig, position, position));
+        for ( final GenomeLoc a : locs )
+            for ( final GenomeLoc b : locs )
+                Assert.assertEquals(Long.signum(Long.compare(GenomeCoordinate.getStart(a), GenomeCoordinate.getStart(b))), Integer.signum(a.compareTo(b)));
+    }
+
+    @Test(expectedExceptions = UserException.MalformedGenomeLoc.class)
+    public void testCreateGenomeLocFromBadContigIndex() {
+        genomeLocParser.createGenomeLoc(1, 1, 1);
+    }
+
+    @Test(expectedExceptions = UserException.MalformedGenomeLoc.class)
+    public void testCreateGenomeLocFromNegativeContigIndex() {
+        genomeLocParser.createGenomeLoc(-1, 1, 1);
+    }
+
+    @Test(expectedExceptions = UserException.MalformedGenomeLoc.class)
+    public void testCreateGenomeLocFromBadContigIndexWithoutValidation() {
+        new GenomeLocParser(header.getSequenceDictionary(), GenomeLocParser.ValidationLevel.NONE).createGenomeLoc(1, 1, 1);
+    }
+
+    @Test(expectedExceptions = UserException.MalformedGenomeLoc.class)
+    public void testCreateGenomeLocByIndexWithStopBeforeStart() {
+        genomeLocParser.createGenomeLoc(0, 5, 4);
+    }
 }
@@ -0,0 +1,104 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.baq;
+
+import com.google.caliper.Param;
+import htsjdk.samtools.SAMFileHeader;
+import org.broadinstitute.gatk.utils.CellThroughputBenchmark;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Caliper microbenchmark of BAQ.calcBAQFromHMM on reads carrying a few mismatches against their reference window
+ */
+public class BAQBenchmark extends CellThroughputBenchmark {
+
+    @Param({"101", "250"})
+    int readLength; // set automatically by framework
+
+    @Param({"7", "20"})
+    int bandWidth; // set automatically by framework
+
+    @Param({"BAQ", "FastBAQ"})
+    String implementation; // set automatically by framework
+
+    final int readCount = 1000;
+
+    BAQ baq;
+    List<GATKSAMRecord> reads;
+    List<byte[]> refWindows;
+    int refOffset;
+
+    @Override protected void setUp() {
+        final Random rnd = new Random(23);
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000);
+        baq = implementation.equals("FastBAQ")
+                ? new FastBAQ(1e-3, 0.1, bandWidth, (byte) 4, false)
+                : new BAQ(1e-3, 0.1, bandWidth, (byte) 4, false);
+
+        // the reference window is padded by half the band width on each side, as in calcBAQFromHMM(read, refReader)
+        final int padding = bandWidth / 2;
+        refOffset = -padding;
+        reads = new ArrayList<>(readCount);
+        refWindows = new ArrayList<>(readCount);
+        for ( int r = 0; r < readCount; r++ ) {
+            final byte[] ref = new byte[readLength + 2 * padding];
+            for ( int i = 0; i < ref.length; i++ )
+                ref[i] = "ACGT".getBytes()[rnd.nextInt(4)];
+            final byte[] bases = Arrays.copyOfRange(ref, padding, padding + readLength);
+            for ( int m = 0; m < 3; m++ )
+                bases[rnd.nextInt(readLength)] = "ACGT".getBytes()[rnd.nextInt(4)];
+            final byte[] quals = new byte[readLength];
+            for ( int i = 0; i < readLength; i++ )
+                quals[i] = (byte) (10 + rnd.nextInt(30));
+            reads.add(ArtificialSAMUtils.createArtificialRead(header, "read" + r, 0, 1 + padding, bases, quals, readLength + "M"));
+            refWindows.add(ref);
+        }
+    }
+
+    /**
+     * The forward and backward passes each visit (2 * bandWidth + 1) cells per read base.
+     */
+    @Override
+    protected long cellsPerRep() {
+        return (long) readCount * readLength * (2 * bandWidth + 1);
+    }
+
+    public void timeCalcBAQFromHMM(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            for ( int r = 0; r < readCount; r++ )
+                baq.calcBAQFromHMM(reads.get(r), refWindows.get(r), refOffset);
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(BAQBenchmark.class, args);
+    }
+}
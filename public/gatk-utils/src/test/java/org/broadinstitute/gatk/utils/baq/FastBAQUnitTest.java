@@ -0,0 +1,145 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.baq;
+
+import htsjdk.samtools.SAMFileHeader;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that FastBAQ produces exactly the same states and qualities as BAQ
+ */
+public class FastBAQUnitTest extends BaseTest {
+    private final static byte[] BASES = "ACGTacgtNRY".getBytes();
+
+    @DataProvider(name = "HMMData")
+    public Object[][] makeHMMData() {
+        final List<Object[]> tests = new ArrayList<>();
+        for ( final int bandWidth : Arrays.asList(1, 3, 7, 20) )
+            for ( final int readLength : Arrays.asList(1, 2, 10, 101) )
+                for ( final int refLengthDelta : Arrays.asList(-5, 0, 3, 14) )
+                    if ( readLength + refLengthDelta > 0 )
+                        tests.add(new Object[]{bandWidth, readLength, readLength + refLengthDelta});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "HMMData")
+    public void testHMMMatchesBAQ(final int bandWidth, final int readLength, final int refLength) {
+        final BAQ baq = new BAQ(1e-3, 0.1, bandWidth, (byte) 4, false);
+        final FastBAQ fastBAQ = new FastBAQ(1e-3, 0.1, bandWidth, (byte) 4, false);
+        final Random rnd = new Random(bandWidth * 1000 + readLength * 10 + refLength);
+
+        for ( int trial = 0; trial < 20; trial++ ) {
+            final byte[] ref = randomBases(rnd, refLength);
+            final int qstart = rnd.nextInt(3);
+            final byte[] query = randomBases(rnd, qstart + readLength);
+            // mostly copy the reference into the read, so that there is a real alignment to find
+            for ( int i = 0; i < readLength && i < refLength; i++ )
+                if ( rnd.nextInt(10) > 0 )
+                    query[qstart + i] = ref[i];
+            final byte[] quals = new byte[query.length];
+            for ( int i = 0; i < quals.length; i++ )
+                quals[i] = (byte) rnd.nextInt(60);
+
+            final int[] expectedState = new int[query.length], actualState = new int[query.length];
+            final byte[] expectedQuals = new byte[query.length], actualQuals = new byte[query.length];
+            baq.hmm_glocal(ref, query, qstart, readLength, quals, expectedState, expectedQuals);
+            fastBAQ.hmm_glocal(ref, query, qstart, readLength, quals, actualState, actualQuals);
+
+            Assert.assertEquals(actualState, expectedState);
+            Assert.assertEquals(actualQuals, expectedQuals);
+        }
+    }
+
+    @Test
+    public void testCalcBAQFromHMMMatchesBAQ() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        final BAQ baq = new BAQ();
+        final FastBAQ fastBAQ = new FastBAQ();
+        final Random rnd = new Random(17);
+
+        for ( final String cigar : Arrays.asList("50M", "20M2I28M", "20M3D30M", "5S40M5S", "10M1I10M2D29M") ) {
+            final byte[] ref = randomBases(rnd, 80);
+            final byte[] bases = randomBases(rnd, 50);
+            final byte[] quals = new byte[bases.length];
+            for ( int i = 0; i < quals.length; i++ )
+                quals[i] = (byte) (10 + rnd.nextInt(30));
+
+            final GATKSAMRecord expectedRead = ArtificialSAMUtils.createArtificialRead(header, "read", 0, 11, bases, quals.clone(), cigar);
+            final GATKSAMRecord actualRead = ArtificialSAMUtils.createArtificialRead(header, "read", 0, 11, bases, quals.clone(), cigar);
+            final BAQ.BAQCalculationResult expected = baq.calcBAQFromHMM(expectedRead, ref, 0);
+            final BAQ.BAQCalculationResult actual = fastBAQ.calcBAQFromHMM(actualRead, ref, 0);
+
+            Assert.assertEquals(actual.state, expected.state, cigar);
+            Assert.assertEquals(actual.bq, expected.bq, cigar);
+        }
+    }
+
+    @Test
+    public void testBuffersAreReusedAcrossReadSizes() {
+        final BAQ baq = new BAQ();
+        final FastBAQ fastBAQ = new FastBAQ();
+        final Random rnd = new Random(5);
+
+        // a long read followed by short ones, so stale values would be left in the reused matrices
+        for ( final int length : Arrays.asList(500, 20, 250, 3, 500) ) {
+            final byte[] ref = randomBases(rnd, length + 6);
+            final byte[] query = Arrays.copyOfRange(ref, 3, length + 3);
+            final byte[] quals = new byte[length];
+            Arrays.fill(quals, (byte) 30);
+
+            final byte[] expected = new byte[length], actual = new byte[length];
+            baq.hmm_glocal(ref, query, 0, length, quals, null, expected);
+            fastBAQ.hmm_glocal(ref, query, 0, length, quals, null, actual);
+            Assert.assertEquals(actual, expected, "length " + length);
+        }
+    }
+
+    @Test(expectedExceptions = ReviewedGATKException.class)
+    public void testQualityOutOfRange() {
+        final byte[] bases = "ACGTACGT".getBytes();
+        final byte[] quals = new byte[bases.length];
+        Arrays.fill(quals, (byte) 100);
+        new FastBAQ().hmm_glocal(bases, bases, 0, bases.length, quals, null, new byte[bases.length]);
+    }
+
+    private static byte[] randomBases(final Random rnd, final int length) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = BASES[rnd.nextInt(BASES.length)];
+        return bases;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.classloader;
+
+import htsjdk.tribble.FeatureCodec;
+import org.apache.commons.io.FileUtils;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.io.IOUtils;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ConfigurationBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+public class PluginIndexUnitTest extends BaseTest {
+
+    // Test classes used as plugins of TestPlugin
+    private interface TestPlugin { }
+    private static class TestPluginA implements TestPlugin { }
+    private static class TestPluginB extends TestPluginA { }
+
+    @Test
+    public void testScanMatchesReflections() throws IOException {
+        final List<URL> urls = Collections.singletonList(getHtsjdkJar().toURI().toURL());
+        final PluginIndex pluginIndex = PluginIndex.forUrls(urls);
+        Assert.assertEquals(pluginIndex.getIndexedClassCount(), 0);
+        Assert.assertTrue(pluginIndex.getScannedClassCount() > 0);
+        assertSameSubTypes(pluginIndex, urls, FeatureCodec.class);
+    }
+
+    @Test
+    public void testJarSectionIsUsed() throws IOException {
+        final File htsjdkJar = getHtsjdkJar();
+        final File indexDirectory = IOUtils.tempDir("PluginIndexUnitTest", "");
+        try {
+            PluginIndex.writeIndex(indexDirectory, Collections.singletonList(htsjdkJar));
+
+            final List<URL> urls = Arrays.asList(indexDirectory.toURI().toURL(), htsjdkJar.toURI().toURL());
+            final PluginIndex pluginIndex = PluginIndex.forUrls(urls);
+            Assert.assertTrue(pluginIndex.getIndexedClassCount() > 0);
+            Assert.assertEquals(pluginIndex.getScannedClassCount(), 0);
+            assertSameSubTypes(pluginIndex, urls, FeatureCodec.class);
+        } finally {
+            FileUtils.deleteDirectory(indexDirectory);
+        }
+    }
+
+    @Test
+    public void testSectionForAnotherJarIsIgnored() throws IOException {
+        final File htsjdkJar = getHtsjdkJar();
+        final File indexDirectory = IOUtils.tempDir("PluginIndexUnitTest", "");
+        try {
+            final File indexFile = PluginIndex.writeIndex(indexDirectory, Collections.singletonList(htsjdkJar));
+            // as if the index had been built against a different build of the same jar
+            final String index = FileUtils.readFileToString(indexFile);
+            FileUtils.writeStringToFile(indexFile, index.replace(htsjdkJar.getName() + "\t" + htsjdkJar.length(), htsjdkJar.getName() + "\t1"));
+
+            final List<URL> urls = Arrays.asList(indexDirectory.toURI().toURL(), htsjdkJar.toURI().toURL());
+            final PluginIndex pluginIndex = PluginIndex.forUrls(urls);
+            Assert.assertEquals(pluginIndex.getIndexedClassCount(), 0);
+            assertSameSubTypes(pluginIndex, urls, FeatureCodec.class);
+        } finally {
+            FileUtils.deleteDirectory(indexDirectory);
+        }
+    }
+
+    @Test
+    public void testDirectoryIndex() throws IOException {
+        final File classesDirectory = IOUtils.tempDir("PluginIndexUnitTest", "");
+        try {
+            final List<File> classFiles = new ArrayList<File>();
+            for ( final Class<?> clazz : Arrays.asList(TestPlugin.class, TestPluginA.class, TestPluginB.class) ) {
+                final String path = clazz.getName().replace('.', '/') + ".class";
+                final File classFile = new File(classesDirectory, path);
+                FileUtils.copyURLToFile(clazz.getClassLoader().getResource(path), classFile);
+                classFiles.add(classFile);
+            }
+            final File indexFile = PluginIndex.writeIndex(classesDirectory, Collections.<File>emptyList());
+            final List<URL> urls = Collections.singletonList(classesDirectory.toURI().toURL());
+
+            PluginIndex pluginIndex = PluginIndex.forUrls(urls);
+            Assert.assertEquals(pluginIndex.getIndexedClassCount(), 3);
+            Assert.assertEquals(pluginIndex.getScannedClassCount(), 0);
+            Assert.assertEquals(pluginIndex.getSubTypesOf(TestPlugin.class), new HashSet<Class<?>>(Arrays.asList(TestPluginA.class, TestPluginB.class)));
+
+            // a class recompiled after the index was written is read again
+            Assert.assertTrue(classFiles.get(2).setLastModified(indexFile.lastModified() + 10000));
+            pluginIndex = PluginIndex.forUrls(urls);
+            Assert.assertEquals(pluginIndex.getIndexedClassCount(), 2);
+            Assert.assertEquals(pluginIndex.getScannedClassCount(), 1);
+            Assert.assertEquals(pluginIndex.getSubTypesOf(TestPluginA.class), Collections.singleton(TestPluginB.class));
+
+            // and without an index, everything is
+            Assert.assertTrue(indexFile.delete());
+            pluginIndex = PluginIndex.forUrls(urls);
+            Assert.assertEquals(pluginIndex.getIndexedClassCount(), 0);
+            Assert.assertEquals(pluginIndex.getScannedClassCount(), 3);
+            Assert.assertEquals(pluginIndex.getSubTypesOf(TestPlugin.class), new HashSet<Class<?>>(Arrays.asList(TestPluginA.class, TestPluginB.class)));
+        } finally {
+            FileUtils.deleteDirectory(classesDirectory);
+        }
+    }
+
+    private static File getHtsjdkJar() throws IOException {
+        return JVMUtils.getLocationFor(FeatureCodec.class);
+    }
+
+    private static void assertSameSubTypes(final PluginIndex pluginIndex, final List<URL> urls, final Class<?> type) {
+        final Reflections reflections = new Reflections(new ConfigurationBuilder()
+                .setUrls(urls)
+                .setScanners(new SubTypesScanner()));
+        final Set<?> expected = reflections.getSubTypesOf(type);
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(pluginIndex.getSubTypesOf(type), expected);
+    }
+}
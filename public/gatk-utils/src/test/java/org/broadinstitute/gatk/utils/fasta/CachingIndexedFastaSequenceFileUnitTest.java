@@ -189,6 +189,58 @@ public class CachingIndexedFastaSequenceFileUnitTest extends BaseTest {
         }
     }
 
+    @Test(enabled = true && ! DEBUG)
+    public void testCacheIsSharedAcrossThreads() throws FileNotFoundException, InterruptedException {
+        final CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(simpleFasta, 10000, true, false);
+        final SAMSequenceRecord contig = caching.getSequenceDictionary().getSequence(0);
+        final int nQueries = 1000;
+
+        final Runnable readRegion = new Runnable() {
+            @Override
+            public void run() {
+                for ( int start = 1; start <= nQueries; start++ )
+                    caching.getSubsequenceAt(contig.getSequenceName(), start, start + 10);
+            }
+        };
+
+        final Thread first = new Thread(readRegion);
+        first.start();
+        first.join();
+        final long hitsAfterFirst = caching.getCacheHits();
+        final long missesAfterFirst = caching.getCacheMisses();
+        Assert.assertTrue(missesAfterFirst > 0);
+
+        // a second thread reading the same region should find all of it in the cache loaded by the first
+        final Thread second = new Thread(readRegion);
+        second.start();
+        second.join();
+        Assert.assertEquals(caching.getCacheMisses(), missesAfterFirst);
+        Assert.assertEquals(caching.getCacheHits(), hitsAfterFirst + nQueries);
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testReadAheadAlongContig() throws FileNotFoundException {
+        final CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(simpleFasta, 10000, true, false);
+        final SAMSequenceRecord contig = caching.getSequenceDictionary().getSequence(0);
+        final int nBlocks = contig.getSequenceLength() / caching.getBlockSize();
+
+        for ( int start = 1; start + 10 <= contig.getSequenceLength(); start += 10 )
+            caching.getSubsequenceAt(contig.getSequenceName(), start, start + 10);
+
+        // every block after the first is read ahead while we're in the one before it
+        Assert.assertTrue(caching.getBlocksPrefetched() >= nBlocks - 1, "Expected blocks to be read ahead but only " + caching.getBlocksPrefetched() + " of " + nBlocks + " were");
+        Assert.assertTrue(caching.getCacheMisses() <= nBlocks + 1, "Too many misses: " + caching.getCacheMisses());
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testCacheHoldsAtMostTwiceCacheSize() throws FileNotFoundException {
+        for ( final long cacheSize : Arrays.asList(0L, 1L, 100L, 1000L, 5000L, 10000L, CachingIndexedFastaSequenceFile.DEFAULT_CACHE_SIZE) ) {
+            final CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(simpleFasta, cacheSize, true, false);
+            Assert.assertTrue(caching.getMaxCachedBases() <= Math.max(2 * cacheSize, 1), "Cache of size " + cacheSize + " can hold " + caching.getMaxCachedBases() + " bases");
+            Assert.assertTrue(caching.getMaxCachedBases() >= caching.getBlockSize(), "Cache of size " + cacheSize + " can't hold a single block");
+        }
+    }
+
     // make sure some bases are lower case and some are upper case
     @Test(enabled = true)
     public void testMixedCasesInExample() throws FileNotFoundException, InterruptedException {
@@ -0,0 +1,131 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.genotyper;
+
+import com.google.caliper.Param;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.variant.variantcontext.Allele;
+import org.broadinstitute.gatk.utils.CellThroughputBenchmark;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Caliper microbenchmark of the ReadLikelihoods marginalization and normalization paths
+ */
+public class ReadLikelihoodsBenchmark extends CellThroughputBenchmark {
+
+    @Param({"1", "10"})
+    int sampleCount; // set automatically by framework
+
+    @Param({"100", "1000"})
+    int readsPerSample; // set automatically by framework
+
+    @Param({"8", "32"})
+    int haplotypeCount; // set automatically by framework
+
+    final int readLength = 101;
+    final int regionLength = 1000;
+
+    ReadLikelihoods<Haplotype> likelihoods;
+    Map<Allele, List<Haplotype>> alleleToHaplotypes;
+    GenomeLoc variantLoc;
+
+    @Override protected void setUp() {
+        final Random rnd = new Random(31);
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000);
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+
+        final List<Haplotype> haplotypes = new ArrayList<>(haplotypeCount);
+        for ( int h = 0; h < haplotypeCount; h++ ) {
+            final byte[] bases = new byte[regionLength];
+            for ( int i = 0; i < regionLength; i++ )
+                bases[i] = "ACGT".getBytes()[rnd.nextInt(4)];
+            haplotypes.add(new Haplotype(bases, h == 0));
+        }
+
+        final List<String> samples = new ArrayList<>(sampleCount);
+        final Map<String, List<GATKSAMRecord>> readsBySample = new HashMap<>(sampleCount);
+        for ( int s = 0; s < sampleCount; s++ ) {
+            final String sample = "sample" + s;
+            final List<GATKSAMRecord> reads = new ArrayList<>(readsPerSample);
+            for ( int r = 0; r < readsPerSample; r++ )
+                reads.add(ArtificialSAMUtils.createArtificialRead(header, sample + "_read" + r, 0,
+                        1 + rnd.nextInt(regionLength - readLength), readLength));
+            samples.add(sample);
+            readsBySample.put(sample, reads);
+        }
+
+        likelihoods = new ReadLikelihoods<>(new IndexedSampleList(samples), new IndexedAlleleList<>(haplotypes), readsBySample);
+        for ( int s = 0; s < sampleCount; s++ ) {
+            final ReadLikelihoods.Matrix<Haplotype> matrix = likelihoods.sampleMatrix(s);
+            for ( int a = 0; a < haplotypeCount; a++ )
+                for ( int r = 0; r < readsPerSample; r++ )
+                    matrix.set(a, r, -rnd.nextDouble() * 100);
+        }
+
+        // half of the haplotypes carry the alternative allele
+        alleleToHaplotypes = new LinkedHashMap<>(2);
+        alleleToHaplotypes.put(Allele.create("A", true), new ArrayList<>(haplotypes.subList(0, haplotypeCount / 2)));
+        alleleToHaplotypes.put(Allele.create("C", false), new ArrayList<>(haplotypes.subList(haplotypeCount / 2, haplotypeCount)));
+        variantLoc = genomeLocParser.createGenomeLoc(header.getSequence(0).getSequenceName(), regionLength / 2, regionLength / 2);
+    }
+
+    @Override
+    protected long cellsPerRep() {
+        return (long) sampleCount * readsPerSample * haplotypeCount;
+    }
+
+    public void timeMarginalize(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            likelihoods.marginalize(alleleToHaplotypes);
+    }
+
+    public void timeMarginalizeOverlapping(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            likelihoods.marginalize(alleleToHaplotypes, variantLoc);
+    }
+
+    public void timeNormalizeLikelihoods(int rep) {
+        // normalization is idempotent so repeating it on the same collection does the same amount of work every time
+        for ( int i = 0; i < rep; i++ )
+            likelihoods.normalizeLikelihoods(true, -10.0);
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(ReadLikelihoodsBenchmark.class, args);
+    }
+}
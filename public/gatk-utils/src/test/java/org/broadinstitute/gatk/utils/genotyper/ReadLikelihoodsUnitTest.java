@@ -0,0 +1,244 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.genotyper;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.variant.variantcontext.Allele;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Unit tests for {@link ReadLikelihoods}, in particular the per-sample flat likelihood storage.
+ */
+public class ReadLikelihoodsUnitTest extends BaseTest {
+
+    private static final Allele REF = Allele.create("A", true);
+    private static final Allele ALT_C = Allele.create("C", false);
+    private static final Allele ALT_G = Allele.create("G", false);
+    private static final Allele ALT_T = Allele.create("T", false);
+
+    private SAMFileHeader header;
+    private GenomeLocParser genomeLocParser;
+
+    @BeforeClass
+    public void setup() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 10000);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+    }
+
+    @DataProvider(name = "dimensions")
+    public Object[][] makeDimensions() {
+        return new Object[][] {
+                {new int[] {5}, 1},
+                {new int[] {5}, 3},
+                {new int[] {0, 7}, 2},
+                {new int[] {10, 1, 4}, 4},
+        };
+    }
+
+    // Creates a likelihood collection with reads starting every 10 bp and values distinct per sample, allele and read.
+    private ReadLikelihoods<Allele> createLikelihoods(final int[] readCounts, final int alleleCount) {
+        final Allele[] alleles = Arrays.copyOf(new Allele[] {REF, ALT_C, ALT_G, ALT_T}, alleleCount);
+        final List<String> samples = new ArrayList<>(readCounts.length);
+        final Map<String, List<GATKSAMRecord>> readsBySample = new LinkedHashMap<>(readCounts.length);
+        for (int s = 0; s < readCounts.length; s++) {
+            final String sample = "sample" + s;
+            samples.add(sample);
+            readsBySample.put(sample, createReads(sample, 0, readCounts[s]));
+        }
+        final ReadLikelihoods<Allele> result = new ReadLikelihoods<>(new IndexedSampleList(samples), new IndexedAlleleList<>(alleles), readsBySample);
+        for (int s = 0; s < readCounts.length; s++) {
+            final ReadLikelihoods.Matrix<Allele> matrix = result.sampleMatrix(s);
+            for (int a = 0; a < alleleCount; a++)
+                for (int r = 0; r < readCounts[s]; r++)
+                    matrix.set(a, r, testValue(s, a, r));
+        }
+        return result;
+    }
+
+    private List<GATKSAMRecord> createReads(final String prefix, final int first, final int count) {
+        final List<GATKSAMRecord> reads = new ArrayList<>(count);
+        for (int r = first; r < first + count; r++)
+            reads.add(ArtificialSAMUtils.createArtificialRead(header, prefix + "_read" + r, 0, 1 + r * 10, 10));
+        return reads;
+    }
+
+    private static double testValue(final int sampleIndex, final int alleleIndex, final int readIndex) {
+        return -(sampleIndex * 1000 + alleleIndex * 100 + readIndex + 1);
+    }
+
+    @Test(dataProvider = "dimensions")
+    public void testSetAndGet(final int[] readCounts, final int alleleCount) {
+        final ReadLikelihoods<Allele> likelihoods = createLikelihoods(readCounts, alleleCount);
+        for (int s = 0; s < readCounts.length; s++) {
+            final ReadLikelihoods.Matrix<Allele> matrix = likelihoods.sampleMatrix(s);
+            Assert.assertEquals(matrix.readCount(), readCounts[s]);
+            Assert.assertEquals(matrix.alleleCount(), alleleCount);
+            for (int a = 0; a < alleleCount; a++) {
+                final double[] row = new double[readCounts[s] + 1];
+                matrix.copyAlleleLikelihoods(a, row, 1);
+                for (int r = 0; r < readCounts[s]; r++) {
+                    Assert.assertEquals(matrix.get(a, r), testValue(s, a, r));
+                    Assert.assertEquals(row[r + 1], testValue(s, a, r));
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testGetBadReadIndex() {
+        createLikelihoods(new int[] {3}, 2).sampleMatrix(0).get(0, 3);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSetBadAlleleIndex() {
+        createLikelihoods(new int[] {3}, 2).sampleMatrix(0).set(2, 0, -1.0);
+    }
+
+    @Test(dataProvider = "dimensions")
+    public void testCloneIsIndependent(final int[] readCounts, final int alleleCount) {
+        final ReadLikelihoods<Allele> original = createLikelihoods(readCounts, alleleCount);
+        final ReadLikelihoods<Allele> clone = original.clone();
+        for (int s = 0; s < readCounts.length; s++)
+            for (int a = 0; a < alleleCount; a++)
+                for (int r = 0; r < readCounts[s]; r++) {
+                    Assert.assertEquals(clone.sampleMatrix(s).get(a, r), testValue(s, a, r));
+                    clone.sampleMatrix(s).set(a, r, 0.0);
+                    Assert.assertEquals(original.sampleMatrix(s).get(a, r), testValue(s, a, r));
+                }
+    }
+
+    @Test
+    public void testFilterThenAddReadsReusesCapacity() {
+        final ReadLikelihoods<Allele> likelihoods = createLikelihoods(new int[] {10}, 3);
+        // reads start every 10 bp and are 10 bp long, so this keeps reads 0 to 4.
+        likelihoods.filterToOnlyOverlappingUnclippedReads(genomeLocParser.createGenomeLoc(header.getSequence(0).getSequenceName(), 1, 45));
+        Assert.assertEquals(likelihoods.sampleReadCount(0), 5);
+        for (int a = 0; a < 3; a++)
+            for (int r = 0; r < 5; r++)
+                Assert.assertEquals(likelihoods.sampleMatrix(0).get(a, r), testValue(0, a, r));
+
+        // added reads must get the initial likelihood and not what was left behind by the removed reads.
+        likelihoods.addReads(Collections.singletonMap("sample0", createReads("extra", 0, 3)), -7.0);
+        Assert.assertEquals(likelihoods.sampleReadCount(0), 8);
+        for (int a = 0; a < 3; a++) {
+            for (int r = 0; r < 5; r++)
+                Assert.assertEquals(likelihoods.sampleMatrix(0).get(a, r), testValue(0, a, r));
+            for (int r = 5; r < 8; r++)
+                Assert.assertEquals(likelihoods.sampleMatrix(0).get(a, r), -7.0);
+        }
+
+        // going beyond the original capacity must preserve all existing values.
+        likelihoods.addReads(Collections.singletonMap("sample0", createReads("more", 0, 6)), 0.0);
+        Assert.assertEquals(likelihoods.sampleReadCount(0), 14);
+        for (int a = 0; a < 3; a++) {
+            for (int r = 0; r < 5; r++)
+                Assert.assertEquals(likelihoods.sampleMatrix(0).get(a, r), testValue(0, a, r));
+            for (int r = 5; r < 8; r++)
+                Assert.assertEquals(likelihoods.sampleMatrix(0).get(a, r), -7.0);
+            for (int r = 8; r < 14; r++)
+                Assert.assertEquals(likelihoods.sampleMatrix(0).get(a, r), 0.0);
+        }
+    }
+
+    @Test
+    public void testDropAndAddMissingAlleles() {
+        final ReadLikelihoods<Allele> likelihoods = createLikelihoods(new int[] {4, 2}, 4);
+        likelihoods.dropAlleles(new HashSet<>(Arrays.asList(ALT_C, ALT_G)));
+        Assert.assertEquals(likelihoods.alleles(), Arrays.asList(REF, ALT_T));
+        for (int s = 0; s < 2; s++)
+            for (int r = 0; r < likelihoods.sampleReadCount(s); r++) {
+                Assert.assertEquals(likelihoods.sampleMatrix(s).get(0, r), testValue(s, 0, r));
+                Assert.assertEquals(likelihoods.sampleMatrix(s).get(1, r), testValue(s, 3, r));
+            }
+
+        // the spare allele rows left by the dropped alleles must be reset to the default likelihood.
+        likelihoods.addMissingAlleles(Arrays.asList(ALT_G, ALT_C), -3.0);
+        Assert.assertEquals(likelihoods.alleleCount(), 4);
+        for (int s = 0; s < 2; s++)
+            for (int r = 0; r < likelihoods.sampleReadCount(s); r++) {
+                Assert.assertEquals(likelihoods.sampleMatrix(s).get(likelihoods.alleleIndex(REF), r), testValue(s, 0, r));
+                Assert.assertEquals(likelihoods.sampleMatrix(s).get(likelihoods.alleleIndex(ALT_T), r), testValue(s, 3, r));
+                Assert.assertEquals(likelihoods.sampleMatrix(s).get(likelihoods.alleleIndex(ALT_C), r), -3.0);
+                Assert.assertEquals(likelihoods.sampleMatrix(s).get(likelihoods.alleleIndex(ALT_G), r), -3.0);
+            }
+    }
+
+    @Test
+    public void testMarginalize() {
+        final ReadLikelihoods<Allele> likelihoods = createLikelihoods(new int[] {6, 3}, 4);
+        final Allele newRef = Allele.create("AA", true);
+        final Allele newAlt = Allele.create("CC", false);
+        final Map<Allele, List<Allele>> newToOld = new LinkedHashMap<>();
+        newToOld.put(newRef, Arrays.asList(REF, ALT_G));
+        newToOld.put(newAlt, Arrays.asList(ALT_C, ALT_T));
+
+        final ReadLikelihoods<Allele> marginal = likelihoods.marginalize(newToOld);
+        Assert.assertEquals(marginal.alleles(), Arrays.asList(newRef, newAlt));
+        for (int s = 0; s < 2; s++) {
+            Assert.assertEquals(marginal.sampleReads(s), likelihoods.sampleReads(s));
+            for (int r = 0; r < likelihoods.sampleReadCount(s); r++) {
+                Assert.assertEquals(marginal.sampleMatrix(s).get(0, r), Math.max(testValue(s, 0, r), testValue(s, 2, r)));
+                Assert.assertEquals(marginal.sampleMatrix(s).get(1, r), Math.max(testValue(s, 1, r), testValue(s, 3, r)));
+            }
+        }
+
+        // only reads 2 to 4 overlap positions 25 to 45.
+        final GenomeLoc overlap = genomeLocParser.createGenomeLoc(header.getSequence(0).getSequenceName(), 25, 45);
+        final ReadLikelihoods<Allele> overlapping = likelihoods.marginalize(newToOld, overlap);
+        for (int s = 0; s < 2; s++) {
+            final int first = 2;
+            final int expectedCount = Math.min(likelihoods.sampleReadCount(s), 5) - first;
+            Assert.assertEquals(overlapping.sampleReadCount(s), expectedCount);
+            for (int r = 0; r < expectedCount; r++) {
+                Assert.assertSame(overlapping.sampleReads(s).get(r), likelihoods.sampleReads(s).get(r + first));
+                Assert.assertEquals(overlapping.readIndex(s, likelihoods.sampleReads(s).get(r + first)), r);
+                Assert.assertEquals(overlapping.sampleMatrix(s).get(0, r), Math.max(testValue(s, 0, r + first), testValue(s, 2, r + first)));
+                Assert.assertEquals(overlapping.sampleMatrix(s).get(1, r), Math.max(testValue(s, 1, r + first), testValue(s, 3, r + first)));
+            }
+        }
+    }
+
+    @Test
+    public void testNormalizeAfterRemoval() {
+        final ReadLikelihoods<Allele> likelihoods = createLikelihoods(new int[] {8}, 3);
+        likelihoods.filterToOnlyOverlappingUnclippedReads(genomeLocParser.createGenomeLoc(header.getSequence(0).getSequenceName(), 31, 80));
+        Assert.assertEquals(likelihoods.sampleReadCount(0), 5);
+        likelihoods.normalizeLikelihoods(true, Double.NEGATIVE_INFINITY);
+        for (int r = 0; r < 5; r++)
+            for (int a = 0; a < 3; a++)
+                Assert.assertEquals(likelihoods.sampleMatrix(0).get(a, r), testValue(0, a, r + 3) - testValue(0, 0, r + 3));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.interval;
+
+import htsjdk.samtools.SAMFileHeader;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class IntervalIndexUnitTest extends BaseTest {
+    private static final int NUMBER_OF_CHROMOSOMES = 4;
+    private static final int CHROMOSOME_SIZE = 10000;
+
+    private GenomeLocParser genomeLocParser;
+
+    @BeforeClass
+    public void setup() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(NUMBER_OF_CHROMOSOMES, 1, CHROMOSOME_SIZE);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+    }
+
+    /**
+     * Random intervals on the middle contigs only, so that queries also hit empty contigs
+     */
+    private List<GenomeLoc> randomIntervals(final Random random, final int n, final int maxLength) {
+        final List<GenomeLoc> locs = new ArrayList<>(n);
+        for ( int i = 0; i < n; i++ ) {
+            final int contig = 1 + random.nextInt(NUMBER_OF_CHROMOSOMES - 2);
+            final int start = 1 + random.nextInt(CHROMOSOME_SIZE);
+            final int stop = Math.min(CHROMOSOME_SIZE, start + random.nextInt(maxLength));
+            locs.add(genomeLocParser.createGenomeLoc(genomeLocParser.getContigs().getSequence(contig).getSequenceName(), start, stop));
+        }
+        return locs;
+    }
+
+    private List<GenomeLoc> sortedAndMerged(final List<GenomeLoc> locs) {
+        final List<GenomeLoc> sorted = new ArrayList<>(locs);
+        Collections.sort(sorted);
+        return IntervalUtils.mergeIntervalLocations(sorted, IntervalMergingRule.OVERLAPPING_ONLY);
+    }
+
+    /**
+     * @return one BitSet of covered positions per contig
+     */
+    private BitSet[] coverage(final List<GenomeLoc> locs) {
+        final BitSet[] covered = new BitSet[NUMBER_OF_CHROMOSOMES];
+        for ( int i = 0; i < covered.length; i++ )
+            covered[i] = new BitSet();
+        for ( final GenomeLoc loc : locs )
+            covered[loc.getContigIndex()].set(loc.getStart(), loc.getStop() + 1);
+        return covered;
+    }
+
+    @DataProvider(name = "IntervalIndexData")
+    public Object[][] makeIntervalIndexData() {
+        final List<Object[]> tests = new LinkedList<>();
+        for ( final int n : Arrays.asList(0, 1, 2, 3, 7, 8, 9, 16, 17, 31, 100, 1000) )
+            for ( final int maxLength : Arrays.asList(1, 10, 500, CHROMOSOME_SIZE) )
+                tests.add(new Object[]{n, maxLength});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "IntervalIndexData")
+    public void testOverlapQueriesMatchFullSearch(final int n, final int maxLength) {
+        final Random random = Utils.getRandomGenerator();
+        final List<GenomeLoc> locs = randomIntervals(random, n, maxLength);
+        final IntervalIndex index = IntervalIndex.create(genomeLocParser, locs);
+        Assert.assertEquals(index.size(), n);
+
+        final List<GenomeLoc> sorted = new ArrayList<>(locs);
+        Collections.sort(sorted);
+        Assert.assertEquals(index.toGenomeLocs(), sorted);
+
+        for ( final GenomeLoc query : randomIntervals(new Random(n), 200, maxLength) ) {
+            final List<GenomeLoc> expected = new ArrayList<>();
+            for ( final GenomeLoc loc : sorted )
+                if ( loc.overlapsP(query) )
+                    expected.add(loc);
+
+            Assert.assertEquals(index.getOverlapping(query), expected, "Wrong overlaps for " + query);
+            Assert.assertEquals(index.countOverlapping(query.getContigIndex(), query.getStart(), query.getStop()), expected.size());
+            Assert.assertEquals(index.overlaps(query), ! expected.isEmpty());
+        }
+
+        // the first and last contigs never have intervals
+        Assert.assertFalse(index.overlaps(0, 1, CHROMOSOME_SIZE));
+        Assert.assertFalse(index.overlaps(NUMBER_OF_CHROMOSOMES - 1, 1, CHROMOSOME_SIZE));
+    }
+
+    @Test(dataProvider = "IntervalIndexData")
+    public void testMergeMatchesMergeIntervalLocations(final int n, final int maxLength) {
+        final List<GenomeLoc> locs = randomIntervals(Utils.getRandomGenerator(), n, maxLength);
+        final List<GenomeLoc> sorted = new ArrayList<>(locs);
+        Collections.sort(sorted);
+
+        final IntervalIndex index = IntervalIndex.create(genomeLocParser, locs);
+        for ( final IntervalMergingRule rule : Arrays.asList(IntervalMergingRule.ALL, IntervalMergingRule.OVERLAPPING_ONLY, null) )
+            Assert.assertEquals(index.merge(rule).toGenomeLocs(), IntervalUtils.mergeIntervalLocations(sorted, rule), "Wrong merge for rule " + rule);
+    }
+
+    @Test(dataProvider = "IntervalIndexData")
+    public void testSetOperations(final int n, final int maxLength) {
+        final Random random = Utils.getRandomGenerator();
+        final List<GenomeLoc> one = sortedAndMerged(randomIntervals(random, n, maxLength));
+        final List<GenomeLoc> two = sortedAndMerged(randomIntervals(random, n, maxLength));
+        final IntervalIndex indexOne = IntervalIndex.create(genomeLocParser, one);
+        final IntervalIndex indexTwo = IntervalIndex.create(genomeLocParser, two);
+
+        // union keeps every interval from both sides
+        final List<GenomeLoc> union = new ArrayList<>(one);
+        union.addAll(two);
+        Collections.sort(union);
+        Assert.assertEquals(indexOne.union(indexTwo).toGenomeLocs(), union);
+
+        // intersection gives the same pieces as intersecting the lists
+        final IntervalIndex intersection = indexOne.intersect(indexTwo);
+        if ( ! one.isEmpty() && ! two.isEmpty() && ! intersection.isEmpty() )
+            Assert.assertEquals(intersection.toGenomeLocs(), IntervalUtils.mergeListsBySetOperator(one, two, IntervalSetRule.INTERSECTION));
+        final BitSet[] expectedIntersection = coverage(one);
+        final BitSet[] coveredByTwo = coverage(two);
+        for ( int contig = 0; contig < NUMBER_OF_CHROMOSOMES; contig++ )
+            expectedIntersection[contig].and(coveredByTwo[contig]);
+        Assert.assertEquals(coverage(intersection.toGenomeLocs()), expectedIntersection);
+
+        // subtraction removes exactly the bases of the other side, and only cuts intervals, never joins them
+        final List<GenomeLoc> difference = indexOne.subtract(indexTwo).toGenomeLocs();
+        final BitSet[] expectedDifference = coverage(one);
+        for ( int contig = 0; contig < NUMBER_OF_CHROMOSOMES; contig++ )
+            expectedDifference[contig].andNot(coveredByTwo[contig]);
+        Assert.assertEquals(coverage(difference), expectedDifference);
+        for ( final GenomeLoc piece : difference ) {
+            int containing = 0;
+            for ( final GenomeLoc loc : one )
+                if ( loc.containsP(piece) )
+                    containing++;
+            Assert.assertEquals(containing, 1, "Piece " + piece + " isn't inside exactly one original interval");
+        }
+    }
+
+    @Test
+    public void testSubtractRegionsKeepsAbuttingIntervalsSeparate() {
+        final String contig = genomeLocParser.getContigs().getSequence(1).getSequenceName();
+        final GenomeLocSortedSet include = new GenomeLocSortedSet(genomeLocParser);
+        include.add(genomeLocParser.createGenomeLoc(contig, 1, 100));
+        include.add(genomeLocParser.createGenomeLoc(contig, 101, 200));
+        include.add(genomeLocParser.createGenomeLoc(contig, 301, 400));
+        final GenomeLocSortedSet exclude = new GenomeLocSortedSet(genomeLocParser);
+        exclude.add(genomeLocParser.createGenomeLoc(contig, 50, 60));
+        exclude.add(genomeLocParser.createGenomeLoc(contig, 190, 310));
+
+        final List<GenomeLoc> expected = Arrays.asList(
+                genomeLocParser.createGenomeLoc(contig, 1, 49),
+                genomeLocParser.createGenomeLoc(contig, 61, 100),
+                genomeLocParser.createGenomeLoc(contig, 101, 189),
+                genomeLocParser.createGenomeLoc(contig, 311, 400));
+        Assert.assertEquals(include.subtractRegions(exclude).toList(), expected);
+    }
+
+    @Test
+    public void testUnmappedCannotBeIndexed() {
+        final List<GenomeLoc> locs = Arrays.asList(genomeLocParser.createGenomeLoc(genomeLocParser.getContigs().getSequence(0).getSequenceName(), 1, 10), GenomeLoc.UNMAPPED);
+        Assert.assertTrue(IntervalIndex.canIndex(locs.subList(0, 1)));
+        Assert.assertFalse(IntervalIndex.canIndex(locs));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testIndexingUnmappedFails() {
+        IntervalIndex.create(genomeLocParser, Collections.singletonList(GenomeLoc.UNMAPPED));
+    }
+}
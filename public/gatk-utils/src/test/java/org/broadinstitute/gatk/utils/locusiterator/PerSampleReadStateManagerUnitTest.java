@@ -27,6 +27,8 @@ package org.broadinstitute.gatk.utils.locusiterator;
 
 import htsjdk.samtools.SAMRecord;
 import org.broadinstitute.gatk.utils.MathUtils;
+import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.downsampling.LevelingDownsampler;
 import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
@@ -185,4 +187,89 @@ public class PerSampleReadStateManagerUnitTest extends LocusIteratorByStateBaseT
 
         test.run();
     }
+
+    @DataProvider(name = "LevelingTestDataProvider")
+    public Object[][] makeLevelingTestDataProvider() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int downsamplingTarget : Arrays.asList(1, 5, 15, 50) ) {
+            tests.add(new Object[]{Arrays.asList(10, 3, 20, 1, 7, 0, 12), downsamplingTarget});
+            tests.add(new Object[]{Arrays.asList(1, 1, 1, 1, 1, 1, 1, 1), downsamplingTarget});
+            tests.add(new Object[]{Arrays.asList(100, 0, 0, 100), downsamplingTarget});
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Leveling the flat array of states in place must keep exactly the same states as leveling
+     * the states grouped by alignment start with the LevelingDownsampler
+     */
+    @Test(dataProvider = "LevelingTestDataProvider")
+    public void testLevelingMatchesLevelingDownsampler(final List<Integer> readCountsPerAlignmentStart, final int downsamplingTarget) {
+        final List<List<GATKSAMRecord>> stacks = new ArrayList<List<GATKSAMRecord>>();
+        int alignmentStart = 1;
+        for ( final int readsThisStack : readCountsPerAlignmentStart )
+            stacks.add(new ArrayList<GATKSAMRecord>(ArtificialSAMUtils.createStackOfIdenticalArtificialReads(readsThisStack, header, "foo", 0, alignmentStart++, 50)));
+
+        Utils.resetRandomGenerator();
+        final PerSampleReadStateManager manager = new PerSampleReadStateManager(new LIBSDownsamplingInfo(true, downsamplingTarget));
+        final List<List<SAMRecord>> observed = new ArrayList<List<SAMRecord>>();
+        for ( final List<GATKSAMRecord> stack : stacks ) {
+            manager.addStatesAtNextAlignmentStart(makeSteppedStates(stack));
+            final List<SAMRecord> reads = new ArrayList<SAMRecord>();
+            for ( final AlignmentStateMachine state : manager )
+                reads.add(state.getRead());
+            observed.add(reads);
+            manager.updateReadStates();
+        }
+
+        Utils.resetRandomGenerator();
+        LinkedList<AlignmentStateMachine> states = new LinkedList<AlignmentStateMachine>();
+        final List<List<SAMRecord>> expected = new ArrayList<List<SAMRecord>>();
+        for ( final List<GATKSAMRecord> stack : stacks ) {
+            states.addAll(makeSteppedStates(stack));
+            if ( ! stack.isEmpty() && states.size() > downsamplingTarget ) {
+                final LevelingDownsampler<LinkedList<AlignmentStateMachine>, AlignmentStateMachine> downsampler =
+                        new LevelingDownsampler<LinkedList<AlignmentStateMachine>, AlignmentStateMachine>(downsamplingTarget);
+                downsampler.submit(groupByGenomeOffset(states));
+                downsampler.signalEndOfInput();
+                states = new LinkedList<AlignmentStateMachine>();
+                for ( final List<AlignmentStateMachine> group : downsampler.consumeFinalizedItems() )
+                    states.addAll(group);
+            }
+
+            final List<SAMRecord> reads = new ArrayList<SAMRecord>();
+            for ( final AlignmentStateMachine state : states )
+                reads.add(state.getRead());
+            expected.add(reads);
+
+            final Iterator<AlignmentStateMachine> it = states.iterator();
+            while ( it.hasNext() )
+                if ( it.next().stepForwardOnGenome() == null )
+                    it.remove();
+        }
+
+        Assert.assertEquals(observed, expected);
+    }
+
+    private List<AlignmentStateMachine> makeSteppedStates(final List<GATKSAMRecord> reads) {
+        final List<AlignmentStateMachine> states = new ArrayList<AlignmentStateMachine>(reads.size());
+        for ( final GATKSAMRecord read : reads ) {
+            final AlignmentStateMachine state = new AlignmentStateMachine(read);
+            state.stepForwardOnGenome();
+            states.add(state);
+        }
+        return states;
+    }
+
+    private List<LinkedList<AlignmentStateMachine>> groupByGenomeOffset(final List<AlignmentStateMachine> states) {
+        final LinkedList<LinkedList<AlignmentStateMachine>> grouped = new LinkedList<LinkedList<AlignmentStateMachine>>();
+        for ( final AlignmentStateMachine state : states ) {
+            if ( grouped.isEmpty() || grouped.getLast().getFirst().getGenomeOffset() != state.getGenomeOffset() )
+                grouped.add(new LinkedList<AlignmentStateMachine>());
+            grouped.getLast().add(state);
+        }
+        return grouped;
+    }
 }
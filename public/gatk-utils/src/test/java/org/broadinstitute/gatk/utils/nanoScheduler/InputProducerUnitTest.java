@@ -91,4 +91,30 @@ public class InputProducerUnitTest extends BaseTest {
         Assert.assertTrue(ip.allInputsHaveBeenRead(), "InputProvider said that all inputs haven't been read, but I read them all");
         Assert.assertEquals(ip.getNumInputValues(), nElements, "Wrong number of total elements getNumInputValues");
     }
+
+    @Test(enabled = true, dataProvider = "InputProducerTest", timeOut = NanoSchedulerUnitTest.NANO_SCHEDULE_MAX_RUNTIME)
+    public void testInputProducerBatches(final int nElements, final int maxBatchSize) throws InterruptedException {
+        final List<Integer> elements = new ArrayList<Integer>(nElements);
+        for ( int i = 0; i < nElements; i++ ) elements.add(i);
+
+        final InputProducer<Integer> ip = new InputProducer<Integer>(elements.iterator());
+
+        int nRead = 0;
+        int expectedBatchID = 0;
+        InputProducer<Integer>.InputBatch batch;
+        while ( (batch = ip.nextBatch(maxBatchSize)) != null ) {
+            Assert.assertEquals(batch.getId(), expectedBatchID++, "Batch IDs should increment from 0");
+            Assert.assertEquals(batch.getFirstInputID(), nRead, "Batch should start at the first unread element");
+            Assert.assertTrue(batch.size() > 0 && batch.size() <= maxBatchSize, "Bad batch size " + batch.size());
+            if ( nRead + maxBatchSize <= nElements )
+                Assert.assertEquals(batch.size(), maxBatchSize, "All batches but the last should be full");
+            Assert.assertEquals(batch.getValues(), elements.subList(nRead, nRead + batch.size()));
+            nRead += batch.size();
+        }
+
+        Assert.assertEquals(nRead, nElements, "Not all elements were read in batches");
+        Assert.assertNull(ip.nextBatch(maxBatchSize), "Exhausted producer should keep returning null");
+        Assert.assertTrue(ip.allInputsHaveBeenRead(), "InputProvider said that all inputs haven't been read, but I read them all");
+        Assert.assertEquals(ip.getNumInputValues(), nElements, "Wrong number of total elements getNumInputValues");
+    }
 }
@@ -0,0 +1,113 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.nanoScheduler;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * UnitTests for the MapResultsRing
+ */
+public class MapResultsRingUnitTest extends BaseTest {
+    @Test
+    public void testCapacityIsRoundedUpToPowerOfTwo() {
+        Assert.assertEquals(new MapResultsRing<Integer>(1).getCapacity(), 1);
+        Assert.assertEquals(new MapResultsRing<Integer>(4).getCapacity(), 4);
+        Assert.assertEquals(new MapResultsRing<Integer>(5).getCapacity(), 8);
+        Assert.assertEquals(new MapResultsRing<Integer>(33).getCapacity(), 64);
+    }
+
+    @DataProvider(name = "MapResultsRingTest")
+    public Object[][] createMapResultsRingTest() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int capacity : Arrays.asList(1, 2, 8) ) {
+            for ( final int nBatches : Arrays.asList(0, 1, 10, 100) ) {
+                tests.add(new Object[]{capacity, nBatches});
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Put batches in a shuffled order, taking as much as possible whenever there's no room for the next one
+     */
+    @Test(dataProvider = "MapResultsRingTest")
+    public void testTakesInBatchOrder(final int capacity, final int nBatches) {
+        final MapResultsRing<Integer> ring = new MapResultsRing<Integer>(capacity);
+
+        // shuffle within windows the size of the ring, so every batch can be put once the earlier windows are taken
+        final List<Integer> order = new ArrayList<Integer>();
+        for ( int start = 0; start < nBatches; start += ring.getCapacity() ) {
+            final List<Integer> window = new ArrayList<Integer>();
+            for ( int i = start; i < Math.min(start + ring.getCapacity(), nBatches); i++ )
+                window.add(i);
+            Collections.shuffle(window, new Random(start));
+            order.addAll(window);
+        }
+
+        final List<Integer> taken = new ArrayList<Integer>();
+        for ( final int batchID : order ) {
+            while ( ! ring.hasCapacityFor(batchID) ) {
+                Assert.assertTrue(ring.nextValueIsAvailable(), "No room for batch " + batchID + " but nothing to take");
+                taken.addAll(ring.take());
+            }
+            ring.put(batchID, Arrays.asList(2 * batchID, 2 * batchID + 1));
+        }
+        while ( ring.nextValueIsAvailable() )
+            taken.addAll(ring.take());
+
+        Assert.assertEquals(taken.size(), 2 * nBatches);
+        for ( int i = 0; i < taken.size(); i++ )
+            Assert.assertEquals((int)taken.get(i), i, "Results taken out of order");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testPutWithoutCapacityFails() {
+        final MapResultsRing<Integer> ring = new MapResultsRing<Integer>(2);
+        ring.put(2, Collections.singletonList(1));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testDuplicatePutFails() {
+        final MapResultsRing<Integer> ring = new MapResultsRing<Integer>(2);
+        ring.put(1, Collections.singletonList(1));
+        ring.put(1, Collections.singletonList(1));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testTakeWhenNotAvailableFails() {
+        final MapResultsRing<Integer> ring = new MapResultsRing<Integer>(2);
+        ring.put(1, Collections.singletonList(1));
+        Assert.assertFalse(ring.nextValueIsAvailable());
+        ring.take();
+    }
+}
@@ -38,6 +38,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * UnitTests for the NanoScheduler
@@ -53,6 +55,11 @@ public class NanoSchedulerUnitTest extends BaseTest {
     public static final int NANO_SCHEDULE_MAX_RUNTIME = 30000;
     public static final int EXCEPTION_THROWING_TEST_TIMEOUT = 10000;
 
+    /**
+     * Pool shared by all of the tests using a shared executor, deliberately smaller than most of their nThreads
+     */
+    private static final ForkJoinPool sharedPool = new ForkJoinPool(3, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
     private static class Map2x implements NSMapFunction<Integer, Integer> {
         @Override public Integer apply(Integer input) { return input * 2; }
     }
@@ -87,11 +94,19 @@ public class NanoSchedulerUnitTest extends BaseTest {
 
     private static class ProgressCallback implements NSProgressFunction<Integer> {
         int callBacks = 0;
+        int batchCallBacks = 0;
 
         @Override
         public void progress(Integer lastMapInput) {
             callBacks++;
         }
+
+        @Override
+        public void batchProgress(int lastBatchSize, long totalStallTimeNanos) {
+            Assert.assertTrue(lastBatchSize > 0, "Bad batch size " + lastBatchSize);
+            Assert.assertTrue(totalStallTimeNanos >= 0, "Bad stall time " + totalStallTimeNanos);
+            batchCallBacks++;
+        }
     }
 
 
@@ -144,6 +159,17 @@ public class NanoSchedulerUnitTest extends BaseTest {
             nano.setDebug(debug);
             return nano;
         }
+
+        public NanoScheduler<Integer, Integer, Integer> makeScheduler(final ForkJoinPool sharedExecutor) {
+            final NanoScheduler <Integer, Integer, Integer> nano;
+            if ( bufferSize == -1 )
+                nano = new NanoScheduler<Integer, Integer, Integer>(nThreads, sharedExecutor);
+            else
+                nano = new NanoScheduler<Integer, Integer, Integer>(bufferSize, nThreads, sharedExecutor);
+
+            nano.setDebug(debug);
+            return nano;
+        }
     }
 
     static NanoSchedulerBasicTest exampleTest = null;
@@ -216,6 +242,124 @@ public class NanoSchedulerUnitTest extends BaseTest {
         nanoScheduler.shutdown();
     }
 
+    @Test(enabled = true && ! DEBUG, dataProvider = "NanoSchedulerBasicTest", dependsOnMethods = "testMultiThreadedNanoScheduler", timeOut = NANO_SCHEDULE_MAX_RUNTIME)
+    public void testAdaptiveBatchingNanoScheduler(final NanoSchedulerBasicTest test) throws InterruptedException {
+        logger.warn("Running " + test + " with adaptive batching");
+        final NanoScheduler<Integer, Integer, Integer> nanoScheduler = test.makeScheduler();
+        nanoScheduler.setAdaptiveBatching(true);
+        Assert.assertTrue(nanoScheduler.isAdaptiveBatching());
+
+        final ProgressCallback callback = new ProgressCallback();
+        nanoScheduler.setProgressFunction(callback);
+
+        // run twice, to check that the scheduler can be reused
+        for ( int i = 0; i < 2; i++ ) {
+            final Integer sum = nanoScheduler.execute(test.makeReader(), test.makeMap(), test.initReduce(), test.makeReduce());
+            Assert.assertNotNull(sum);
+            Assert.assertEquals((int)sum, test.expectedResult, "NanoScheduler sum not the same as calculated directly");
+        }
+
+        Assert.assertTrue(callback.callBacks >= test.nExpectedCallbacks(), "Not enough callbacks detected.  Expected at least " + test.nExpectedCallbacks() + " but saw only " + callback.callBacks);
+        if ( test.nThreads > 1 )
+            Assert.assertEquals(callback.batchCallBacks, callback.callBacks, "Every progress callback should come with a batch progress callback");
+        nanoScheduler.shutdown();
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testAdaptiveBatchSizer() {
+        final int maxBatchSize = 400;
+        final NanoScheduler.AdaptiveBatchSizer sizer = new NanoScheduler.AdaptiveBatchSizer(maxBatchSize);
+        Assert.assertEquals(sizer.nextBatchSize(), 1, "First batch should be a single input");
+        Assert.assertEquals(sizer.getMeanBatchSize(), 0.0);
+
+        // very cheap map => the largest batches we allow
+        sizer.update(1, 10);
+        Assert.assertEquals(sizer.nextBatchSize(), maxBatchSize);
+
+        // expensive map => batches shrink down to a single input
+        for ( int i = 0; i < 100; i++ )
+            sizer.update(10, 10 * NanoScheduler.TARGET_BATCH_NANOS);
+        Assert.assertEquals(sizer.nextBatchSize(), 1);
+
+        // in between => about TARGET_BATCH_NANOS worth of inputs per batch
+        final NanoScheduler.AdaptiveBatchSizer sizer2 = new NanoScheduler.AdaptiveBatchSizer(maxBatchSize);
+        sizer2.update(100, 100 * (NanoScheduler.TARGET_BATCH_NANOS / 50));
+        Assert.assertEquals(sizer2.nextBatchSize(), 50);
+
+        Assert.assertEquals(sizer.getNBatches(), 101);
+        Assert.assertEquals(sizer.getMeanBatchSize(), 1001 / 101.0, 1e-9);
+    }
+
+    @Test(enabled = true, expectedExceptions = NullPointerException.class, dataProvider = "NanoSchedulerInputExceptionTest", timeOut = EXCEPTION_THROWING_TEST_TIMEOUT, invocationCount = 1)
+    public void testInputRuntimeExceptionDoesntDeadlockWithAdaptiveBatching(final int nElementsBeforeError, final NanoSchedulerBasicTest test, final boolean addDelays ) throws InterruptedException {
+        logger.warn("executeTestErrorThrowingInput with adaptive batching " + nElementsBeforeError + " test=" + test + " addInputDelays=" + addDelays);
+        final NanoScheduler<Integer, Integer, Integer> nanoScheduler = test.makeScheduler();
+        nanoScheduler.setAdaptiveBatching(true);
+        nanoScheduler.execute(new ErrorThrowingIterator(nElementsBeforeError, new NullPointerException(), addDelays), test.makeMap(), test.initReduce(), test.makeReduce());
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "NanoSchedulerBasicTest", dependsOnMethods = "testMultiThreadedNanoScheduler", timeOut = NANO_SCHEDULE_MAX_RUNTIME)
+    public void testSharedExecutorNanoScheduler(final NanoSchedulerBasicTest test) throws InterruptedException {
+        for ( final boolean adaptiveBatching : Arrays.asList(false, true) ) {
+            logger.warn("Running " + test + " on a shared executor, adaptive batching " + adaptiveBatching);
+            final NanoScheduler<Integer, Integer, Integer> nanoScheduler = test.makeScheduler(sharedPool);
+            nanoScheduler.setAdaptiveBatching(adaptiveBatching);
+            Assert.assertEquals(nanoScheduler.isUsingSharedExecutor(), true);
+
+            final ProgressCallback callback = new ProgressCallback();
+            nanoScheduler.setProgressFunction(callback);
+
+            // run twice, to check that the scheduler can be reused
+            for ( int i = 0; i < 2; i++ ) {
+                final Integer sum = nanoScheduler.execute(test.makeReader(), test.makeMap(), test.initReduce(), test.makeReduce());
+                Assert.assertNotNull(sum);
+                Assert.assertEquals((int)sum, test.expectedResult, "NanoScheduler sum not the same as calculated directly");
+            }
+
+            Assert.assertTrue(callback.callBacks >= test.nExpectedCallbacks(), "Not enough callbacks detected.  Expected at least " + test.nExpectedCallbacks() + " but saw only " + callback.callBacks);
+            nanoScheduler.shutdown();
+            Assert.assertFalse(sharedPool.isShutdown(), "Shutting down a NanoScheduler shouldn't shut down its shared executor");
+        }
+    }
+
+    @Test(enabled = true && ! DEBUG, timeOut = NANO_SCHEDULE_MAX_RUNTIME)
+    public void testSharedExecutorWithBusyPool() throws InterruptedException {
+        // every thread of the pool is stuck on someone else's work, so the caller has to do everything itself
+        final ForkJoinPool busyPool = new ForkJoinPool(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        busyPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // just exit
+                }
+            }
+        });
+
+        try {
+            final NanoSchedulerBasicTest test = new NanoSchedulerBasicTest(10, 4, 0, 1000, false);
+            for ( final boolean adaptiveBatching : Arrays.asList(false, true) ) {
+                final NanoScheduler<Integer, Integer, Integer> nanoScheduler = test.makeScheduler(busyPool);
+                nanoScheduler.setAdaptiveBatching(adaptiveBatching);
+                final Integer sum = nanoScheduler.execute(test.makeReader(), test.makeMap(), test.initReduce(), test.makeReduce());
+                Assert.assertEquals((int)sum, test.expectedResult, "NanoScheduler sum not the same as calculated directly");
+                nanoScheduler.shutdown();
+            }
+        } finally {
+            release.countDown();
+            busyPool.shutdownNow();
+        }
+    }
+
+    @Test(enabled = true, expectedExceptions = NullPointerException.class, dataProvider = "NanoSchedulerInputExceptionTest", timeOut = EXCEPTION_THROWING_TEST_TIMEOUT, invocationCount = 1)
+    public void testInputRuntimeExceptionDoesntDeadlockWithSharedExecutor(final int nElementsBeforeError, final NanoSchedulerBasicTest test, final boolean addDelays ) throws InterruptedException {
+        logger.warn("executeTestErrorThrowingInput on a shared executor " + nElementsBeforeError + " test=" + test + " addInputDelays=" + addDelays);
+        final NanoScheduler<Integer, Integer, Integer> nanoScheduler = test.makeScheduler(sharedPool);
+        nanoScheduler.execute(new ErrorThrowingIterator(nElementsBeforeError, new NullPointerException(), addDelays), test.makeMap(), test.initReduce(), test.makeReduce());
+    }
+
     @Test(enabled = true && ! DEBUG, dataProvider = "NanoSchedulerBasicTest", dependsOnMethods = "testMultiThreadedNanoScheduler", timeOut = 2 * NANO_SCHEDULE_MAX_RUNTIME)
     public void testNanoSchedulerInLoop(final NanoSchedulerBasicTest test) throws InterruptedException {
         if ( test.bufferSize > 1) {
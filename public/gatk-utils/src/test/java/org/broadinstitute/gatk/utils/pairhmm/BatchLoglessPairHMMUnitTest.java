@@ -0,0 +1,146 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class BatchLoglessPairHMMUnitTest extends BaseTest {
+    private final static byte[] BASES = {'A', 'C', 'G', 'T'};
+    private final static double TOLERANCE = 1e-3;
+
+    private static byte[] randomBases(final Random rnd, final int length) {
+        final byte[] bases = new byte[length];
+        for (int i = 0; i < length; i++)
+            bases[i] = BASES[rnd.nextInt(BASES.length)];
+        return bases;
+    }
+
+    private static byte[] mutate(final Random rnd, final byte[] bases, final int mutations) {
+        final byte[] result = bases.clone();
+        for (int i = 0; i < mutations; i++)
+            result[rnd.nextInt(result.length)] = BASES[rnd.nextInt(BASES.length)];
+        return result;
+    }
+
+    private static byte[] quals(final int length, final int qual) {
+        final byte[] quals = new byte[length];
+        Arrays.fill(quals, (byte) qual);
+        return quals;
+    }
+
+    private static double log10Reference(final byte[] haplotype, final byte[] read, final byte[] readQuals) {
+        final Log10PairHMM hmm = new Log10PairHMM(true);
+        hmm.initialize(read.length, haplotype.length);
+        return hmm.computeReadLikelihoodGivenHaplotypeLog10(haplotype, read, readQuals, quals(read.length, 45),
+                quals(read.length, 45), quals(read.length, 10), true, null);
+    }
+
+    @DataProvider(name = "BatchData")
+    public Object[][] makeBatchData() {
+        final List<Object[]> tests = new ArrayList<>();
+        for (final int laneCount : Arrays.asList(1, 3, BatchLoglessPairHMM.DEFAULT_LANE_COUNT))
+            for (final int readCount : Arrays.asList(1, 5, 20))
+                for (final int haplotypeCount : Arrays.asList(1, 4))
+                    tests.add(new Object[]{laneCount, readCount, haplotypeCount});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "BatchData")
+    public void testBatchMatchesLog10PairHMM(final int laneCount, final int readCount, final int haplotypeCount) {
+        final Random rnd = new Random(laneCount * 1000 + readCount * 10 + haplotypeCount);
+        final byte[] reference = randomBases(rnd, 120);
+        final List<Haplotype> haplotypes = new ArrayList<>(haplotypeCount);
+        for (int h = 0; h < haplotypeCount; h++)
+            haplotypes.add(new Haplotype(h == 0 ? reference : mutate(rnd, Arrays.copyOf(reference, reference.length - 3 * h), 2), h == 0));
+
+        final BatchLoglessPairHMM hmm = new BatchLoglessPairHMM(laneCount);
+        final List<byte[]> reads = new ArrayList<>(readCount);
+        final List<byte[]> readQuals = new ArrayList<>(readCount);
+        for (int r = 0; r < readCount; r++) {
+            final int length = 10 + rnd.nextInt(90);
+            final int start = rnd.nextInt(reference.length - length);
+            final byte[] read = mutate(rnd, Arrays.copyOfRange(reference, start, start + length), rnd.nextInt(3));
+            final byte[] quals = quals(length, 20 + rnd.nextInt(20));
+            reads.add(read);
+            readQuals.add(quals);
+            hmm.batchAdd(haplotypes, read, quals, quals(length, 45), quals(length, 45), quals(length, 10));
+        }
+
+        final double[] result = hmm.batchGetResult();
+        Assert.assertEquals(result.length, readCount * haplotypeCount);
+        for (int r = 0, idx = 0; r < readCount; r++)
+            for (final Haplotype haplotype : haplotypes)
+                Assert.assertEquals(result[idx++], log10Reference(haplotype.getBases(), reads.get(r), readQuals.get(r)), TOLERANCE);
+
+        Assert.assertEquals(hmm.getPairsComputed(), readCount * haplotypeCount);
+        Assert.assertEquals(hmm.batchGetResult().length, 0, "results should be cleared after being retrieved");
+    }
+
+    @Test
+    public void testDoublePrecisionFallback() {
+        final int length = 150;
+        final byte[] haplotype = Utils.dupString('A', length).getBytes();
+        final byte[] read = Utils.dupString('C', length).getBytes();
+        final byte[] readQuals = quals(length, 40);
+
+        final BatchLoglessPairHMM hmm = new BatchLoglessPairHMM();
+        hmm.batchAdd(Arrays.asList(new Haplotype(haplotype, true)), read, readQuals, quals(length, 45), quals(length, 45), quals(length, 10));
+        final double[] result = hmm.batchGetResult();
+
+        Assert.assertEquals(hmm.getDoublePrecisionRecomputations(), 1);
+        Assert.assertEquals(result[0], log10Reference(haplotype, read, readQuals), TOLERANCE);
+    }
+
+    @Test
+    public void testSinglePairComputation() {
+        final Random rnd = new Random(13);
+        final byte[] haplotype = randomBases(rnd, 80);
+        final byte[] read = mutate(rnd, Arrays.copyOfRange(haplotype, 10, 60), 1);
+        final byte[] readQuals = quals(read.length, 30);
+
+        final BatchLoglessPairHMM hmm = new BatchLoglessPairHMM();
+        hmm.initialize(read.length, haplotype.length);
+        final double likelihood = hmm.computeReadLikelihoodGivenHaplotypeLog10(haplotype, read, readQuals,
+                quals(read.length, 45), quals(read.length, 45), quals(read.length, 10), true, null);
+        Assert.assertEquals(likelihood, log10Reference(haplotype, read, readQuals), TOLERANCE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMismatchedQualityLengths() {
+        new BatchLoglessPairHMM().batchAdd(Arrays.asList(new Haplotype("ACGT".getBytes(), true)), "ACG".getBytes(),
+                quals(2, 30), quals(3, 45), quals(3, 45), quals(3, 10));
+    }
+}
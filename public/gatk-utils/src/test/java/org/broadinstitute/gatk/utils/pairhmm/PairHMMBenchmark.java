@@ -0,0 +1,129 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import com.google.caliper.Param;
+import htsjdk.samtools.SAMFileHeader;
+import org.broadinstitute.gatk.utils.CellThroughputBenchmark;
+import org.broadinstitute.gatk.utils.genotyper.IndexedAlleleList;
+import org.broadinstitute.gatk.utils.genotyper.IndexedSampleList;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Caliper microbenchmark of PairHMM.computeLikelihoods on a synthetic active region
+ */
+public class PairHMMBenchmark extends CellThroughputBenchmark {
+
+    @Param({"Original", "BatchLogless"})
+    String version; // set automatically by framework
+
+    @Param({"100", "250"})
+    int readLength; // set automatically by framework
+
+    @Param({"4", "16"})
+    int haplotypeCount; // set automatically by framework
+
+    final int readCount = 100;
+    final int haplotypeLength = 400;
+
+    PairHMM hmm;
+    List<GATKSAMRecord> reads;
+    Map<GATKSAMRecord, byte[]> gcp;
+    ReadLikelihoods.Matrix<Haplotype> likelihoods;
+    long cells;
+
+    @Override protected void setUp() {
+        final Random rnd = new Random(17);
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000);
+        final byte[] reference = randomBases(rnd, haplotypeLength);
+
+        final List<Haplotype> haplotypes = new ArrayList<>(haplotypeCount);
+        haplotypes.add(new Haplotype(reference, true));
+        for ( int h = 1; h < haplotypeCount; h++ ) {
+            final byte[] bases = reference.clone();
+            bases[rnd.nextInt(bases.length)] = randomBases(rnd, 1)[0];
+            haplotypes.add(new Haplotype(bases, false));
+        }
+
+        reads = new ArrayList<>(readCount);
+        gcp = new HashMap<>(readCount);
+        for ( int r = 0; r < readCount; r++ ) {
+            final int start = rnd.nextInt(haplotypeLength - readLength);
+            final byte[] bases = Arrays.copyOfRange(haplotypes.get(rnd.nextInt(haplotypeCount)).getBases(), start, start + readLength);
+            final byte[] quals = new byte[readLength];
+            for ( int i = 0; i < readLength; i++ )
+                quals[i] = (byte) (20 + rnd.nextInt(20));
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + r, 0, start + 1, bases, quals, readLength + "M");
+            final byte[] readGCP = new byte[readLength];
+            Arrays.fill(readGCP, (byte) 10);
+            reads.add(read);
+            gcp.put(read, readGCP);
+        }
+
+        likelihoods = new ReadLikelihoods<>(new IndexedSampleList("sample"), new IndexedAlleleList<>(haplotypes),
+                Collections.singletonMap("sample", reads)).sampleMatrix(0);
+        cells = (long) readCount * readLength * haplotypeLength * haplotypeCount;
+
+        if ( version.equals("Original") )
+            hmm = new Log10PairHMM(false);
+        else if ( version.equals("BatchLogless") )
+            hmm = new BatchLoglessPairHMM();
+        else
+            throw new IllegalArgumentException("Unsupported implementation " + version);
+    }
+
+    private static byte[] randomBases(final Random rnd, final int length) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = "ACGT".getBytes()[rnd.nextInt(4)];
+        return bases;
+    }
+
+    @Override
+    protected long cellsPerRep() {
+        return cells;
+    }
+
+    public void timeComputeLikelihoods(int rep) {
+        for ( int i = 0; i < rep; i++ )
+            hmm.computeLikelihoods(likelihoods, reads, gcp);
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(PairHMMBenchmark.class, args);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.smithwaterman;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.sam.CigarUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that FastSWPairwiseAlignment produces exactly the same alignments as SWPairwiseAlignment
+ */
+public class FastSWPairwiseAlignmentUnitTest extends BaseTest {
+    private final static byte[] BASES = "ACGT".getBytes();
+
+    @DataProvider(name = "ParametersAndStrategies")
+    public Object[][] makeParametersAndStrategies() {
+        final List<Object[]> tests = new ArrayList<>();
+        for ( final Parameters parameters : Arrays.asList(SWParameterSet.ORIGINAL_DEFAULT.parameters, SWParameterSet.STANDARD_NGS.parameters, CigarUtils.NEW_SW_PARAMETERS) )
+            for ( final SWPairwiseAlignment.OVERHANG_STRATEGY strategy : SWPairwiseAlignment.OVERHANG_STRATEGY.values() )
+                tests.add(new Object[]{parameters, strategy});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "ParametersAndStrategies")
+    public void testMatchesSWPairwiseAlignment(final Parameters parameters, final SWPairwiseAlignment.OVERHANG_STRATEGY strategy) {
+        final Random rnd = new Random(parameters.w_match * 31 + strategy.ordinal());
+
+        for ( int trial = 0; trial < 200; trial++ ) {
+            final byte[] ref = randomBases(rnd, 1 + rnd.nextInt(150));
+            final byte[] alt = mutate(rnd, ref);
+            assertSameAlignment(ref, alt, parameters, strategy);
+            // and with the alternate only overlapping an end of the reference
+            assertSameAlignment(ref, Arrays.copyOfRange(alt, rnd.nextInt(alt.length), alt.length), parameters, strategy);
+            assertSameAlignment(Arrays.copyOfRange(ref, rnd.nextInt(ref.length), ref.length), alt, parameters, strategy);
+        }
+    }
+
+    @Test
+    public void testRepetitiveSequences() {
+        // lots of equally scoring alignments, so any difference in tie breaking would show
+        for ( final SWPairwiseAlignment.OVERHANG_STRATEGY strategy : SWPairwiseAlignment.OVERHANG_STRATEGY.values() ) {
+            assertSameAlignment("AAAAAAAAAAXAAAAAAAAAA".getBytes(), "AAAAAAAAAAYAAAAAAAAAA".getBytes(), SWParameterSet.ORIGINAL_DEFAULT.parameters, strategy);
+            assertSameAlignment("ACACACACACACGTGT".getBytes(), "ACACACGTGTGT".getBytes(), SWParameterSet.STANDARD_NGS.parameters, strategy);
+            assertSameAlignment("AAAAAAAA".getBytes(), "A".getBytes(), CigarUtils.NEW_SW_PARAMETERS, strategy);
+            assertSameAlignment("C".getBytes(), "CCCCCCCCCC".getBytes(), CigarUtils.NEW_SW_PARAMETERS, strategy);
+        }
+    }
+
+    @Test
+    public void testConstructorsAlign() {
+        final byte[] ref = "AAAGACTACTG".getBytes();
+        final byte[] alt = "AACGGACACTG".getBytes();
+        Assert.assertEquals(new FastSWPairwiseAlignment(ref, alt).getCigar(), new SWPairwiseAlignment(ref, alt).getCigar());
+
+        final SmithWaterman expected = new SWPairwiseAlignment(ref, alt, SWParameterSet.STANDARD_NGS, SWPairwiseAlignment.OVERHANG_STRATEGY.INDEL);
+        final SmithWaterman actual = new FastSWPairwiseAlignment(ref, alt, SWParameterSet.STANDARD_NGS, SWPairwiseAlignment.OVERHANG_STRATEGY.INDEL);
+        Assert.assertEquals(actual.getCigar(), expected.getCigar());
+        Assert.assertEquals(actual.getAlignmentStart2wrt1(), expected.getAlignmentStart2wrt1());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testEmptySequence() {
+        new FastSWPairwiseAlignment("ACGT".getBytes(), new byte[0]);
+    }
+
+    private static void assertSameAlignment(final byte[] ref, final byte[] alt, final Parameters parameters, final SWPairwiseAlignment.OVERHANG_STRATEGY strategy) {
+        final SWPairwiseAlignment expected = new SWPairwiseAlignment(ref, alt, parameters);
+        expected.overhang_strategy = strategy;
+        expected.align(ref, alt);
+        final SWPairwiseAlignment actual = new FastSWPairwiseAlignment(ref, alt, parameters);
+        actual.overhang_strategy = strategy;
+        actual.align(ref, alt);
+
+        final String context = new String(ref) + " vs " + new String(alt) + " with " + strategy;
+        Assert.assertEquals(actual.getCigar(), expected.getCigar(), context);
+        Assert.assertEquals(actual.getAlignmentStart2wrt1(), expected.getAlignmentStart2wrt1(), context);
+    }
+
+    private static byte[] randomBases(final Random rnd, final int length) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = BASES[rnd.nextInt(BASES.length)];
+        return bases;
+    }
+
+    /**
+     * @return a copy of bases with a few SNPs, insertions and deletions
+     */
+    private static byte[] mutate(final Random rnd, final byte[] bases) {
+        final StringBuilder mutated = new StringBuilder();
+        for ( final byte base : bases ) {
+            final int event = rnd.nextInt(40);
+            if ( event == 0 )
+                mutated.append((char) BASES[rnd.nextInt(BASES.length)]);
+            else if ( event == 1 )
+                mutated.append(new String(randomBases(rnd, 1 + rnd.nextInt(8)))).append((char) base);
+            else if ( event != 2 )
+                mutated.append((char) base);
+        }
+        if ( mutated.length() == 0 )
+            mutated.append('A');
+        return mutated.toString().getBytes();
+    }
+}
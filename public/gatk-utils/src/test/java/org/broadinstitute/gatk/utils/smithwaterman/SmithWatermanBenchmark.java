@@ -34,7 +34,7 @@ import org.broadinstitute.gatk.utils.Utils;
  */
 public class SmithWatermanBenchmark extends SimpleBenchmark {
 
-    @Param({"Original"})
+    @Param({"Original", "Fast"})
     String version; // set automatically by framework
 
     @Param({"10", "50", "100", "500"})
@@ -74,9 +74,12 @@ public class SmithWatermanBenchmark extends SimpleBenchmark {
     public void timeSW(int rep) {
         for ( int i = 0; i < rep; i++ ) {
             final SmithWaterman sw;
-            if ( version.equals("Greedy") )
+            if ( version.equals("Original") )
+                sw = new SWPairwiseAlignment(refString.getBytes(), hapString.getBytes());
+            else if ( version.equals("Fast") )
+                sw = new FastSWPairwiseAlignment(refString.getBytes(), hapString.getBytes());
+            else
                 throw new IllegalArgumentException("Unsupported implementation");
-            sw = new SWPairwiseAlignment(refString.getBytes(), hapString.getBytes());
             sw.getCigar();
         }
     }